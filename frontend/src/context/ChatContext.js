@@ -3,6 +3,7 @@ import { useAuth } from './AuthContext';
 import { API_URL } from '../services/config';
 import { makeApiCall } from '../utils/ApiUtils';
 import { useStabilizedContext } from '../hooks/useStabilizedContext';
+import { subscribeChat } from '../services/chatSocket';
 
 const ChatContext = createContext();
 
@@ -627,6 +628,53 @@ export const ChatProvider = ({ children }) => {
     1000 // 1-second debounce
   );
   
+  // Handle chat events pushed by the server; kept in a ref so the
+  // subscription always sees the latest state
+  const pushHandlerRef = useRef(null);
+  // Set when events arrived while auto refresh was paused
+  const missedWhilePausedRef = useRef(false);
+  pushHandlerRef.current = (event) => {
+    if (!event) return;
+
+    if (pauseAutoRefresh) {
+      // Catch up once auto refresh resumes
+      missedWhilePausedRef.current = true;
+      return;
+    }
+
+    if (event.type === 'unread') {
+      setUnreadCount(prev => Math.max(0, prev + event.delta));
+      return;
+    }
+
+    fetchConversations();
+
+    const otherUserId = event.message
+      ? (event.message.senderId === user.id ? event.message.receiverId : event.message.senderId)
+      : (event.senderId === user.id ? event.receiverId : event.senderId);
+    if (activeConversation && activeConversation.userId === otherUserId) {
+      fetchMessages(otherUserId);
+    }
+  };
+
+  // Reload what changed while paused; conversations carry the unread counts
+  useEffect(() => {
+    if (pauseAutoRefresh || !missedWhilePausedRef.current) return;
+
+    missedWhilePausedRef.current = false;
+    fetchConversations();
+    if (activeConversation) {
+      fetchMessages(activeConversation.userId);
+    }
+  }, [pauseAutoRefresh]);
+
+  // Subscribe to push events for this user
+  useEffect(() => {
+    if (!user) return;
+
+    return subscribeChat(`/user/${user.id}/topic/chat`, (event) => pushHandlerRef.current(event));
+  }, [user]);
+
   // Set up periodic refresh of conversations
   useEffect(() => {
     if (!user) return;
@@ -655,7 +703,7 @@ export const ChatProvider = ({ children }) => {
       if (activeConversation) {
         fetchMessages(activeConversation.userId);
       }
-    }, 3000); // Refresh every 3 seconds for more immediate updates
+    }, 30000); // Fallback refresh; new messages normally arrive as push events
     
     return () => {
       clearInterval(intervalId);
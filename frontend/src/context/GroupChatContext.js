@@ -1,7 +1,8 @@
-import React, { createContext, useContext, useState, useEffect } from 'react';
+import React, { createContext, useContext, useState, useEffect, useRef } from 'react';
 import { useAuth } from './AuthContext';
 import { API_URL } from '../services/config';
 import { makeApiCall } from '../utils/ApiUtils';
+import { subscribeChat } from '../services/chatSocket';
 
 const GroupChatContext = createContext();
 
@@ -487,6 +488,28 @@ export const GroupChatProvider = ({ children }) => {
     }
   }, [user]);
 
+  // Handle group events pushed by the server; kept in a ref so the
+  // subscriptions always see the latest state
+  const pushHandlerRef = useRef(null);
+  pushHandlerRef.current = (groupId) => {
+    fetchGroups();
+    if (activeGroup && activeGroup.id === groupId) {
+      fetchMessages(groupId);
+    }
+  };
+
+  // Subscribe to push events for every group the user belongs to
+  const groupIdsKey = groups.map(g => g.id).join(',');
+  useEffect(() => {
+    if (!user || !groupIdsKey) return;
+
+    const unsubscribers = groupIdsKey.split(',').map(id => {
+      const groupId = Number(id);
+      return subscribeChat(`/topic/chat/group/${groupId}`, () => pushHandlerRef.current(groupId));
+    });
+    return () => unsubscribers.forEach(unsubscribe => unsubscribe());
+  }, [user, groupIdsKey]);
+
   // Set up periodic refresh of groups and messages
   useEffect(() => {
     if (!user) return;
@@ -498,7 +521,7 @@ export const GroupChatProvider = ({ children }) => {
       if (activeGroup) {
         fetchMessages(activeGroup.id);
       }
-    }, 3000); // Refresh every 5 seconds
+    }, 30000); // Fallback refresh; new messages normally arrive as push events
     
     return () => clearInterval(intervalId);
   }, [user, activeGroup]);
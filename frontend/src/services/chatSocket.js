@@ -0,0 +1,86 @@
+import SockJS from 'sockjs-client';
+import Stomp from 'stompjs';
+import { API_URL } from './config';
+
+/**
+ * Shared STOMP connection for chat push events.
+ *
+ * Direct-chat events arrive on /user/{userId}/topic/chat and group events on
+ * /topic/chat/group/{groupId}. Subscriptions survive reconnects: they are
+ * re-registered every time the socket comes back.
+ *
+ * The connection is authenticated with the session token; the server only
+ * lets a user subscribe to their own direct-chat topic.
+ */
+
+const SOCKET_URL = API_URL.replace(/\/api$/, '') + '/websocket';
+const RECONNECT_DELAY_MS = 5000;
+
+let stompClient = null;
+let connected = false;
+let connecting = false;
+let nextId = 0;
+const subscriptions = new Map(); // id -> { destination, handler, stompSub }
+
+const attach = (entry) => {
+  entry.stompSub = stompClient.subscribe(entry.destination, (frame) => {
+    try {
+      entry.handler(JSON.parse(frame.body));
+    } catch (error) {
+      console.error('[ChatSocket] Failed to handle event:', error);
+    }
+  });
+};
+
+const connect = () => {
+  if (connected || connecting) return;
+  connecting = true;
+
+  const socket = new SockJS(SOCKET_URL);
+  const client = Stomp.over(socket);
+  client.debug = null;
+
+  const sessionId = sessionStorage.getItem('sessionId') || localStorage.getItem('sessionId');
+  const headers = sessionId ? { Authorization: `Bearer ${sessionId}` } : {};
+
+  client.connect(headers, () => {
+    stompClient = client;
+    connected = true;
+    connecting = false;
+    subscriptions.forEach(attach);
+  }, () => {
+    connected = false;
+    connecting = false;
+    stompClient = null;
+    if (subscriptions.size > 0) {
+      setTimeout(connect, RECONNECT_DELAY_MS);
+    }
+  });
+};
+
+/**
+ * Subscribes to a chat destination. Returns a function that unsubscribes.
+ */
+export const subscribeChat = (destination, handler) => {
+  const id = nextId++;
+  const entry = { destination, handler, stompSub: null };
+  subscriptions.set(id, entry);
+
+  if (connected) {
+    attach(entry);
+  } else {
+    connect();
+  }
+
+  return () => {
+    if (entry.stompSub) {
+      entry.stompSub.unsubscribe();
+    }
+    subscriptions.delete(id);
+    if (subscriptions.size === 0 && stompClient) {
+      stompClient.disconnect(() => {});
+      stompClient = null;
+      connected = false;
+    }
+  };
+};
@@ -1,25 +1,32 @@
 package com.mycompany.fstudymate;
 
+import com.mycompany.fstudymate.service.ChatEventPublisher;
 import dao.ChatDAO;
 import dao.ChatFileDAO;
 import dao.UserDAO;
 import model.ChatFile;
 import service.OpenAIService;
+import com.mycompany.fstudymate.util.SmbFileResponses;
+import util.ContentStore;
 import util.FileStorageService;
+import util.ImageThumbnails;
+import util.SmbFileCache;
+import jcifs.smb.SmbFile;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.sql.Timestamp;
 import java.util.logging.Logger;
 
 import java.util.HashMap;
@@ -32,6 +39,9 @@
 public class ChatController {
     private static final Logger logger = Logger.getLogger(ChatController.class.getName());
 
+    // Largest page the cursor-paged history endpoints return
+    private static final int MAX_PAGE_SIZE = 100;
+
     @Autowired
     private ChatDAO chatDAO;
     
@@ -40,6 +50,9 @@ public class ChatController {
     
     @Autowired
     private OpenAIService openAIService;
+    
+    @Autowired
+    private ChatEventPublisher chatEventPublisher;
 
     @PostMapping("/send")
     public ResponseEntity<Map<String, Object>> sendMessage(@RequestBody Map<String, Object> payload) {
@@ -58,6 +71,11 @@ public ResponseEntity<Map<String, Object>> sendMessage(@RequestBody Map<String,
             int messageId = chatDAO.sendMessage(senderId, receiverId, message);
             
             if (messageId > 0) {
+                Map<String, Object> created = chatDAO.getMessageById(messageId);
+                if (created != null) {
+                    chatEventPublisher.publishDirectMessage(created);
+                }
+                
                 return ResponseEntity.ok(Map.of(
                     "status", "success",
                     "message", "Message sent successfully",
@@ -93,6 +111,33 @@ public ResponseEntity<List<Map<String, Object>>> getMessages(
         }
     }
     
+    /**
+     * Cursor-paged direct message history. Pass the returned nextCursor as
+     * {@code before} to load the previous page.
+     */
+    @GetMapping("/messages/{user1Id}/{user2Id}/page")
+    public ResponseEntity<Map<String, Object>> getMessagePage(
+            @PathVariable int user1Id,
+            @PathVariable int user2Id,
+            @RequestParam(required = false) String before,
+            @RequestParam(defaultValue = "20") int limit) {
+        try {
+            checkPageLimit(limit);
+            Object[] cursor = decodeCursor(before);
+            List<Map<String, Object>> messages = chatDAO.getMessagesBetweenUsersBefore(
+                    user1Id, user2Id, (Timestamp) cursor[0], (int) cursor[1], limit);
+            return ResponseEntity.ok(pageResponse(messages, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "status", "error",
+                "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
     @GetMapping("/conversations/{userId}")
     public ResponseEntity<List<Map<String, Object>>> getConversations(@PathVariable int userId) {
         try {
@@ -122,9 +167,14 @@ public ResponseEntity<Map<String, Object>> deleteMessage(
             @PathVariable int messageId,
             @RequestParam int userId) {
         try {
+            Map<String, Object> existing = chatDAO.getMessageById(messageId);
             boolean success = chatDAO.deleteMessage(messageId, userId);
             
             if (success) {
+                if (existing != null) {
+                    chatEventPublisher.publishDirectDelete(existing);
+                }
+                
                 return ResponseEntity.ok(Map.of(
                     "status", "success",
                     "message", "Message deleted successfully"
@@ -291,6 +341,74 @@ public ResponseEntity<List<Map<String, Object>>> getGroupMessages(
         }
     }
     
+    /**
+     * Cursor-paged group message history. Pass the returned nextCursor as
+     * {@code before} to load the previous page.
+     */
+    @GetMapping("/groups/messages/{groupId}/page")
+    public ResponseEntity<Map<String, Object>> getGroupMessagePage(
+            @PathVariable int groupId,
+            @RequestParam(required = false) String before,
+            @RequestParam(defaultValue = "50") int limit) {
+        try {
+            checkPageLimit(limit);
+            Object[] cursor = decodeCursor(before);
+            List<Map<String, Object>> messages = chatDAO.getGroupMessagesBefore(
+                    groupId, (Timestamp) cursor[0], (int) cursor[1], limit);
+            return ResponseEntity.ok(pageResponse(messages, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "status", "error",
+                "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            logger.severe("Error getting group message page: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    private void checkPageLimit(int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+    }
+    
+    /**
+     * Parses a "createdAtMillis:id" page cursor. A missing cursor means the latest page.
+     */
+    private Object[] decodeCursor(String before) {
+        if (before == null || before.isEmpty()) {
+            return new Object[] {null, 0};
+        }
+        String[] parts = before.split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid cursor: " + before);
+        }
+        try {
+            return new Object[] {new Timestamp(Long.parseLong(parts[0])), Integer.parseInt(parts[1])};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + before);
+        }
+    }
+    
+    /**
+     * Wraps a chronological page with the cursor of its oldest message.
+     */
+    private Map<String, Object> pageResponse(List<Map<String, Object>> messages, int limit) {
+        Map<String, Object> response = new HashMap<>();
+        boolean hasMore = !messages.isEmpty() && messages.size() >= limit;
+        String nextCursor = null;
+        if (hasMore) {
+            Map<String, Object> oldest = messages.get(0);
+            nextCursor = ((Timestamp) oldest.get("createdAt")).getTime() + ":" + oldest.get("id");
+        }
+        response.put("messages", messages);
+        response.put("hasMore", hasMore);
+        response.put("nextCursor", nextCursor);
+        return response;
+    }
+    
     @PostMapping("/groups/send")
     public ResponseEntity<Map<String, Object>> sendGroupMessage(@RequestBody Map<String, Object> payload) {
         try {
@@ -308,6 +426,11 @@ public ResponseEntity<Map<String, Object>> sendGroupMessage(@RequestBody Map<Str
             int messageId = chatDAO.sendGroupMessage(groupId, senderId, message);
             
             if (messageId > 0) {
+                Map<String, Object> created = chatDAO.getGroupMessageById(messageId);
+                if (created != null) {
+                    chatEventPublisher.publishGroupMessage(created);
+                }
+                
                 return ResponseEntity.ok(Map.of(
                     "status", "success",
                     "message", "Message sent successfully",
@@ -375,7 +498,7 @@ public ResponseEntity<Map<String, Object>> uploadFile(
             
             // Upload file to SMB server
             boolean isGroupChat = "group".equals(messageType);
-            String filePath = FileStorageService.uploadChatFile(
+            ContentStore.StoredContent stored = FileStorageService.uploadChatFile(
                 file.getInputStream(),
                 file.getOriginalFilename(),
                 file.getContentType(),
@@ -386,13 +509,18 @@ public ResponseEntity<Map<String, Object>> uploadFile(
             // Save file info to database
             ChatFile chatFile = new ChatFile(
                 file.getOriginalFilename(),
-                filePath,
+                stored.getPath(),
                 file.getSize(),
                 file.getContentType(),
                 userId
             );
+            chatFile.setContentHash(stored.getSha256());
             
             int fileId = chatFileDAO.saveFile(chatFile);
+            if (fileId <= 0) {
+                // The record holding the reference was not saved
+                ContentStore.release(stored.getSha256());
+            }
             
             if (fileId > 0) {
                 // Link file to message
@@ -407,6 +535,18 @@ public ResponseEntity<Map<String, Object>> uploadFile(
                     fileInfo.put("isViewable", chatFile.isViewable());
                     fileInfo.put("category", chatFile.getFileCategory());
                     
+                    // The message itself was published before its files were attached
+                    Map<String, Object> message = isGroupChat
+                        ? chatDAO.getGroupMessageById(messageId)
+                        : chatDAO.getMessageById(messageId);
+                    if (message != null) {
+                        if (isGroupChat) {
+                            chatEventPublisher.publishGroupAttachment(message, fileInfo);
+                        } else {
+                            chatEventPublisher.publishDirectAttachment(message, fileInfo);
+                        }
+                    }
+                    
                     return ResponseEntity.ok(Map.of(
                         "status", "success",
                         "message", "File uploaded successfully",
@@ -452,7 +592,7 @@ public ResponseEntity<List<Map<String, Object>>> getMessageFiles(
      * Download a file
      */
     @GetMapping("/files/download/{fileId}")
-    public ResponseEntity<?> downloadFile(@PathVariable int fileId) {
+    public ResponseEntity<?> downloadFile(@PathVariable int fileId, HttpServletRequest request) {
         try {
             ChatFile chatFile = chatFileDAO.getFileById(fileId);
             
@@ -460,29 +600,19 @@ public ResponseEntity<?> downloadFile(@PathVariable int fileId) {
                 return ResponseEntity.notFound().build();
             }
             
-            File file = FileStorageService.downloadFile(chatFile.getFilePath());
-            Path path = Paths.get(file.getAbsolutePath());
-            Resource resource = new UrlResource(path.toUri());
+            SmbFile smbFile = FileStorageService.openFile(chatFile.getFilePath());
             
-            if (resource.exists() && resource.isReadable()) {
-                HttpHeaders headers = new HttpHeaders();
-                
-                // Handle Unicode characters in filenames using RFC 5987 encoding
-                String encodedFilename = encodeFilename(chatFile.getFileName());
-                headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + encodedFilename);
-                
-                return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentLength(file.length())
-                    .contentType(MediaType.parseMediaType(chatFile.getFileType()))
-                    .body(resource);
-            } else {
-                return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "message", "File could not be read"
-                ));
-            }
+            // Handle Unicode characters in filenames using RFC 5987 encoding
+            String encodedFilename = encodeFilename(chatFile.getFileName());
             
+            // Streams from SMB with Range/ETag support so media can seek and revalidate cheaply
+            return SmbFileResponses.serve(smbFile, request,
+                MediaType.parseMediaType(chatFile.getFileType()),
+                "attachment; filename*=UTF-8''" + encodedFilename);
+            
+        } catch (FileNotFoundException e) {
+            logger.warning("Chat file missing from storage: " + e.getMessage());
+            return ResponseEntity.notFound().build();
         } catch (Exception e) {
             logger.severe("Error downloading file: " + e.getMessage());
             e.printStackTrace();
@@ -562,9 +692,14 @@ public ResponseEntity<Map<String, Object>> unsendMessage(
             // First, get the files associated with this message so we can delete them physically
             List<Map<String, Object>> messageFiles = chatFileDAO.getMessageFiles(messageId, "direct");
             
+            Map<String, Object> existing = chatDAO.getMessageById(messageId);
             boolean success = chatDAO.unsendMessage(messageId, userId);
             
             if (success) {
+                if (existing != null) {
+                    chatEventPublisher.publishDirectUnsend(existing);
+                }
+                
                 logger.info("Message unsent successfully. Now handling attached files.");
                 
                 // Process each file for physical deletion
@@ -618,9 +753,14 @@ public ResponseEntity<Map<String, Object>> unsendGroupMessage(
             // First, get the files associated with this message so we can delete them physically
             List<Map<String, Object>> messageFiles = chatFileDAO.getMessageFiles(messageId, "group");
             
+            Map<String, Object> existing = chatDAO.getGroupMessageById(messageId);
             boolean success = chatDAO.unsendGroupMessage(messageId, userId);
             
             if (success) {
+                if (existing != null) {
+                    chatEventPublisher.publishGroupUnsend((int) existing.get("groupId"), messageId);
+                }
+                
                 logger.info("Group message unsent successfully. Now handling attached files.");
                 
                 // Process each file for physical deletion
@@ -911,10 +1051,11 @@ public ResponseEntity<Map<String, Object>> removeGroupImage(
     }
     
     /**
-     * Get a group image
+     * Get a group image; {@code w} selects a downscaled variant
      */
     @GetMapping("/groups/image/{groupId}")
-    public ResponseEntity<?> getGroupImage(@PathVariable int groupId) {
+    public ResponseEntity<?> getGroupImage(@PathVariable int groupId,
+                                           @RequestParam(required = false) Integer w) {
         try {
             // Get the group details first to get the image path
             List<Map<String, Object>> groupMembers = chatDAO.getGroupMembers(groupId);
@@ -930,28 +1071,44 @@ public ResponseEntity<?> getGroupImage(@PathVariable int groupId) {
                 return ResponseEntity.notFound().build();
             }
             
-            // Check if the file exists in the Samba storage
-            if (!FileStorageService.fileExists(imagePath)) {
+            // Open the file in the Samba storage; a missing file is a 404
+            SmbFile smbFile;
+            try {
+                smbFile = FileStorageService.openFile(imagePath);
+            } catch (FileNotFoundException e) {
                 return ResponseEntity.notFound().build();
             }
             
-            // Download the file from Samba and serve it
-            File file = FileStorageService.downloadFile(imagePath);
-            Path path = Paths.get(file.getAbsolutePath());
-            Resource resource = new UrlResource(path.toUri());
-            
             String contentType = determineContentType(imagePath);
             
             // Get filename from the path
-            String filename = path.getFileName().toString();
+            String filename = imagePath.substring(imagePath.lastIndexOf('/') + 1);
             
             // Encode the filename for Content-Disposition header
             String encodedFilename = encodeFilename(filename);
             
+            // Small renderings get a downscaled variant made from the cached copy
+            if (ImageThumbnails.variantWidth(w) > 0 && ImageThumbnails.isScalable(filename)
+                    && SmbFileCache.isCacheable(smbFile.length())) {
+                File original = SmbFileCache.getFile(smbFile);
+                File variant = ImageThumbnails.getVariant(imagePath,
+                        smbFile.lastModified() + "-" + smbFile.length(), original, w);
+                if (variant != original) {
+                    return ResponseEntity.ok()
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename*=UTF-8''" + encodedFilename)
+                        .contentLength(variant.length())
+                        .contentType(MediaType.parseMediaType(determineContentType(variant.getName())))
+                        .body(new FileSystemResource(variant));
+                }
+            }
+            
+            StreamingResponseBody body = out -> FileStorageService.streamFile(smbFile, out);
+            
             return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename*=UTF-8''" + encodedFilename)
+                .contentLength(smbFile.length())
                 .contentType(MediaType.parseMediaType(contentType))
-                .body(resource);
+                .body(body);
             
         } catch (Exception e) {
             e.printStackTrace();
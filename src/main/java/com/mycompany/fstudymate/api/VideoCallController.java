@@ -6,6 +6,7 @@
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -16,6 +17,8 @@
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.mycompany.fstudymate.service.PresenceRegistry;
+
 @RestController
 @RequestMapping("/api/video-call")
 @CrossOrigin(
@@ -37,8 +40,9 @@ public class VideoCallController {
     // Store for pending calls
     private final Map<String, Map<String, Object>> pendingCalls = new ConcurrentHashMap<>();
     
-    // Store for active users and their last polling time (for better localhost detection)
-    private final Map<String, Long> activeUsers = new ConcurrentHashMap<>();
+    // Last polling time of each user (for better localhost detection), shared with the activity heartbeats
+    @Autowired
+    private PresenceRegistry presenceRegistry;
     
     @PostMapping("/signal")
     public ResponseEntity<Map<String, Object>> signal(
@@ -93,7 +97,7 @@ public ResponseEntity<Map<String, Object>> signal(
         }
         
         // Mark sender as active
-        activeUsers.put(senderId, System.currentTimeMillis());
+        presenceRegistry.touchUser(senderId);
         
         // Store signal data keyed by receiver ID
         if (!signalStore.containsKey(receiverId)) {
@@ -156,7 +160,7 @@ public ResponseEntity<Map<String, Object>> getSignal(
         String fromUserId = String.valueOf(payload.get("fromUserId"));
         
         // Update active status for user
-        activeUsers.put(userId, System.currentTimeMillis());
+        presenceRegistry.touchUser(userId);
         
         logger.info(String.format("[CALL-FLOW] Checking for signals for user %s from user %s", userId, fromUserId));
         
@@ -228,7 +232,7 @@ public ResponseEntity<Map<String, Object>> checkCalls(
         String userId = String.valueOf(payload.get("userId"));
         
         // Update active status for user
-        activeUsers.put(userId, System.currentTimeMillis());
+        presenceRegistry.touchUser(userId);
         
         logger.info(String.format("[CALL-FLOW] Checking for pending calls for user %s", userId));
         
@@ -309,20 +313,13 @@ public ResponseEntity<Map<String, Object>> getActiveUsers() {
         Map<String, Object> users = new HashMap<>();
         
         long now = System.currentTimeMillis();
-        for (Map.Entry<String, Long> entry : activeUsers.entrySet()) {
-            String userId = entry.getKey();
+        // Active in last minute; older entries are expired by the registry
+        for (Map.Entry<String, Long> entry : presenceRegistry.getOnlineUsers(60000).entrySet()) {
             long lastActive = entry.getValue();
-            long activeAge = now - lastActive;
-            
-            if (activeAge <= 60000) { // active in last minute
-                users.put(userId, Map.of(
-                    "lastActive", lastActive,
-                    "age", activeAge
-                ));
-            } else {
-                // Clean up old entries
-                activeUsers.remove(userId);
-            }
+            users.put(entry.getKey(), Map.of(
+                "lastActive", lastActive,
+                "age", Math.max(0, now - lastActive)
+            ));
         }
         
         response.put("activeUsers", users);
@@ -0,0 +1,97 @@
+package com.mycompany.fstudymate.config;
+
+import java.security.Principal;
+import java.util.logging.Logger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import com.mycompany.fstudymate.service.ChatEventPublisher;
+import com.mycompany.fstudymate.service.UserActivityService;
+
+/**
+ * Authenticates STOMP connections with the session token and keeps users
+ * off each other's direct-chat topic.
+ *
+ * A CONNECT carrying {@code Authorization: Bearer <sessionToken>} of a
+ * valid session gets the session's user ID as its principal. A SUBSCRIBE
+ * to {@code /user/{userId}/topic/chat} is refused unless the connection is
+ * authenticated as that user.
+ */
+@Component
+public class StompAuthInterceptor implements ChannelInterceptor {
+    private static final Logger logger = Logger.getLogger(StompAuthInterceptor.class.getName());
+
+    private static final String USER_PREFIX = "/user/";
+
+    @Autowired
+    private UserActivityService userActivityService;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null) {
+            return message;
+        }
+
+        if (StompCommand.CONNECT.equals(accessor.getCommand())) {
+            Integer userId = userActivityService.getSessionUserId(sessionToken(accessor.getFirstNativeHeader("Authorization")));
+            if (userId != null) {
+                accessor.setUser(new SessionUser(userId));
+            }
+        } else if (StompCommand.SUBSCRIBE.equals(accessor.getCommand())) {
+            String owner = directChatOwner(accessor.getDestination());
+            Principal user = accessor.getUser();
+            if (owner != null && (user == null || !owner.equals(user.getName()))) {
+                logger.warning("Refused subscription to " + accessor.getDestination()
+                        + " by " + (user != null ? "user " + user.getName() : "an unauthenticated connection"));
+                throw new MessageDeliveryException(message, "Not allowed to subscribe to " + accessor.getDestination());
+            }
+        }
+        return message;
+    }
+
+    private static String sessionToken(String authorization) {
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            return authorization.substring(7);
+        }
+        return null;
+    }
+
+    /**
+     * The user whose direct-chat topic a destination is, or null for any other destination
+     */
+    static String directChatOwner(String destination) {
+        if (destination == null || !destination.startsWith(USER_PREFIX)) {
+            return null;
+        }
+        int slash = destination.indexOf('/', USER_PREFIX.length());
+        if (slash < 0 || !destination.substring(slash).equals(ChatEventPublisher.USER_CHAT_TOPIC)) {
+            return null;
+        }
+        return destination.substring(USER_PREFIX.length(), slash);
+    }
+
+    /**
+     * Principal of a connection authenticated by session token; named by user ID
+     */
+    private static final class SessionUser implements Principal {
+        private final String name;
+
+        SessionUser(int userId) {
+            this.name = String.valueOf(userId);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
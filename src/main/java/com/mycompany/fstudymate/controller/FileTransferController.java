@@ -1,13 +1,20 @@
 package com.mycompany.fstudymate.controller;
 
+import com.mycompany.fstudymate.model.User;
+import com.mycompany.fstudymate.service.ChunkedUploadService;
+import com.mycompany.fstudymate.service.LearningMaterialService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -26,6 +33,12 @@ public class FileTransferController {
     // SMB path for file operations
     private static final String SMB_BASE_PATH = "smb://fileserver/share/";
 
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private LearningMaterialService materialService;
+
     /**
      * Upload a file using standard method
      * 
@@ -166,6 +179,116 @@ public ResponseEntity<?> uploadFileHighPerformance(@RequestParam("file") Multipa
         }
     }
     
+    /**
+     * Open a resumable chunked upload session
+     * 
+     * Body: fileName, fileSize, optional chunkSize and contentType, and either
+     * targetPath (raw SMB path) or subjectCode with optional path/description
+     * (register as a learning material on completion)
+     * 
+     * @return session status including the chunk size to use
+     */
+    @PostMapping("/sessions")
+    public ResponseEntity<?> createUploadSession(@RequestBody Map<String, Object> request,
+                                                 @AuthenticationPrincipal User user) {
+        try {
+            String fileName = (String) request.get("fileName");
+            long fileSize = request.get("fileSize") != null ? ((Number) request.get("fileSize")).longValue() : 0;
+            Integer chunkSize = request.get("chunkSize") != null ? ((Number) request.get("chunkSize")).intValue() : null;
+            String contentType = (String) request.get("contentType");
+            
+            ChunkedUploadService.UploadSession session;
+            if (request.get("subjectCode") != null) {
+                // Same development fallback as LearningMaterialController
+                if (user == null) {
+                    user = materialService.getDefaultAdminUser();
+                    if (user == null) {
+                        return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                                .body(Map.of("error", "User not authenticated and no default user available"));
+                    }
+                }
+                session = chunkedUploadService.createMaterialSession(fileName, fileSize, chunkSize, contentType,
+                        String.valueOf(request.get("subjectCode")), (String) request.get("path"),
+                        (String) request.get("description"), user.getId());
+            } else {
+                session = chunkedUploadService.createSession(fileName, fileSize, chunkSize, contentType,
+                        (String) request.get("targetPath"));
+            }
+            
+            return ResponseEntity.status(HttpStatus.CREATED).body(session.toMap());
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error creating upload session: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Get the status of an upload session; clients resume by sending missingChunks
+     */
+    @GetMapping("/sessions/{uploadId}")
+    public ResponseEntity<?> getUploadSession(@PathVariable String uploadId) {
+        ChunkedUploadService.UploadSession session = chunkedUploadService.getSession(uploadId);
+        if (session == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(session.toMap());
+    }
+    
+    /**
+     * Upload one chunk as the raw request body, with its SHA-256 (hex) in X-Chunk-Sha256.
+     * Chunks may arrive in any order and in parallel.
+     */
+    @PutMapping(value = "/sessions/{uploadId}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadChunk(@PathVariable String uploadId,
+                                         @PathVariable int index,
+                                         @RequestHeader(value = "X-Chunk-Sha256", required = false) String checksum,
+                                         InputStream body) {
+        try {
+            ChunkedUploadService.UploadSession session = chunkedUploadService.putChunk(uploadId, index, body, checksum);
+            return ResponseEntity.ok(session.toMap());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (ChunkedUploadService.UploadBusyException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error uploading chunk: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Finish an upload once every chunk has been received
+     */
+    @PostMapping("/sessions/{uploadId}/complete")
+    public ResponseEntity<?> completeUploadSession(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(chunkedUploadService.complete(uploadId));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error completing upload: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Cancel an upload and discard what was received
+     */
+    @DeleteMapping("/sessions/{uploadId}")
+    public ResponseEntity<?> abortUploadSession(@PathVariable String uploadId) {
+        if (!chunkedUploadService.abort(uploadId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("status", "success", "message", "Upload cancelled"));
+    }
+    
     /**
      * Download a file using standard method
      * 
@@ -366,6 +489,16 @@ public ResponseEntity<Map<String, Object>> comparePerformance(
         }
     }
 
+    /**
+     * Aggregate transfer metrics: throughput, in-flight transfers and executor queue depth
+     * 
+     * @return current transfer metrics
+     */
+    @GetMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> getTransferMetrics() {
+        return ResponseEntity.ok(HighPerformanceFileTransfer.getMetrics());
+    }
+
     @GetMapping("/benchmark")
     public ResponseEntity<?> benchmarkTransfers(@RequestParam("path") String filePath, 
                                               @RequestParam(value = "iterations", defaultValue = "3") int iterations) {
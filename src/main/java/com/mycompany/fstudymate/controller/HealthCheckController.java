@@ -1,5 +1,6 @@
 package com.mycompany.fstudymate.controller;
 
+import connection.ConnectionPool;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -7,6 +8,8 @@
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import util.CIFSContextUtil;
+import util.SmbFileCache;
 
 import javax.sql.DataSource;
 import java.util.HashMap;
@@ -41,4 +44,19 @@ public ResponseEntity<?> checkHealth() {
         
         return ResponseEntity.ok(response);
     }
-} 
\ No newline at end of file
+    
+    @GetMapping("/db-pool")
+    public ResponseEntity<?> getDbPoolStats() {
+        return ResponseEntity.ok(ConnectionPool.getPoolStats());
+    }
+    
+    @GetMapping("/smb-cache")
+    public ResponseEntity<?> getSmbCacheStats() {
+        return ResponseEntity.ok(SmbFileCache.getStats());
+    }
+    
+    @GetMapping("/smb-pool")
+    public ResponseEntity<?> getSmbPoolStats() {
+        return ResponseEntity.ok(CIFSContextUtil.getPoolStats());
+    }
+}
@@ -5,10 +5,9 @@
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
@@ -16,6 +15,7 @@
 import java.util.logging.Logger;
 
 import util.FileStorageService;
+import util.ImageThumbnails;
 
 @RestController
 @RequestMapping("/api/images")
@@ -26,10 +26,11 @@ public class ImageController {
     private static final List<String> IMAGE_EXTENSIONS = Arrays.asList(".png", ".jpg", ".jpeg", ".gif", ".webp", ".ico");
 
     /**
-     * Direct image serving endpoint
+     * Direct image serving endpoint; {@code w} selects a downscaled variant
      */
     @GetMapping("/direct")
-    public ResponseEntity<?> serveImageDirect(@RequestParam String path) {
+    public ResponseEntity<?> serveImageDirect(@RequestParam String path,
+                                              @RequestParam(required = false) Integer w) {
         try {
             System.out.println("DEBUG: Direct image request for path: " + path);
             
@@ -70,6 +71,10 @@ public ResponseEntity<?> serveImageDirect(@RequestParam String path) {
                 }
             }
             
+            // Replace the image with the variant for the requested width
+            imageFile = ImageThumbnails.getVariant("QuizImages/" + path,
+                    imageFile.lastModified() + "-" + imageFile.length(), imageFile, w);
+            
             // Determine media type
             MediaType mediaType;
             String fileNameLower = imageFile.getName().toLowerCase();
@@ -83,15 +88,13 @@ public ResponseEntity<?> serveImageDirect(@RequestParam String path) {
                 mediaType = MediaType.APPLICATION_OCTET_STREAM;
             }
             
-            // Serve the file
-            byte[] imageBytes = Files.readAllBytes(imageFile.toPath());
-            System.out.println("DEBUG: Successfully read " + imageBytes.length + " bytes");
-            
+            // Stream the file instead of reading it into memory
             return ResponseEntity.ok()
                     .contentType(mediaType)
-                    .body(imageBytes);
+                    .contentLength(imageFile.length())
+                    .body(new FileSystemResource(imageFile));
             
-        } catch (IOException e) {
+        } catch (RuntimeException e) {
             System.out.println("DEBUG: Error serving image: " + e.getMessage());
             e.printStackTrace();
             return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
@@ -202,53 +205,20 @@ public ResponseEntity<?> listAvailableImages() {
      * Endpoint to serve student images from the Samba server
      */
     @RequestMapping("/public/StudentImages/{studentId}.png")
-    public ResponseEntity<?> serveStudentImage(@PathVariable String studentId) {
+    public ResponseEntity<?> serveStudentImage(@PathVariable String studentId,
+            @RequestParam(required = false) Integer w, WebRequest request) {
         logger.info("Student image request for ID: " + studentId);
-        
-        try {
-            // Try to retrieve the student image from Samba
-            File imageFile = FileStorageService.getStudentImage(studentId);
-            
-            if (imageFile == null || !imageFile.exists()) {
-                logger.warning("Student image not found for ID: " + studentId);
-                return ResponseEntity.notFound().build();
-            }
-            
-            // Determine media type based on file extension
-            MediaType mediaType;
-            String fileNameLower = imageFile.getName().toLowerCase();
-            if (fileNameLower.endsWith(".png")) {
-                mediaType = MediaType.IMAGE_PNG;
-            } else if (fileNameLower.endsWith(".jpg") || fileNameLower.endsWith(".jpeg")) {
-                mediaType = MediaType.IMAGE_JPEG;
-            } else if (fileNameLower.endsWith(".gif")) {
-                mediaType = MediaType.IMAGE_GIF;
-            } else {
-                mediaType = MediaType.APPLICATION_OCTET_STREAM;
-            }
-            
-            // Read the file content
-            byte[] imageBytes = Files.readAllBytes(imageFile.toPath());
-            logger.info("Successfully read " + imageBytes.length + " bytes for student image: " + studentId);
-            
-            // Return the image with appropriate content type
-            return ResponseEntity.ok()
-                    .contentType(mediaType)
-                    .body(imageBytes);
-            
-        } catch (IOException e) {
-            logger.warning("Error serving student image: " + e.getMessage());
-            return ResponseEntity.notFound().build();
-        }
+        return StudentImageResponses.serve(studentId, null, w, request);
     }
 
     /**
      * Copy of the working endpoint, but at the /api path
      */
     @RequestMapping("/api/StudentImages/{studentId}.png")
-    public ResponseEntity<?> serveStudentImageApi(@PathVariable String studentId) {
+    public ResponseEntity<?> serveStudentImageApi(@PathVariable String studentId,
+            @RequestParam(required = false) Integer w, WebRequest request) {
         logger.info("API Student image request for ID: " + studentId);
-        return serveStudentImage(studentId);
+        return serveStudentImage(studentId, w, request);
     }
 
     /**
@@ -295,45 +265,10 @@ public ResponseEntity<?> debugStudentImage(@PathVariable String studentId) {
      * New endpoint to serve student images with any extension
      */
     @GetMapping("/api/student-image/{studentId}")
-    public ResponseEntity<?> serveStudentImageAnyExtension(@PathVariable String studentId) {
+    public ResponseEntity<?> serveStudentImageAnyExtension(@PathVariable String studentId,
+            @RequestParam(required = false) Integer w, WebRequest request) {
         logger.info("Student image request (any extension) for ID: " + studentId);
-        
-        try {
-            // Try to retrieve the student image using the FileStorageService
-            File imageFile = FileStorageService.getStudentImage(studentId);
-            
-            if (imageFile == null || !imageFile.exists()) {
-                logger.warning("Student image not found for ID: " + studentId);
-                return ResponseEntity.notFound().build();
-            }
-            
-            // Determine media type based on file extension
-            MediaType mediaType;
-            String fileNameLower = imageFile.getName().toLowerCase();
-            if (fileNameLower.endsWith(".png")) {
-                mediaType = MediaType.IMAGE_PNG;
-            } else if (fileNameLower.endsWith(".jpg") || fileNameLower.endsWith(".jpeg")) {
-                mediaType = MediaType.IMAGE_JPEG;
-            } else if (fileNameLower.endsWith(".gif")) {
-                mediaType = MediaType.IMAGE_GIF;
-            } else {
-                mediaType = MediaType.APPLICATION_OCTET_STREAM;
-            }
-            
-            // Read the file content
-            byte[] imageBytes = Files.readAllBytes(imageFile.toPath());
-            logger.info("Successfully read " + imageBytes.length + " bytes for student image: " + studentId);
-            
-            // Return the image with appropriate content type
-            return ResponseEntity.ok()
-                    .contentType(mediaType)
-                    .body(imageBytes);
-            
-        } catch (IOException e) {
-            logger.warning("Error serving student image: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.notFound().build();
-        }
+        return StudentImageResponses.serve(studentId, null, w, request);
     }
     
     /**
@@ -342,44 +277,24 @@ public ResponseEntity<?> serveStudentImageAnyExtension(@PathVariable String stud
     @GetMapping("/api/student-image/{studentId}.{extension}")
     public ResponseEntity<?> serveStudentImageWithExtension(
             @PathVariable String studentId, 
-            @PathVariable String extension) {
+            @PathVariable String extension,
+            @RequestParam(required = false) Integer w,
+            WebRequest request) {
         logger.info("Student image request for ID: " + studentId + " with extension: " + extension);
         
-        try {
-            // Try to retrieve the student image using the FileStorageService
-            File imageFile = FileStorageService.getStudentImage(studentId);
-            
-            if (imageFile == null || !imageFile.exists()) {
-                logger.warning("Student image not found for ID: " + studentId);
-                return ResponseEntity.notFound().build();
-            }
-            
-            // Determine media type based on requested extension
-            MediaType mediaType;
-            String requestedExtension = extension.toLowerCase();
-            if (requestedExtension.equals("png")) {
-                mediaType = MediaType.IMAGE_PNG;
-            } else if (requestedExtension.equals("jpg") || requestedExtension.equals("jpeg")) {
-                mediaType = MediaType.IMAGE_JPEG;
-            } else if (requestedExtension.equals("gif")) {
-                mediaType = MediaType.IMAGE_GIF;
-            } else {
-                mediaType = MediaType.APPLICATION_OCTET_STREAM;
-            }
-            
-            // Read the file content
-            byte[] imageBytes = Files.readAllBytes(imageFile.toPath());
-            logger.info("Successfully read " + imageBytes.length + " bytes for student image: " + studentId);
-            
-            // Return the image with appropriate content type
-            return ResponseEntity.ok()
-                    .contentType(mediaType)
-                    .body(imageBytes);
-            
-        } catch (IOException e) {
-            logger.warning("Error serving student image: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.notFound().build();
+        // Determine media type based on requested extension
+        MediaType mediaType;
+        String requestedExtension = extension.toLowerCase();
+        if (requestedExtension.equals("png")) {
+            mediaType = MediaType.IMAGE_PNG;
+        } else if (requestedExtension.equals("jpg") || requestedExtension.equals("jpeg")) {
+            mediaType = MediaType.IMAGE_JPEG;
+        } else if (requestedExtension.equals("gif")) {
+            mediaType = MediaType.IMAGE_GIF;
+        } else {
+            mediaType = MediaType.APPLICATION_OCTET_STREAM;
         }
+        
+        return StudentImageResponses.serve(studentId, mediaType, w, request);
     }
-} 
\ No newline at end of file
+}
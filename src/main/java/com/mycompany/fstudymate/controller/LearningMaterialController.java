@@ -3,19 +3,20 @@
 import com.mycompany.fstudymate.model.LearningMaterial;
 import com.mycompany.fstudymate.model.User;
 import com.mycompany.fstudymate.service.LearningMaterialService;
+import com.mycompany.fstudymate.util.SmbFileResponses;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import jcifs.smb.SmbFile;
 
-import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -144,7 +145,8 @@ public ResponseEntity<?> createDirectory(
      * Download a file
      */
     @GetMapping("/download/{materialId}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable Integer materialId) {
+    public ResponseEntity<StreamingResponseBody> downloadFile(@PathVariable Integer materialId,
+                                                              HttpServletRequest request) {
         try {
             Optional<LearningMaterial> materialOpt = materialService.getMaterialById(materialId);
             if (materialOpt.isEmpty()) {
@@ -153,23 +155,20 @@ public ResponseEntity<Resource> downloadFile(@PathVariable Integer materialId) {
             
             LearningMaterial material = materialOpt.get();
             if (material.getIsDirectory()) {
-                return ResponseEntity.badRequest()
-                        .body(new FileSystemResource("Cannot download a directory"));
+                return ResponseEntity.badRequest().build();
             }
             
-            File file = materialService.downloadMaterial(materialId);
-            Resource resource = new FileSystemResource(file);
+            SmbFile smbFile = materialService.openMaterial(materialId);
             
             // Create content disposition with encoded filename
             String encodedFilename = URLEncoder.encode(material.getOriginalFileName(), StandardCharsets.UTF_8.toString())
                     .replace("+", "%20");
             
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + encodedFilename)
-                    .contentLength(file.length())
-                    .contentType(MediaType.parseMediaType(material.getFileType() != null ? 
-                            material.getFileType() : "application/octet-stream"))
-                    .body(resource);
+            // Stream from SMB to the client without a local temp copy; Range lets downloads resume
+            return SmbFileResponses.serve(smbFile, request, materialContentType(material),
+                    "attachment; filename*=UTF-8''" + encodedFilename);
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -179,7 +178,8 @@ public ResponseEntity<Resource> downloadFile(@PathVariable Integer materialId) {
      * View file content (for supported types)
      */
     @GetMapping("/view/{materialId}")
-    public ResponseEntity<Resource> viewFile(@PathVariable Integer materialId) {
+    public ResponseEntity<StreamingResponseBody> viewFile(@PathVariable Integer materialId,
+                                                          HttpServletRequest request) {
         try {
             Optional<LearningMaterial> materialOpt = materialService.getMaterialById(materialId);
             if (materialOpt.isEmpty()) {
@@ -188,23 +188,25 @@ public ResponseEntity<Resource> viewFile(@PathVariable Integer materialId) {
             
             LearningMaterial material = materialOpt.get();
             if (!material.isViewable()) {
-                return ResponseEntity.badRequest()
-                        .body(new FileSystemResource("File type not viewable in browser"));
+                return ResponseEntity.badRequest().build();
             }
             
-            File file = materialService.downloadMaterial(materialId);
-            Resource resource = new FileSystemResource(file);
+            SmbFile smbFile = materialService.openMaterial(materialId);
             
-            return ResponseEntity.ok()
-                    .contentLength(file.length())
-                    .contentType(MediaType.parseMediaType(material.getFileType() != null ? 
-                            material.getFileType() : "application/octet-stream"))
-                    .body(resource);
+            // Video seeking and PDF viewers issue Range requests; revalidation gets a 304
+            return SmbFileResponses.serve(smbFile, request, materialContentType(material), null);
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    private MediaType materialContentType(LearningMaterial material) {
+        return MediaType.parseMediaType(material.getFileType() != null ? 
+                material.getFileType() : "application/octet-stream");
+    }
+
     /**
      * Delete a material
      */
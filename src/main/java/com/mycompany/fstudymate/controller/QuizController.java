@@ -77,10 +77,11 @@ public ResponseEntity<?> createQuiz(@RequestBody Map<String, Object> payload) {
             
             // Handle quiz permissions if provided
             List<String> classIds = (List<String>) payload.getOrDefault("classIds", new ArrayList<String>());
+            List<QuizPermission> permissions = new ArrayList<>();
             for (String classId : classIds) {
-                QuizPermission permission = new QuizPermission(0, quizId, classId); // Id will be auto-generated
-                QuizDAO.addQuizPermission(permission);
+                permissions.add(new QuizPermission(0, quizId, classId)); // Id will be auto-generated
             }
+            QuizDAO.addQuizPermissions(permissions);
             
             // Handle questions if provided
             List<Map<String, Object>> questions = (List<Map<String, Object>>) payload.getOrDefault("questions", new ArrayList<>());
@@ -330,6 +331,8 @@ public ResponseEntity<?> updateQuiz(@PathVariable int quizId, @RequestBody Map<S
             // Handle questions if provided
             List<Map<String, Object>> questions = (List<Map<String, Object>>) payload.get("questions");
             if (questions != null) {
+                List<model.Question> toUpdate = new ArrayList<>();
+                List<model.Question> toCreate = new ArrayList<>();
                 for (Map<String, Object> questionData : questions) {
                     Integer questionId = (Integer) questionData.get("id");
                     String questionImg = (String) questionData.getOrDefault("questionImg", "");
@@ -340,14 +343,14 @@ public ResponseEntity<?> updateQuiz(@PathVariable int quizId, @RequestBody Map<S
                     
                     if (questionId != null && questionId > 0) {
                         // Update existing question
-                        model.Question question = new model.Question(questionId, maMon, maDe, questionImg, questionText, slDapAn, correct, explanation);
-                        QuestionDAO.updateQuestion(question);
+                        toUpdate.add(new model.Question(questionId, maMon, maDe, questionImg, questionText, slDapAn, correct, explanation));
                     } else {
                         // Create new question
-                        model.Question question = new model.Question(0, maMon, maDe, questionImg, questionText, slDapAn, correct, explanation);
-                        QuestionDAO.createQuestion(question, quizId);
+                        toCreate.add(new model.Question(0, maMon, maDe, questionImg, questionText, slDapAn, correct, explanation));
                     }
                 }
+                QuestionDAO.updateQuestions(toUpdate);
+                QuestionDAO.createQuestions(toCreate, quizId);
             }
             
             return ResponseEntity.ok(Map.of("success", true));
@@ -2,9 +2,11 @@
 
 import com.mycompany.fstudymate.service.SambaSyncService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.HashMap;
@@ -22,15 +24,22 @@ public class SambaSyncController {
 
     /**
      * Manually trigger a Samba directory synchronization
+     * @param full walk every directory instead of skipping unchanged subtrees
      */
     @PostMapping("/start")
-    public ResponseEntity<Map<String, Object>> startSync() {
+    public ResponseEntity<Map<String, Object>> startSync(@RequestParam(defaultValue = "false") boolean full) {
         try {
             long startTime = System.currentTimeMillis();
-            Map<String, Object> syncResults = sambaSyncService.syncSambaDirectories();
+            Map<String, Object> syncResults = sambaSyncService.syncSambaDirectories(full);
             long endTime = System.currentTimeMillis();
             
             Map<String, Object> response = new HashMap<>();
+            if ("skipped".equals(syncResults.get("status"))) {
+                response.put("success", false);
+                response.put("message", syncResults.get("message"));
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+            }
+            
             response.put("success", true);
             response.put("message", "Samba directory synchronization completed successfully");
             response.put("executionTimeMs", endTime - startTime);
@@ -0,0 +1,130 @@
+package com.mycompany.fstudymate.controller;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.WebRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import util.FileStorageService;
+import util.ImageThumbnails;
+import util.StudentImageIndex;
+
+/**
+ * Builds the responses of the student image endpoints in ImageController and
+ * StudentImageController.
+ *
+ * The file is looked up in {@link StudentImageIndex}, so a conditional
+ * request is answered with 304 before anything is read. Otherwise the file
+ * is streamed as a {@link FileSystemResource}, which also serves Range
+ * requests, instead of being read into memory. With a width, a downscaled
+ * variant from {@link ImageThumbnails} is sent instead; its ETag carries the
+ * variant width, so each size is cached separately. When the variant is not
+ * ready in time the original is sent with its own ETag and must be
+ * revalidated, so the client picks up the variant on a later request.
+ */
+final class StudentImageResponses {
+
+    private static final Logger logger = Logger.getLogger(StudentImageResponses.class.getName());
+
+    // Browsers revalidate with the ETag after this
+    private static final CacheControl CACHE_CONTROL = CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic();
+    // Original sent in place of a variant that is not ready yet
+    private static final CacheControl FALLBACK_CACHE_CONTROL = CacheControl.noCache();
+
+    private StudentImageResponses() {
+    }
+
+    /**
+     * Serves the file of a student, downscaled for the width it is displayed at
+     *
+     * @param studentId student ID (e.g., DE180045)
+     * @param mediaType content type to send, or null to derive it from the file name
+     * @param width display width in pixels, or null for the original
+     * @param request the current request, for If-None-Match / If-Modified-Since
+     * @return the file, 304 if the client's copy is current, or 404; null once a 304 has been sent
+     */
+    static ResponseEntity<?> serve(String studentId, MediaType mediaType, Integer width, WebRequest request) {
+        StudentImageIndex.Entry entry = FileStorageService.findStudentImage(studentId);
+        if (entry == null) {
+            logger.warning("Student file not found for ID: " + studentId);
+            return ResponseEntity.notFound().build();
+        }
+        String sourceKey = entry.getSmbPath() != null ? entry.getSmbPath() : entry.getLocalFile().getAbsolutePath();
+        int variantWidth = ImageThumbnails.isScalable(entry.getFileName()) ? ImageThumbnails.variantWidth(width) : 0;
+
+        // Settle which representation is sent before comparing validators, so both use the same ETag
+        File cached = ImageThumbnails.findVariant(sourceKey, entry.getEtag(), entry.getFileName(), variantWidth);
+        if (cached != null) {
+            if (request.checkNotModified(etagOf(entry, variantWidth), entry.getLastModified())) {
+                return null;
+            }
+            return respond(entry, cached, mediaTypeOf(cached.getName()), variantWidth, CACHE_CONTROL);
+        }
+        boolean original = ImageThumbnails.isPassThrough(sourceKey, entry.getEtag(), entry.getFileName(), variantWidth);
+        if (original && request.checkNotModified(entry.getEtag(), entry.getLastModified())) {
+            return null;
+        }
+
+        try {
+            File file = FileStorageService.getStudentImage(entry);
+            if (original) {
+                return respond(entry, file, mediaType, 0, CACHE_CONTROL);
+            }
+            File variant = ImageThumbnails.getVariant(sourceKey, entry.getEtag(), file, variantWidth);
+            if (variant != file) {
+                return respond(entry, variant, mediaTypeOf(variant.getName()), variantWidth, CACHE_CONTROL);
+            }
+            if (ImageThumbnails.isPassThrough(sourceKey, entry.getEtag(), entry.getFileName(), variantWidth)) {
+                return respond(entry, file, mediaType, 0, CACHE_CONTROL);
+            }
+            return respond(entry, file, mediaType, 0, FALLBACK_CACHE_CONTROL);
+        } catch (IOException e) {
+            logger.warning("Error serving student file: " + e.getMessage());
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    private static ResponseEntity<?> respond(StudentImageIndex.Entry entry, File body, MediaType mediaType,
+                                             int variantWidth, CacheControl cacheControl) {
+        return ResponseEntity.ok()
+                .contentType(mediaType != null ? mediaType : mediaTypeOf(entry.getFileName()))
+                .cacheControl(cacheControl)
+                .eTag(etagOf(entry, variantWidth))
+                .lastModified(entry.getLastModified())
+                .body(new FileSystemResource(body));
+    }
+
+    private static String etagOf(StudentImageIndex.Entry entry, int variantWidth) {
+        String etag = entry.getEtag();
+        return variantWidth == 0 ? etag : etag.substring(0, etag.length() - 1) + "-w" + variantWidth + "\"";
+    }
+
+    /**
+     * Determine media type based on file extension
+     */
+    static MediaType mediaTypeOf(String fileName) {
+        String fileNameLower = fileName.toLowerCase();
+        if (fileNameLower.endsWith(".png")) {
+            return MediaType.IMAGE_PNG;
+        } else if (fileNameLower.endsWith(".jpg") || fileNameLower.endsWith(".jpeg")) {
+            return MediaType.IMAGE_JPEG;
+        } else if (fileNameLower.endsWith(".gif")) {
+            return MediaType.IMAGE_GIF;
+        } else if (fileNameLower.endsWith(".glb") || fileNameLower.endsWith(".gltf")) {
+            // 3D model files
+            return MediaType.parseMediaType("model/gltf-binary");
+        } else if (fileNameLower.endsWith(".obj")) {
+            return MediaType.parseMediaType("model/obj");
+        } else if (fileNameLower.endsWith(".pdf")) {
+            return MediaType.APPLICATION_PDF;
+        }
+        // Default to octet-stream for unknown types
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+}
@@ -38,8 +38,6 @@ public class UserActivityController {
     @PostMapping("/user-activity")
     public ResponseEntity<Map<String, Object>> trackActivity(@RequestBody UserActivityDTO activityDTO) {
         try {
-            logger.info("Received activity tracking request - sessionToken: " + activityDTO.getSessionToken());
-            
             if (activityDTO.getSessionToken() == null || activityDTO.getSessionToken().trim().isEmpty()) {
                 logger.warning("Invalid session token received");
                 return ResponseEntity.badRequest().body(Map.of(
@@ -50,22 +48,22 @@ public ResponseEntity<Map<String, Object>> trackActivity(@RequestBody UserActivi
             
             UserSession session = userActivityService.saveActivity(activityDTO);
             
-            if (session.getId() == null) {
-                logger.warning("Failed to save session properly - no ID returned");
-                // Return success anyway, but include a warning
-                return ResponseEntity.ok(Map.of(
-                    "status", "warning", 
-                    "message", "Activity recorded but session not persisted properly",
-                    "sessionToken", session.getSessionToken()
+            if (session == null) {
+                // Buffer full; the client's next heartbeat carries the same data
+                return ResponseEntity.status(503).body(Map.of(
+                    "status", "error",
+                    "message", "Activity tracking is busy, try again later"
                 ));
             }
             
-            logger.info("Activity recorded successfully for session: " + session.getId());
-            return ResponseEntity.ok(Map.of(
-                "status", "success", 
-                "message", "Activity recorded",
-                "sessionId", session.getId()
-            ));
+            // Written within a few seconds; the session ID is known once the token has been written
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "success");
+            response.put("message", "Activity recorded");
+            if (session.getId() != null) {
+                response.put("sessionId", session.getId());
+            }
+            return ResponseEntity.accepted().body(response);
         } catch (Exception e) {
             logger.severe("Error tracking activity: " + e.getMessage());
             e.printStackTrace();
@@ -93,6 +91,14 @@ public ResponseEntity<UserStatisticsDTO> getUserStatistics() {
         }
     }
     
+    /**
+     * Get timing of the session maintenance jobs and the activity buffer counters
+     */
+    @GetMapping("/admin/activity-stats")
+    public ResponseEntity<Map<String, Object>> getActivityStats() {
+        return ResponseEntity.ok(userActivityService.getMaintenanceStats());
+    }
+    
     /**
      * Get list of currently active users
      */
@@ -162,6 +168,26 @@ public ResponseEntity<List<LoginHistoryDTO>> getLoginHistory(@RequestParam(defau
         }
     }
     
+    /**
+     * Get session rollups (logins, active users, duration) by role and device.
+     * count is capped at the buckets kept; an unknown granularity is a 400.
+     */
+    @GetMapping("/admin/activity-rollups")
+    public ResponseEntity<List<Map<String, Object>>> getActivityRollups(
+            @RequestParam(defaultValue = "daily") String granularity,
+            @RequestParam(defaultValue = "7") int count,
+            @RequestParam(defaultValue = "true") boolean breakdown) {
+        try {
+            return ResponseEntity.ok(userActivityService.getSessionRollups(granularity, count, breakdown));
+        } catch (IllegalArgumentException e) {
+            logger.warning("Invalid activity rollups request: " + e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            logger.severe("Error fetching activity rollups: " + e.getMessage());
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
     /**
      * Force logout a user session
      */
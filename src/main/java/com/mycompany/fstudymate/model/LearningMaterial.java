@@ -58,6 +58,13 @@ public class LearningMaterial {
     @Column(name = "description")
     private String description;
 
+    /**
+     * SHA-256 of the shared content blob holding this file, or null when the
+     * file lives at its own path in the subject directory
+     */
+    @Column(name = "content_hash")
+    private String contentHash;
+
     /**
      * Determines if the file is viewable in the browser
      * 
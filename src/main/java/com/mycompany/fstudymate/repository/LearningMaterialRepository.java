@@ -42,4 +42,11 @@ public interface LearningMaterialRepository extends JpaRepository<LearningMateri
      * Get README.md file in a specific path
      */
     Optional<LearningMaterial> findBySubjectAndParentPathAndFileName(Subject subject, String parentPath, String fileName);
+    
+    /**
+     * Content hashes of the blob-backed materials whose parent path matches a LIKE pattern (escaped with '!')
+     */
+    @Query("SELECT m.contentHash FROM LearningMaterial m WHERE m.subject = :subject AND m.contentHash IS NOT NULL " +
+           "AND m.parentPath LIKE :pattern ESCAPE '!'")
+    List<String> findContentHashesUnder(@Param("subject") Subject subject, @Param("pattern") String pattern);
 } 
\ No newline at end of file
@@ -1,6 +1,8 @@
 package com.mycompany.fstudymate.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.mycompany.fstudymate.model.UserActivityDetails;
@@ -16,4 +18,14 @@ public interface UserActivityDetailsRepository extends JpaRepository<UserActivit
     
     // Find first by session ID ordered by creation date (most recent first)
     Optional<UserActivityDetails> findFirstBySessionIdOrderByCreatedAtDesc(Integer sessionId);
-} 
\ No newline at end of file
+    
+    // IDs of up to :limit records that have a more recent record for the same session
+    // (by created_at, a missing one counting as oldest, then by ID)
+    @Query(value = "SELECT d.id FROM user_activity_details d " +
+           "WHERE EXISTS (SELECT 1 FROM user_activity_details n " +
+           "WHERE n.session_id = d.session_id " +
+           "AND (COALESCE(n.created_at, '1000-01-01') > COALESCE(d.created_at, '1000-01-01') " +
+           "OR (COALESCE(n.created_at, '1000-01-01') = COALESCE(d.created_at, '1000-01-01') AND n.id > d.id))) " +
+           "LIMIT :limit", nativeQuery = true)
+    List<Number> findSupersededIds(@Param("limit") int limit);
+}
@@ -4,9 +4,11 @@
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.mycompany.fstudymate.model.UserSession;
 
@@ -20,27 +22,12 @@ public interface UserSessionRepository extends JpaRepository<UserSession, Intege
     @Query("SELECT us FROM UserSession us WHERE us.sessionToken = :token ORDER BY us.lastActivity DESC")
     List<UserSession> findBySessionTokenOrderByLastActivityDesc(@Param("token") String token);
     
-    // Find active sessions with recent activity
-    @Query("SELECT us FROM UserSession us WHERE us.lastActivity > :cutoffTime AND us.isExpired = false")
-    List<UserSession> findActiveSessions(@Param("cutoffTime") LocalDateTime cutoffTime);
-    
-    // Count active users
-    @Query("SELECT COUNT(us) FROM UserSession us WHERE us.lastActivity > :cutoffTime AND us.isExpired = false")
-    Long countActiveSessions(@Param("cutoffTime") LocalDateTime cutoffTime);
-    
     // Find sessions by user ID
     List<UserSession> findByUserId(Integer userId);
     
-    // Get login counts grouped by day
-    @Query(value = "SELECT DATE(created_at) as login_date, COUNT(*) as count " +
-           "FROM user_sessions " +
-           "WHERE created_at >= :startDate " +
-           "GROUP BY DATE(created_at) " +
-           "ORDER BY login_date", nativeQuery = true)
-    List<Object[]> getLoginCountByDay(@Param("startDate") LocalDateTime startDate);
-    
     // Find expired sessions, ordered by expiry time (most recent first)
-    @Query("SELECT us FROM UserSession us WHERE us.expiryTime < :currentTime OR us.isExpired = true ORDER BY us.expiryTime DESC")
+    @Query("SELECT us FROM UserSession us WHERE us.expiryTime < :currentTime OR us.isExpired = true " +
+           "ORDER BY us.expiryTime DESC, us.id DESC")
     List<UserSession> findExpiredSessions(@Param("currentTime") LocalDateTime currentTime);
     
     // Count expired sessions
@@ -50,4 +37,32 @@ public interface UserSessionRepository extends JpaRepository<UserSession, Intege
     // Find sessions that will expire soon
     @Query("SELECT us FROM UserSession us WHERE us.expiryTime BETWEEN :currentTime AND :futureTime AND us.isExpired = false")
     List<UserSession> findSessionsExpiringBetween(@Param("currentTime") LocalDateTime currentTime, @Param("futureTime") LocalDateTime futureTime);
-} 
\ No newline at end of file
+    
+    // Flag up to :limit sessions past their expiry time; each call is its own transaction
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE user_sessions SET is_expired = 1 " +
+           "WHERE expiry_time < :currentTime AND is_expired = 0 LIMIT :limit", nativeQuery = true)
+    int markExpiredBefore(@Param("currentTime") LocalDateTime currentTime, @Param("limit") int limit);
+    
+    // The expired session at a position in findExpiredSessions order, as [id, expiry_time]
+    @Query(value = "SELECT id, expiry_time FROM user_sessions " +
+           "WHERE expiry_time < :currentTime OR is_expired = 1 " +
+           "ORDER BY expiry_time DESC, id DESC LIMIT 1 OFFSET :position", nativeQuery = true)
+    List<Object[]> findExpiredSessionAt(@Param("currentTime") LocalDateTime currentTime, @Param("position") int position);
+    
+    // Delete up to :limit expired sessions last active before :finalizedBefore that come after
+    // the given one in findExpiredSessions order
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM user_sessions " +
+           "WHERE (expiry_time < :currentTime OR is_expired = 1) " +
+           "AND (expiry_time < :boundaryTime OR (expiry_time = :boundaryTime AND id < :boundaryId)) " +
+           "AND COALESCE(last_activity, created_at) < :finalizedBefore " +
+           "LIMIT :limit", nativeQuery = true)
+    int deleteExpiredAfter(@Param("currentTime") LocalDateTime currentTime,
+                           @Param("boundaryTime") LocalDateTime boundaryTime,
+                           @Param("boundaryId") Integer boundaryId,
+                           @Param("finalizedBefore") LocalDateTime finalizedBefore,
+                           @Param("limit") int limit);
+}
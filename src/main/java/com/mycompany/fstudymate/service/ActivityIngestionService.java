@@ -0,0 +1,486 @@
+package com.mycompany.fstudymate.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mycompany.fstudymate.dto.UserActivityDTO;
+
+/**
+ * Write-behind buffer for activity heartbeats.
+ *
+ * Heartbeats are coalesced per session token in memory; only the latest
+ * state of each session is kept. Every {@code activity.ingest.flush-ms} the
+ * buffer is drained and written with a few batched statements in one
+ * transaction, whatever the number of heartbeats received meanwhile. A
+ * flush does the same session handling saveActivity used to do for each
+ * request: reuse the most recent session of the token, replace an expired
+ * one, and upsert the device details.
+ *
+ * At most {@code activity.ingest.max-sessions} tokens are buffered. Once
+ * full, heartbeats for tokens already buffered are still merged, and
+ * heartbeats for new tokens are dropped until the next flush. A lost
+ * heartbeat only delays the session's next update.
+ *
+ * After each flush the session ID and expiry time written for each token
+ * are passed on to {@link PresenceRegistry}.
+ */
+@Service
+public class ActivityIngestionService {
+
+    private static final Logger logger = Logger.getLogger(ActivityIngestionService.class.getName());
+
+    // Tokens per IN (...) lookup
+    private static final int LOOKUP_CHUNK = 500;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private SessionValidityCache sessionValidityCache;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Value("${session.expiry.hours:24}")
+    private int sessionExpiryHours;
+
+    @Value("${activity.ingest.flush-ms:5000}")
+    private long flushIntervalMs;
+
+    @Value("${activity.ingest.max-sessions:10000}")
+    private int maxSessions;
+
+    private final ConcurrentHashMap<String, PendingActivity> pending = new ConcurrentHashMap<>();
+
+    // Last flushed session ID and device JSON of each token; cleared wholesale when they grow past maxSessions
+    private final Map<String, Integer> sessionIds = new ConcurrentHashMap<>();
+    private final Map<String, String> deviceJson = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+    private final AtomicBoolean flushQueued = new AtomicBoolean(false);
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder sessionsWritten = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private volatile long lastFlushMs;
+
+    @PostConstruct
+    public void init() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "activity-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Write what is left so a restart loses nothing
+        flushSafely();
+    }
+
+    /**
+     * Buffers a heartbeat
+     *
+     * @param activity the heartbeat; its session token must be set
+     * @return false if it was dropped because the buffer is full
+     */
+    public boolean record(UserActivityDTO activity) {
+        LocalDateTime receivedAt = LocalDateTime.now();
+        boolean[] added = {false};
+        PendingActivity entry = pending.compute(activity.getSessionToken(), (token, current) -> {
+            if (current != null) {
+                current.merge(activity, receivedAt);
+                return current;
+            }
+            if (pending.mappingCount() >= maxSessions) {
+                return null;
+            }
+            added[0] = true;
+            return new PendingActivity(activity, receivedAt);
+        });
+
+        if (entry == null) {
+            dropped.increment();
+            return false;
+        }
+        accepted.increment();
+        if (!added[0]) {
+            coalesced.increment();
+        } else if (pending.mappingCount() >= maxSessions / 2 && flushQueued.compareAndSet(false, true)) {
+            // Half full: flush now rather than start dropping before the next tick
+            try {
+                flusher.execute(this::flushSafely);
+            } catch (RejectedExecutionException e) {
+                flushQueued.set(false);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a token has a buffered heartbeat but was never written, i.e. its
+     * session is about to be created
+     */
+    public boolean isAwaitingFirstWrite(String sessionToken) {
+        return pending.containsKey(sessionToken) && !sessionIds.containsKey(sessionToken);
+    }
+
+    /**
+     * The session a token was last written to, or null if it has not been flushed yet
+     */
+    public Integer getSessionId(String sessionToken) {
+        return sessionIds.get(sessionToken);
+    }
+
+    /**
+     * Snapshot of the buffer counters, for monitoring.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending.size());
+        stats.put("maxSessions", maxSessions);
+        stats.put("accepted", accepted.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("failed", failed.sum());
+        stats.put("sessionsWritten", sessionsWritten.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("lastFlushMs", lastFlushMs);
+        return stats;
+    }
+
+    private void flushSafely() {
+        flushQueued.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Error flushing activity buffer: " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized void flush() {
+        List<PendingActivity> batch = new ArrayList<>();
+        for (String token : pending.keySet()) {
+            PendingActivity entry = pending.remove(token);
+            if (entry != null) {
+                batch.add(entry);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        // Tokens that got a new session; cached validity of these is out of date once committed
+        List<String> created = new ArrayList<>();
+        // Session each token was written to
+        Map<String, SessionRow> written = new HashMap<>();
+        try {
+            commit(batch, created, written);
+        } catch (RuntimeException e) {
+            // One bad row (e.g. an unknown user ID) must not cost everyone their update
+            logger.warning("Batched activity flush failed, writing " + batch.size() + " sessions one by one: " + e.getMessage());
+            for (PendingActivity entry : batch) {
+                try {
+                    commit(List.of(entry), created, written);
+                } catch (RuntimeException rowError) {
+                    failed.increment();
+                    logger.warning("Dropping activity of session token " + entry.sessionToken + ": " + rowError.getMessage());
+                }
+            }
+        }
+        sessionValidityCache.invalidateAll(created);
+        written.forEach((token, row) -> presenceRegistry.sessionWritten(token, row.id, row.createdAt, row.expiryTime));
+
+        lastFlushMs = System.currentTimeMillis() - startTime;
+        flushes.increment();
+        logger.fine("Flushed activity of " + batch.size() + " sessions in " + lastFlushMs + " ms");
+    }
+
+    /**
+     * Writes the batch in one transaction. Only once it has committed are its
+     * tokens added to created and written, and their session IDs and devices cached.
+     */
+    private void commit(List<PendingActivity> batch, List<String> created, Map<String, SessionRow> written) {
+        List<String> batchCreated = new ArrayList<>();
+        Map<String, SessionRow> batchWritten = new HashMap<>();
+        Map<String, String> batchDevices = new HashMap<>();
+        transactionTemplate.executeWithoutResult(status -> write(batch, batchCreated, batchWritten, batchDevices));
+
+        created.addAll(batchCreated);
+        written.putAll(batchWritten);
+        if (sessionIds.size() + batchWritten.size() > maxSessions) {
+            sessionIds.clear();
+        }
+        batchWritten.forEach((token, row) -> sessionIds.put(token, row.id));
+        if (deviceJson.size() + batchDevices.size() > maxSessions) {
+            deviceJson.clear();
+        }
+        deviceJson.putAll(batchDevices);
+        sessionsWritten.add(batch.size());
+    }
+
+    private void write(List<PendingActivity> batch, List<String> created, Map<String, SessionRow> written,
+                       Map<String, String> devices) {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, SessionRow> current = findLatestSessions(batch);
+
+        List<Integer> toExpire = new ArrayList<>();
+        List<PendingActivity> toInsert = new ArrayList<>();
+        List<Object[]> updates = new ArrayList<>();
+        Map<String, Integer> ids = new HashMap<>();
+        for (PendingActivity entry : batch) {
+            SessionRow row = current.get(entry.sessionToken);
+            if (row != null && row.expiryTime != null && now.isAfter(row.expiryTime)) {
+                // Expired: close it and start a new session for the token
+                toExpire.add(row.id);
+                row = null;
+            }
+            if (row == null) {
+                toInsert.add(entry);
+            } else {
+                ids.put(entry.sessionToken, row.id);
+                written.put(entry.sessionToken, row);
+                updates.add(new Object[] {Timestamp.valueOf(entry.lastActivity), entry.currentPage,
+                                          entry.pageViews, entry.duration, entry.ipAddress, row.id});
+            }
+        }
+
+        if (!toExpire.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE user_sessions SET is_expired = 1 WHERE id = ?",
+                    toExpire.stream().map(id -> new Object[] {id}).toList());
+        }
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE user_sessions SET last_activity = ?, current_page = ?, " +
+                    "page_views = ?, duration = ?, ip_address = ? WHERE id = ?", updates);
+        }
+        if (!toInsert.isEmpty()) {
+            List<Object[]> inserts = new ArrayList<>();
+            for (PendingActivity entry : toInsert) {
+                inserts.add(new Object[] {entry.userId != null ? entry.userId : 0, entry.sessionToken,
+                                          Timestamp.valueOf(entry.lastActivity), Timestamp.valueOf(entry.firstSeen),
+                                          Timestamp.valueOf(entry.firstSeen.plusHours(sessionExpiryHours)),
+                                          entry.currentPage, entry.pageViews, entry.duration, entry.ipAddress});
+            }
+            jdbcTemplate.batchUpdate("INSERT INTO user_sessions (user_id, session_token, last_activity, created_at, " +
+                    "expiry_time, is_expired, current_page, page_views, duration, ip_address) " +
+                    "VALUES (?, ?, ?, ?, ?, 0, ?, ?, ?, ?)", inserts);
+            findLatestSessions(toInsert).forEach((token, row) -> {
+                ids.put(token, row.id);
+                written.put(token, row);
+            });
+            toInsert.forEach(entry -> created.add(entry.sessionToken));
+        }
+
+        writeDeviceDetails(batch, ids, devices);
+    }
+
+    private void writeDeviceDetails(List<PendingActivity> batch, Map<String, Integer> ids, Map<String, String> devices) {
+        // Only devices that changed since the session's last flush are written
+        Map<Integer, PendingActivity> changed = new HashMap<>();
+        Map<Integer, String> json = new HashMap<>();
+        for (PendingActivity entry : batch) {
+            Integer sessionId = ids.get(entry.sessionToken);
+            if (entry.device == null || sessionId == null) {
+                continue;
+            }
+            try {
+                String serialized = objectMapper.writeValueAsString(entry.device);
+                if (!serialized.equals(deviceJson.get(entry.sessionToken))
+                        || !Objects.equals(sessionIds.get(entry.sessionToken), sessionId)) {
+                    changed.put(sessionId, entry);
+                    json.put(sessionId, serialized);
+                }
+            } catch (JsonProcessingException e) {
+                logger.severe("Error serializing device info: " + e.getMessage());
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        Set<Integer> existing = new HashSet<>();
+        List<Integer> sessionList = new ArrayList<>(changed.keySet());
+        for (int i = 0; i < sessionList.size(); i += LOOKUP_CHUNK) {
+            List<Integer> chunk = sessionList.subList(i, Math.min(i + LOOKUP_CHUNK, sessionList.size()));
+            existing.addAll(jdbcTemplate.queryForList("SELECT DISTINCT session_id FROM user_activity_details " +
+                    "WHERE session_id IN (" + placeholders(chunk.size()) + ")", Integer.class, chunk.toArray()));
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        for (Map.Entry<Integer, PendingActivity> e : changed.entrySet()) {
+            DeviceFields d = new DeviceFields(e.getValue().device);
+            if (existing.contains(e.getKey())) {
+                updates.add(new Object[] {json.get(e.getKey()), d.browserName, d.browserVersion, d.osName,
+                                          d.osVersion, d.isMobile, d.fingerprint, now, e.getKey()});
+            } else {
+                inserts.add(new Object[] {e.getKey(), json.get(e.getKey()), d.browserName, d.browserVersion,
+                                          d.osName, d.osVersion, d.isMobile, d.fingerprint, now, now});
+            }
+        }
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE user_activity_details SET device_info = ?, browser_name = ?, " +
+                    "browser_version = ?, os_name = ?, os_version = ?, is_mobile = ?, device_fingerprint = ?, " +
+                    "updated_at = ? WHERE session_id = ?", updates);
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO user_activity_details (session_id, device_info, browser_name, " +
+                    "browser_version, os_name, os_version, is_mobile, device_fingerprint, created_at, updated_at) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", inserts);
+        }
+
+        for (Map.Entry<Integer, PendingActivity> e : changed.entrySet()) {
+            devices.put(e.getValue().sessionToken, json.get(e.getKey()));
+        }
+    }
+
+    // The most recently active session of each token, like findBySessionTokenOrderByLastActivityDesc
+    private Map<String, SessionRow> findLatestSessions(List<PendingActivity> entries) {
+        Map<String, SessionRow> latest = new HashMap<>();
+        for (int i = 0; i < entries.size(); i += LOOKUP_CHUNK) {
+            List<PendingActivity> chunk = entries.subList(i, Math.min(i + LOOKUP_CHUNK, entries.size()));
+            Object[] tokens = chunk.stream().map(e -> e.sessionToken).toArray();
+            jdbcTemplate.query("SELECT id, session_token, created_at, expiry_time FROM user_sessions " +
+                    "WHERE session_token IN (" + placeholders(tokens.length) + ") AND is_expired = 0 " +
+                    "ORDER BY last_activity DESC, id DESC", rs -> {
+                        Timestamp created = rs.getTimestamp("created_at");
+                        Timestamp expiry = rs.getTimestamp("expiry_time");
+                        latest.putIfAbsent(rs.getString("session_token"), new SessionRow(rs.getInt("id"),
+                                created != null ? created.toLocalDateTime() : null,
+                                expiry != null ? expiry.toLocalDateTime() : null));
+                    }, tokens);
+        }
+        return latest;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static class SessionRow {
+        final int id;
+        final LocalDateTime createdAt;
+        final LocalDateTime expiryTime;
+
+        SessionRow(int id, LocalDateTime createdAt, LocalDateTime expiryTime) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    /**
+     * Latest state of one session token since the last flush
+     */
+    private static class PendingActivity {
+        final String sessionToken;
+        final LocalDateTime firstSeen;
+        LocalDateTime lastActivity;
+        Integer userId;
+        String currentPage;
+        Integer pageViews;
+        Integer duration;
+        String ipAddress;
+        Map<String, Object> device;
+
+        PendingActivity(UserActivityDTO activity, LocalDateTime receivedAt) {
+            this.sessionToken = activity.getSessionToken();
+            this.firstSeen = receivedAt;
+            merge(activity, receivedAt);
+        }
+
+        // Called under the map's lock for this token
+        void merge(UserActivityDTO activity, LocalDateTime receivedAt) {
+            lastActivity = receivedAt;
+            if (activity.getUserId() != null) {
+                userId = activity.getUserId();
+            }
+            currentPage = activity.getCurrentPage();
+            pageViews = activity.getPageViews();
+            duration = activity.getDuration();
+            ipAddress = activity.getIpAddress();
+            if (activity.getDevice() != null) {
+                device = activity.getDevice();
+            }
+        }
+    }
+
+    private static class DeviceFields {
+        String browserName;
+        String browserVersion;
+        String osName;
+        String osVersion;
+        Boolean isMobile;
+        String fingerprint;
+
+        @SuppressWarnings("unchecked")
+        DeviceFields(Map<String, Object> device) {
+            if (device.get("browser") instanceof Map) {
+                Map<String, Object> browser = (Map<String, Object>) device.get("browser");
+                browserName = stringOf(browser.get("name"));
+                browserVersion = stringOf(browser.get("version"));
+            }
+            if (device.get("os") instanceof Map) {
+                Map<String, Object> os = (Map<String, Object>) device.get("os");
+                osName = stringOf(os.get("name"));
+                osVersion = stringOf(os.get("version"));
+            }
+            if (device.get("isMobile") instanceof Boolean) {
+                isMobile = (Boolean) device.get("isMobile");
+            }
+            fingerprint = stringOf(device.get("deviceFingerprint"));
+        }
+
+        private static String stringOf(Object value) {
+            return value != null ? value.toString() : null;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.mycompany.fstudymate.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pushes chat events over the STOMP broker so clients do not have to poll.
+ *
+ * Direct-chat events go to {@code /user/{userId}/topic/chat} (same convention
+ * as the WebRTC signaling topics) and group events go to
+ * {@code /topic/chat/group/{groupId}}. Every event carries a {@code type}:
+ * "message", "attachment", "unread", "unsend" or "delete". Subscribing to
+ * another user's direct-chat topic is refused by
+ * {@link com.mycompany.fstudymate.config.StompAuthInterceptor}.
+ */
+@Service
+public class ChatEventPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatEventPublisher.class);
+
+    public static final String USER_CHAT_TOPIC = "/topic/chat";
+    public static final String GROUP_CHAT_TOPIC_PREFIX = "/topic/chat/group/";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    /**
+     * Publishes a new direct message to both participants and an unread
+     * delta of +1 to the receiver.
+     */
+    public void publishDirectMessage(Map<String, Object> message) {
+        int senderId = (int) message.get("senderId");
+        int receiverId = (int) message.get("receiverId");
+
+        Map<String, Object> event = event("message");
+        event.put("message", message);
+        sendToUser(senderId, event);
+        sendToUser(receiverId, event);
+
+        publishUnreadDelta(receiverId, senderId, 1);
+    }
+
+    /**
+     * Publishes a file attached to a direct message after it was sent, so
+     * both participants reload it with the file. Not counted as unread again.
+     */
+    public void publishDirectAttachment(Map<String, Object> message, Map<String, Object> file) {
+        int senderId = (int) message.get("senderId");
+        int receiverId = (int) message.get("receiverId");
+
+        Map<String, Object> event = event("attachment");
+        event.put("message", message);
+        event.put("file", file);
+        sendToUser(senderId, event);
+        sendToUser(receiverId, event);
+    }
+
+    /**
+     * Publishes a change in a user's unread count for one conversation.
+     */
+    public void publishUnreadDelta(int userId, int fromUserId, int delta) {
+        Map<String, Object> event = event("unread");
+        event.put("fromUserId", fromUserId);
+        event.put("delta", delta);
+        sendToUser(userId, event);
+    }
+
+    /**
+     * Publishes that a direct message was unsent. The row stays, unread
+     * state included, so the receiver's unread count does not change.
+     */
+    public void publishDirectUnsend(Map<String, Object> message) {
+        publishDirectRemoval("unsend", message, false);
+    }
+
+    /**
+     * Publishes that a direct message was deleted by its sender. Takes the
+     * message as it was before the delete so an unread receiver also gets a
+     * -1 delta.
+     */
+    public void publishDirectDelete(Map<String, Object> message) {
+        publishDirectRemoval("delete", message, true);
+    }
+
+    private void publishDirectRemoval(String type, Map<String, Object> message, boolean rowRemoved) {
+        int messageId = (int) message.get("id");
+        int senderId = (int) message.get("senderId");
+        int receiverId = (int) message.get("receiverId");
+
+        Map<String, Object> event = event(type);
+        event.put("messageId", messageId);
+        event.put("senderId", senderId);
+        event.put("receiverId", receiverId);
+        sendToUser(senderId, event);
+        sendToUser(receiverId, event);
+
+        if (rowRemoved && !Boolean.TRUE.equals(message.get("isRead"))) {
+            publishUnreadDelta(receiverId, senderId, -1);
+        }
+    }
+
+    /**
+     * Publishes a new group message to the group's topic.
+     */
+    public void publishGroupMessage(Map<String, Object> message) {
+        int groupId = (int) message.get("groupId");
+        Map<String, Object> event = event("message");
+        event.put("message", message);
+        sendToGroup(groupId, event);
+    }
+
+    /**
+     * Publishes a file attached to a group message after it was sent.
+     */
+    public void publishGroupAttachment(Map<String, Object> message, Map<String, Object> file) {
+        int groupId = (int) message.get("groupId");
+        Map<String, Object> event = event("attachment");
+        event.put("message", message);
+        event.put("file", file);
+        sendToGroup(groupId, event);
+    }
+
+    /**
+     * Publishes that a group message was unsent.
+     */
+    public void publishGroupUnsend(int groupId, int messageId) {
+        Map<String, Object> event = event("unsend");
+        event.put("groupId", groupId);
+        event.put("messageId", messageId);
+        sendToGroup(groupId, event);
+    }
+
+    private Map<String, Object> event(String type) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("timestamp", System.currentTimeMillis());
+        return event;
+    }
+
+    // Delivery is best effort: a broker failure must never fail the REST call
+    // that already committed the change. Clients resync on reconnect.
+    private void sendToUser(int userId, Map<String, Object> event) {
+        try {
+            messagingTemplate.convertAndSendToUser(String.valueOf(userId), USER_CHAT_TOPIC, event);
+        } catch (Exception e) {
+            logger.warn("Failed to push chat event to user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private void sendToGroup(int groupId, Map<String, Object> event) {
+        try {
+            messagingTemplate.convertAndSend(GROUP_CHAT_TOPIC_PREFIX + groupId, event);
+        } catch (Exception e) {
+            logger.warn("Failed to push chat event to group {}: {}", groupId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.mycompany.fstudymate.service;
+
+import com.mycompany.fstudymate.model.LearningMaterial;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import util.FileStorageService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Resumable chunked uploads to the SMB share.
+ *
+ * A client opens a session with the file size and gets a chunk size back,
+ * then PUTs chunks in any order (and in parallel), each with its SHA-256.
+ * Every verified chunk is written straight into a staging file on the
+ * share at its offset, so nothing is buffered on local disk and a dropped
+ * connection only loses the chunk in flight: the client asks for the
+ * session status and sends the missing chunks. Completing the session
+ * moves the staging file to its target path, or registers it as a
+ * learning material.
+ *
+ * Sessions live in memory and expire after {@link #SESSION_TTL_MS} without
+ * activity; their staging files are deleted then.
+ *
+ * A chunk is held in memory while it is verified and written. All uploads
+ * together hold at most {@code chunked-upload.max-buffered-bytes}; a chunk
+ * that does not fit within {@code chunked-upload.buffer-wait-ms} is
+ * refused with {@link UploadBusyException}, and the client sends it again.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    public static final int MIN_CHUNK_SIZE = 256 * 1024;
+    public static final int MAX_CHUNK_SIZE = 32 * 1024 * 1024;
+    public static final long MAX_FILE_SIZE = 10L * 1024 * 1024 * 1024;
+    public static final long SESSION_TTL_MS = 24L * 60 * 60 * 1000;
+
+    @Autowired
+    private LearningMaterialService materialService;
+
+    @Value("${chunked-upload.max-buffered-bytes:268435456}")
+    private long maxBufferedBytes;
+
+    @Value("${chunked-upload.buffer-wait-ms:10000}")
+    private long bufferWaitMs;
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    // Bytes of chunk buffers that may still be allocated
+    private Semaphore buffers;
+
+    @PostConstruct
+    public void init() {
+        // At least one chunk of the largest size must fit; permits are ints, so cap at 2 GB
+        buffers = new Semaphore((int) Math.min(Integer.MAX_VALUE, Math.max(maxBufferedBytes, MAX_CHUNK_SIZE)), true);
+    }
+
+    /**
+     * Opens a session that ends with the file at {@code targetPath} on the share.
+     */
+    public UploadSession createSession(String fileName, long fileSize, Integer chunkSize,
+                                       String contentType, String targetPath) throws IOException {
+        if (targetPath == null || targetPath.isBlank() || targetPath.contains("..")) {
+            throw new IllegalArgumentException("A valid target path is required");
+        }
+        UploadSession session = new UploadSession(fileName, fileSize, resolveChunkSize(chunkSize), contentType);
+        session.targetPath = targetPath;
+        return open(session);
+    }
+
+    /**
+     * Opens a session that ends with a new learning material in the subject directory.
+     */
+    public UploadSession createMaterialSession(String fileName, long fileSize, Integer chunkSize, String contentType,
+                                               String subjectCode, String path, String description,
+                                               Integer userId) throws IOException {
+        if (subjectCode == null || subjectCode.isBlank()) {
+            throw new IllegalArgumentException("Subject code is required");
+        }
+        if (!materialService.hasModifyPermission(userId)) {
+            throw new IllegalArgumentException("Insufficient permissions");
+        }
+        UploadSession session = new UploadSession(fileName, fileSize, resolveChunkSize(chunkSize), contentType);
+        session.subjectCode = subjectCode;
+        session.materialPath = path;
+        session.description = description;
+        session.userId = userId;
+        return open(session);
+    }
+
+    public UploadSession getSession(String uploadId) {
+        return sessions.get(uploadId);
+    }
+
+    /**
+     * Verifies a chunk against its SHA-256 and writes it at its offset in the staging file.
+     * Re-sending a chunk that was already stored with the same checksum is a no-op.
+     *
+     * @throws IllegalArgumentException if the index, length or checksum is wrong
+     * @throws IllegalStateException if the session is complete or the chunk is being written
+     * @throws UploadBusyException if the chunk cannot be buffered now
+     */
+    public UploadSession putChunk(String uploadId, int index, InputStream body, String sha256) throws IOException {
+        UploadSession session = requireSession(uploadId);
+        if (index < 0 || index >= session.totalChunks) {
+            throw new IllegalArgumentException("Chunk index out of range: " + index);
+        }
+        if (sha256 == null || sha256.isBlank()) {
+            throw new IllegalArgumentException("Chunk checksum (X-Chunk-Sha256) is required");
+        }
+        String expected = sha256.trim().toLowerCase();
+
+        synchronized (session) {
+            if (session.completed) {
+                throw new IllegalStateException("Upload already completed");
+            }
+            if (session.received.get(index) && expected.equals(session.checksums.get(index))) {
+                session.touch();
+                return session;
+            }
+            // complete() waits for chunks being written, so mark it under the same lock
+            if (!session.writing.add(index)) {
+                throw new IllegalStateException("Chunk " + index + " is already being uploaded");
+            }
+        }
+
+        try {
+            int length = session.chunkLength(index);
+            String actual;
+            acquireBuffer(length);
+            try {
+                byte[] data = readChunk(body, length);
+                actual = sha256Hex(data, length);
+                if (!actual.equals(expected)) {
+                    throw new IllegalArgumentException("Checksum mismatch for chunk " + index);
+                }
+
+                FileStorageService.writeAt(session.stagedPath, (long) index * session.chunkSize, data, length);
+            } finally {
+                buffers.release(length);
+            }
+            if (sessions.get(uploadId) != session) {
+                // Aborted or expired while writing; the write may have recreated the staging file
+                FileStorageService.deleteFile(session.stagedPath);
+                throw new IllegalArgumentException("Upload session not found: " + uploadId);
+            }
+
+            synchronized (session) {
+                if (!session.received.get(index)) {
+                    session.bytesReceived += length;
+                }
+                session.received.set(index);
+                session.checksums.put(index, actual);
+                session.touch();
+            }
+            return session;
+        } finally {
+            session.writing.remove(index);
+        }
+    }
+
+    /**
+     * Finishes an upload whose chunks have all been received.
+     *
+     * @return the final path, plus the material entity for material uploads
+     * @throws IllegalStateException if chunks are still missing
+     */
+    public Map<String, Object> complete(String uploadId) throws IOException {
+        UploadSession session = requireSession(uploadId);
+        synchronized (session) {
+            if (session.completed) {
+                throw new IllegalStateException("Upload already completed");
+            }
+            if (session.received.cardinality() != session.totalChunks || !session.writing.isEmpty()) {
+                throw new IllegalStateException("Upload incomplete: " + session.missingChunks().size() + " chunks missing");
+            }
+            session.completed = true;
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        try {
+            if (session.subjectCode != null) {
+                LearningMaterial material = materialService.registerUploadedMaterial(
+                        session.subjectCode, session.stagedPath, session.fileName, session.fileSize,
+                        session.contentType, session.materialPath, session.description, session.userId);
+                result.put("material", material);
+                result.put("filePath", material.getFilePath());
+            } else {
+                FileStorageService.moveFile(session.stagedPath, session.targetPath);
+                result.put("filePath", session.targetPath);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Leave the session open so the client can retry completion
+            synchronized (session) {
+                session.completed = false;
+            }
+            throw e;
+        }
+
+        sessions.remove(uploadId);
+        logger.info("Chunked upload {} completed: {} ({} bytes)", uploadId, result.get("filePath"), session.fileSize);
+        result.put("uploadId", uploadId);
+        result.put("fileSize", session.fileSize);
+        return result;
+    }
+
+    /**
+     * Cancels an upload and deletes its staging file.
+     */
+    public boolean abort(String uploadId) {
+        UploadSession session = sessions.remove(uploadId);
+        if (session == null) {
+            return false;
+        }
+        FileStorageService.deleteFile(session.stagedPath);
+        logger.info("Chunked upload {} aborted", uploadId);
+        return true;
+    }
+
+    @Scheduled(fixedRate = 3600000) // Every hour
+    public void expireSessions() {
+        long cutoff = System.currentTimeMillis() - SESSION_TTL_MS;
+        for (UploadSession session : new ArrayList<>(sessions.values())) {
+            if (session.lastActivity < cutoff && !session.completed) {
+                logger.info("Expiring idle chunked upload {}", session.uploadId);
+                abort(session.uploadId);
+            }
+        }
+    }
+
+    private void acquireBuffer(int length) {
+        try {
+            if (!buffers.tryAcquire(length, bufferWaitMs, TimeUnit.MILLISECONDS)) {
+                throw new UploadBusyException("Too many chunks in flight, retry later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UploadBusyException("Interrupted while waiting to buffer chunk");
+        }
+    }
+
+    private UploadSession open(UploadSession session) throws IOException {
+        session.stagedPath = FileStorageService.createStagingFile(session.uploadId, session.fileSize);
+        sessions.put(session.uploadId, session);
+        logger.info("Opened chunked upload {} for {} ({} bytes, {} chunks of {})",
+                session.uploadId, session.fileName, session.fileSize, session.totalChunks, session.chunkSize);
+        return session;
+    }
+
+    private UploadSession requireSession(String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            throw new IllegalArgumentException("Upload session not found: " + uploadId);
+        }
+        return session;
+    }
+
+    private static int resolveChunkSize(Integer requested) {
+        if (requested == null) {
+            return DEFAULT_CHUNK_SIZE;
+        }
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, requested));
+    }
+
+    private static byte[] readChunk(InputStream body, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = body.read(data, read, length - read);
+            if (n == -1) {
+                throw new IllegalArgumentException("Chunk truncated: expected " + length + " bytes, got " + read);
+            }
+            read += n;
+        }
+        if (body.read() != -1) {
+            throw new IllegalArgumentException("Chunk larger than expected " + length + " bytes");
+        }
+        return data;
+    }
+
+    private static String sha256Hex(byte[] data, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, 0, length);
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * A chunk was refused because the chunk buffers of all uploads are in use.
+     */
+    public static class UploadBusyException extends IllegalStateException {
+        public UploadBusyException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * State of one chunked upload. Mutable fields are guarded by the session itself.
+     */
+    public static class UploadSession {
+        private final String uploadId = UUID.randomUUID().toString();
+        private final String fileName;
+        private final long fileSize;
+        private final int chunkSize;
+        private final int totalChunks;
+        private final String contentType;
+        private final long createdAt = System.currentTimeMillis();
+
+        private String stagedPath;
+        private String targetPath;
+        private String subjectCode;
+        private String materialPath;
+        private String description;
+        private Integer userId;
+
+        private final BitSet received = new BitSet();
+        private final Map<Integer, String> checksums = new HashMap<>();
+        private final Set<Integer> writing = ConcurrentHashMap.newKeySet();
+        private long bytesReceived;
+        private volatile long lastActivity = createdAt;
+        private boolean completed;
+
+        UploadSession(String fileName, long fileSize, int chunkSize, String contentType) {
+            if (fileName == null || fileName.isBlank()) {
+                throw new IllegalArgumentException("File name is required");
+            }
+            if (fileSize <= 0 || fileSize > MAX_FILE_SIZE) {
+                throw new IllegalArgumentException("File size must be between 1 and " + MAX_FILE_SIZE + " bytes");
+            }
+            long chunks = (fileSize + chunkSize - 1) / chunkSize;
+            if (chunks > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("File too large for chunk size " + chunkSize);
+            }
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.chunkSize = chunkSize;
+            this.totalChunks = (int) chunks;
+            this.contentType = contentType;
+        }
+
+        public String getUploadId() {
+            return uploadId;
+        }
+
+        int chunkLength(int index) {
+            long start = (long) index * chunkSize;
+            return (int) Math.min(chunkSize, fileSize - start);
+        }
+
+        void touch() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        synchronized List<Integer> missingChunks() {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = received.nextClearBit(0); i < totalChunks; i = received.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+            return missing;
+        }
+
+        /**
+         * Status returned to the client; {@code missingChunks} is what to (re)send when resuming.
+         */
+        public synchronized Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("uploadId", uploadId);
+            map.put("fileName", fileName);
+            map.put("fileSize", fileSize);
+            map.put("chunkSize", chunkSize);
+            map.put("totalChunks", totalChunks);
+            map.put("receivedChunks", received.cardinality());
+            map.put("missingChunks", missingChunks());
+            map.put("bytesReceived", bytesReceived);
+            map.put("completed", completed);
+            map.put("createdAt", createdAt);
+            return map;
+        }
+    }
+}
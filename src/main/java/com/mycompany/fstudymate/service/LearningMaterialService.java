@@ -2,6 +2,7 @@
 
 import com.mycompany.fstudymate.model.LearningMaterial;
 import com.mycompany.fstudymate.model.User;
+import jcifs.smb.SmbFile;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
@@ -34,6 +35,22 @@ public interface LearningMaterialService {
      */
     LearningMaterial uploadFile(String subjectCode, MultipartFile file, String path, String description, Integer userId) throws IOException;
     
+    /**
+     * Register a file that was already uploaded to the SMB staging area (chunked upload)
+     * by moving it into the subject directory and saving its material entity
+     * @param subjectCode Code of the subject
+     * @param stagedPath SMB path of the fully uploaded staging file
+     * @param originalFileName Original name of the file
+     * @param fileSize Size of the file in bytes
+     * @param contentType MIME type of the file (optional)
+     * @param path Directory path within the subject (optional)
+     * @param description Description of the file (optional)
+     * @param userId ID of the user uploading the file
+     * @return The saved material entity
+     */
+    LearningMaterial registerUploadedMaterial(String subjectCode, String stagedPath, String originalFileName, long fileSize,
+                                              String contentType, String path, String description, Integer userId) throws IOException;
+    
     /**
      * Create a directory in a subject path
      * @param subjectCode Code of the subject
@@ -66,6 +83,13 @@ public interface LearningMaterialService {
      */
     File downloadMaterial(Integer materialId) throws IOException;
     
+    /**
+     * Open a material file on the SMB server for streaming
+     * @param materialId ID of the material
+     * @return SMB handle for the material, to be passed to FileStorageService.streamFile
+     */
+    SmbFile openMaterial(Integer materialId) throws IOException;
+    
     /**
      * Update material metadata
      * @param materialId ID of the material
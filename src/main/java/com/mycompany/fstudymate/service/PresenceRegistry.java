@@ -0,0 +1,542 @@
+package com.mycompany.fstudymate.service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mycompany.fstudymate.dto.UserActivityDTO;
+
+/**
+ * In-memory registry of who is online, shared by the admin panel and the
+ * video call polling.
+ *
+ * Activity heartbeats keep one entry per session token for
+ * {@code presence.session-retention-minutes}; video call polls keep one
+ * entry per user ID for {@code presence.call-timeout-seconds}. Refreshing an
+ * entry is a volatile write, and listing who is online walks only the
+ * entries present, so neither touches the database. The database is
+ * written by the periodic {@link ActivityIngestionService} flush alone,
+ * which reports back the session ID and expiry time of each token it wrote.
+ *
+ * Entries are expired by a hashed timing wheel of {@code presence.tick-ms}
+ * slots, advanced by a single thread. Refreshes do not move an entry
+ * between slots: when its slot comes up, an entry that was seen since is
+ * moved to the slot of its new deadline, otherwise it is dropped. An entry
+ * due on a later turn of the wheel, e.g. after the ticker fell behind, stays
+ * in its slot. New entries are handed to that thread through a lock-free
+ * queue. A session
+ * entry is also dropped once its session's expiry time has passed; an
+ * expiry time earlier than the entry's deadline re-queues it.
+ *
+ * On startup the sessions active within the retention window are loaded
+ * once from user_sessions, on a thread of its own so the wheel keeps
+ * turning, and a restart does not empty the admin panel.
+ */
+@Component
+public class PresenceRegistry {
+
+    private static final Logger logger = Logger.getLogger(PresenceRegistry.class.getName());
+
+    private static final String ACTIVE_SESSIONS_SQL =
+            "SELECT s.id, s.user_id, s.session_token, s.last_activity, s.created_at, s.expiry_time, " +
+            "s.current_page, s.duration, s.ip_address, d.browser_name, d.browser_version, d.os_name, d.os_version " +
+            "FROM user_sessions s LEFT JOIN user_activity_details d ON d.id = " +
+            "(SELECT d2.id FROM user_activity_details d2 WHERE d2.session_id = s.id " +
+            " ORDER BY d2.created_at DESC, d2.id DESC LIMIT 1) " +
+            "WHERE s.last_activity > ? AND s.is_expired = 0 AND s.session_token IS NOT NULL " +
+            "ORDER BY s.last_activity DESC, s.id DESC";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${presence.session-retention-minutes:30}")
+    private int sessionRetentionMinutes;
+
+    @Value("${presence.call-timeout-seconds:60}")
+    private int callTimeoutSeconds;
+
+    @Value("${presence.tick-ms:1000}")
+    private long tickMs;
+
+    private final ConcurrentHashMap<String, Presence> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Presence> callers = new ConcurrentHashMap<>();
+
+    // New entries, moved into the wheel on the next tick
+    private final ConcurrentLinkedQueue<Presence> incoming = new ConcurrentLinkedQueue<>();
+
+    // Wheel state; only used by the ticker thread
+    private ArrayDeque<Placement>[] wheel;
+    private ArrayDeque<Placement> spare = new ArrayDeque<>();
+    private long tick;
+
+    private ScheduledExecutorService ticker;
+
+    private final LongAdder touches = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rescheduled = new LongAdder();
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        long span = Math.max(sessionRetentionMinutes * 60000L, callTimeoutSeconds * 1000L);
+        wheel = new ArrayDeque[(int) (span / tickMs) + 2];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        tick = System.currentTimeMillis() / tickMs;
+
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::advanceSafely, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Loads the sessions that were active before the restart
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread loader = new Thread(this::loadActiveSessions, "presence-load");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Records an activity heartbeat
+     */
+    public void touchSession(UserActivityDTO activity) {
+        Presence p = touch(sessions, activity.getSessionToken(), true,
+                activity.getUserId() != null ? activity.getUserId().toString() : null);
+        if (activity.getUserId() != null) {
+            p.userId = activity.getUserId().toString();
+        }
+        p.currentPage = activity.getCurrentPage();
+        p.duration = activity.getDuration();
+        p.ipAddress = activity.getIpAddress();
+        if (activity.getDevice() != null) {
+            p.device = describeDevice(activity.getDevice());
+        }
+    }
+
+    /**
+     * Records that a session token was written to its session, so the
+     * entry carries the session ID and expires with the session
+     */
+    public void sessionWritten(String sessionToken, int sessionId, LocalDateTime createdAt, LocalDateTime expiryTime) {
+        Presence p = sessions.get(sessionToken);
+        if (p == null) {
+            return;
+        }
+        p.sessionId = sessionId;
+        if (createdAt != null) {
+            p.createdAt = createdAt;
+        }
+        long deadline = p.deadline();
+        p.expiryTime = expiryTime;
+        p.expiresAtMillis = expiryTime != null ? toMillis(expiryTime) : Long.MAX_VALUE;
+        if (p.deadline() < deadline) {
+            // Its slot comes up too late now; the copy left there is skipped
+            incoming.add(p);
+        }
+    }
+
+    /**
+     * Records a video call poll of a user
+     */
+    public void touchUser(String userId) {
+        if (userId == null || userId.isEmpty() || "null".equals(userId)) {
+            return;
+        }
+        touch(callers, userId, false, userId);
+    }
+
+    /**
+     * Drops a session token, e.g. after a force logout
+     */
+    public void removeSession(String sessionToken) {
+        if (sessionToken == null) {
+            return;
+        }
+        Presence p = sessions.remove(sessionToken);
+        if (p != null) {
+            p.removed = true;
+        }
+    }
+
+    /**
+     * Users seen within the given time, from any source
+     *
+     * @return last seen time (epoch millis) by user ID
+     */
+    public Map<String, Long> getOnlineUsers(long maxAgeMillis) {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        Map<String, Long> users = new HashMap<>();
+        for (ConcurrentHashMap<String, Presence> map : List.of(sessions, callers)) {
+            for (Presence p : map.values()) {
+                long lastSeen = p.lastSeen;
+                if (p.userId != null && lastSeen > cutoff) {
+                    users.merge(p.userId, lastSeen, Math::max);
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Sessions seen within the given time; at most
+     * {@code presence.session-retention-minutes} back
+     */
+    public List<SessionPresence> getOnlineSessions(long maxAgeMillis) {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        List<SessionPresence> online = new ArrayList<>();
+        for (Presence p : sessions.values()) {
+            if (p.lastSeen > cutoff) {
+                online.add(new SessionPresence(p));
+            }
+        }
+        return online;
+    }
+
+    /**
+     * Number of sessions seen within the given time
+     */
+    public int countOnlineSessions(long maxAgeMillis) {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        int count = 0;
+        for (Presence p : sessions.values()) {
+            if (p.lastSeen > cutoff) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Snapshot of the registry counters, for monitoring.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", sessions.size());
+        stats.put("callers", callers.size());
+        stats.put("touches", touches.sum());
+        stats.put("expired", expired.sum());
+        stats.put("rescheduled", rescheduled.sum());
+        stats.put("wheelSlots", wheel.length);
+        return stats;
+    }
+
+    private Presence touch(ConcurrentHashMap<String, Presence> map, String key, boolean session, String userId) {
+        touches.increment();
+        while (true) {
+            long now = System.currentTimeMillis();
+            Presence p = map.get(key);
+            if (p == null) {
+                Presence created = new Presence(key, session, userId,
+                        session ? sessionRetentionMinutes * 60000L : callTimeoutSeconds * 1000L, now);
+                p = map.putIfAbsent(key, created);
+                if (p == null) {
+                    incoming.add(created);
+                    return created;
+                }
+            }
+            p.lastSeen = now;
+            // Expired or removed meanwhile: the refresh may be lost, start over
+            if (map.get(key) == p) {
+                return p;
+            }
+        }
+    }
+
+    private void advanceSafely() {
+        try {
+            advance();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Error advancing presence wheel: " + e.getMessage(), e);
+        }
+    }
+
+    private void advance() {
+        long now = System.currentTimeMillis();
+        long nowTick = now / tickMs;
+
+        Presence p;
+        while ((p = incoming.poll()) != null) {
+            place(p);
+        }
+
+        // After a long stall one turn visits every slot
+        if (nowTick - tick > wheel.length) {
+            tick = nowTick - wheel.length;
+        }
+        while (tick < nowTick) {
+            tick++;
+            int slot = (int) (tick % wheel.length);
+            ArrayDeque<Placement> due = wheel[slot];
+            wheel[slot] = spare;
+            for (Placement placement : due) {
+                Presence entry = placement.presence;
+                // Moved to an earlier slot since it was placed here
+                if (entry.removed || entry.placement != placement) {
+                    continue;
+                }
+                if (placement.tick > tick) {
+                    // Due on a later turn
+                    wheel[slot].add(placement);
+                    continue;
+                }
+                if (entry.deadline() <= now) {
+                    expire(entry, now);
+                } else {
+                    place(entry);
+                    rescheduled.increment();
+                }
+            }
+            due.clear();
+            spare = due;
+        }
+    }
+
+    private void place(Presence p) {
+        long deadlineTick = Math.max(p.deadline() / tickMs, tick + 1);
+        p.placement = new Placement(p, deadlineTick);
+        wheel[(int) (deadlineTick % wheel.length)].add(p.placement);
+    }
+
+    private void expire(Presence p, long now) {
+        ConcurrentHashMap<String, Presence> map = p.session ? sessions : callers;
+        if (map.remove(p.key, p) && p.deadline() > now && map.putIfAbsent(p.key, p) == null) {
+            // Refreshed while being removed
+            place(p);
+            return;
+        }
+        p.removed = true;
+        expired.increment();
+    }
+
+    private void loadActiveSessions() {
+        try {
+            long startTime = System.currentTimeMillis();
+            LocalDateTime cutoff = LocalDateTime.now().minusMinutes(sessionRetentionMinutes);
+            long retentionMs = sessionRetentionMinutes * 60000L;
+            int[] loaded = {0};
+            jdbcTemplate.query(ACTIVE_SESSIONS_SQL, rs -> {
+                Presence p = new Presence(rs.getString("session_token"), true, rs.getString("user_id"),
+                        retentionMs, rs.getTimestamp("last_activity").getTime());
+                p.sessionId = rs.getInt("id");
+                p.createdAt = toLocalDateTime(rs.getTimestamp("created_at"));
+                p.expiryTime = toLocalDateTime(rs.getTimestamp("expiry_time"));
+                p.expiresAtMillis = p.expiryTime != null ? toMillis(p.expiryTime) : Long.MAX_VALUE;
+                p.currentPage = rs.getString("current_page");
+                p.duration = (Integer) rs.getObject("duration");
+                p.ipAddress = rs.getString("ip_address");
+                p.device = describeDevice(rs.getString("browser_name"), rs.getString("browser_version"),
+                        rs.getString("os_name"), rs.getString("os_version"));
+                // Heartbeats received since the start win
+                if (sessions.putIfAbsent(p.key, p) == null) {
+                    incoming.add(p);
+                    loaded[0]++;
+                }
+            }, Timestamp.valueOf(cutoff));
+            logger.info("Loaded " + loaded[0] + " active sessions into the presence registry in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Error loading active sessions: " + e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String describeDevice(Map<String, Object> device) {
+        Map<String, Object> browser = device.get("browser") instanceof Map ? (Map<String, Object>) device.get("browser") : Map.of();
+        Map<String, Object> os = device.get("os") instanceof Map ? (Map<String, Object>) device.get("os") : Map.of();
+        return describeDevice(stringOf(browser.get("name")), stringOf(browser.get("version")),
+                stringOf(os.get("name")), stringOf(os.get("version")));
+    }
+
+    // Same format the admin panel always showed
+    private static String describeDevice(String browserName, String browserVersion, String osName, String osVersion) {
+        if (browserName == null && browserVersion == null && osName == null && osVersion == null) {
+            return "Unknown";
+        }
+        return (browserName != null ? browserName : "Unknown") +
+                " " + (browserVersion != null ? browserVersion : "") +
+                " / " + (osName != null ? osName : "Unknown") +
+                " " + (osVersion != null ? osVersion : "");
+    }
+
+    private static String stringOf(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+
+    /**
+     * Point-in-time view of an online session
+     */
+    public static final class SessionPresence {
+        private final Integer sessionId;
+        private final Integer userId;
+        private final String sessionToken;
+        private final LocalDateTime lastSeen;
+        private final LocalDateTime createdAt;
+        private final LocalDateTime expiryTime;
+        private final String currentPage;
+        private final Integer duration;
+        private final String ipAddress;
+        private final String device;
+
+        private SessionPresence(Presence p) {
+            this.sessionId = p.sessionId;
+            this.userId = parseUserId(p.userId);
+            this.sessionToken = p.key;
+            this.lastSeen = LocalDateTime.ofInstant(Instant.ofEpochMilli(p.lastSeen), ZoneId.systemDefault());
+            this.createdAt = p.createdAt;
+            this.expiryTime = p.expiryTime;
+            this.currentPage = p.currentPage;
+            this.duration = p.duration;
+            this.ipAddress = p.ipAddress;
+            this.device = p.device != null ? p.device : "Unknown";
+        }
+
+        private static Integer parseUserId(String userId) {
+            try {
+                return userId != null ? Integer.valueOf(userId) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Null until the session was first written
+         */
+        public Integer getSessionId() {
+            return sessionId;
+        }
+
+        public Integer getUserId() {
+            return userId;
+        }
+
+        public String getSessionToken() {
+            return sessionToken;
+        }
+
+        public LocalDateTime getLastSeen() {
+            return lastSeen;
+        }
+
+        public LocalDateTime getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * Null until the session was first written
+         */
+        public LocalDateTime getExpiryTime() {
+            return expiryTime;
+        }
+
+        public String getCurrentPage() {
+            return currentPage;
+        }
+
+        public Integer getDuration() {
+            return duration;
+        }
+
+        public String getIpAddress() {
+            return ipAddress;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+    }
+
+    /**
+     * One session token or video call user
+     */
+    private static class Presence {
+        final String key;
+        final boolean session;
+        final long ttlMillis;
+        volatile long lastSeen;
+        volatile boolean removed;
+        volatile String userId;
+        // Where the entry is due in the wheel; only used by the ticker thread
+        Placement placement;
+
+        // Session entries only
+        volatile Integer sessionId;
+        volatile LocalDateTime createdAt;
+        volatile LocalDateTime expiryTime;
+        volatile long expiresAtMillis = Long.MAX_VALUE;
+        volatile String currentPage;
+        volatile Integer duration;
+        volatile String ipAddress;
+        volatile String device;
+
+        Presence(String key, boolean session, String userId, long ttlMillis, long lastSeen) {
+            this.key = key;
+            this.session = session;
+            this.userId = userId;
+            this.ttlMillis = ttlMillis;
+            this.lastSeen = lastSeen;
+            this.createdAt = LocalDateTime.ofInstant(Instant.ofEpochMilli(lastSeen), ZoneId.systemDefault());
+        }
+
+        long deadline() {
+            return Math.min(lastSeen + ttlMillis, expiresAtMillis);
+        }
+    }
+
+    /**
+     * An entry in a wheel slot; stale once its presence was placed again
+     */
+    private static final class Placement {
+        final Presence presence;
+        final long tick;
+
+        Placement(Presence presence, long tick) {
+            this.presence = presence;
+            this.tick = tick;
+        }
+    }
+}
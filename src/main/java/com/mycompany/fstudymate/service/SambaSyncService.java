@@ -6,10 +6,16 @@
 import com.mycompany.fstudymate.repository.LearningMaterialRepository;
 import com.mycompany.fstudymate.repository.SubjectRepository;
 import com.mycompany.fstudymate.repository.UserRepository;
+import connection.BatchExecutor;
+import dao.SmbDirectoryIndexDAO;
+import dao.SmbDirectoryIndexDAO.DirectoryState;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
@@ -17,37 +23,111 @@
 import jcifs.CIFSContext;
 import jcifs.CIFSException;
 import jcifs.smb.SmbFile;
+import util.ContentStore;
 import util.FileStorageService;
 import util.CIFSContextUtil;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
 
 /**
- * Service that periodically scans Samba directories and syncs them with the database
+ * Service that periodically scans Samba directories and syncs them with the database.
+ *
+ * Syncs are incremental. Every directory listing is fingerprinted (names,
+ * sizes and modification times of its entries) in smb_directory_index, and a
+ * directory whose fingerprint is unchanged costs no database work. On
+ * incremental runs a subdirectory whose own modification time is unchanged
+ * is not walked at all; since that misses edits deeper in the tree, every
+ * {@code samba.sync.full-scan-every}th run (and the first after startup)
+ * walks everything. Subjects are synced in parallel on a bounded pool, and
+ * the changes of a subject are written in JDBC batches.
+ *
+ * Browsing a directory never scans it inline: {@link #refreshIfStale} queues
+ * a one-level refresh on the same pool when the directory was last indexed
+ * more than {@code samba.index.stale-after-seconds} ago.
  */
 @Service
 @EnableScheduling
 public class SambaSyncService {
-    
+
     private static final Logger logger = LoggerFactory.getLogger(SambaSyncService.class);
     private static final String LEARNING_MATERIALS_DIR = "LearningMaterials";
     private static final int MAX_SCAN_DEPTH = 10; // Prevent infinite recursion
     private static final int SYSTEM_USER_ID = 9; // ID of the system user (admin)
-    
+
+    private static final String INSERT_MATERIAL_SQL =
+            "INSERT INTO learning_materials (file_name, original_file_name, file_path, file_size, file_type, " +
+            "upload_date, subject_id, uploaded_by, is_directory, parent_path, description) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SIZE_SQL = "UPDATE learning_materials SET file_size = ? WHERE id = ?";
+    private static final String DELETE_MATERIAL_SQL = "DELETE FROM learning_materials WHERE id = ?";
+    // Also removes rows backed by a content blob; their references are released after the delete
+    private static final String DELETE_SUBTREE_SQL =
+            "DELETE FROM learning_materials WHERE subject_id = ? AND parent_path LIKE ? ESCAPE '!'";
+
     @Autowired
     private LearningMaterialRepository materialRepository;
-    
+
     @Autowired
     private SubjectRepository subjectRepository;
-    
+
     @Autowired
     private UserRepository userRepository;
-    
+
+    @Autowired
+    private SmbDirectoryIndexDAO directoryIndexDAO;
+
+    @Value("${samba.sync.threads:4}")
+    private int syncThreads;
+
+    @Value("${samba.sync.full-scan-every:6}")
+    private int fullScanEvery;
+
+    @Value("${samba.index.stale-after-seconds:300}")
+    private long staleAfterSeconds;
+
+    private ExecutorService syncPool;
+    private final AtomicBoolean syncRunning = new AtomicBoolean(false);
+    private final AtomicInteger syncRuns = new AtomicInteger(0);
+
+    // Held while a subject's rows are diffed, so a sync and a refresh never insert the same entry twice
+    private final Map<Integer, ReentrantLock> subjectLocks = new ConcurrentHashMap<>();
+    // When each directory ("subjectId:/path/") was last indexed, in epoch millis
+    private final Map<String, Long> indexedAt = new ConcurrentHashMap<>();
+    private final Set<String> pendingRefreshes = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        syncPool = Executors.newFixedThreadPool(Math.max(1, syncThreads), r -> {
+            Thread t = new Thread(r, "samba-sync-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        syncPool.shutdownNow();
+    }
+
     /**
      * Creates and returns a CIFSContext for Samba operations
      */
@@ -59,189 +139,292 @@ private CIFSContext createContext() throws CIFSException {
             throw new CIFSException("Failed to create CIFS context");
         }
     }
-    
+
     /**
-     * Scheduled task that runs every hour to sync Samba directories with the database
+     * Scheduled task that syncs Samba directories with the database an hour
+     * after the previous run finished
      * @return Map containing sync results
      */
-    @Scheduled(fixedRate = 3600000) // Run every hour (3600000 ms)
+    @Scheduled(fixedDelay = 3600000) // Run every hour (3600000 ms) without overlapping
     public Map<String, Object> syncSambaDirectories() {
-        logger.info("Starting scheduled Samba directory sync");
+        return syncSambaDirectories(false);
+    }
+
+    /**
+     * Sync Samba directories with the database
+     * @param fullScan walk every directory instead of skipping unchanged subtrees
+     * @return Map containing sync results; status "skipped" if a sync is already running
+     */
+    public Map<String, Object> syncSambaDirectories(boolean fullScan) {
         Map<String, Object> results = new HashMap<>();
-        Map<String, Object> subjectResults = new HashMap<>();
-        
-        int totalFilesProcessed = 0;
-        int totalDirectoriesProcessed = 0;
-        int totalFilesDeleted = 0;
-        int totalSubjectsProcessed = 0;
-        int totalSubjectsWithErrors = 0;
-        
+        if (!syncRunning.compareAndSet(false, true)) {
+            logger.info("Samba directory sync already running, skipping this run");
+            results.put("status", "skipped");
+            results.put("message", "A Samba directory sync is already running");
+            return results;
+        }
+
         try {
+            int run = syncRuns.getAndIncrement();
+            boolean full = fullScan || fullScanEvery <= 1 || run % fullScanEvery == 0;
+            logger.info("Starting {} Samba directory sync", full ? "full" : "incremental");
+            results.put("fullScan", full);
+
+            Map<String, Object> subjectResults = new HashMap<>();
+            int totalFilesProcessed = 0;
+            int totalFilesAdded = 0;
+            int totalFilesDeleted = 0;
+            int totalDirectoriesSkipped = 0;
+            int totalSubjectsProcessed = 0;
+            int totalSubjectsWithErrors = 0;
+
             // Get all subjects
             List<Subject> subjects = subjectRepository.findAll();
             results.put("totalSubjects", subjects.size());
-            
+
             if (subjects.isEmpty()) {
                 logger.warn("No subjects found in the database");
                 results.put("status", "warning");
                 results.put("message", "No subjects found in the database");
                 return results;
             }
-            
+
             // Get system user for file ownership
             User systemUser = userRepository.findById(SYSTEM_USER_ID)
                     .orElseThrow(() -> new RuntimeException("System user not found"));
-            
-            // Get CIFS context
-            CIFSContext context = createContext();
-            
-            // Process each subject
+
+            List<Future<Map<String, Object>>> futures = new ArrayList<>(subjects.size());
             for (Subject subject : subjects) {
-                Map<String, Object> subjectResult = new HashMap<>();
+                futures.add(syncPool.submit(() -> syncSubject(subject, systemUser, full)));
+            }
+
+            for (int i = 0; i < subjects.size(); i++) {
+                Subject subject = subjects.get(i);
+                Map<String, Object> subjectResult;
                 try {
-                    logger.info("Processing subject: {}", subject.getName());
-                    
-                    // Use subject code for directory name, fall back to sanitized name if code is null
-                    String directoryName;
-                    if (subject.getCode() != null && !subject.getCode().isEmpty()) {
-                        directoryName = subject.getCode();
-                        logger.info("Using subject code for directory: {}", directoryName);
-                    } else {
-                        directoryName = sanitizeDirectoryName(subject.getName());
-                        logger.info("Subject code not found, using sanitized name: {}", directoryName);
-                    }
-                    
-                    String subjectPath = LEARNING_MATERIALS_DIR + "/" + directoryName + "/";
-                    SmbFile subjectDir = new SmbFile(FileStorageService.SMB_BASE_PATH + subjectPath, context);
-                    
-                    // Create directory if it doesn't exist
-                    if (!subjectDir.exists()) {
-                        logger.info("Subject directory doesn't exist, creating: {}", subjectPath);
-                        subjectDir.mkdirs();
-                        subjectResult.put("directoryCreated", true);
-                        
-                        // Add the root directory to the database if it doesn't exist
-                        Optional<LearningMaterial> existingDir = materialRepository.findBySubjectAndFileNameAndParentPath(
-                                subject, directoryName, "/");
-                        
-                        if (existingDir.isEmpty()) {
-                            logger.info("Adding root directory to database: {}", directoryName);
-                            LearningMaterial material = new LearningMaterial();
-                            material.setFileName(directoryName);
-                            material.setOriginalFileName(subject.getName());
-                            material.setFilePath(LEARNING_MATERIALS_DIR + "/" + directoryName);
-                            material.setUploadDate(LocalDateTime.now());
-                            material.setSubject(subject);
-                            material.setUploadedBy(systemUser);
-                            material.setIsDirectory(true);
-                            material.setParentPath("/");
-                            material.setDescription("Subject Root Directory");
-                            
-                            materialRepository.save(material);
-                            subjectResult.put("rootDirectoryCreated", true);
-                        }
-                    } else {
-                        subjectResult.put("directoryCreated", false);
-                    }
-                    
-                    // Scan the directory recursively
-                    logger.info("Starting recursive scan of directory: {}", subjectPath);
-                    int filesFound = scanDirectory(subjectDir, subject, systemUser, "/", 0);
-                    logger.info("Completed recursive scan, found {} files/directories", filesFound);
-                    subjectResult.put("filesProcessed", filesFound);
-                    totalFilesProcessed += filesFound;
-                    
-                    // Check for deleted files
-                    logger.info("Checking for deleted files in subject: {}", subject.getName());
-                    int deletedCount = checkForDeletedFiles(subject, subjectPath);
-                    logger.info("Completed deleted files check, removed {} entries", deletedCount);
-                    subjectResult.put("filesDeleted", deletedCount);
-                    totalFilesDeleted += deletedCount;
-                    
-                    subjectResult.put("status", "success");
-                    totalSubjectsProcessed++;
-                } catch (Exception e) {
-                    logger.error("Error syncing subject directory for {}: {}", subject.getName(), e.getMessage(), e);
+                    subjectResult = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    logger.error("Error syncing subject directory for {}: {}", subject.getName(), e.getCause().getMessage(), e.getCause());
+                    subjectResult = new HashMap<>();
                     subjectResult.put("status", "error");
-                    subjectResult.put("error", e.getMessage());
+                    subjectResult.put("error", e.getCause().getMessage());
+                }
+
+                if ("success".equals(subjectResult.get("status"))) {
+                    totalSubjectsProcessed++;
+                    totalFilesProcessed += (Integer) subjectResult.get("filesProcessed");
+                    totalFilesAdded += (Integer) subjectResult.get("filesAdded");
+                    totalFilesDeleted += (Integer) subjectResult.get("filesDeleted");
+                    totalDirectoriesSkipped += (Integer) subjectResult.get("directoriesSkipped");
+                } else {
                     totalSubjectsWithErrors++;
                 }
-                
                 subjectResults.put(subject.getName(), subjectResult);
             }
-            
+
             results.put("subjects", subjectResults);
             results.put("totalFilesProcessed", totalFilesProcessed);
+            results.put("totalFilesAdded", totalFilesAdded);
             results.put("totalFilesDeleted", totalFilesDeleted);
+            results.put("totalDirectoriesSkipped", totalDirectoriesSkipped);
             results.put("totalSubjectsProcessed", totalSubjectsProcessed);
             results.put("totalSubjectsWithErrors", totalSubjectsWithErrors);
             results.put("status", totalSubjectsWithErrors > 0 ? "partial" : "success");
-            
-            logger.info("Completed scheduled Samba directory sync");
+
+            logger.info("Completed Samba directory sync: {} entries listed, {} added, {} deleted, {} subtrees skipped",
+                    totalFilesProcessed, totalFilesAdded, totalFilesDeleted, totalDirectoriesSkipped);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Samba directory sync interrupted");
+            results.put("status", "error");
+            results.put("error", "Sync interrupted");
         } catch (Exception e) {
             logger.error("Error during Samba directory sync: {}", e.getMessage(), e);
             results.put("status", "error");
             results.put("error", e.getMessage());
+        } finally {
+            syncRunning.set(false);
         }
-        
+
         return results;
     }
-    
+
     /**
-     * Sync a specific subject directory
+     * Sync one subject directory; runs on the sync pool
      */
-    private void syncSubjectDirectory(Subject subject, User systemUser, CIFSContext context) throws IOException {
-        logger.info("Syncing subject directory: {}", subject.getName());
-        
-        String sanitizedSubjectName = sanitizeDirectoryName(subject.getName());
-        String subjectPath = LEARNING_MATERIALS_DIR + "/" + sanitizedSubjectName + "/";
-        SmbFile subjectDir = new SmbFile(FileStorageService.SMB_BASE_PATH + subjectPath, context);
-        
-        // Create directory if it doesn't exist
-        if (!subjectDir.exists()) {
-            logger.info("Subject directory doesn't exist, creating: {}", subjectPath);
-            subjectDir.mkdirs();
-            logger.info("Created subject directory: {}", subjectPath);
-            
-            // Add the root directory to the database if it doesn't exist
-            Optional<LearningMaterial> existingDir = materialRepository.findBySubjectAndFileNameAndParentPath(
-                    subject, sanitizedSubjectName, "/");
-            
-            if (existingDir.isEmpty()) {
-                logger.info("Adding root directory to database: {}", sanitizedSubjectName);
-                LearningMaterial material = new LearningMaterial();
-                material.setFileName(sanitizedSubjectName);
-                material.setOriginalFileName(subject.getName());
-                material.setFilePath(LEARNING_MATERIALS_DIR + "/" + sanitizedSubjectName);
-                material.setUploadDate(LocalDateTime.now());
-                material.setSubject(subject);
-                material.setUploadedBy(systemUser);
-                material.setIsDirectory(true);
-                material.setParentPath("/");
-                material.setDescription("Subject Root Directory");
-                
-                materialRepository.save(material);
-                logger.info("Added subject root directory to database: {}", sanitizedSubjectName);
+    private Map<String, Object> syncSubject(Subject subject, User systemUser, boolean fullScan) {
+        Map<String, Object> subjectResult = new HashMap<>();
+        ReentrantLock lock = subjectLock(subject);
+        lock.lock();
+        try {
+            logger.info("Processing subject: {}", subject.getName());
+
+            String directoryName = getDirectoryName(subject);
+            String subjectPath = LEARNING_MATERIALS_DIR + "/" + directoryName + "/";
+            SmbFile subjectDir = new SmbFile(FileStorageService.SMB_BASE_PATH + subjectPath, createContext());
+
+            // Create directory if it doesn't exist
+            if (!subjectDir.exists()) {
+                logger.info("Subject directory doesn't exist, creating: {}", subjectPath);
+                subjectDir.mkdirs();
+                subjectResult.put("directoryCreated", true);
+
+                // Add the root directory to the database if it doesn't exist
+                Optional<LearningMaterial> existingDir = materialRepository.findBySubjectAndFileNameAndParentPath(
+                        subject, directoryName, "/");
+
+                if (existingDir.isEmpty()) {
+                    logger.info("Adding root directory to database: {}", directoryName);
+                    LearningMaterial material = new LearningMaterial();
+                    material.setFileName(directoryName);
+                    material.setOriginalFileName(subject.getName());
+                    material.setFilePath(LEARNING_MATERIALS_DIR + "/" + directoryName);
+                    material.setUploadDate(LocalDateTime.now());
+                    material.setSubject(subject);
+                    material.setUploadedBy(systemUser);
+                    material.setIsDirectory(true);
+                    material.setParentPath("/");
+                    material.setDescription("Subject Root Directory");
+
+                    materialRepository.save(material);
+                    subjectResult.put("rootDirectoryCreated", true);
+                }
+            } else {
+                subjectResult.put("directoryCreated", false);
             }
-        } else {
-            logger.info("Subject directory exists: {}", subjectPath);
+
+            SubjectSync sync = new SubjectSync(subject, systemUser, directoryName, fullScan, true);
+            sync.walk(subjectDir, "/", 0);
+            sync.flush();
+            logger.info("Synced subject {}: {} entries, {} directories diffed, {} unchanged, {} subtrees skipped",
+                    subject.getName(), sync.entries, sync.directoriesScanned,
+                    sync.directoriesUnchanged, sync.directoriesSkipped);
+
+            subjectResult.put("filesProcessed", sync.entries);
+            subjectResult.put("filesAdded", sync.inserts.size());
+            subjectResult.put("filesUpdated", sync.updates.size());
+            subjectResult.put("filesDeleted", sync.deletes.size());
+            subjectResult.put("directoriesScanned", sync.directoriesScanned);
+            subjectResult.put("directoriesUnchanged", sync.directoriesUnchanged);
+            subjectResult.put("directoriesSkipped", sync.directoriesSkipped);
+            subjectResult.put("status", "success");
+        } catch (Exception e) {
+            logger.error("Error syncing subject directory for {}: {}", subject.getName(), e.getMessage(), e);
+            subjectResult.put("status", "error");
+            subjectResult.put("error", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        return subjectResult;
+    }
+
+    /**
+     * Queue a background refresh of one directory if it was not indexed
+     * recently. Returns at once; callers keep serving the rows already in the
+     * database, and see the refreshed listing on a later request.
+     * @param path directory path relative to the subject directory
+     * @return true if a refresh was queued
+     */
+    public boolean refreshIfStale(Subject subject, String path) {
+        String dirPath = normalizeDirPath(path);
+        String key = indexKey(subject, dirPath);
+        Long lastIndexed = indexedAt.get(key);
+        if (lastIndexed != null && !isStale(lastIndexed)) {
+            return false;
+        }
+        if (!pendingRefreshes.add(key)) {
+            return false;
         }
-        
         try {
-            // Scan the directory recursively
-            logger.info("Starting recursive scan of directory: {}", subjectPath);
-            int filesFound = scanDirectory(subjectDir, subject, systemUser, "/", 0);
-            logger.info("Completed recursive scan, found {} files/directories", filesFound);
-            
-            // Check for deleted files
-            logger.info("Checking for deleted files in subject: {}", subject.getName());
-            int deletedCount = checkForDeletedFiles(subject, subjectPath);
-            logger.info("Completed deleted files check, removed {} entries", deletedCount);
+            syncPool.execute(() -> {
+                try {
+                    refreshDirectory(subject, dirPath, lastIndexed == null);
+                } finally {
+                    pendingRefreshes.remove(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingRefreshes.remove(key);
+            return false;
+        }
+    }
+
+    /**
+     * Diff one directory, without descending, against the database
+     * @param checkMarker first check the recorded index marker, which may be fresh
+     */
+    private void refreshDirectory(Subject subject, String dirPath, boolean checkMarker) {
+        String key = indexKey(subject, dirPath);
+        if (checkMarker) {
+            DirectoryState state = directoryIndexDAO.getDirectory(subject.getId(), dirPath);
+            if (state != null && state.getLastScannedAt() != null) {
+                long lastScanned = state.getLastScannedAt().getTime();
+                indexedAt.put(key, lastScanned);
+                if (!isStale(lastScanned)) {
+                    return;
+                }
+            }
+        }
+
+        ReentrantLock lock = subjectLock(subject);
+        if (!lock.tryLock()) {
+            // A sync of this subject is running and will index the directory
+            return;
+        }
+        try {
+            String directoryName = getDirectoryName(subject);
+            SmbFile dir = new SmbFile(FileStorageService.SMB_BASE_PATH + LEARNING_MATERIALS_DIR + "/"
+                    + directoryName + dirPath, createContext());
+            if (!dir.exists()) {
+                indexedAt.put(key, System.currentTimeMillis());
+                return;
+            }
+
+            User systemUser = userRepository.findById(SYSTEM_USER_ID)
+                    .orElseThrow(() -> new RuntimeException("System user not found"));
+            SubjectSync sync = new SubjectSync(subject, systemUser, directoryName, true, false);
+            sync.walk(dir, dirPath, 0);
+            sync.flush();
+            logger.info("Refreshed index of {}{}: {} entries, {} added, {} deleted",
+                    directoryName, dirPath, sync.entries, sync.inserts.size(), sync.deletes.size());
         } catch (Exception e) {
-            logger.error("Error during directory sync for subject {}: {}", subject.getName(), e.getMessage(), e);
+            logger.error("Error refreshing directory {} of subject {}: {}", dirPath, subject.getName(), e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock subjectLock(Subject subject) {
+        return subjectLocks.computeIfAbsent(subject.getId(), id -> new ReentrantLock());
+    }
+
+    private boolean isStale(long lastIndexed) {
+        return System.currentTimeMillis() - lastIndexed > staleAfterSeconds * 1000;
+    }
+
+    private static String indexKey(Subject subject, String dirPath) {
+        return subject.getId() + ":" + dirPath;
+    }
+
+    private static String normalizeDirPath(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        String dirPath = path.startsWith("/") ? path : "/" + path;
+        return dirPath.endsWith("/") ? dirPath : dirPath + "/";
+    }
+
+    /**
+     * Directory name of a subject: its code, or its sanitized name if it has no code
+     */
+    private String getDirectoryName(Subject subject) {
+        if (subject.getCode() != null && !subject.getCode().isEmpty()) {
+            return subject.getCode();
         }
+        return sanitizeDirectoryName(subject.getName());
     }
-    
+
     /**
      * Sanitize directory name to remove illegal characters for file systems
      */
@@ -249,257 +432,272 @@ private String sanitizeDirectoryName(String name) {
         if (name == null || name.isEmpty()) {
             return "unnamed";
         }
-        
+
         // Replace illegal characters with underscores
         // Windows illegal: < > : " / \ | ? *
         return name.replaceAll("[<>:\"/\\\\|?*]", "_");
     }
-    
+
     /**
-     * Recursively scan a directory and sync with database
-     * @return number of files/directories processed
+     * SHA-1 over the sorted entries of a directory listing
      */
-    private int scanDirectory(SmbFile dir, Subject subject, User systemUser, String parentPath, int depth) throws IOException {
-        // Prevent infinite recursion
-        if (depth > MAX_SCAN_DEPTH) {
-            logger.warn("Maximum directory scan depth reached: {}", dir.getPath());
-            return 0;
-        }
-        
-        logger.debug("Scanning directory: {}", dir.getPath());
-        int totalProcessed = 0;
-        
+    private static String fingerprint(SortedMap<String, SmbFile> entries) throws IOException {
+        MessageDigest digest;
         try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+        for (Map.Entry<String, SmbFile> entry : entries.entrySet()) {
+            SmbFile file = entry.getValue();
+            boolean isDirectory = file.isDirectory();
+            String line = entry.getKey() + '\0' + (isDirectory ? 'd' : 'f') + '\0'
+                    + (isDirectory ? 0 : file.length()) + '\0' + file.lastModified() + '\n';
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder sb = new StringBuilder(40);
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * State of the sync of one subject. Changes are collected while walking
+     * and written by {@link #flush()}; the directory index is only saved once
+     * they are, so a failed write is retried on the next run.
+     */
+    private class SubjectSync {
+        private final Subject subject;
+        private final User systemUser;
+        private final String basePath;
+        private final boolean fullScan;
+        private final boolean descend;
+        private final Map<String, DirectoryState> previous;
+        private final Map<String, DirectoryState> scanned = new HashMap<>();
+
+        private final List<LearningMaterial> inserts = new ArrayList<>();
+        private final List<LearningMaterial> updates = new ArrayList<>();
+        private final List<LearningMaterial> deletes = new ArrayList<>();
+        private final List<String> deletedDirectories = new ArrayList<>();
+
+        private int entries;
+        private int directoriesScanned;
+        private int directoriesUnchanged;
+        private int directoriesSkipped;
+
+        /**
+         * @param fullScan diff every directory walked and descend into all subdirectories
+         * @param descend walk subdirectories at all, rather than only the starting directory
+         */
+        SubjectSync(Subject subject, User systemUser, String directoryName, boolean fullScan, boolean descend) {
+            this.subject = subject;
+            this.systemUser = systemUser;
+            this.basePath = LEARNING_MATERIALS_DIR + "/" + directoryName;
+            this.fullScan = fullScan;
+            this.descend = descend;
+            // A full scan never consults the previous index
+            this.previous = fullScan ? Collections.emptyMap() : directoryIndexDAO.getIndex(subject.getId());
+        }
+
+        /**
+         * List a directory, diff it against the database if its fingerprint
+         * changed, and descend into subdirectories that may have changed
+         */
+        void walk(SmbFile dir, String parentPath, int depth) throws IOException {
+            // Prevent infinite recursion
+            if (depth > MAX_SCAN_DEPTH) {
+                logger.warn("Maximum directory scan depth reached: {}", dir.getPath());
+                return;
+            }
+
             SmbFile[] files = dir.listFiles();
             if (files == null) {
                 logger.warn("Failed to list files in directory: {}", dir.getPath());
-                return 0;
+                return;
             }
-            
-            logger.info("Found {} items in directory: {}", files.length, dir.getPath());
-            
+
+            SortedMap<String, SmbFile> listing = new TreeMap<>();
             for (SmbFile file : files) {
                 String fileName = file.getName();
-                
-                // Skip . and .. directories
-                if (fileName.equals(".") || fileName.equals("..")) {
-                    continue;
-                }
-                
+
                 // Remove trailing slash for directories
                 if (fileName.endsWith("/")) {
                     fileName = fileName.substring(0, fileName.length() - 1);
                 }
-                
-                boolean isDirectory = file.isDirectory();
-                String filePath = parentPath + fileName;
-                
-                if (isDirectory) {
-                    // Process directory
-                    logger.debug("Processing directory: {}", filePath);
-                    processDirectory(subject, systemUser, fileName, filePath, file);
-                    totalProcessed++;
-                    
-                    // Recursively scan subdirectory
-                    totalProcessed += scanDirectory(file, subject, systemUser, filePath + "/", depth + 1);
-                } else {
-                    // Process file
-                    logger.debug("Processing file: {}", filePath);
-                    processFile(subject, systemUser, fileName, filePath, file);
-                    totalProcessed++;
+
+                // Skip . and .. directories
+                if (fileName.equals(".") || fileName.equals("..")) {
+                    continue;
                 }
+                listing.put(fileName, file);
             }
-        } catch (Exception e) {
-            logger.error("Error scanning directory {}: {}", dir.getPath(), e.getMessage(), e);
-        }
-        
-        return totalProcessed;
-    }
-    
-    /**
-     * Process a directory and sync with database
-     */
-    private void processDirectory(Subject subject, User systemUser, String dirName, String dirPath, SmbFile dirFile) {
-        try {
-            logger.debug("Processing directory: name={}, path={}", dirName, dirPath);
-            
-            // Check if directory already exists in database
-            String parentPath = dirPath.substring(0, dirPath.lastIndexOf('/') + 1);
-            if (parentPath.equals("//")) {
-                parentPath = "/";
+            entries += listing.size();
+
+            String fingerprint = fingerprint(listing);
+            DirectoryState state = previous.get(parentPath);
+            if (fullScan || state == null || !fingerprint.equals(state.getFingerprint())) {
+                diffDirectory(parentPath, listing);
+                directoriesScanned++;
+            } else {
+                directoriesUnchanged++;
             }
-            
-            logger.debug("Looking for existing directory in database: subject={}, fileName={}, parentPath={}", 
-                    subject.getName(), dirName, parentPath);
-            
-            Optional<LearningMaterial> existingDir = materialRepository.findBySubjectAndFileNameAndParentPath(
-                    subject, dirName, parentPath);
-            
-            if (existingDir.isEmpty()) {
-                logger.info("Directory not found in database, creating new entry: {}", dirPath);
-                
-                // Create new directory entry
-                LearningMaterial material = new LearningMaterial();
-                material.setFileName(dirName);
-                material.setOriginalFileName(dirName);
-                
-                // Use subject code for file path if available
-                String directoryName;
-                if (subject.getCode() != null && !subject.getCode().isEmpty()) {
-                    directoryName = subject.getCode();
-                } else {
-                    directoryName = sanitizeDirectoryName(subject.getName());
+            scanned.put(parentPath, new DirectoryState(parentPath, dir.lastModified(), fingerprint, listing.size()));
+            if (!descend) {
+                return;
+            }
+
+            for (Map.Entry<String, SmbFile> entry : listing.entrySet()) {
+                SmbFile child = entry.getValue();
+                if (!child.isDirectory()) {
+                    continue;
+                }
+                String childPath = parentPath + entry.getKey() + "/";
+                DirectoryState childState = previous.get(childPath);
+                if (!fullScan && childState != null && childState.getLastModified() == child.lastModified()) {
+                    directoriesSkipped++;
+                    continue;
+                }
+                try {
+                    walk(child, childPath, depth + 1);
+                } catch (IOException e) {
+                    logger.error("Error scanning directory {}: {}", child.getPath(), e.getMessage(), e);
                 }
-                material.setFilePath(LEARNING_MATERIALS_DIR + "/" + directoryName + dirPath);
-                
-                material.setUploadDate(LocalDateTime.now());
-                material.setSubject(subject);
-                material.setUploadedBy(systemUser);
-                material.setIsDirectory(true);
-                material.setParentPath(parentPath);
-                material.setDescription("Directory");
-                
-                LearningMaterial savedMaterial = materialRepository.save(material);
-                logger.info("Added new directory to database: id={}, path={}", savedMaterial.getId(), dirPath);
-            } else {
-                logger.debug("Directory already exists in database: id={}, path={}", 
-                        existingDir.get().getId(), existingDir.get().getFilePath());
             }
-        } catch (Exception e) {
-            logger.error("Error processing directory {}: {}", dirPath, e.getMessage(), e);
         }
-    }
-    
-    /**
-     * Process a file and sync with database
-     */
-    private void processFile(Subject subject, User systemUser, String fileName, String filePath, SmbFile file) {
-        try {
-            logger.debug("Processing file: name={}, path={}", fileName, filePath);
-            
-            // Check if file already exists in database
-            String parentPath = filePath.substring(0, filePath.lastIndexOf('/') + 1);
-            if (parentPath.equals("//")) {
-                parentPath = "/";
+
+        /**
+         * Compare one directory listing with its rows in the database
+         */
+        private void diffDirectory(String parentPath, SortedMap<String, SmbFile> listing) throws IOException {
+            List<LearningMaterial> existing = materialRepository.findBySubjectAndParentPath(subject, parentPath);
+            Map<String, LearningMaterial> known = new HashMap<>();
+            for (LearningMaterial material : existing) {
+                known.putIfAbsent(material.getFileName(), material);
             }
-            
-            logger.debug("Looking for existing file in database: subject={}, fileName={}, parentPath={}", 
-                    subject.getName(), fileName, parentPath);
-            
-            Optional<LearningMaterial> existingFile = materialRepository.findBySubjectAndFileNameAndParentPath(
-                    subject, fileName, parentPath);
-            
-            if (existingFile.isPresent()) {
-                // Update existing file if needed
-                LearningMaterial material = existingFile.get();
-                boolean needsUpdate = false;
-                
-                // Check if file size has changed
-                long fileSize = file.length();
-                if (material.getFileSize() == null || material.getFileSize() != fileSize) {
-                    logger.info("File size changed for {}: old={}, new={}", 
-                            filePath, material.getFileSize(), fileSize);
-                    material.setFileSize(fileSize);
-                    needsUpdate = true;
+
+            for (Map.Entry<String, SmbFile> entry : listing.entrySet()) {
+                String fileName = entry.getKey();
+                SmbFile file = entry.getValue();
+                LearningMaterial material = known.get(fileName);
+
+                if (material == null) {
+                    logger.debug("New entry found: {}{}", parentPath, fileName);
+                    inserts.add(newMaterial(fileName, parentPath, file));
+                } else if (!file.isDirectory() && !Boolean.TRUE.equals(material.getIsDirectory())
+                        && material.getContentHash() == null
+                        && (material.getFileSize() == null || material.getFileSize() != file.length())) {
+                    logger.debug("File size changed for {}{}: old={}, new={}",
+                            parentPath, fileName, material.getFileSize(), file.length());
+                    material.setFileSize(file.length());
+                    updates.add(material);
                 }
-                
-                if (needsUpdate) {
-                    materialRepository.save(material);
-                    logger.info("Updated existing file in database: id={}, path={}", material.getId(), filePath);
-                } else {
-                    logger.debug("File unchanged in database: id={}, path={}", material.getId(), filePath);
+            }
+
+            for (LearningMaterial material : existing) {
+                if (listing.containsKey(material.getFileName()) || !isStoredInDirectory(material, parentPath)) {
+                    continue;
                 }
-            } else {
-                logger.info("File not found in database, creating new entry: {}", filePath);
-                
-                // Create new file entry
-                LearningMaterial material = new LearningMaterial();
-                material.setFileName(fileName);
-                material.setOriginalFileName(fileName);
-                
-                // Use subject code for file path if available
-                String directoryName;
-                if (subject.getCode() != null && !subject.getCode().isEmpty()) {
-                    directoryName = subject.getCode();
-                } else {
-                    directoryName = sanitizeDirectoryName(subject.getName());
+                logger.debug("Entry no longer on server: {}", material.getFilePath());
+                deletes.add(material);
+                if (Boolean.TRUE.equals(material.getIsDirectory())) {
+                    deletedDirectories.add(parentPath + material.getFileName() + "/");
                 }
-                material.setFilePath(LEARNING_MATERIALS_DIR + "/" + directoryName + filePath);
-                
-                material.setFileSize(file.length());
-                material.setFileType(getMimeType(fileName));
-                material.setUploadDate(LocalDateTime.now());
-                material.setSubject(subject);
-                material.setUploadedBy(systemUser);
-                material.setIsDirectory(false);
-                material.setParentPath(parentPath);
-                
-                LearningMaterial savedMaterial = materialRepository.save(material);
-                logger.info("Added new file to database: id={}, path={}, size={}", 
-                        savedMaterial.getId(), filePath, material.getFileSize());
             }
-        } catch (Exception e) {
-            logger.error("Error processing file {}: {}", filePath, e.getMessage(), e);
         }
-    }
-    
-    /**
-     * Check for files in the database that no longer exist on the Samba server
-     * @return number of deleted entries
-     */
-    private int checkForDeletedFiles(Subject subject, String subjectBasePath) {
-        int deletedCount = 0;
-        try {
-            // Get all materials for this subject
-            List<LearningMaterial> materials = materialRepository.findBySubject(subject);
-            logger.info("Checking {} database entries for deleted files", materials.size());
-            
-            CIFSContext context = createContext();
-            
-            // Get the directory name to use (code or sanitized name)
-            String directoryName;
-            if (subject.getCode() != null && !subject.getCode().isEmpty()) {
-                directoryName = subject.getCode();
+
+        /**
+         * Whether a row describes a file at its own path in this directory.
+         * Rows backed by a content blob, and the subject root row, are not;
+         * blob-backed rows are only removed with their directory.
+         * Paths still using the subject name instead of its code are compared
+         * as if they used the code.
+         */
+        private boolean isStoredInDirectory(LearningMaterial material, String parentPath) {
+            if (material.getContentHash() != null || material.getFilePath() == null) {
+                return false;
+            }
+            String path = material.getFilePath().replaceFirst(
+                    LEARNING_MATERIALS_DIR + "/[^/]+", Matcher.quoteReplacement(basePath));
+            return path.equals(basePath + parentPath + material.getFileName());
+        }
+
+        private LearningMaterial newMaterial(String fileName, String parentPath, SmbFile file) throws IOException {
+            boolean isDirectory = file.isDirectory();
+            LearningMaterial material = new LearningMaterial();
+            material.setFileName(fileName);
+            material.setOriginalFileName(fileName);
+            material.setFilePath(basePath + parentPath + fileName);
+            material.setUploadDate(LocalDateTime.now());
+            material.setSubject(subject);
+            material.setUploadedBy(systemUser);
+            material.setIsDirectory(isDirectory);
+            material.setParentPath(parentPath);
+            if (isDirectory) {
+                material.setDescription("Directory");
             } else {
-                directoryName = sanitizeDirectoryName(subject.getName());
+                material.setFileSize(file.length());
+                material.setFileType(getMimeType(fileName));
             }
-            
-            for (LearningMaterial material : materials) {
-                try {
-                    // Ensure we're using the correct path for checking existence
-                    String correctPath;
-                    
-                    // Check if the path needs to be updated to use the subject code
-                    if (material.getFilePath().startsWith(LEARNING_MATERIALS_DIR + "/" + subject.getName()) ||
-                        (subject.getCode() != null && !material.getFilePath().contains(subject.getCode()))) {
-                        // Replace the subject name with the correct directory name
-                        correctPath = material.getFilePath().replaceFirst(
-                            LEARNING_MATERIALS_DIR + "/[^/]+",
-                            LEARNING_MATERIALS_DIR + "/" + directoryName
-                        );
-                    } else {
-                        // Path is already using the correct directory name
-                        correctPath = material.getFilePath();
-                    }
-                    
-                    SmbFile file = new SmbFile(FileStorageService.SMB_BASE_PATH + correctPath, context);
-                    
-                    if (!file.exists()) {
-                        // File no longer exists on Samba server
-                        materialRepository.delete(material);
-                        deletedCount++;
-                        logger.info("Deleted material from database (not found on server): {}", material.getFilePath());
-                    }
-                } catch (Exception e) {
-                    logger.error("Error checking if file exists {}: {}", material.getFilePath(), e.getMessage());
+            return material;
+        }
+
+        /**
+         * Write the collected changes in batches, then record the scanned directories
+         */
+        void flush() throws SQLException {
+            BatchExecutor.executeBatch(INSERT_MATERIAL_SQL, inserts, (ps, m) -> {
+                ps.setString(1, m.getFileName());
+                ps.setString(2, m.getOriginalFileName());
+                ps.setString(3, m.getFilePath());
+                if (m.getFileSize() != null) {
+                    ps.setLong(4, m.getFileSize());
+                } else {
+                    ps.setNull(4, Types.BIGINT);
                 }
+                ps.setString(5, m.getFileType());
+                ps.setTimestamp(6, Timestamp.valueOf(m.getUploadDate()));
+                ps.setInt(7, subject.getId());
+                ps.setInt(8, systemUser.getId());
+                ps.setBoolean(9, m.getIsDirectory());
+                ps.setString(10, m.getParentPath());
+                ps.setString(11, m.getDescription());
+            });
+            BatchExecutor.executeBatch(UPDATE_SIZE_SQL, updates, (ps, m) -> {
+                ps.setLong(1, m.getFileSize());
+                ps.setInt(2, m.getId());
+            });
+            BatchExecutor.executeBatch(DELETE_MATERIAL_SQL, deletes, (ps, m) -> ps.setInt(1, m.getId()));
+
+            // Blob-backed materials uploaded into a directory that is gone go with it
+            List<String> blobHashes = new ArrayList<>();
+            for (String dirPath : deletedDirectories) {
+                blobHashes.addAll(materialRepository.findContentHashesUnder(
+                        subject, SmbDirectoryIndexDAO.likePrefix(dirPath)));
+            }
+            BatchExecutor.executeBatch(DELETE_SUBTREE_SQL, deletedDirectories, (ps, dirPath) -> {
+                ps.setInt(1, subject.getId());
+                ps.setString(2, SmbDirectoryIndexDAO.likePrefix(dirPath));
+            });
+            for (String hash : blobHashes) {
+                ContentStore.release(hash);
+            }
+            if (!blobHashes.isEmpty()) {
+                logger.info("Released {} blob-backed materials under deleted directories of subject {}",
+                        blobHashes.size(), subject.getName());
+            }
+            for (String dirPath : deletedDirectories) {
+                directoryIndexDAO.deleteSubtree(subject.getId(), dirPath);
+            }
+
+            directoryIndexDAO.saveIndex(subject.getId(), scanned.values());
+            long now = System.currentTimeMillis();
+            for (String dirPath : scanned.keySet()) {
+                indexedAt.put(indexKey(subject, dirPath), now);
             }
-        } catch (Exception e) {
-            logger.error("Error checking for deleted files: {}", e.getMessage(), e);
         }
-        return deletedCount;
     }
-    
+
     /**
      * Get MIME type based on file extension
      */
@@ -0,0 +1,341 @@
+package com.mycompany.fstudymate.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mycompany.fstudymate.dto.LoginHistoryDTO;
+
+/**
+ * Maintains hourly and daily session rollups (session_rollups_hourly and
+ * session_rollups_daily) and serves the admin analytics from them.
+ *
+ * A session keeps changing until it expires, so the buckets of the last
+ * {@code session.expiry.hours} + 1 hours are open. Every
+ * {@code rollups.refresh-ms} the open buckets are recomputed from the
+ * sessions they cover, which is bounded by recent activity rather than
+ * by history. Older buckets are final and never read user_sessions again.
+ * On the first start the daily buckets of all existing sessions, and the
+ * hourly buckets of the last {@code rollups.hourly-retention-days}, are
+ * backfilled; a backfill that did not complete is redone on the next refresh.
+ * Hourly buckets older than that are pruned. Backfill completion and the
+ * finalized time are kept in session_rollup_state, so a restart does not
+ * have to wait for a refresh to know which sessions are final.
+ *
+ * Each bucket has one row per user role and device class, plus a total row
+ * (role = device = 'all'), since distinct active users do not add up.
+ */
+@Service
+public class SessionRollupService {
+
+    private static final Logger logger = Logger.getLogger(SessionRollupService.class.getName());
+
+    // Role and device of the row holding a bucket's totals
+    public static final String ALL = "all";
+
+    // session_rollup_state rows
+    private static final String BACKFILLED = "backfilled";
+    private static final String FINALIZED_BEFORE = "finalized_before";
+
+    private static final String BUCKET_ROWS_SQL =
+            "SELECT LEFT(COALESCE(u.role, 'unknown'), 32) AS role, " +
+            "CASE (SELECT d.is_mobile FROM user_activity_details d WHERE d.session_id = s.id " +
+            "      ORDER BY d.created_at DESC, d.id DESC LIMIT 1) " +
+            "  WHEN 1 THEN 'mobile' WHEN 0 THEN 'desktop' ELSE 'unknown' END AS device, " +
+            "SUM(CASE WHEN s.created_at >= ? THEN 1 ELSE 0 END) AS logins, " +
+            "COUNT(DISTINCT s.user_id) AS active_users, " +
+            "SUM(CASE WHEN s.created_at >= ? THEN COALESCE(s.duration, 0) ELSE 0 END) AS total_duration " +
+            "FROM user_sessions s LEFT JOIN users u ON u.id = s.user_id " +
+            "WHERE s.created_at < ? AND s.last_activity >= ? " +
+            "GROUP BY role, device";
+
+    private static final String BUCKET_TOTAL_SQL =
+            "SELECT COALESCE(SUM(CASE WHEN s.created_at >= ? THEN 1 ELSE 0 END), 0) AS logins, " +
+            "COUNT(DISTINCT s.user_id) AS active_users, " +
+            "COALESCE(SUM(CASE WHEN s.created_at >= ? THEN COALESCE(s.duration, 0) ELSE 0 END), 0) AS total_duration " +
+            "FROM user_sessions s " +
+            "WHERE s.created_at < ? AND s.last_activity >= ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${session.expiry.hours:24}")
+    private int sessionExpiryHours;
+
+    @Value("${rollups.refresh-ms:300000}")
+    private long refreshIntervalMs;
+
+    @Value("${rollups.hourly-retention-days:14}")
+    private int hourlyRetentionDays;
+
+    // Daily buckets are kept for good; one request returns at most a year of them
+    private static final int MAX_DAILY_BUCKETS = 366;
+
+    private ScheduledExecutorService refresher;
+
+    // Sessions last active before this are final in the rollups; null until known
+    private volatile LocalDateTime finalizedBefore;
+    private volatile boolean backfilled;
+    private volatile long lastRefreshMs;
+    private volatile LocalDateTime lastRefreshedAt;
+
+    /**
+     * Bucket granularity
+     */
+    public enum Granularity {
+        HOURLY("session_rollups_hourly", ChronoUnit.HOURS),
+        DAILY("session_rollups_daily", ChronoUnit.DAYS);
+
+        private final String table;
+        private final ChronoUnit unit;
+
+        Granularity(String table, ChronoUnit unit) {
+            this.table = table;
+            this.unit = unit;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-rollup");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Backfills until a backfill has completed, then refreshes the open buckets periodically
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        refresher.scheduleWithFixedDelay(this::refreshSafely, 0, refreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sessions last active before the returned time are final in the rollups
+     * and may be deleted without changing them.
+     *
+     * @return the time, or null while the first backfill has not completed
+     */
+    public LocalDateTime getFinalizedBefore() {
+        return finalizedBefore;
+    }
+
+    /**
+     * Logins per day for the past X days, oldest first
+     */
+    public List<LoginHistoryDTO> getLoginHistory(int days) {
+        LocalDateTime since = LocalDate.now().minusDays(days).atStartOfDay();
+        return jdbcTemplate.query("SELECT bucket_start, logins FROM session_rollups_daily " +
+                "WHERE role = ? AND device = ? AND bucket_start >= ? ORDER BY bucket_start",
+                (rs, rowNum) -> new LoginHistoryDTO(
+                        rs.getTimestamp("bucket_start").toLocalDateTime().toLocalDate().toString(),
+                        rs.getInt("logins")),
+                ALL, ALL, Timestamp.valueOf(since));
+    }
+
+    /**
+     * All-time totals: sessions, sessions created today and average session duration
+     */
+    public Map<String, Long> getTotals() {
+        Map<String, Long> totals = new HashMap<>();
+        jdbcTemplate.query("SELECT COALESCE(SUM(logins), 0) AS logins, COALESCE(SUM(total_duration), 0) AS duration, " +
+                "COALESCE(SUM(CASE WHEN bucket_start = ? THEN logins ELSE 0 END), 0) AS today " +
+                "FROM session_rollups_daily WHERE role = ? AND device = ?", rs -> {
+                    long logins = rs.getLong("logins");
+                    totals.put("sessions", logins);
+                    totals.put("sessionsToday", rs.getLong("today"));
+                    totals.put("averageDuration", logins == 0 ? 0 : Math.round(rs.getLong("duration") / (double) logins));
+                }, Timestamp.valueOf(LocalDate.now().atStartOfDay()), ALL, ALL);
+        return totals;
+    }
+
+    /**
+     * Rollup rows of the last X hours or days, oldest first
+     *
+     * @param count number of buckets back from now; clamped to 1..{@link #maxBuckets}
+     * @param breakdown true for the per role and device rows, false for the totals only
+     */
+    public List<Map<String, Object>> getRollups(Granularity granularity, int count, boolean breakdown) {
+        int buckets = Math.max(1, Math.min(count, maxBuckets(granularity)));
+        LocalDateTime since = LocalDateTime.now().truncatedTo(granularity.unit).minus(buckets, granularity.unit);
+        String sql = "SELECT bucket_start, role, device, logins, active_users, total_duration FROM " +
+                granularity.table + " WHERE bucket_start >= ? " +
+                (breakdown ? "AND NOT (role = ? AND device = ?) " : "AND role = ? AND device = ? ") +
+                "ORDER BY bucket_start, role, device";
+        return jdbcTemplate.queryForList(sql, Timestamp.valueOf(since), ALL, ALL);
+    }
+
+    /**
+     * Most buckets of a granularity worth asking for: hourly buckets are only
+     * kept for {@code rollups.hourly-retention-days}
+     */
+    public int maxBuckets(Granularity granularity) {
+        return granularity == Granularity.HOURLY ? hourlyRetentionDays * 24 : MAX_DAILY_BUCKETS;
+    }
+
+    /**
+     * Timing of the last refresh, for monitoring.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("lastRefreshedAt", lastRefreshedAt);
+        stats.put("lastRefreshMs", lastRefreshMs);
+        stats.put("finalizedBefore", finalizedBefore);
+        stats.put("backfilled", backfilled);
+        return stats;
+    }
+
+    private void refreshSafely() {
+        try {
+            if (!backfilled) {
+                backfill();
+            }
+            refresh();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Error refreshing session rollups: " + e.getMessage(), e);
+        }
+    }
+
+    private void refresh() {
+        long startTime = System.currentTimeMillis();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime openFrom = openFrom(now, sessionExpiryHours);
+
+        int buckets = refreshRange(Granularity.HOURLY, openFrom, now)
+                    + refreshRange(Granularity.DAILY, openFrom, now);
+
+        jdbcTemplate.update("DELETE FROM session_rollups_hourly WHERE bucket_start < ?",
+                Timestamp.valueOf(now.truncatedTo(ChronoUnit.DAYS).minusDays(hourlyRetentionDays)));
+
+        LocalDateTime finalized = finalizedBefore(openFrom);
+        writeState(FINALIZED_BEFORE, finalized);
+        finalizedBefore = finalized;
+        lastRefreshMs = System.currentTimeMillis() - startTime;
+        lastRefreshedAt = now;
+        logger.fine("Refreshed " + buckets + " session rollup buckets in " + lastRefreshMs + " ms");
+    }
+
+    // Throws if the backfill fails, so the next refresh tries again
+    private void backfill() {
+        if (readState(BACKFILLED) == null) {
+            Timestamp first = jdbcTemplate.queryForObject("SELECT MIN(created_at) FROM user_sessions", Timestamp.class);
+            if (first != null) {
+                long startTime = System.currentTimeMillis();
+                LocalDateTime now = LocalDateTime.now();
+                LocalDateTime hourlyFrom = now.truncatedTo(ChronoUnit.DAYS).minusDays(hourlyRetentionDays);
+                LocalDateTime from = first.toLocalDateTime();
+                int buckets = refreshRange(Granularity.DAILY, from, now)
+                            + refreshRange(Granularity.HOURLY, from.isAfter(hourlyFrom) ? from : hourlyFrom, now);
+                logger.info("Backfilled " + buckets + " session rollup buckets in "
+                        + (System.currentTimeMillis() - startTime) + " ms");
+            }
+            writeState(BACKFILLED, LocalDateTime.now());
+        }
+        // Known from an earlier run until this run's first refresh completes
+        LocalDateTime finalized = readState(FINALIZED_BEFORE);
+        if (finalizedBefore == null && finalized != null) {
+            finalizedBefore = finalized;
+        }
+        backfilled = true;
+    }
+
+    private LocalDateTime readState(String name) {
+        List<Timestamp> values = jdbcTemplate.queryForList(
+                "SELECT value_time FROM session_rollup_state WHERE name = ?", Timestamp.class, name);
+        return values.isEmpty() || values.get(0) == null ? null : values.get(0).toLocalDateTime();
+    }
+
+    private void writeState(String name, LocalDateTime value) {
+        jdbcTemplate.update("INSERT INTO session_rollup_state (name, value_time) VALUES (?, ?) " +
+                "ON DUPLICATE KEY UPDATE value_time = VALUES(value_time)", name, Timestamp.valueOf(value));
+    }
+
+    /**
+     * Start of the oldest bucket still recomputed, of either granularity;
+     * sessions created before it have expired by now
+     */
+    static LocalDateTime openFrom(LocalDateTime now, int sessionExpiryHours) {
+        return now.minusHours(sessionExpiryHours + 1L);
+    }
+
+    /**
+     * A session counts in every bucket from its creation to its last activity,
+     * so it is final once its last activity is before the first open daily bucket
+     */
+    static LocalDateTime finalizedBefore(LocalDateTime openFrom) {
+        return openFrom.truncatedTo(ChronoUnit.DAYS);
+    }
+
+    /**
+     * Start of every bucket overlapping [from, to], oldest first
+     */
+    static List<LocalDateTime> bucketStarts(Granularity granularity, LocalDateTime from, LocalDateTime to) {
+        List<LocalDateTime> starts = new ArrayList<>();
+        for (LocalDateTime start = from.truncatedTo(granularity.unit); !start.isAfter(to);
+             start = start.plus(1, granularity.unit)) {
+            starts.add(start);
+        }
+        return starts;
+    }
+
+    // Recomputes every bucket overlapping [from, to]; returns the number of buckets
+    private int refreshRange(Granularity granularity, LocalDateTime from, LocalDateTime to) {
+        List<LocalDateTime> starts = bucketStarts(granularity, from, to);
+        for (LocalDateTime start : starts) {
+            refreshBucket(granularity, start, start.plus(1, granularity.unit));
+        }
+        return starts.size();
+    }
+
+    private void refreshBucket(Granularity granularity, LocalDateTime start, LocalDateTime end) {
+        Timestamp startTs = Timestamp.valueOf(start);
+        Timestamp endTs = Timestamp.valueOf(end);
+
+        List<Object[]> rows = new ArrayList<>(jdbcTemplate.query(BUCKET_ROWS_SQL,
+                (rs, rowNum) -> new Object[] {startTs, rs.getString("role"), rs.getString("device"),
+                                              rs.getInt("logins"), rs.getInt("active_users"), rs.getLong("total_duration")},
+                startTs, startTs, endTs, startTs));
+        rows.add(jdbcTemplate.queryForObject(BUCKET_TOTAL_SQL,
+                (rs, rowNum) -> new Object[] {startTs, ALL, ALL,
+                                              rs.getInt("logins"), rs.getInt("active_users"), rs.getLong("total_duration")},
+                startTs, startTs, endTs, startTs));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM " + granularity.table + " WHERE bucket_start = ?", startTs);
+            jdbcTemplate.batchUpdate("INSERT INTO " + granularity.table +
+                    " (bucket_start, role, device, logins, active_users, total_duration) VALUES (?, ?, ?, ?, ?, ?)", rows);
+        });
+    }
+}
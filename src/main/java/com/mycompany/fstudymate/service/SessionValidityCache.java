@@ -0,0 +1,180 @@
+package com.mycompany.fstudymate.service;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded cache of session validity by session token, for
+ * {@link UserActivityService#isSessionValid(String)}.
+ *
+ * A valid token is cached for {@code session.cache.ttl-seconds}, but never
+ * past the expiry time of its session. An unknown or expired token is
+ * cached as invalid for {@code session.cache.negative-ttl-seconds}.
+ * Anything that ends a session early (force logout, the expiry jobs) and
+ * anything that creates one (the activity flush) invalidates the token,
+ * so the cache never outlives what the database says. A result read from
+ * the database is only cached if no invalidation happened since the read
+ * began (see {@link #stamp()}), so a concurrent force logout is never
+ * overwritten by the validity read just before it.
+ *
+ * At most {@code session.cache.max-entries} tokens are kept. When full,
+ * stale entries are dropped first, then negative ones. If it is still
+ * full, new results are not cached.
+ */
+@Component
+public class SessionValidityCache {
+
+    @Value("${session.cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Value("${session.cache.negative-ttl-seconds:10}")
+    private long negativeTtlSeconds;
+
+    @Value("${session.cache.max-entries:50000}")
+    private int maxEntries;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Incremented by every invalidation
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * The cached validity of a token
+     *
+     * @return TRUE or FALSE, or null if the database has to be asked
+     */
+    public Boolean get(String sessionToken) {
+        Entry entry = entries.get(sessionToken);
+        long now = System.currentTimeMillis();
+        if (entry == null || now >= entry.cachedUntil) {
+            misses.increment();
+            return null;
+        }
+        if (entry.valid) {
+            hits.increment();
+            return Boolean.TRUE;
+        }
+        negativeHits.increment();
+        return Boolean.FALSE;
+    }
+
+    /**
+     * Taken before reading a token's sessions from the database, and passed
+     * to {@link #putValid} or {@link #putInvalid} with the result
+     */
+    public long stamp() {
+        return epoch.get();
+    }
+
+    /**
+     * Caches a token whose session is valid until {@code sessionExpiresAt} (epoch millis)
+     *
+     * @param stamp the {@link #stamp()} taken before the database read
+     */
+    public void putValid(String sessionToken, long sessionExpiresAt, long stamp) {
+        long cachedUntil = Math.min(System.currentTimeMillis() + ttlSeconds * 1000, sessionExpiresAt);
+        put(sessionToken, new Entry(true, cachedUntil), stamp);
+    }
+
+    /**
+     * Caches a token that has no valid session
+     *
+     * @param stamp the {@link #stamp()} taken before the database read
+     */
+    public void putInvalid(String sessionToken, long stamp) {
+        put(sessionToken, new Entry(false, System.currentTimeMillis() + negativeTtlSeconds * 1000), stamp);
+    }
+
+    /**
+     * Forgets a token, so its next validation reads the database
+     */
+    public void invalidate(String sessionToken) {
+        if (sessionToken == null) {
+            return;
+        }
+        // Also voids results still being read for this token
+        epoch.incrementAndGet();
+        if (entries.remove(sessionToken) != null) {
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Forgets several tokens
+     */
+    public void invalidateAll(Collection<String> sessionTokens) {
+        for (String sessionToken : sessionTokens) {
+            invalidate(sessionToken);
+        }
+    }
+
+    /**
+     * Drops every entry that is no longer current
+     *
+     * @return the number of entries dropped
+     */
+    public int purgeStale() {
+        long now = System.currentTimeMillis();
+        int before = entries.size();
+        entries.values().removeIf(entry -> now >= entry.cachedUntil);
+        return before - entries.size();
+    }
+
+    /**
+     * Snapshot of the cache counters, for monitoring.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum() + negativeHits.sum();
+        long missCount = misses.sum();
+        stats.put("entries", entries.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hits.sum());
+        stats.put("negativeHits", negativeHits.sum());
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : hitCount / (double) (hitCount + missCount));
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    private void put(String sessionToken, Entry entry, long stamp) {
+        if (stamp != epoch.get()) {
+            return;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(sessionToken)) {
+            purgeStale();
+            if (entries.size() >= maxEntries) {
+                entries.values().removeIf(e -> !e.valid);
+            }
+            if (entries.size() >= maxEntries) {
+                return;
+            }
+        }
+        entries.put(sessionToken, entry);
+        if (stamp != epoch.get()) {
+            // Invalidated while being stored
+            entries.remove(sessionToken, entry);
+        }
+    }
+
+    private static class Entry {
+        final boolean valid;
+        final long cachedUntil;
+
+        Entry(boolean valid, long cachedUntil) {
+            this.valid = valid;
+            this.cachedUntil = cachedUntil;
+        }
+    }
+}
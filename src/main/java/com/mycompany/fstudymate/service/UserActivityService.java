@@ -1,27 +1,29 @@
 package com.mycompany.fstudymate.service;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.logging.Logger;
 import java.util.Comparator;
-import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mycompany.fstudymate.model.UserSession;
 import com.mycompany.fstudymate.model.UserActivityDetails;
 import com.mycompany.fstudymate.model.User;
@@ -47,298 +49,208 @@ public class UserActivityService {
     private UserRepository userRepository;
     
     @Autowired
-    private ObjectMapper objectMapper;
+    private ActivityIngestionService activityIngestionService;
+    
+    @Autowired
+    private SessionValidityCache sessionValidityCache;
+    
+    @Autowired
+    private SessionRollupService sessionRollupService;
+    
+    @Autowired
+    private PresenceRegistry presenceRegistry;
     
     // Define how many minutes of inactivity before a session is considered inactive
     @Value("${activity.timeout.minutes:15}")
     private int activityTimeoutMinutes;
     
-    // Define how many hours until a session expires (default 24 hours)
-    @Value("${session.expiry.hours:24}")
-    private int sessionExpiryHours;
+    // Rows per statement in the maintenance jobs, so no job holds locks on the whole table
+    @Value("${activity.maintenance.page-size:1000}")
+    private int maintenancePageSize;
+    
+    // Expired sessions kept for the admin dashboard by cleanupOldExpiredSessions
+    private static final int KEPT_EXPIRED_SESSIONS = 100;
+    
+    private final Map<String, Object> maintenanceRuns = new ConcurrentHashMap<>();
+    
+    // Set when cleanupOldExpiredSessions ran before the rollups were backfilled; markExpiredSessions retries it
+    private volatile boolean expiredCleanupDeferred;
     
     /**
      * Cleanup method to run on application startup
-     * Finds and fixes duplicate UserActivityDetails records
+     * Finds and fixes duplicate UserActivityDetails records, keeping the most recent one of each session.
+     * Runs in pages of activity.maintenance.page-size records, each in its own transaction.
      */
     @EventListener(ApplicationReadyEvent.class)
-    @Transactional
     public void cleanupDuplicateActivityDetails() {
         logger.info("Running cleanup for duplicate UserActivityDetails records");
-        
-        // Get all sessions
-        List<UserSession> allSessions = userSessionRepository.findAll();
+        long startTime = System.currentTimeMillis();
         int cleanedCount = 0;
+        int pages = 0;
         
-        for (UserSession session : allSessions) {
-            List<UserActivityDetails> details = userActivityDetailsRepository.findAllBySessionId(session.getId());
-            
-            // If there are multiple records for the same session, keep only the most recent one
-            if (details.size() > 1) {
-                logger.info("Found " + details.size() + " activity details for session ID: " + session.getId());
-                
-                // Sort by created date (descending)
-                details.sort((d1, d2) -> {
-                    if (d1.getCreatedAt() == null) return 1;
-                    if (d2.getCreatedAt() == null) return -1;
-                    return d2.getCreatedAt().compareTo(d1.getCreatedAt());
-                });
-                
-                // Keep the first one (most recent) and delete the rest
-                UserActivityDetails mostRecent = details.get(0);
-                logger.info("Keeping most recent record ID: " + mostRecent.getId() + 
-                           " created at: " + mostRecent.getCreatedAt());
-                
-                for (int i = 1; i < details.size(); i++) {
-                    UserActivityDetails toDelete = details.get(i);
-                    logger.info("Deleting duplicate record ID: " + toDelete.getId() + 
-                               " created at: " + toDelete.getCreatedAt());
-                    userActivityDetailsRepository.delete(toDelete);
-                    cleanedCount++;
+        try {
+            List<Number> ids;
+            do {
+                ids = userActivityDetailsRepository.findSupersededIds(maintenancePageSize);
+                if (!ids.isEmpty()) {
+                    userActivityDetailsRepository.deleteAllByIdInBatch(
+                        ids.stream().map(Number::longValue).collect(Collectors.toList()));
+                    cleanedCount += ids.size();
+                    pages++;
                 }
-            }
+            } while (ids.size() == maintenancePageSize);
+        } catch (Exception e) {
+            logger.severe("Error cleaning up duplicate activity details: " + e.getMessage());
+            e.printStackTrace();
         }
         
-        logger.info("Cleanup completed. Removed " + cleanedCount + " duplicate activity detail records.");
+        recordMaintenanceRun("cleanupDuplicateActivityDetails", startTime, cleanedCount, pages);
     }
     
     /**
      * Scheduled task to mark expired sessions
-     * Runs every hour
+     * Runs every hour, flagging sessions in pages with bulk UPDATEs
      */
     @Scheduled(fixedRate = 3600000) // 1 hour in milliseconds
-    @Transactional
     public void markExpiredSessions() {
+        long startTime = System.currentTimeMillis();
         LocalDateTime now = LocalDateTime.now();
-        List<UserSession> expiredSessions = userSessionRepository.findAll().stream()
-            .filter(session -> session.getExpiryTime() != null && now.isAfter(session.getExpiryTime()) && !session.getIsExpired())
-            .collect(Collectors.toList());
+        int markedCount = 0;
+        int pages = 0;
         
-        logger.info("Found " + expiredSessions.size() + " sessions to mark as expired");
-        
-        for (UserSession session : expiredSessions) {
-            session.setIsExpired(true);
-            userSessionRepository.save(session);
+        try {
+            int updated;
+            do {
+                updated = userSessionRepository.markExpiredBefore(now, maintenancePageSize);
+                markedCount += updated;
+                pages++;
+            } while (updated == maintenancePageSize);
+            // Sessions flagged here are past their expiry time, which cached entries never outlive
+            sessionValidityCache.purgeStale();
+        } catch (Exception e) {
+            logger.severe("Error marking expired sessions: " + e.getMessage());
+            e.printStackTrace();
         }
         
-        logger.info("Marked " + expiredSessions.size() + " sessions as expired");
+        recordMaintenanceRun("markExpiredSessions", startTime, markedCount, pages);
+        
+        if (expiredCleanupDeferred && sessionRollupService.getFinalizedBefore() != null) {
+            cleanupOldExpiredSessions();
+        }
     }
     
     /**
      * Scheduled task to clean up old expired sessions
      * Runs once a day at midnight
-     * Keeps only the last 100 expired sessions and removes the rest
+     * Keeps only the last 100 expired sessions and removes the rest, in pages.
+     * Sessions still counted in open rollup buckets are kept until those are final.
+     * Before the first rollup backfill completes nothing is final; the cleanup is then
+     * deferred to the first hourly markExpiredSessions run after it.
      */
     @Scheduled(cron = "0 0 0 * * ?") // Run at midnight every day
-    @Transactional
     public void cleanupOldExpiredSessions() {
+        long startTime = System.currentTimeMillis();
+        int deletedCount = 0;
+        int pages = 0;
+        
         try {
             LocalDateTime now = LocalDateTime.now();
             
-            // Find all expired sessions
-            List<UserSession> expiredSessions = userSessionRepository.findExpiredSessions(now);
+            LocalDateTime finalizedBefore = sessionRollupService.getFinalizedBefore();
+            if (finalizedBefore == null) {
+                expiredCleanupDeferred = true;
+                logger.warning("Session rollups not backfilled yet, deferring expired session cleanup");
+                return;
+            }
+            expiredCleanupDeferred = false;
             
-            // If we have more than 100 expired sessions, keep only the 100 most recent ones
-            if (expiredSessions.size() > 100) {
-                // Sort by expiry time descending (most recent first)
-                expiredSessions.sort(Comparator.comparing(
-                    UserSession::getExpiryTime, 
-                    Comparator.nullsLast(Comparator.reverseOrder())
-                ));
-                
-                // Get sessions to delete (all except the 100 most recent)
-                List<UserSession> sessionsToDelete = expiredSessions.subList(100, expiredSessions.size());
-                
-                logger.info("Cleaning up old expired sessions. Total expired: " + 
-                           expiredSessions.size() + ", keeping: 100, deleting: " + 
-                           sessionsToDelete.size());
-                
-                // Delete the old sessions
-                for (UserSession session : sessionsToDelete) {
-                    userSessionRepository.delete(session);
-                }
-                
-                logger.info("Successfully cleaned up " + sessionsToDelete.size() + " old expired sessions");
-            } else {
-                logger.info("No need to clean up expired sessions. Current count: " + expiredSessions.size());
+            // The 100th most recent expired session; everything after it is deleted
+            List<Object[]> boundary = userSessionRepository.findExpiredSessionAt(now, KEPT_EXPIRED_SESSIONS - 1);
+            if (boundary.isEmpty()) {
+                logger.info("No need to clean up expired sessions, fewer than " + KEPT_EXPIRED_SESSIONS + " exist");
+                return;
             }
+            Integer boundaryId = ((Number) boundary.get(0)[0]).intValue();
+            LocalDateTime boundaryTime = toLocalDateTime(boundary.get(0)[1]);
+            
+            int deleted;
+            do {
+                deleted = userSessionRepository.deleteExpiredAfter(now, boundaryTime, boundaryId,
+                    finalizedBefore, maintenancePageSize);
+                deletedCount += deleted;
+                pages++;
+            } while (deleted == maintenancePageSize);
+            sessionValidityCache.purgeStale();
         } catch (Exception e) {
             logger.severe("Error cleaning up old expired sessions: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            recordMaintenanceRun("cleanupOldExpiredSessions", startTime, deletedCount, pages);
         }
     }
     
-    @Transactional
-    public UserSession saveActivity(UserActivityDTO activityDTO) {
-        logger.info("Received activity data: sessionToken=" + activityDTO.getSessionToken() + 
-                   ", userId=" + activityDTO.getUserId() + 
-                   ", currentPage=" + activityDTO.getCurrentPage() +
-                   ", pageViews=" + activityDTO.getPageViews());
-        
-        try {
-            // Find sessions by token
-            List<UserSession> existingSessions = userSessionRepository.findBySessionToken(activityDTO.getSessionToken());
-            UserSession session = null;
-            
-            if (existingSessions.isEmpty()) {
-                // Create a new session if none exist
-                logger.info("Creating new session for token: " + activityDTO.getSessionToken());
-                session = new UserSession();
-                session.setSessionToken(activityDTO.getSessionToken());
-                session.setUserId(activityDTO.getUserId() != null ? activityDTO.getUserId() : 0); // Guest user
-                session.setCreatedAt(LocalDateTime.now());
-                session.setLastActivity(LocalDateTime.now());
-                
-                // Set expiry time to 24 hours from now
-                session.setExpiryTime(LocalDateTime.now().plusHours(sessionExpiryHours));
-                session.setIsExpired(false);
-            } else {
-                // Handle the case of multiple sessions with same token
-                if (existingSessions.size() > 1) {
-                    logger.warning("Found " + existingSessions.size() + " sessions with token: " + 
-                        activityDTO.getSessionToken() + ". Using the most recent one.");
-                    
-                    // Get ordered sessions by last activity
-                    List<UserSession> orderedSessions = userSessionRepository.findBySessionTokenOrderByLastActivityDesc(activityDTO.getSessionToken());
-                    if (!orderedSessions.isEmpty()) {
-                        session = orderedSessions.get(0); // Get the first one (most recent)
-                    } else {
-                        session = existingSessions.get(0); // Fallback
-                    }
-                } else {
-                    // Just one session found, use it
-                    session = existingSessions.get(0);
-                }
-                
-                logger.info("Updating existing session ID: " + session.getId() + " for user: " + session.getUserId());
-                
-                // Check if session is expired
-                if (session.getExpiryTime() != null && LocalDateTime.now().isAfter(session.getExpiryTime())) {
-                    logger.info("Session " + session.getId() + " has expired. Creating a new session.");
-                    
-                    // Mark the old session as expired
-                    session.setIsExpired(true);
-                    userSessionRepository.save(session);
-                    
-                    // Create a new session
-                    session = new UserSession();
-                    session.setSessionToken(activityDTO.getSessionToken());
-                    session.setUserId(activityDTO.getUserId() != null ? activityDTO.getUserId() : 0);
-                    session.setCreatedAt(LocalDateTime.now());
-                    session.setLastActivity(LocalDateTime.now());
-                    session.setExpiryTime(LocalDateTime.now().plusHours(sessionExpiryHours));
-                    session.setIsExpired(false);
-                }
-            }
-            
-            // Update session data
-            session.setLastActivity(LocalDateTime.now());
-            session.setCurrentPage(activityDTO.getCurrentPage());
-            session.setPageViews(activityDTO.getPageViews());
-            session.setDuration(activityDTO.getDuration());
-            session.setIpAddress(activityDTO.getIpAddress());
-            
-            // Save the session
-            session = userSessionRepository.save(session);
-            logger.info("Session saved successfully with ID: " + session.getId());
-            
-            // Return the session now, and handle device details in a separate transaction
-            final Integer sessionId = session.getId();
-            
-            // Handle device details in a separate transaction if needed
-            if (activityDTO.getDevice() != null && sessionId != null) {
-                try {
-                    saveActivityDetails(sessionId, activityDTO.getDevice());
-                } catch (Exception e) {
-                    // Log but don't fail the whole operation
-                    logger.warning("Failed to save activity details: " + e.getMessage());
-                }
-            }
-            
-            return session;
-        } catch (Exception e) {
-            logger.severe("Error saving user activity: " + e.getMessage());
-            e.printStackTrace();
-            // Return a basic session to avoid null pointer exceptions in the controller
-            UserSession errorSession = new UserSession();
-            errorSession.setSessionToken(activityDTO.getSessionToken());
-            return errorSession;
+    /**
+     * Timing of the last run of each maintenance job, and the activity buffer counters
+     */
+    public Map<String, Object> getMaintenanceStats() {
+        Map<String, Object> stats = new HashMap<>(maintenanceRuns);
+        stats.put("activityIngestion", activityIngestionService.getStats());
+        stats.put("sessionValidityCache", sessionValidityCache.getStats());
+        stats.put("sessionRollups", sessionRollupService.getStats());
+        stats.put("presence", presenceRegistry.getStats());
+        return stats;
+    }
+    
+    private void recordMaintenanceRun(String job, long startTime, int rows, int pages) {
+        long durationMs = System.currentTimeMillis() - startTime;
+        Map<String, Object> run = new HashMap<>();
+        run.put("lastRunAt", LocalDateTime.now());
+        run.put("durationMs", durationMs);
+        run.put("rows", rows);
+        run.put("pages", pages);
+        maintenanceRuns.put(job, run);
+        logger.info(job + " affected " + rows + " rows in " + pages + " pages, " + durationMs + " ms");
+    }
+    
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof java.sql.Timestamp) {
+            return ((java.sql.Timestamp) value).toLocalDateTime();
         }
+        return (LocalDateTime) value;
     }
     
     /**
-     * Save or update device-specific details
+     * Records an activity heartbeat.
+     *
+     * The heartbeat is buffered and written by {@link ActivityIngestionService}
+     * within a few seconds, so the returned session only carries an ID once
+     * the token has been written at least once. The heartbeat also refreshes
+     * the token in {@link PresenceRegistry}.
+     *
+     * @return the session of the token, or null if the heartbeat was dropped because the buffer is full
      */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private void saveActivityDetails(Integer sessionId, Map<String, Object> deviceData) {
-        try {
-            // Skip if no valid session ID
-            if (sessionId == null) {
-                logger.warning("Cannot save activity details - null session ID");
-                return;
-            }
-            
-            // Get the most recent activity details or create a new one
-            Optional<UserActivityDetails> existingDetails = userActivityDetailsRepository.findFirstBySessionIdOrderByCreatedAtDesc(sessionId);
-            UserActivityDetails details = existingDetails.orElseGet(() -> {
-                UserActivityDetails newDetails = new UserActivityDetails();
-                newDetails.setSessionId(sessionId);
-                return newDetails;
-            });
-            
-            try {
-                // Store serialized device info
-                details.setDeviceInfo(objectMapper.writeValueAsString(deviceData));
-                
-                // Extract specific device fields
-                if (deviceData.containsKey("browser")) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, String> browser = (Map<String, String>) deviceData.get("browser");
-                    details.setBrowserName(browser.get("name"));
-                    details.setBrowserVersion(browser.get("version"));
-                }
-                
-                if (deviceData.containsKey("os")) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, String> os = (Map<String, String>) deviceData.get("os");
-                    details.setOsName(os.get("name"));
-                    details.setOsVersion(os.get("version"));
-                }
-                
-                if (deviceData.containsKey("isMobile")) {
-                    details.setIsMobile((Boolean) deviceData.get("isMobile"));
-                }
-                
-                if (deviceData.containsKey("deviceFingerprint")) {
-                    details.setDeviceFingerprint((String) deviceData.get("deviceFingerprint"));
-                }
-                
-                userActivityDetailsRepository.save(details);
-                logger.info("Device details saved for session ID: " + sessionId);
-            } catch (JsonProcessingException e) {
-                // Log error but continue
-                logger.severe("Error serializing device info: " + e.getMessage());
-            }
-        } catch (Exception e) {
-            logger.severe("Error in saveActivityDetails: " + e.getMessage());
-            e.printStackTrace();
+    public UserSession saveActivity(UserActivityDTO activityDTO) {
+        if (!activityIngestionService.record(activityDTO)) {
+            logger.fine("Activity buffer full, dropped heartbeat of token: " + activityDTO.getSessionToken());
+            return null;
         }
+        presenceRegistry.touchSession(activityDTO);
+        UserSession session = new UserSession();
+        session.setSessionToken(activityDTO.getSessionToken());
+        session.setId(activityIngestionService.getSessionId(activityDTO.getSessionToken()));
+        return session;
     }
     
     /**
-     * Get currently active users
+     * Get currently active users, from {@link PresenceRegistry}
      */
     public List<Map<String, Object>> getActiveUsers() {
         // Consider sessions active if they've had activity in the last X minutes
-        LocalDateTime cutoffTime = LocalDateTime.now().minus(activityTimeoutMinutes, ChronoUnit.MINUTES);
-        logger.info("Finding active sessions since: " + cutoffTime);
-        
-        List<UserSession> activeSessions = userSessionRepository.findActiveSessions(cutoffTime);
-        logger.info("Found " + activeSessions.size() + " active sessions");
+        List<PresenceRegistry.SessionPresence> activeSessions =
+            presenceRegistry.getOnlineSessions(activityTimeoutMinutes * 60000L);
+        logger.fine("Found " + activeSessions.size() + " active sessions");
         
-        return activeSessions.stream()
-            .map(this::convertToUserMap)
-            .collect(Collectors.toList());
+        return convertToUserMaps(activeSessions);
     }
     
     /**
@@ -350,26 +262,23 @@ public List<Map<String, Object>> getExpiredSessions() {
         List<UserSession> expiredSessions = userSessionRepository.findExpiredSessions(now);
         logger.info("Found " + expiredSessions.size() + " expired sessions");
         
+        // Already sorted by expiry time (most recent first), the order cleanupOldExpiredSessions keeps
         return expiredSessions.stream()
+            // Limit to 100 entries to avoid overwhelming the admin dashboard
+            .limit(100)
             .map(session -> {
                 Map<String, Object> sessionMap = convertToUserMap(session);
                 sessionMap.put("expiryTime", session.getExpiryTime());
                 sessionMap.put("expiredAgo", ChronoUnit.MINUTES.between(session.getExpiryTime(), now));
                 return sessionMap;
             })
-            // Sort by expiry time (most recent first)
-            .sorted(Comparator.comparing(
-                map -> (LocalDateTime) map.get("expiryTime"),
-                Comparator.nullsLast(Comparator.reverseOrder())
-            ))
-            // Limit to 100 entries to avoid overwhelming the admin dashboard
-            .limit(100)
             .collect(Collectors.toList());
     }
     
     /**
      * Get sessions that will expire soon
-     * Includes both active sessions and sessions with activity in the last 30 minutes
+     * Sessions come from user_sessions; those with activity in the last 30 minutes
+     * are described from {@link PresenceRegistry}, which has their current page and device
      */
     public List<Map<String, Object>> getSessionsExpiringSoon(int hours) {
         LocalDateTime now = LocalDateTime.now();
@@ -378,29 +287,28 @@ public List<Map<String, Object>> getSessionsExpiringSoon(int hours) {
         // Find sessions that will expire within the specified hours
         List<UserSession> expiringSessions = userSessionRepository.findSessionsExpiringBetween(now, future);
         
-        // Also include currently active sessions that have an expiry time set
-        LocalDateTime activityCutoff = now.minus(30, ChronoUnit.MINUTES); // Consider sessions active if activity in last 30 min
-        List<UserSession> activeSessions = userSessionRepository.findActiveSessions(activityCutoff);
-        
-        // Combine and filter the lists to include only sessions that will expire soon
-        // and haven't already expired
-        List<UserSession> combinedSessions = Stream.concat(
-                expiringSessions.stream(),
-                activeSessions.stream().filter(s -> 
-                    s.getExpiryTime() != null && 
-                    s.getExpiryTime().isAfter(now) && 
-                    s.getExpiryTime().isBefore(future) &&
-                    !s.getIsExpired()
-                )
-            )
-            .distinct() // Remove duplicates
+        // Consider sessions active if activity in last 30 min
+        Map<Integer, PresenceRegistry.SessionPresence> activeSessions = presenceRegistry.getOnlineSessions(30 * 60000L)
+            .stream()
+            .filter(s -> s.getSessionId() != null)
+            .collect(Collectors.toMap(PresenceRegistry.SessionPresence::getSessionId, s -> s, (a, b) -> a));
+        
+        List<PresenceRegistry.SessionPresence> active = expiringSessions.stream()
+            .map(session -> activeSessions.get(session.getId()))
+            .filter(Objects::nonNull)
             .collect(Collectors.toList());
+        Map<Integer, Map<String, Object>> activeMaps = convertToUserMaps(active).stream()
+            .collect(Collectors.toMap(map -> (Integer) map.get("id"), map -> map));
         
-        logger.info("Found " + combinedSessions.size() + " sessions expiring in the next " + hours + " hours");
+        logger.info("Found " + expiringSessions.size() + " sessions expiring in the next " + hours + " hours, "
+            + active.size() + " of them active");
         
-        return combinedSessions.stream()
+        return expiringSessions.stream()
             .map(session -> {
-                Map<String, Object> sessionMap = convertToUserMap(session);
+                Map<String, Object> sessionMap = activeMaps.containsKey(session.getId())
+                    ? activeMaps.get(session.getId())
+                    : convertToUserMap(session);
+                // user_sessions has the expiry time of the last flush, which the registry may not have seen yet
                 sessionMap.put("expiryTime", session.getExpiryTime());
                 sessionMap.put("expiresIn", ChronoUnit.MINUTES.between(now, session.getExpiryTime()));
                 return sessionMap;
@@ -414,65 +322,55 @@ public List<Map<String, Object>> getSessionsExpiringSoon(int hours) {
     
     /**
      * Get user statistics (total & active)
+     * Totals come from the session rollups, active sessions from {@link PresenceRegistry};
+     * expired sessions are a point-in-time count
      */
     public UserStatisticsDTO getUserStatistics() {
         // Get active user count
-        LocalDateTime cutoffTime = LocalDateTime.now().minus(activityTimeoutMinutes, ChronoUnit.MINUTES);
-        Long activeSessions = userSessionRepository.countActiveSessions(cutoffTime);
+        long activeSessions = presenceRegistry.countOnlineSessions(activityTimeoutMinutes * 60000L);
         
-        // Get total session count
-        Long totalSessions = userSessionRepository.count();
-        logger.info("Total sessions: " + totalSessions + ", Active sessions: " + activeSessions);
-        
-        // Get new users today
-        LocalDateTime startOfToday = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS);
-        List<UserSession> newToday = userSessionRepository.findAll().stream()
-                .filter(us -> us.getCreatedAt() != null && us.getCreatedAt().isAfter(startOfToday))
-                .collect(Collectors.toList());
-        
-        // Calculate average session time (in minutes)
-        double avgSessionTime = userSessionRepository.findAll().stream()
-                .mapToInt(us -> us.getDuration() != null ? us.getDuration() : 0)
-                .average()
-                .orElse(0);
+        // Get total sessions, new sessions today and average session time
+        Map<String, Long> totals = sessionRollupService.getTotals();
+        logger.info("Total sessions: " + totals.get("sessions") + ", Active sessions: " + activeSessions);
         
         // Get expired sessions count
         Long expiredSessions = userSessionRepository.countExpiredSessions(LocalDateTime.now());
         
         UserStatisticsDTO stats = new UserStatisticsDTO();
-        stats.setTotalUsers(totalSessions.intValue());
-        stats.setActiveUsers(activeSessions.intValue());
-        stats.setNewUsersToday(newToday.size());
-        stats.setAverageSessionTime((int) Math.round(avgSessionTime));
+        stats.setTotalUsers(totals.get("sessions").intValue());
+        stats.setActiveUsers((int) activeSessions);
+        stats.setNewUsersToday(totals.get("sessionsToday").intValue());
+        stats.setAverageSessionTime(totals.get("averageDuration").intValue());
         stats.setExpiredSessions(expiredSessions.intValue());
         
         return stats;
     }
     
     /**
-     * Get login history for the past X days
+     * Get login history for the past X days, from the daily session rollups
      */
     public List<LoginHistoryDTO> getLoginHistory(int days) {
-        LocalDateTime startDate = LocalDateTime.now().minus(days, ChronoUnit.DAYS);
-        
-        List<Object[]> results = userSessionRepository.getLoginCountByDay(startDate);
-        
-        return results.stream()
-                .map(row -> {
-                    // Handle java.sql.Date properly by converting to String
-                    String dateStr;
-                    if (row[0] instanceof java.sql.Date) {
-                        dateStr = ((java.sql.Date) row[0]).toString();
-                    } else if (row[0] instanceof String) {
-                        dateStr = (String) row[0];
-                    } else {
-                        dateStr = row[0].toString();
-                    }
-                    
-                    Integer count = ((Number) row[1]).intValue();
-                    return new LoginHistoryDTO(dateStr, count);
-                })
-                .collect(Collectors.toList());
+        return sessionRollupService.getLoginHistory(days);
+    }
+    
+    /**
+     * Get session rollups for the past X hours or days
+     *
+     * @param granularity "hourly" or "daily"
+     * @param count number of buckets back from now
+     * @param breakdown true for the rows per role and device, false for the totals
+     * @throws IllegalArgumentException for any other granularity
+     */
+    public List<Map<String, Object>> getSessionRollups(String granularity, int count, boolean breakdown) {
+        SessionRollupService.Granularity g;
+        if ("hourly".equalsIgnoreCase(granularity)) {
+            g = SessionRollupService.Granularity.HOURLY;
+        } else if ("daily".equalsIgnoreCase(granularity)) {
+            g = SessionRollupService.Granularity.DAILY;
+        } else {
+            throw new IllegalArgumentException("Unknown granularity: " + granularity);
+        }
+        return sessionRollupService.getRollups(g, count, breakdown);
     }
     
     /**
@@ -507,12 +405,26 @@ public boolean forceLogoutSession(Integer sessionId) {
         // Save the updated session
         userSessionRepository.save(session);
         
+        // Drop the cached validity now, and again once the change is visible to other readers
+        String sessionToken = session.getSessionToken();
+        sessionValidityCache.invalidate(sessionToken);
+        presenceRegistry.removeSession(sessionToken);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    sessionValidityCache.invalidate(sessionToken);
+                }
+            });
+        }
+        
         logger.info("Successfully forced logout session: " + sessionId);
         return true;
     }
     
     /**
      * Check if a session is valid (exists and not expired)
+     * Answered from {@link SessionValidityCache} when possible
      * 
      * @param sessionToken The session token to validate
      * @return true if the session is valid, false otherwise
@@ -523,29 +435,101 @@ public boolean isSessionValid(String sessionToken) {
             return false;
         }
         
-        logger.info("Checking if session is valid: " + sessionToken);
+        Boolean cached = sessionValidityCache.get(sessionToken);
+        if (cached != null && (cached || !activityIngestionService.isAwaitingFirstWrite(sessionToken))) {
+            return cached;
+        }
         
         // Find sessions by token
+        long stamp = sessionValidityCache.stamp();
         List<UserSession> sessions = userSessionRepository.findBySessionToken(sessionToken);
         
-        if (sessions.isEmpty()) {
-            logger.warning("No session found with token: " + sessionToken);
-            return false;
-        }
-        
-        // Check if any of the sessions is valid (not expired)
+        // The token is valid until its latest non-expired session expires
         LocalDateTime now = LocalDateTime.now();
+        LocalDateTime validUntil = null;
         for (UserSession session : sessions) {
-            if (!session.getIsExpired() && session.getExpiryTime().isAfter(now)) {
-                logger.info("Valid session found: " + session.getId());
-                return true;
+            if (!session.getIsExpired() && session.getExpiryTime().isAfter(now)
+                    && (validUntil == null || session.getExpiryTime().isAfter(validUntil))) {
+                validUntil = session.getExpiryTime();
             }
         }
         
-        logger.warning("All sessions with token are expired: " + sessionToken);
+        if (validUntil != null) {
+            sessionValidityCache.putValid(sessionToken,
+                validUntil.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), stamp);
+            return true;
+        }
+        
+        // A first heartbeat not yet written creates the session within seconds
+        if (activityIngestionService.isAwaitingFirstWrite(sessionToken)) {
+            return true;
+        }
+        
+        logger.fine("No valid session with token: " + sessionToken);
+        sessionValidityCache.putInvalid(sessionToken, stamp);
         return false;
     }
     
+    /**
+     * The user a session token is logged in as
+     * 
+     * @param sessionToken The session token
+     * @return the user ID of the token's latest valid session, or null if it has none
+     */
+    public Integer getSessionUserId(String sessionToken) {
+        if (sessionToken == null || sessionToken.trim().isEmpty()) {
+            return null;
+        }
+        
+        LocalDateTime now = LocalDateTime.now();
+        for (UserSession session : userSessionRepository.findBySessionTokenOrderByLastActivityDesc(sessionToken)) {
+            if (session.getUserId() != null && !session.getIsExpired() && session.getExpiryTime().isAfter(now)) {
+                return session.getUserId();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Convert online sessions to Maps with the same fields as {@link #convertToUserMap},
+     * looking up all their users at once
+     */
+    private List<Map<String, Object>> convertToUserMaps(List<PresenceRegistry.SessionPresence> sessions) {
+        Set<Integer> userIds = sessions.stream()
+            .map(PresenceRegistry.SessionPresence::getUserId)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+        Map<Integer, User> users = userRepository.findAllById(userIds).stream()
+            .collect(Collectors.toMap(User::getId, u -> u));
+        
+        return sessions.stream()
+            .map(session -> {
+                Map<String, Object> userMap = new HashMap<>();
+                userMap.put("id", session.getSessionId());
+                userMap.put("userId", session.getUserId());
+                
+                User u = users.get(session.getUserId());
+                if (u != null) {
+                    userMap.put("username", u.getUsername());
+                    userMap.put("name", u.getFullName());
+                } else {
+                    userMap.put("username", "user_" + session.getUserId());
+                    userMap.put("name", "Student " + session.getUserId());
+                }
+                
+                userMap.put("activeTime", session.getDuration());
+                userMap.put("lastActivity", session.getLastSeen());
+                userMap.put("ipAddress", session.getIpAddress());
+                userMap.put("createdAt", session.getCreatedAt());
+                userMap.put("expiryTime", session.getExpiryTime());
+                userMap.put("isExpired", false);
+                userMap.put("device", session.getDevice());
+                userMap.put("location", session.getCurrentPage());
+                return userMap;
+            })
+            .collect(Collectors.toList());
+    }
+    
     /**
      * Convert UserSession to a Map with selected fields, fetching related device details
      */
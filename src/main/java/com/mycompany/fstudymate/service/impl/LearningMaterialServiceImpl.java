@@ -7,17 +7,19 @@
 import com.mycompany.fstudymate.repository.SubjectRepository;
 import com.mycompany.fstudymate.repository.UserRepository;
 import com.mycompany.fstudymate.service.LearningMaterialService;
+import com.mycompany.fstudymate.service.SambaSyncService;
+import util.ContentStore;
 import util.FileStorageService;
 import util.CIFSContextUtil;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -47,6 +49,9 @@ public class LearningMaterialServiceImpl implements LearningMaterialService {
     
     @Autowired
     private UserRepository userRepository;
+
+    @Autowired
+    private SambaSyncService sambaSyncService;
     
     /**
      * Creates and returns a CIFSContext for Samba operations
@@ -72,97 +77,74 @@ public List<LearningMaterial> getMaterialsBySubject(String subjectCode, String p
         Subject subject = subjectOpt.get();
         String parentPath = path != null ? path : "/";
         
-        // Check if there are materials in the database
+        // Always answer from the index; stale directories are rescanned in the background
         List<LearningMaterial> storedMaterials = materialRepository.findBySubjectAndParentPath(subject, parentPath);
-        if (!storedMaterials.isEmpty()) {
-            return storedMaterials;
-        }
-        
-        // If no materials in database, try to scan the SMB directory
-        try {
-            scanSmbDirectory(subject, parentPath);
-            return materialRepository.findBySubjectAndParentPath(subject, parentPath);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error scanning SMB directory: " + e.getMessage(), e);
-            return Collections.emptyList();
-        }
+        sambaSyncService.refreshIfStale(subject, parentPath);
+        return storedMaterials;
     }
 
-    /**
-     * Scan a directory on the SMB server and update the database
-     */
-    private void scanSmbDirectory(Subject subject, String path) throws IOException {
-        // Use subject code for directory name if available
-        String directoryName;
-        if (subject.getCode() != null && !subject.getCode().isEmpty()) {
-            directoryName = subject.getCode();
-            logger.info("Using subject code for directory: " + directoryName);
-        } else {
-            directoryName = sanitizeFileName(subject.getName());
-            logger.info("Subject code not found, using sanitized name: " + directoryName);
-        }
-        
-        String smbPath = LEARNING_MATERIALS_DIR + "/" + directoryName + path;
-        if (!smbPath.endsWith("/")) {
-            smbPath += "/";
-        }
+    @Override
+    public LearningMaterial uploadFile(String subjectCode, MultipartFile file, String path, String description, Integer userId) throws IOException {
+        FileTarget target = prepareFileTarget(subjectCode, file.getOriginalFilename(), path, userId);
         
         try {
-            CIFSContext context = createContext();
-            SmbFile dir = new SmbFile(FileStorageService.SMB_BASE_PATH + smbPath, context);
+            ensureFileAbsent(target);
             
-            // Create directory if it doesn't exist
-            if (!dir.exists()) {
-                dir.mkdirs();
-                logger.info("Created directory: " + smbPath);
-                return;
-            }
+            // Store the content once, however many subjects or folders it is uploaded to
+            ContentStore.StoredContent stored = ContentStore.store(file.getInputStream());
             
-            SmbFile[] files = dir.listFiles();
-            // Use system user ID 9 instead of 1
-            User systemUser = userRepository.findById(9).orElseThrow();
+            // Create database entry
+            LearningMaterial material = newFileMaterial(target, file.getOriginalFilename(), stored.getPath(),
+                    file.getSize(), file.getContentType(), description);
+            material.setContentHash(stored.getSha256());
             
-            for (SmbFile file : files) {
-                String fileName = file.getName();
-                if (fileName.equals(".") || fileName.equals("..")) {
-                    continue;
-                }
-                
-                // Remove trailing slash for directories
-                if (fileName.endsWith("/")) {
-                    fileName = fileName.substring(0, fileName.length() - 1);
-                }
-                
-                boolean isDirectory = file.isDirectory();
-                
-                // Check if the file is already in the database
-                Optional<LearningMaterial> existingMaterial = 
-                    materialRepository.findBySubjectAndFileNameAndParentPath(subject, fileName, path);
-                
-                if (existingMaterial.isEmpty()) {
-                    LearningMaterial material = new LearningMaterial();
-                    material.setFileName(fileName);
-                    material.setOriginalFileName(fileName);
-                    material.setFilePath(smbPath + fileName);
-                    material.setFileSize(isDirectory ? null : file.length());
-                    material.setFileType(isDirectory ? null : getMimeType(fileName));
-                    material.setUploadDate(LocalDateTime.now());
-                    material.setSubject(subject);
-                    material.setUploadedBy(systemUser);
-                    material.setIsDirectory(isDirectory);
-                    material.setParentPath(path);
-                    
-                    materialRepository.save(material);
-                }
+            try {
+                return materialRepository.save(material);
+            } catch (RuntimeException e) {
+                // The entry holding the reference was not saved
+                ContentStore.release(stored.getSha256());
+                throw e;
             }
         } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error scanning directory: " + e.getMessage(), e);
-            throw new IOException("Failed to scan directory: " + e.getMessage());
+            logger.log(Level.SEVERE, "Error uploading file: " + e.getMessage(), e);
+            throw new IOException("Failed to upload file: " + e.getMessage());
         }
     }
 
     @Override
-    public LearningMaterial uploadFile(String subjectCode, MultipartFile file, String path, String description, Integer userId) throws IOException {
+    public LearningMaterial registerUploadedMaterial(String subjectCode, String stagedPath, String originalFileName,
+                                                     long fileSize, String contentType, String path,
+                                                     String description, Integer userId) throws IOException {
+        FileTarget target = prepareFileTarget(subjectCode, originalFileName, path, userId);
+        
+        try {
+            ensureFileAbsent(target);
+            
+            // Server-side move; fails if a file with this name appeared meanwhile
+            FileStorageService.moveFile(stagedPath, target.smbPath + target.fileName);
+            
+            // Create database entry
+            return materialRepository.save(newFileMaterial(target, originalFileName,
+                    target.smbPath + target.fileName, fileSize, contentType, description));
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error registering uploaded file: " + e.getMessage(), e);
+            throw new IOException("Failed to register uploaded file: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Subject directory and user of a new file, shared by uploadFile and registerUploadedMaterial
+     */
+    private static final class FileTarget {
+        Subject subject;
+        User user;
+        String parentPath;
+        String smbPath;
+        String fileName;
+    }
+    
+    private FileTarget prepareFileTarget(String subjectCode, String originalFileName, String path, Integer userId)
+            throws IOException {
         Optional<Subject> subjectOpt = subjectRepository.findById(
                 Integer.parseInt(subjectCode.replaceAll("[^0-9]", "")));
         
@@ -170,72 +152,65 @@ public LearningMaterial uploadFile(String subjectCode, MultipartFile file, Strin
             throw new IOException("Subject not found");
         }
         
-        Subject subject = subjectOpt.get();
-        String parentPath = path != null ? path : "/";
+        FileTarget target = new FileTarget();
+        target.subject = subjectOpt.get();
+        target.parentPath = path != null ? path : "/";
         
         // Check user permission
-        User user = userRepository.findById(userId).orElseThrow(() -> new IOException("User not found"));
+        target.user = userRepository.findById(userId).orElseThrow(() -> new IOException("User not found"));
         if (!hasModifyPermission(userId)) {
             throw new IOException("Insufficient permissions");
         }
         
-        String originalFileName = file.getOriginalFilename();
-        String fileName = sanitizeFileName(originalFileName);
+        target.fileName = sanitizeFileName(originalFileName);
         
         // Use subject code for directory name if available
         String directoryName;
-        if (subject.getCode() != null && !subject.getCode().isEmpty()) {
-            directoryName = subject.getCode();
+        if (target.subject.getCode() != null && !target.subject.getCode().isEmpty()) {
+            directoryName = target.subject.getCode();
         } else {
-            directoryName = sanitizeFileName(subject.getName());
+            directoryName = sanitizeFileName(target.subject.getName());
         }
         
-        String smbPath = LEARNING_MATERIALS_DIR + "/" + directoryName + parentPath;
+        target.smbPath = LEARNING_MATERIALS_DIR + "/" + directoryName + target.parentPath;
         
-        if (!smbPath.endsWith("/")) {
-            smbPath += "/";
+        if (!target.smbPath.endsWith("/")) {
+            target.smbPath += "/";
+        }
+        return target;
+    }
+    
+    // Ensures the directory exists and no file of that name exists, on the share or as a stored material
+    private void ensureFileAbsent(FileTarget target) throws IOException {
+        CIFSContext context = createContext();
+        SmbFile dir = new SmbFile(FileStorageService.SMB_BASE_PATH + target.smbPath, context);
+        if (!dir.exists()) {
+            dir.mkdirs();
         }
         
-        try {
-            // Ensure directory exists
-            CIFSContext context = createContext();
-            SmbFile dir = new SmbFile(FileStorageService.SMB_BASE_PATH + smbPath, context);
-            if (!dir.exists()) {
-                dir.mkdirs();
-            }
-            
-            // Check if file already exists
-            SmbFile smbFile = new SmbFile(FileStorageService.SMB_BASE_PATH + smbPath + fileName, context);
-            if (smbFile.exists()) {
-                throw new IOException("File already exists: " + fileName);
-            }
-            
-            // Upload file to SMB server
-            File tempFile = File.createTempFile("upload-", ".tmp");
-            FileUtils.copyInputStreamToFile(file.getInputStream(), tempFile);
-            FileStorageService.uploadFile(smbPath + fileName, tempFile);
-            tempFile.delete();
-            
-            // Create database entry
-            LearningMaterial material = new LearningMaterial();
-            material.setFileName(fileName);
-            material.setOriginalFileName(originalFileName);
-            material.setFilePath(smbPath + fileName);
-            material.setFileSize(file.getSize());
-            material.setFileType(file.getContentType());
-            material.setUploadDate(LocalDateTime.now());
-            material.setSubject(subject);
-            material.setUploadedBy(user);
-            material.setIsDirectory(false);
-            material.setParentPath(parentPath);
-            material.setDescription(description);
-            
-            return materialRepository.save(material);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error uploading file: " + e.getMessage(), e);
-            throw new IOException("Failed to upload file: " + e.getMessage());
+        SmbFile smbFile = new SmbFile(FileStorageService.SMB_BASE_PATH + target.smbPath + target.fileName, context);
+        if (smbFile.exists() || materialRepository.findBySubjectAndFileNameAndParentPath(
+                target.subject, target.fileName, target.parentPath).isPresent()) {
+            throw new IOException("File already exists: " + target.fileName);
         }
     }
+    
+    private static LearningMaterial newFileMaterial(FileTarget target, String originalFileName, String filePath,
+                                                    long fileSize, String contentType, String description) {
+        LearningMaterial material = new LearningMaterial();
+        material.setFileName(target.fileName);
+        material.setOriginalFileName(originalFileName);
+        material.setFilePath(filePath);
+        material.setFileSize(fileSize);
+        material.setFileType(contentType);
+        material.setUploadDate(LocalDateTime.now());
+        material.setSubject(target.subject);
+        material.setUploadedBy(target.user);
+        material.setIsDirectory(false);
+        material.setParentPath(target.parentPath);
+        material.setDescription(description);
+        return material;
+    }
 
     @Override
     public LearningMaterial createDirectory(String subjectCode, String directoryName, String path, Integer userId) throws IOException {
@@ -315,6 +290,13 @@ public boolean deleteMaterial(Integer materialId, Integer userId) throws IOExcep
         }
         
         try {
+            if (material.getContentHash() != null) {
+                // Shared blob: drop the entry, then its reference; the blob goes with the last one
+                materialRepository.delete(material);
+                ContentStore.release(material.getContentHash());
+                return true;
+            }
+            
             // Delete file from SMB server
             boolean fileDeleted = FileStorageService.deleteFile(material.getFilePath());
             
@@ -356,6 +338,21 @@ public File downloadMaterial(Integer materialId) throws IOException {
         }
     }
 
+    @Override
+    public SmbFile openMaterial(Integer materialId) throws IOException {
+        Optional<LearningMaterial> materialOpt = materialRepository.findById(materialId);
+        if (materialOpt.isEmpty()) {
+            throw new FileNotFoundException("Material not found");
+        }
+        
+        LearningMaterial material = materialOpt.get();
+        if (material.getIsDirectory()) {
+            throw new IOException("Cannot download a directory");
+        }
+        
+        return FileStorageService.openFile(material.getFilePath());
+    }
+
     @Override
     public LearningMaterial updateMaterialDescription(Integer materialId, String description, Integer userId) {
         Optional<LearningMaterial> materialOpt = materialRepository.findById(materialId);
@@ -485,49 +482,5 @@ private String sanitizeFileName(String fileName) {
         }
         return fileName.replaceAll("[\\\\/:*?\"<>|]", "_");
     }
-    
-    /**
-     * Get MIME type based on file extension
-     */
-    private String getMimeType(String fileName) {
-        String extension = FilenameUtils.getExtension(fileName).toLowerCase();
-        
-        switch (extension) {
-            case "pdf":
-                return "application/pdf";
-            case "doc":
-            case "docx":
-                return "application/msword";
-            case "xls":
-            case "xlsx":
-                return "application/vnd.ms-excel";
-            case "ppt":
-            case "pptx":
-                return "application/vnd.ms-powerpoint";
-            case "jpg":
-            case "jpeg":
-                return "image/jpeg";
-            case "png":
-                return "image/png";
-            case "gif":
-                return "image/gif";
-            case "mp4":
-                return "video/mp4";
-            case "mp3":
-                return "audio/mpeg";
-            case "txt":
-                return "text/plain";
-            case "html":
-            case "htm":
-                return "text/html";
-            case "md":
-                return "text/markdown";
-            case "zip":
-                return "application/zip";
-            case "rar":
-                return "application/x-rar-compressed";
-            default:
-                return "application/octet-stream";
-        }
-    }
-} 
\ No newline at end of file
+}
+ 
\ No newline at end of file
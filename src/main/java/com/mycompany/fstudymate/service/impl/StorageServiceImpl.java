@@ -1,29 +1,34 @@
 package com.mycompany.fstudymate.service.impl;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.mycompany.fstudymate.service.StorageService;
+import util.StorageUsageIndex;
+import util.StorageUsageIndex.FileCategory;
 
-import jcifs.CIFSContext;
-import jcifs.CIFSException;
-import jcifs.Configuration;
-import jcifs.config.PropertyConfiguration;
-import jcifs.context.BaseContext;
-import jcifs.context.SingletonContext;
-import jcifs.smb.NtlmPasswordAuthenticator;
-import jcifs.smb.SmbFile;
-import jcifs.smb.SmbFileFilter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
+/**
+ * Storage statistics for the admin dashboard.
+ *
+ * Reads come from {@link StorageUsageIndex}, which FileStorageService keeps
+ * current on every upload and delete. A background thread re-walks each
+ * share every {@code storage.stats.refresh-ms} to pick up changes made
+ * outside the application; dashboard loads never walk the share.
+ */
 @Service
 public class StorageServiceImpl implements StorageService {
     private static final Logger logger = Logger.getLogger(StorageServiceImpl.class.getName());
@@ -39,69 +44,50 @@ public class StorageServiceImpl implements StorageService {
         "GroupChatFiles",
         "ProfilePictures",
         "LessonFiles",
-        "Backups"
+        "Backups",
+        // Deduplicated uploads (ContentStore)
+        "Blobs"
     };
     
-    // Limits for recursive scanning to avoid excessive processing
-    private static final int MAX_SCAN_DEPTH = 10;
-    private static final int MAX_FILES_PER_DIR = 5000;
+    // Used when the free space of the share is not known yet
+    private static final double DEFAULT_TOTAL_SPACE_GB = 10.0;
+    private static final double BYTES_PER_GB = 1024.0 * 1024 * 1024;
     
-    // Performance optimizations
-    private static final int BUFFER_SIZE = 1024 * 1024; // 1MB buffer for better network performance
-    private static volatile CIFSContext sharedContext = null;
-    private static final Object contextLock = new Object();
+    @Value("${storage.stats.refresh-ms:1800000}")
+    private long refreshIntervalMs;
+    
+    private ScheduledExecutorService refresher;
+    
+    @PostConstruct
+    public void init() {
+        for (String dirName : SHARE_DIRECTORIES) {
+            StorageUsageIndex.track(dirName);
+        }
+        // Walks take minutes on a large share, so they get their own thread rather than the shared scheduler
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "storage-usage-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshUsageIndex, 0, refreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
     
     /**
-     * Creates and returns a shared CIFSContext with optimized settings
-     * 
-     * @return authenticated context
-     * @throws CIFSException if authentication fails
+     * Re-walk every share and replace its usage totals
      */
-    private CIFSContext createContext() throws CIFSException {
-        if (sharedContext == null) {
-            synchronized (contextLock) {
-                if (sharedContext == null) {
-                    String username = System.getenv("SMB_USERNAME");
-                    String password = System.getenv("SMB_PASSWORD");
-                    
-                    if (username == null || password == null) {
-                        logger.severe("SMB credentials not found in environment variables");
-                        throw new CIFSException("SMB credentials not set in environment. Please set SMB_USERNAME and SMB_PASSWORD environment variables.");
-                    }
-                    
-                    try {
-                        // Optimize JCIFS configuration for better performance
-                        Properties props = new Properties();
-                        props.setProperty("jcifs.smb.client.responseTimeout", "30000");
-                        props.setProperty("jcifs.smb.client.soTimeout", "35000");
-                        props.setProperty("jcifs.smb.client.connTimeout", "60000");
-                        props.setProperty("jcifs.smb.client.sessionTimeout", "60000");
-                        props.setProperty("jcifs.netbios.cachePolicy", "-1");
-                        props.setProperty("jcifs.smb.client.dfs.disabled", "true");
-                        props.setProperty("jcifs.smb.client.useExtendedSecurity", "false");
-                        props.setProperty("jcifs.smb.client.bufferSize", String.valueOf(BUFFER_SIZE));
-                        
-                        Configuration config = new PropertyConfiguration(props);
-                        CIFSContext baseContext = new BaseContext(config);
-                        
-                        // Create NTLM authenticator
-                        NtlmPasswordAuthenticator auth = new NtlmPasswordAuthenticator("", username, password);
-                        
-                        // Create and store context with credentials
-                        sharedContext = baseContext.withCredentials(auth);
-                        logger.info("Created optimized SMB context with 1MB buffer size and connection pooling");
-                    } catch (Exception e) {
-                        logger.log(Level.SEVERE, "Error creating optimized CIFS context: " + e.getMessage(), e);
-                        
-                        // Fall back to default context if optimization fails
-                        NtlmPasswordAuthenticator auth = new NtlmPasswordAuthenticator("", username, password);
-                        sharedContext = SingletonContext.getInstance().withCredentials(auth);
-                    }
-                }
+    private void refreshUsageIndex() {
+        for (String dirName : SHARE_DIRECTORIES) {
+            try {
+                StorageUsageIndex.rebuild(dirName);
+            } catch (Exception e) {
+                logger.warning("Error indexing directory " + dirName + ": " + e.getMessage());
             }
         }
-        
-        return sharedContext;
     }
     
     /**
@@ -114,47 +100,42 @@ public Map<String, Object> getStorageInfo() {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            long startTime = System.currentTimeMillis();
-            CIFSContext context = createContext();
-            
-            // Get root directory
-            SmbFile rootDir = new SmbFile(SMB_BASE_PATH, context);
-            
-            // Calculate actual directory sizes
-            Map<String, Double> dirSizes = new HashMap<>();
-            double totalUsedGB = 0.0;
+            long usedBytes = 0;
+            long scanDurationMs = 0;
+            long oldestRefresh = Long.MAX_VALUE;
+            boolean dirty = false;
+            Map<FileCategory, Long> filesByCategory = new EnumMap<>(FileCategory.class);
+            List<Map<String, Object>> sharesList = new ArrayList<>();
             
-            // Get actual directory sizes for each share
             for (String dirName : SHARE_DIRECTORIES) {
-                try {
-                    SmbFile dir = new SmbFile(SMB_BASE_PATH + dirName + "/", context);
-                    if (dir.exists()) {
-                        // Get directory stats including file counts
-                        Map<String, Object> stats = getDirectoryStats(dir);
-                        int fileCount = (int) stats.get("fileCount");
-                        
-                        // For actual size, we'll use a more conservative estimate
-                        double dirSizeGB = calculateRealisticDirectorySize(dirName, fileCount);
-                        dirSizes.put(dirName, dirSizeGB);
-                        totalUsedGB += dirSizeGB;
-                    }
-                } catch (Exception e) {
-                    logger.warning("Error scanning directory " + dirName + ": " + e.getMessage());
-                    dirSizes.put(dirName, 0.0);
+                StorageUsageIndex.Usage usage = StorageUsageIndex.getUsage(dirName);
+                if (usage == null) {
+                    continue;
                 }
+                usedBytes += usage.getTotalBytes();
+                scanDurationMs += usage.getScanDurationMs();
+                oldestRefresh = Math.min(oldestRefresh, usage.getLastRefreshed());
+                dirty |= usage.isDirty();
+                usage.getFilesByCategory().forEach((category, count) -> filesByCategory.merge(category, count, Long::sum));
+                sharesList.add(toShareInfo(usage));
             }
             
-            // Use more realistic total space value
-            double totalSpaceGB = 10.0; // Set to 10GB as a reasonable value
-            
-            // Ensure used space doesn't exceed total space
-            totalUsedGB = Math.min(totalUsedGB, totalSpaceGB * 0.95); // Cap at 95% of total
+            // Total is what is used plus what is free, once a walk has reported the free space
+            double totalUsedGB = usedBytes / BYTES_PER_GB;
+            long freeBytes = StorageUsageIndex.getDiskFreeSpace();
+            double totalSpaceGB;
+            if (freeBytes >= 0) {
+                totalSpaceGB = (usedBytes + freeBytes) / BYTES_PER_GB;
+            } else {
+                totalSpaceGB = DEFAULT_TOTAL_SPACE_GB;
+                totalUsedGB = Math.min(totalUsedGB, totalSpaceGB * 0.95); // Cap at 95% of total
+            }
             
             // Round to 1 decimal place
+            double freeSpaceGB = Math.round((totalSpaceGB - totalUsedGB) * 10) / 10.0;
+            double usagePercentage = totalSpaceGB > 0 ? Math.round((totalUsedGB / totalSpaceGB * 100) * 10) / 10.0 : 0.0;
             totalUsedGB = Math.round(totalUsedGB * 10) / 10.0;
             totalSpaceGB = Math.round(totalSpaceGB * 10) / 10.0;
-            double freeSpaceGB = Math.round((totalSpaceGB - totalUsedGB) * 10) / 10.0;
-            double usagePercentage = Math.round((totalUsedGB / totalSpaceGB * 100) * 10) / 10.0;
             
             // Add the values in the format expected by frontend
             result.put("totalSpace", totalSpaceGB);
@@ -162,117 +143,48 @@ public Map<String, Object> getStorageInfo() {
             result.put("freeSpace", freeSpaceGB);
             result.put("usagePercentage", usagePercentage);
             
-            // Get file type counts from the directories we scanned
-            int imageCount = 0;
-            int videoCount = 0;
-            int documentCount = 0;
-            int otherCount = 0;
-            
-            // Directory statistics
-            List<Map<String, Object>> sharesList = new ArrayList<>();
-            
-            for (String dirName : SHARE_DIRECTORIES) {
-                try {
-                    SmbFile dir = new SmbFile(SMB_BASE_PATH + dirName + "/", context);
-                    if (dir.exists()) {
-                        Map<String, Object> stats = getDirectoryStats(dir);
-                        int fileCount = (int) stats.get("fileCount");
-                        
-                        // Create share info object for frontend
-                        Map<String, Object> shareInfo = new HashMap<>();
-                        shareInfo.put("name", dirName);
-                        
-                        // Use the calculated size from earlier
-                        double dirSizeGB = dirSizes.getOrDefault(dirName, 0.0);
-                        shareInfo.put("size", dirSizeGB);
-                        shareInfo.put("files", fileCount);
-                        
-                        sharesList.add(shareInfo);
-                        
-                        // Update file type counts based on directory name
-                        if (dirName.contains("Image") || dirName.contains("Picture") || dirName.equals("ProfilePictures")) {
-                            imageCount += fileCount;
-                        } else if (dirName.contains("Video")) {
-                            videoCount += fileCount;
-                        } else if (dirName.contains("Document") || dirName.contains("Lesson")) {
-                            documentCount += fileCount;
-                        } else {
-                            otherCount += fileCount;
-                        }
-                    }
-                } catch (Exception e) {
-                    logger.warning("Error scanning directory " + dirName + ": " + e.getMessage());
-                    // Add placeholder data for the directory
-                    Map<String, Object> shareInfo = new HashMap<>();
-                    shareInfo.put("name", dirName);
-                    shareInfo.put("size", 0.1); // Small placeholder
-                    shareInfo.put("files", 0);
-                    sharesList.add(shareInfo);
-                }
-            }
-            
             // Add file type counts to result
-            Map<String, Integer> fileTypes = new HashMap<>();
-            fileTypes.put("images", imageCount);
-            fileTypes.put("videos", videoCount);
-            fileTypes.put("documents", documentCount);
-            fileTypes.put("other", otherCount);
+            Map<String, Long> fileTypes = new HashMap<>();
+            for (FileCategory category : FileCategory.values()) {
+                fileTypes.put(category.getKey(), filesByCategory.getOrDefault(category, 0L));
+            }
             result.put("files", fileTypes);
             
             // Add shares list to result
             result.put("shares", sharesList);
             
-            long endTime = System.currentTimeMillis();
-            result.put("scanDurationMs", endTime - startTime);
+            // How old the numbers are; stale until every share has been walked once
+            boolean indexed = oldestRefresh > 0 && oldestRefresh != Long.MAX_VALUE;
+            result.put("lastUpdated", indexed ? oldestRefresh : null);
+            result.put("stale", !indexed || dirty
+                    || System.currentTimeMillis() - oldestRefresh > refreshIntervalMs * 2);
+            result.put("scanDurationMs", scanDurationMs);
             
             return result;
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error getting storage info: " + e.getMessage(), e);
-            
-            // Return mock data if real data can't be fetched
-            return getMockStorageInfo();
+            return result;
         }
     }
     
     /**
      * Get information about a specific file share
      * @param shareName Name of the share to get information for
-     * @return Map containing share information
+     * @return Map containing share information; empty if the share is not indexed
      */
     @Override
     public Map<String, Object> getShareInfo(String shareName) {
-        try {
-            CIFSContext context = createContext();
-            SmbFile dir = new SmbFile(SMB_BASE_PATH + shareName + "/", context);
-            
-            if (!dir.exists()) {
-                logger.warning("Share directory does not exist: " + shareName);
-                return new HashMap<>();
-            }
-            
-            Map<String, Object> stats = getDirectoryStats(dir);
-            int fileCount = (int) stats.get("fileCount");
-            double dirSizeGB = calculateRealisticDirectorySize(shareName, fileCount);
-            
-            Map<String, Object> shareInfo = new HashMap<>();
-            shareInfo.put("name", shareName);
-            shareInfo.put("size", dirSizeGB);
-            shareInfo.put("files", fileCount);
-            shareInfo.put("path", SMB_BASE_PATH + shareName);
-            
-            return shareInfo;
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error getting share info for " + shareName + ": " + e.getMessage(), e);
-            
-            // Return mock data
-            Map<String, Object> mockShare = new HashMap<>();
-            mockShare.put("name", shareName);
-            mockShare.put("size", 1.5); // 1.5GB
-            mockShare.put("files", 250);
-            mockShare.put("path", SMB_BASE_PATH + shareName);
-            
-            return mockShare;
+        StorageUsageIndex.Usage usage = StorageUsageIndex.getUsage(shareName);
+        if (usage == null) {
+            logger.warning("Share directory is not indexed: " + shareName);
+            return new HashMap<>();
         }
+        
+        Map<String, Object> shareInfo = toShareInfo(usage);
+        shareInfo.put("path", SMB_BASE_PATH + shareName);
+        shareInfo.put("directories", usage.getDirectories());
+        shareInfo.put("lastUpdated", usage.getLastRefreshed() > 0 ? usage.getLastRefreshed() : null);
+        return shareInfo;
     }
     
     /**
@@ -285,20 +197,7 @@ public Map<String, Object> getAllSharesInfo() {
         List<Map<String, Object>> shares = new ArrayList<>();
         
         for (String dirName : SHARE_DIRECTORIES) {
-            try {
-                Map<String, Object> shareInfo = getShareInfo(dirName);
-                shares.add(shareInfo);
-            } catch (Exception e) {
-                logger.warning("Error getting info for share " + dirName + ": " + e.getMessage());
-                
-                // Add mock data for this share
-                Map<String, Object> mockShare = new HashMap<>();
-                mockShare.put("name", dirName);
-                mockShare.put("size", 0.5); // 0.5GB
-                mockShare.put("files", 100);
-                mockShare.put("path", SMB_BASE_PATH + dirName);
-                shares.add(mockShare);
-            }
+            shares.add(getShareInfo(dirName));
         }
         
         result.put("shares", shares);
@@ -308,179 +207,14 @@ public Map<String, Object> getAllSharesInfo() {
     }
     
     /**
-     * Get statistics about a directory including file count and size
-     * 
-     * @param dir The directory to analyze
-     * @return Map with statistics
+     * Share entry in the format expected by the frontend
      */
-    private Map<String, Object> getDirectoryStats(SmbFile dir) throws IOException {
-        Map<String, Object> stats = new HashMap<>();
-        AtomicInteger fileCount = new AtomicInteger(0);
-        AtomicInteger dirCount = new AtomicInteger(0);
-        AtomicInteger maxDepth = new AtomicInteger(0);
-        
-        try {
-            scanDirectory(dir, fileCount, dirCount, maxDepth, 0);
-        } catch (Exception e) {
-            logger.warning("Error during directory scan: " + e.getMessage());
-        }
-        
-        stats.put("fileCount", fileCount.get());
-        stats.put("dirCount", dirCount.get());
-        stats.put("maxDepth", maxDepth.get());
-        
-        return stats;
-    }
-    
-    /**
-     * Recursively scan a directory to count files
-     */
-    private void scanDirectory(SmbFile dir, AtomicInteger fileCount, AtomicInteger dirCount, 
-                              AtomicInteger maxDepth, int currentDepth) throws IOException {
-        // Update max depth if needed
-        if (currentDepth > maxDepth.get()) {
-            maxDepth.set(currentDepth);
-        }
-        
-        // Stop if we've reached the maximum scan depth
-        if (currentDepth >= MAX_SCAN_DEPTH) {
-            return;
-        }
-        
-        try {
-            // Use a filter to avoid unnecessary operations
-            SmbFile[] files = dir.listFiles(new SmbFileFilter() {
-                @Override
-                public boolean accept(SmbFile file) {
-                    try {
-                        // Skip hidden files and system directories
-                        String name = file.getName();
-                        if (name.startsWith(".") || name.equals("System Volume Information/")) {
-                            return false;
-                        }
-                        return true;
-                    } catch (Exception e) {
-                        return false;
-                    }
-                }
-            });
-            
-            if (files == null) {
-                return;
-            }
-            
-            // Count the files in this directory
-            for (SmbFile file : files) {
-                try {
-                    if (file.isDirectory()) {
-                        dirCount.incrementAndGet();
-                        
-                        // Stop recursion if we've counted too many files already
-                        if (fileCount.get() < MAX_FILES_PER_DIR) {
-                            scanDirectory(file, fileCount, dirCount, maxDepth, currentDepth + 1);
-                        }
-                    } else {
-                        fileCount.incrementAndGet();
-                    }
-                } catch (Exception e) {
-                    // Skip this file if there's an error
-                }
-                
-                // Stop if we've reached the file count limit
-                if (fileCount.get() >= MAX_FILES_PER_DIR) {
-                    break;
-                }
-            }
-        } catch (Exception e) {
-            logger.warning("Error scanning directory: " + e.getMessage());
-        }
-    }
-    
-    /**
-     * Calculate a realistic directory size based on the directory name and file count
-     */
-    private double calculateRealisticDirectorySize(String dirName, int fileCount) {
-        // Base size on file count with different multipliers per directory type
-        double sizeMultiplier;
-        
-        if (dirName.contains("Image") || dirName.equals("ProfilePictures")) {
-            sizeMultiplier = 0.002; // ~2MB per image
-        } else if (dirName.contains("Video")) {
-            sizeMultiplier = 0.05; // ~50MB per video
-        } else if (dirName.contains("Document") || dirName.equals("LessonFiles")) {
-            sizeMultiplier = 0.0005; // ~500KB per document
-        } else if (dirName.equals("Backups")) {
-            sizeMultiplier = 0.01; // ~10MB per backup file
-        } else {
-            sizeMultiplier = 0.001; // ~1MB per generic file
-        }
-        
-        // Calculate size in GB
-        double sizeGB = fileCount * sizeMultiplier;
-        
-        // Add some randomness (±10%)
-        double randomFactor = 0.9 + (Math.random() * 0.2);
-        sizeGB *= randomFactor;
-        
-        // Round to 1 decimal place
-        return Math.round(sizeGB * 10) / 10.0;
-    }
-    
-    /**
-     * Get mock storage information when real data can't be fetched
-     */
-    private Map<String, Object> getMockStorageInfo() {
-        Map<String, Object> result = new HashMap<>();
-        
-        // Mock storage data
-        result.put("totalSpace", 10.0); // 10GB
-        result.put("usedSpace", 4.6); // 4.6GB
-        result.put("freeSpace", 5.4); // 5.4GB
-        result.put("usagePercentage", 46.0); // 46%
-        
-        // Mock file counts
-        Map<String, Integer> fileTypes = new HashMap<>();
-        fileTypes.put("images", 523);
-        fileTypes.put("videos", 115);
-        fileTypes.put("documents", 897);
-        fileTypes.put("other", 330);
-        result.put("files", fileTypes);
-        
-        // Mock shares
-        List<Map<String, Object>> shares = new ArrayList<>();
-        
-        Map<String, Object> share1 = new HashMap<>();
-        share1.put("name", "ChatFiles");
-        share1.put("size", 1.2);
-        share1.put("files", 342);
-        shares.add(share1);
-        
-        Map<String, Object> share2 = new HashMap<>();
-        share2.put("name", "GroupChatFiles");
-        share2.put("size", 1.6);
-        share2.put("files", 523);
-        shares.add(share2);
-        
-        Map<String, Object> share3 = new HashMap<>();
-        share3.put("name", "ProfilePictures");
-        share3.put("size", 0.8);
-        share3.put("files", 721);
-        shares.add(share3);
-        
-        Map<String, Object> share4 = new HashMap<>();
-        share4.put("name", "LessonFiles");
-        share4.put("size", 0.7);
-        share4.put("files", 279);
-        shares.add(share4);
-        
-        Map<String, Object> share5 = new HashMap<>();
-        share5.put("name", "Backups");
-        share5.put("size", 0.3);
-        share5.put("files", 12);
-        shares.add(share5);
-        
-        result.put("shares", shares);
-        
-        return result;
+    private Map<String, Object> toShareInfo(StorageUsageIndex.Usage usage) {
+        Map<String, Object> shareInfo = new HashMap<>();
+        shareInfo.put("name", usage.getShare());
+        shareInfo.put("size", Math.round(usage.getTotalBytes() / BYTES_PER_GB * 10) / 10.0);
+        shareInfo.put("files", usage.getTotalFiles());
+        shareInfo.put("bytes", usage.getTotalBytes());
+        return shareInfo;
     }
-} 
\ No newline at end of file
+}
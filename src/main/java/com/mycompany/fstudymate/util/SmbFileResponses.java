@@ -0,0 +1,147 @@
+package com.mycompany.fstudymate.util;
+
+import java.io.IOException;
+import java.util.List;
+import jakarta.servlet.http.HttpServletRequest;
+import jcifs.smb.SmbFile;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import util.FileStorageService;
+
+/**
+ * Builds streamed responses for files on the SMB server with conditional-GET
+ * and single byte-range support.
+ *
+ * The ETag and Last-Modified validators come from the SMB file's size and
+ * modification time, so a browser revalidating a cached copy gets a 304 and
+ * a video player seeking gets a 206 covering only the requested bytes.
+ * Multi-range requests are answered with the whole file.
+ */
+public final class SmbFileResponses {
+
+    private SmbFileResponses() {
+    }
+
+    /**
+     * Serves an SMB file, honouring If-None-Match, If-Modified-Since, Range and If-Range.
+     *
+     * @param smbFile file opened with {@link FileStorageService#openFile(String)}
+     * @param request current request, read for the conditional and range headers
+     * @param contentType content type of the file
+     * @param contentDisposition Content-Disposition value, or null to omit it
+     * @return 200, 206, 304 or 416 response
+     * @throws IOException if the SMB metadata cannot be read
+     */
+    public static ResponseEntity<StreamingResponseBody> serve(SmbFile smbFile, HttpServletRequest request,
+                                                             MediaType contentType, String contentDisposition)
+            throws IOException {
+        long length = smbFile.length();
+        long lastModified = smbFile.lastModified();
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        headers.setLastModified(lastModified);
+        headers.setCacheControl(CacheControl.noCache().cachePrivate());
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (isNotModified(request, etag, lastModified)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+
+        if (contentDisposition != null) {
+            headers.set(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+        }
+        headers.setContentType(contentType);
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && length > 0 && rangeStillValid(request, etag, lastModified)) {
+            List<HttpRange> ranges;
+            long start;
+            long end;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+                start = ranges.size() == 1 ? ranges.get(0).getRangeStart(length) : 0;
+                end = ranges.size() == 1 ? ranges.get(0).getRangeEnd(length) : length - 1;
+            } catch (IllegalArgumentException e) {
+                return notSatisfiable(headers, length);
+            }
+            if (start >= length || start > end) {
+                // e.g. bytes=5000- on a 1000-byte file
+                return notSatisfiable(headers, length);
+            }
+
+            if (ranges.size() == 1) {
+                long count = end - start + 1;
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                headers.setContentLength(count);
+                StreamingResponseBody body = out -> FileStorageService.streamFile(smbFile, out, start, count);
+                return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).body(body);
+            }
+        }
+
+        headers.setContentLength(length);
+        StreamingResponseBody body = out -> FileStorageService.streamFile(smbFile, out);
+        return ResponseEntity.ok().headers(headers).body(body);
+    }
+
+    private static ResponseEntity<StreamingResponseBody> notSatisfiable(HttpHeaders headers, long length) {
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+        headers.remove(HttpHeaders.CONTENT_TYPE);
+        headers.remove(HttpHeaders.CONTENT_DISPOSITION);
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // If-None-Match takes precedence over If-Modified-Since
+            return matchesEtag(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static boolean rangeStillValid(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range requires a strong comparison
+            return ifRange.trim().equals(etag);
+        }
+        long ifRangeDate = dateHeader(request, HttpHeaders.IF_RANGE);
+        return ifRangeDate >= 0 && lastModified / 1000 == ifRangeDate / 1000;
+    }
+
+    private static boolean matchesEtag(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            // Unparseable dates are ignored, as if the header were absent
+            return -1;
+        }
+    }
+}
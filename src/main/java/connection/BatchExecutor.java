@@ -0,0 +1,133 @@
+package connection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs one prepared statement for many rows as JDBC batches on a single
+ * pooled connection, inside one transaction.
+ *
+ * With rewriteBatchedStatements enabled on the pool, MySQL receives each
+ * chunk of INSERTs as a single multi-row statement.
+ */
+public class BatchExecutor {
+
+    // Rows sent per executeBatch() round trip
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    /**
+     * Sets the statement parameters for one row.
+     */
+    @FunctionalInterface
+    public interface RowBinder<T> {
+        void bind(PreparedStatement ps, T row) throws SQLException;
+    }
+
+    /**
+     * Executes {@code sql} once per row as a batch.
+     *
+     * @return the update count of each row, in input order
+     * @throws SQLException if any chunk fails; the whole batch is rolled back
+     */
+    public static <T> int[] executeBatch(String sql, List<T> rows, RowBinder<T> binder) throws SQLException {
+        return run(sql, rows, binder, false, null);
+    }
+
+    /**
+     * Executes an INSERT once per row as a batch and collects the generated keys.
+     *
+     * @return the generated key of each row, in input order
+     * @throws SQLException if any chunk fails; the whole batch is rolled back
+     */
+    public static <T> List<Integer> insertBatch(String sql, List<T> rows, RowBinder<T> binder) throws SQLException {
+        List<Integer> keys = new ArrayList<>(rows.size());
+        run(sql, rows, binder, true, keys);
+        return keys;
+    }
+
+    private static <T> int[] run(String sql, List<T> rows, RowBinder<T> binder,
+                                 boolean returnKeys, List<Integer> keys) throws SQLException {
+        int[] counts = new int[rows.size()];
+        if (rows.isEmpty()) {
+            return counts;
+        }
+
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection connection = pool.getConnection();
+        if (connection == null) {
+            throw new SQLException("No database connection available for batch");
+        }
+
+        PreparedStatement ps = null;
+        boolean autoCommit = true;
+        try {
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            ps = returnKeys
+                    ? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                    : connection.prepareStatement(sql);
+            ConnectionPool.logQuery(sql, "batch of " + rows.size());
+
+            int pending = 0;
+            int done = 0;
+            for (T row : rows) {
+                binder.bind(ps, row);
+                ps.addBatch();
+                pending++;
+                if (pending == DEFAULT_BATCH_SIZE) {
+                    done = flush(ps, counts, done, returnKeys, keys);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                flush(ps, counts, done, returnKeys, keys);
+            }
+
+            connection.commit();
+            return counts;
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException re) {
+                System.err.println("Error rolling back batch: " + re);
+            }
+            if (keys != null) {
+                keys.clear();
+            }
+            throw e;
+        } finally {
+            try {
+                connection.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                System.err.println("Error restoring auto-commit: " + e);
+            }
+            DBUtils.closePreparedStatement(ps);
+            pool.freeConnection(connection);
+        }
+    }
+
+    private static int flush(PreparedStatement ps, int[] counts, int offset,
+                             boolean returnKeys, List<Integer> keys) throws SQLException {
+        int[] chunk = ps.executeBatch();
+        System.arraycopy(chunk, 0, counts, offset, chunk.length);
+        if (returnKeys) {
+            ResultSet rs = null;
+            try {
+                rs = ps.getGeneratedKeys();
+                while (rs.next()) {
+                    keys.add(rs.getInt(1));
+                }
+            } finally {
+                DBUtils.closeResultSet(rs);
+            }
+        }
+        ps.clearBatch();
+        return offset + chunk.length;
+    }
+}
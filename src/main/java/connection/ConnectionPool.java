@@ -2,28 +2,53 @@
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.DriverManager;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
-import com.mysql.cj.jdbc.MysqlDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 public class ConnectionPool {
 
     // Connection Pool instance
     private static ConnectionPool pool = null;
-    private static DataSource dataSource = null;
-    
+    private static volatile DataSource dataSource = null;
+
+    // Pool created by this class when neither Spring nor JNDI provides one
+    private static HikariDataSource ownedDataSource = null;
+
     // Database connection parameters
     private static final String DB_URL = "jdbc:mysql://toandz.ddns.net:3306/fstudymate";
     private static final String DB_USER = "fstudy";
     private static final String DB_PASSWORD = "toandz@secretpassword";
-    
+
+    // Standalone pool limits (only used outside Spring)
+    private static final int MAX_POOL_SIZE = 20;
+    private static final int MIN_IDLE = 2;
+    private static final long CONNECTION_TIMEOUT_MS = 30000;
+    private static final long LEAK_DETECTION_THRESHOLD_MS = 30000;
+
     // Debug flag to enable query logging
     private static final boolean DEBUG = true;
-    
+
+    // Connection wait-time statistics, keyed by the DAO class that asked for the connection
+    private static final Map<String, WaitStats> waitStats = new ConcurrentHashMap<>();
+
+    private static final StackWalker STACK_WALKER =
+            StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
     // Initialize connection pool
     private ConnectionPool() {
+        if (dataSource != null) {
+            System.out.println("Using shared datasource: " + dataSource);
+            return;
+        }
         try {
             // First try to get connection from JNDI
             try {
@@ -31,20 +56,15 @@ private ConnectionPool() {
                 dataSource = (DataSource) ic.lookup("java:/comp/env/jdbc/FStudyMate");
                 System.out.println("JNDI datasource found: " + dataSource);
             } catch (NamingException e) {
-                System.out.println("JNDI datasource not found, creating direct connection: " + e);
-                
-                // If JNDI fails, create direct connection
-                MysqlDataSource mysqlDS = new MysqlDataSource();
-                mysqlDS.setURL(DB_URL);
-                mysqlDS.setUser(DB_USER);
-                mysqlDS.setPassword(DB_PASSWORD);
-                mysqlDS.setUseSSL(false);
-                mysqlDS.setAllowPublicKeyRetrieval(true);
-                dataSource = mysqlDS;
-                
+                System.out.println("JNDI datasource not found, creating standalone Hikari pool: " + e);
+
+                // If JNDI fails, create our own bounded pool
+                ownedDataSource = createStandaloneDataSource();
+                dataSource = ownedDataSource;
+
                 // Verify connection works
                 try (Connection testConn = dataSource.getConnection()) {
-                    System.out.println("Direct database connection established successfully: " + 
+                    System.out.println("Direct database connection established successfully: " +
                                        testConn.getMetaData().getDatabaseProductName() + " " +
                                        testConn.getMetaData().getDatabaseProductVersion());
                 } catch (SQLException se) {
@@ -57,7 +77,50 @@ private ConnectionPool() {
             e.printStackTrace();
         }
     }
-    
+
+    /**
+     * Builds the pool used when the DAOs run outside Spring and no JNDI
+     * resource is configured. Mirrors the settings of the Spring pool.
+     */
+    private static HikariDataSource createStandaloneDataSource() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("FStudyMate-Legacy");
+        config.setJdbcUrl(DB_URL);
+        config.setUsername(DB_USER);
+        config.setPassword(DB_PASSWORD);
+        config.setMaximumPoolSize(MAX_POOL_SIZE);
+        config.setMinimumIdle(MIN_IDLE);
+        config.setConnectionTimeout(CONNECTION_TIMEOUT_MS);
+        config.setLeakDetectionThreshold(LEAK_DETECTION_THRESHOLD_MS);
+        config.addDataSourceProperty("useSSL", "false");
+        config.addDataSourceProperty("allowPublicKeyRetrieval", "true");
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "true");
+        config.addDataSourceProperty("cacheServerConfiguration", "true");
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * Makes the legacy DAO layer borrow connections from the given datasource
+     * (normally the Spring-managed Hikari pool). A standalone pool created
+     * earlier is closed once the switch has happened.
+     */
+    public static synchronized void useDataSource(DataSource shared) {
+        if (shared == null || shared == dataSource) {
+            return;
+        }
+        HikariDataSource previous = ownedDataSource;
+        dataSource = shared;
+        ownedDataSource = null;
+        System.out.println("Legacy DAO layer now shares datasource: " + shared);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
     // Get connection pool instance
     public static synchronized ConnectionPool getInstance() {
         if (pool == null) {
@@ -65,28 +128,32 @@ public static synchronized ConnectionPool getInstance() {
         }
         return pool;
     }
-    
+
     // Get connection from pool
     public Connection getConnection() {
+        long start = System.nanoTime();
         try {
-            if (dataSource == null) {
+            DataSource ds = dataSource;
+            if (ds == null) {
                 throw new SQLException("DataSource is null - connection pool not properly initialized");
             }
-            Connection conn = dataSource.getConnection();
+            Connection conn = ds.getConnection();
             if (conn == null) {
                 throw new SQLException("Failed to obtain database connection");
             }
+            recordWait(System.nanoTime() - start, false);
             if (DEBUG) {
                 System.out.println("[DB] Connection obtained from pool: " + conn.hashCode());
             }
             return conn;
         } catch (SQLException e) {
+            recordWait(System.nanoTime() - start, true);
             System.err.println("Error getting connection: " + e);
             e.printStackTrace();
             return null;
         }
     }
-    
+
     // Return connection to pool
     public void freeConnection(Connection c) {
         try {
@@ -100,13 +167,68 @@ public void freeConnection(Connection c) {
             System.err.println("Error closing connection: " + e);
         }
     }
-    
+
+    private static void recordWait(long nanos, boolean failed) {
+        String caller = STACK_WALKER.walk(frames -> frames
+                .map(StackWalker.StackFrame::getDeclaringClass)
+                .filter(c -> c.getPackage() != ConnectionPool.class.getPackage())
+                .findFirst()
+                .map(Class::getSimpleName)
+                .orElse("unknown"));
+        waitStats.computeIfAbsent(caller, k -> new WaitStats()).record(nanos, failed);
+    }
+
+    /**
+     * Snapshot of the pool state and per-DAO connection wait times, for monitoring.
+     */
+    public static Map<String, Object> getPoolStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        DataSource ds = dataSource;
+        stats.put("dataSource", ds != null ? ds.getClass().getSimpleName() : null);
+
+        HikariDataSource hikari = unwrapHikari(ds);
+        if (hikari != null) {
+            stats.put("poolName", hikari.getPoolName());
+            stats.put("maximumPoolSize", hikari.getMaximumPoolSize());
+            stats.put("leakDetectionThresholdMs", hikari.getLeakDetectionThreshold());
+            HikariPoolMXBean mx = hikari.getHikariPoolMXBean();
+            if (mx != null) {
+                stats.put("activeConnections", mx.getActiveConnections());
+                stats.put("idleConnections", mx.getIdleConnections());
+                stats.put("totalConnections", mx.getTotalConnections());
+                stats.put("threadsAwaitingConnection", mx.getThreadsAwaitingConnection());
+            }
+        }
+
+        Map<String, Object> callers = new LinkedHashMap<>();
+        waitStats.forEach((caller, s) -> callers.put(caller, s.toMap()));
+        stats.put("waitTimes", callers);
+        return stats;
+    }
+
+    private static HikariDataSource unwrapHikari(DataSource ds) {
+        if (ds == null) {
+            return null;
+        }
+        if (ds instanceof HikariDataSource) {
+            return (HikariDataSource) ds;
+        }
+        try {
+            if (ds.isWrapperFor(HikariDataSource.class)) {
+                return ds.unwrap(HikariDataSource.class);
+            }
+        } catch (SQLException e) {
+            // Not a Hikari pool
+        }
+        return null;
+    }
+
     // Debug method to log a SQL query
     public static void logQuery(String query, Object... params) {
         if (DEBUG) {
             StringBuilder sb = new StringBuilder();
             sb.append("[DB QUERY] ").append(query);
-            
+
             if (params != null && params.length > 0) {
                 sb.append(" [PARAMS: ");
                 for (int i = 0; i < params.length; i++) {
@@ -115,8 +237,37 @@ public static void logQuery(String query, Object... params) {
                 }
                 sb.append("]");
             }
-            
+
             System.out.println(sb.toString());
         }
     }
+
+    /**
+     * Connection wait-time counters for one caller.
+     */
+    private static class WaitStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean failed) {
+            count.increment();
+            if (failed) {
+                failures.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            long n = count.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("acquisitions", n);
+            map.put("failures", failures.sum());
+            map.put("avgWaitMs", n == 0 ? 0.0 : totalNanos.sum() / (double) n / 1_000_000.0);
+            map.put("maxWaitMs", maxNanos.get() / 1_000_000.0);
+            return map;
+        }
+    }
 }
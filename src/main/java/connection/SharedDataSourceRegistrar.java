@@ -0,0 +1,18 @@
+package connection;
+
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands the Spring-managed Hikari pool to {@link ConnectionPool} so the legacy
+ * DAO layer and the JPA repositories borrow from the same bounded pool.
+ */
+@Component
+public class SharedDataSourceRegistrar {
+
+    @Autowired
+    public SharedDataSourceRegistrar(DataSource dataSource) {
+        ConnectionPool.useDataSource(dataSource);
+    }
+}
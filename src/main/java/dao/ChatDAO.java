@@ -7,7 +7,9 @@
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +34,9 @@ public int sendMessage(int senderId, int receiverId, String message) {
         int messageId = -1;
         
         try {
+            // Message and conversation summaries are written together
+            connection.setAutoCommit(false);
+            
             String query = "INSERT INTO chat_messages (sender_id, receiver_id, message) VALUES (?, ?, ?)";
             ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setInt(1, senderId);
@@ -46,10 +51,27 @@ public int sendMessage(int senderId, int receiverId, String message) {
                 }
             }
             
+            if (messageId > 0) {
+                upsertConversationSummary(connection, senderId, receiverId, messageId, 0);
+                upsertConversationSummary(connection, receiverId, senderId, messageId, 1);
+            }
+            connection.commit();
+            
         } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error rolling back transaction: " + ex.getMessage());
+            }
+            messageId = -1;
             System.err.println("Error sending message: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error resetting auto-commit: " + e.getMessage());
+            }
             DBUtils.closeResultSet(generatedKeys);
             DBUtils.closePreparedStatement(ps);
             pool.freeConnection(connection);
@@ -135,6 +157,160 @@ public List<Map<String, Object>> getMessagesBetweenUsers(int user1Id, int user2I
         return messages;
     }
     
+    /**
+     * Retrieves one page of messages between two users using keyset pagination.
+     * Each page costs the same regardless of how far back it is, because both
+     * directions of the conversation are read from the
+     * (sender_id, receiver_id, created_at, id) index starting at the cursor.
+     * 
+     * @param user1Id First user's ID (the reader)
+     * @param user2Id Second user's ID
+     * @param beforeCreatedAt created_at of the oldest message already loaded, or null for the latest page
+     * @param beforeId id of the oldest message already loaded (ignored when beforeCreatedAt is null)
+     * @param limit Maximum number of messages to retrieve
+     * @return List of message objects in chronological order
+     */
+    public List<Map<String, Object>> getMessagesBetweenUsersBefore(int user1Id, int user2Id,
+            Timestamp beforeCreatedAt, int beforeId, int limit) {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection connection = pool.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        List<Map<String, Object>> messages = new ArrayList<>();
+        
+        try {
+            String cursor = beforeCreatedAt != null
+                    ? "AND (created_at < ? OR (created_at = ? AND id < ?)) "
+                    : "";
+            String direction = "(SELECT id FROM chat_messages " +
+                               "WHERE sender_id = ? AND receiver_id = ? " + cursor +
+                               "ORDER BY created_at DESC, id DESC LIMIT ?)";
+            String query = "SELECT m.*, " +
+                           "s.username as sender_username, " +
+                           "s.full_name as sender_name, " +
+                           "s.profile_image_url as sender_image, " +
+                           "r.username as receiver_username, " +
+                           "r.full_name as receiver_name, " +
+                           "r.profile_image_url as receiver_image " +
+                           "FROM (" + direction + " UNION ALL " + direction + ") page " +
+                           "JOIN chat_messages m ON m.id = page.id " +
+                           "JOIN users s ON m.sender_id = s.id " +
+                           "JOIN users r ON m.receiver_id = r.id " +
+                           "ORDER BY m.created_at DESC, m.id DESC " +
+                           "LIMIT ?";
+            
+            ps = connection.prepareStatement(query);
+            int i = 1;
+            for (int[] pair : new int[][] {{user1Id, user2Id}, {user2Id, user1Id}}) {
+                ps.setInt(i++, pair[0]);
+                ps.setInt(i++, pair[1]);
+                if (beforeCreatedAt != null) {
+                    ps.setTimestamp(i++, beforeCreatedAt);
+                    ps.setTimestamp(i++, beforeCreatedAt);
+                    ps.setInt(i++, beforeId);
+                }
+                ps.setInt(i++, limit);
+            }
+            ps.setInt(i, limit);
+            
+            rs = ps.executeQuery();
+            
+            while (rs.next()) {
+                Map<String, Object> message = new HashMap<>();
+                message.put("id", rs.getInt("id"));
+                message.put("senderId", rs.getInt("sender_id"));
+                message.put("receiverId", rs.getInt("receiver_id"));
+                message.put("message", rs.getString("message"));
+                message.put("isRead", rs.getBoolean("is_read"));
+                message.put("createdAt", rs.getTimestamp("created_at"));
+                message.put("senderUsername", rs.getString("sender_username"));
+                message.put("senderName", rs.getString("sender_name"));
+                message.put("senderImage", rs.getString("sender_image"));
+                message.put("receiverUsername", rs.getString("receiver_username"));
+                message.put("receiverName", rs.getString("receiver_name"));
+                message.put("receiverImage", rs.getString("receiver_image"));
+                messages.add(message);
+            }
+            
+            // Only the latest page means the reader has caught up
+            if (beforeCreatedAt == null) {
+                markMessagesAsRead(connection, user2Id, user1Id);
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Error retrieving message page: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DBUtils.closeResultSet(rs);
+            DBUtils.closePreparedStatement(ps);
+            pool.freeConnection(connection);
+        }
+        
+        // Reverse the list to get chronological order
+        Collections.reverse(messages);
+        
+        return messages;
+    }
+    
+    /**
+     * Retrieves a single direct message with sender and receiver details,
+     * in the same shape as {@link #getMessagesBetweenUsers}
+     * 
+     * @param messageId The message ID
+     * @return The message, or null if not found
+     */
+    public Map<String, Object> getMessageById(int messageId) {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection connection = pool.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        Map<String, Object> message = null;
+        
+        try {
+            String query = "SELECT m.*, " +
+                           "s.username as sender_username, " +
+                           "s.full_name as sender_name, " +
+                           "s.profile_image_url as sender_image, " +
+                           "r.username as receiver_username, " +
+                           "r.full_name as receiver_name, " +
+                           "r.profile_image_url as receiver_image " +
+                           "FROM chat_messages m " +
+                           "JOIN users s ON m.sender_id = s.id " +
+                           "JOIN users r ON m.receiver_id = r.id " +
+                           "WHERE m.id = ?";
+            
+            ps = connection.prepareStatement(query);
+            ps.setInt(1, messageId);
+            rs = ps.executeQuery();
+            
+            if (rs.next()) {
+                message = new HashMap<>();
+                message.put("id", rs.getInt("id"));
+                message.put("senderId", rs.getInt("sender_id"));
+                message.put("receiverId", rs.getInt("receiver_id"));
+                message.put("message", rs.getString("message"));
+                message.put("isRead", rs.getBoolean("is_read"));
+                message.put("createdAt", rs.getTimestamp("created_at"));
+                message.put("senderUsername", rs.getString("sender_username"));
+                message.put("senderName", rs.getString("sender_name"));
+                message.put("senderImage", rs.getString("sender_image"));
+                message.put("receiverUsername", rs.getString("receiver_username"));
+                message.put("receiverName", rs.getString("receiver_name"));
+                message.put("receiverImage", rs.getString("receiver_image"));
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Error retrieving message: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DBUtils.closeResultSet(rs);
+            DBUtils.closePreparedStatement(ps);
+            pool.freeConnection(connection);
+        }
+        
+        return message;
+    }
+    
     /**
      * Gets a user's conversations (users they have exchanged messages with)
      * 
@@ -149,40 +325,17 @@ public List<Map<String, Object>> getUserConversations(int userId) {
         List<Map<String, Object>> conversations = new ArrayList<>();
         
         try {
-            // Find all users this user has exchanged messages with
-            String query = "WITH last_messages AS (" +
-                          "  SELECT " +
-                          "    CASE " +
-                          "      WHEN sender_id = ? THEN receiver_id " +
-                          "      ELSE sender_id " +
-                          "    END AS other_user_id, " +
-                          "    MAX(created_at) as last_message_time " +
-                          "  FROM chat_messages " +
-                          "  WHERE sender_id = ? OR receiver_id = ? " +
-                          "  GROUP BY other_user_id " +
-                          ")" +
-                          "SELECT " +
+            // One row per partner, maintained by the write paths (see upsertConversationSummary)
+            String query = "SELECT " +
                           "  u.id, u.username, u.full_name, u.profile_image_url, u.role, " +
-                          "  lm.last_message_time, " +
-                          "  m.message as last_message, " +
-                          "  m.sender_id as last_message_sender, " +
-                          "  m.is_read, " +
-                          "  (SELECT COUNT(*) FROM chat_messages " +
-                          "   WHERE sender_id = u.id AND receiver_id = ? AND is_read = FALSE) as unread_count " +
-                          "FROM last_messages lm " +
-                          "JOIN users u ON lm.other_user_id = u.id " +
-                          "JOIN chat_messages m ON ((m.sender_id = ? AND m.receiver_id = u.id) OR " +
-                          "                          (m.sender_id = u.id AND m.receiver_id = ?)) " +
-                          "                     AND m.created_at = lm.last_message_time " +
-                          "ORDER BY lm.last_message_time DESC";
+                          "  c.last_message_time, c.last_message, c.last_message_sender, c.unread_count " +
+                          "FROM chat_conversations c " +
+                          "JOIN users u ON c.partner_id = u.id " +
+                          "WHERE c.user_id = ? " +
+                          "ORDER BY c.last_message_time DESC";
             
             ps = connection.prepareStatement(query);
             ps.setInt(1, userId);
-            ps.setInt(2, userId);
-            ps.setInt(3, userId);
-            ps.setInt(4, userId);
-            ps.setInt(5, userId);
-            ps.setInt(6, userId);
             
             rs = ps.executeQuery();
             
@@ -226,7 +379,19 @@ private void markMessagesAsRead(Connection connection, int senderId, int receive
             ps = connection.prepareStatement(query);
             ps.setInt(1, senderId);
             ps.setInt(2, receiverId);
-            ps.executeUpdate();
+            int marked = ps.executeUpdate();
+            
+            // Subtract exactly what was marked so a message arriving concurrently stays unread
+            if (marked > 0) {
+                DBUtils.closePreparedStatement(ps);
+                query = "UPDATE chat_conversations SET unread_count = GREATEST(unread_count - ?, 0) " +
+                        "WHERE user_id = ? AND partner_id = ?";
+                ps = connection.prepareStatement(query);
+                ps.setInt(1, marked);
+                ps.setInt(2, receiverId);
+                ps.setInt(3, senderId);
+                ps.executeUpdate();
+            }
             
         } catch (SQLException e) {
             System.err.println("Error marking messages as read: " + e.getMessage());
@@ -236,6 +401,86 @@ private void markMessagesAsRead(Connection connection, int senderId, int receive
         }
     }
     
+    /**
+     * Points the (ownerId, partnerId) conversation summary at a new message and
+     * adds unreadDelta to its unread count. Must run on the transaction that
+     * inserted the message.
+     */
+    private void upsertConversationSummary(Connection connection, int ownerId, int partnerId,
+            int messageId, int unreadDelta) throws SQLException {
+        PreparedStatement ps = null;
+        
+        try {
+            // last_message_id is assigned last: MySQL evaluates these assignments in order,
+            // so the comparisons above it still see the old value
+            String query = "INSERT INTO chat_conversations " +
+                           "(user_id, partner_id, last_message_id, last_message, last_message_sender, last_message_time, unread_count) " +
+                           "SELECT ?, ?, m.id, m.message, m.sender_id, m.created_at, ? " +
+                           "FROM chat_messages m WHERE m.id = ? " +
+                           "ON DUPLICATE KEY UPDATE " +
+                           "last_message = IF(VALUES(last_message_id) >= last_message_id, VALUES(last_message), last_message), " +
+                           "last_message_sender = IF(VALUES(last_message_id) >= last_message_id, VALUES(last_message_sender), last_message_sender), " +
+                           "last_message_time = IF(VALUES(last_message_id) >= last_message_id, VALUES(last_message_time), last_message_time), " +
+                           "unread_count = unread_count + VALUES(unread_count), " +
+                           "last_message_id = GREATEST(last_message_id, VALUES(last_message_id))";
+            
+            ps = connection.prepareStatement(query);
+            ps.setInt(1, ownerId);
+            ps.setInt(2, partnerId);
+            ps.setInt(3, unreadDelta);
+            ps.setInt(4, messageId);
+            ps.executeUpdate();
+        } finally {
+            DBUtils.closePreparedStatement(ps);
+        }
+    }
+    
+    /**
+     * Recomputes both conversation summaries of a pair from chat_messages.
+     * Used when a message is removed and the last message or unread count
+     * can no longer be adjusted incrementally.
+     */
+    private void rebuildConversationSummary(Connection connection, int userA, int userB) throws SQLException {
+        PreparedStatement ps = null;
+        
+        try {
+            String query = "DELETE FROM chat_conversations " +
+                           "WHERE (user_id = ? AND partner_id = ?) OR (user_id = ? AND partner_id = ?)";
+            ps = connection.prepareStatement(query);
+            ps.setInt(1, userA);
+            ps.setInt(2, userB);
+            ps.setInt(3, userB);
+            ps.setInt(4, userA);
+            ps.executeUpdate();
+            DBUtils.closePreparedStatement(ps);
+            
+            query = "INSERT INTO chat_conversations " +
+                    "(user_id, partner_id, last_message_id, last_message, last_message_sender, last_message_time, unread_count) " +
+                    "SELECT ?, ?, m.id, m.message, m.sender_id, m.created_at, " +
+                    "  (SELECT COUNT(*) FROM chat_messages u " +
+                    "   WHERE u.sender_id = ? AND u.receiver_id = ? AND u.is_read = FALSE) " +
+                    "FROM chat_messages m " +
+                    "WHERE (m.sender_id = ? AND m.receiver_id = ?) OR (m.sender_id = ? AND m.receiver_id = ?) " +
+                    "ORDER BY m.id DESC LIMIT 1";
+            ps = connection.prepareStatement(query);
+            
+            int[][] owners = userA == userB ? new int[][] {{userA, userB}} : new int[][] {{userA, userB}, {userB, userA}};
+            for (int[] owner : owners) {
+                ps.setInt(1, owner[0]);
+                ps.setInt(2, owner[1]);
+                ps.setInt(3, owner[1]);
+                ps.setInt(4, owner[0]);
+                ps.setInt(5, userA);
+                ps.setInt(6, userB);
+                ps.setInt(7, userB);
+                ps.setInt(8, userA);
+                ps.executeUpdate();
+            }
+        } finally {
+            DBUtils.closePreparedStatement(ps);
+        }
+    }
+    
     /**
      * Gets the count of unread messages for a user
      */
@@ -247,8 +492,8 @@ public int getUnreadMessageCount(int userId) {
         int count = 0;
         
         try {
-            String query = "SELECT COUNT(*) as count FROM chat_messages " +
-                           "WHERE receiver_id = ? AND is_read = FALSE";
+            String query = "SELECT COALESCE(SUM(unread_count), 0) as count FROM chat_conversations " +
+                           "WHERE user_id = ?";
             
             ps = connection.prepareStatement(query);
             ps.setInt(1, userId);
@@ -279,20 +524,53 @@ public boolean deleteMessage(int messageId, int userId) {
         PreparedStatement ps = null;
         boolean success = false;
         
+        ResultSet rs = null;
+        
         try {
+            connection.setAutoCommit(false);
+            
             // Only allow deletion if the user is the sender
-            String query = "DELETE FROM chat_messages WHERE id = ? AND sender_id = ?";
+            String query = "SELECT receiver_id FROM chat_messages WHERE id = ? AND sender_id = ? FOR UPDATE";
             ps = connection.prepareStatement(query);
             ps.setInt(1, messageId);
             ps.setInt(2, userId);
+            rs = ps.executeQuery();
             
-            int rowsAffected = ps.executeUpdate();
-            success = rowsAffected > 0;
+            if (rs.next()) {
+                int receiverId = rs.getInt("receiver_id");
+                DBUtils.closeResultSet(rs);
+                DBUtils.closePreparedStatement(ps);
+                
+                query = "DELETE FROM chat_messages WHERE id = ? AND sender_id = ?";
+                ps = connection.prepareStatement(query);
+                ps.setInt(1, messageId);
+                ps.setInt(2, userId);
+                
+                int rowsAffected = ps.executeUpdate();
+                success = rowsAffected > 0;
+                
+                if (success) {
+                    rebuildConversationSummary(connection, userId, receiverId);
+                }
+            }
+            connection.commit();
             
         } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error rolling back transaction: " + ex.getMessage());
+            }
+            success = false;
             System.err.println("Error deleting message: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error resetting auto-commit: " + e.getMessage());
+            }
+            DBUtils.closeResultSet(rs);
             DBUtils.closePreparedStatement(ps);
             pool.freeConnection(connection);
         }
@@ -548,9 +826,8 @@ public List<Map<String, Object>> getAllClassGroups() {
         List<Map<String, Object>> groups = new ArrayList<>();
         
         try {
-            String query = "SELECT cg.*, " +
-                           "(SELECT COUNT(*) FROM group_chat_messages WHERE group_id = cg.id) as message_count, " +
-                           "(SELECT MAX(created_at) FROM group_chat_messages WHERE group_id = cg.id) as last_activity " +
+            // message_count and last_activity are stored on chat_groups
+            String query = "SELECT cg.* " +
                            "FROM chat_groups cg " +
                            "ORDER BY cg.name";
             ps = connection.prepareStatement(query);
@@ -651,6 +928,9 @@ public int sendGroupMessage(int groupId, int senderId, String message) {
         int messageId = -1;
         
         try {
+            // Message and group activity counters are written together
+            connection.setAutoCommit(false);
+            
             String query = "INSERT INTO group_chat_messages (group_id, sender_id, message) VALUES (?, ?, ?)";
             ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setInt(1, groupId);
@@ -665,10 +945,36 @@ public int sendGroupMessage(int groupId, int senderId, String message) {
                 }
             }
             
+            if (messageId > 0) {
+                DBUtils.closeResultSet(generatedKeys);
+                DBUtils.closePreparedStatement(ps);
+                generatedKeys = null;
+                
+                query = "UPDATE chat_groups SET message_count = message_count + 1, " +
+                        "last_activity = (SELECT created_at FROM group_chat_messages WHERE id = ?) " +
+                        "WHERE id = ?";
+                ps = connection.prepareStatement(query);
+                ps.setInt(1, messageId);
+                ps.setInt(2, groupId);
+                ps.executeUpdate();
+            }
+            connection.commit();
+            
         } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error rolling back transaction: " + ex.getMessage());
+            }
+            messageId = -1;
             System.err.println("Error sending group message: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error resetting auto-commit: " + e.getMessage());
+            }
             DBUtils.closeResultSet(generatedKeys);
             DBUtils.closePreparedStatement(ps);
             pool.freeConnection(connection);
@@ -738,6 +1044,130 @@ public List<Map<String, Object>> getGroupMessages(int groupId, int limit, int of
         return messages;
     }
 
+    /**
+     * Retrieves one page of group messages using keyset pagination on
+     * (group_id, created_at, id), so every page has constant cost.
+     * 
+     * @param groupId The group ID
+     * @param beforeCreatedAt created_at of the oldest message already loaded, or null for the latest page
+     * @param beforeId id of the oldest message already loaded (ignored when beforeCreatedAt is null)
+     * @param limit Maximum number of messages to retrieve
+     * @return List of messages in chronological order
+     */
+    public List<Map<String, Object>> getGroupMessagesBefore(int groupId, Timestamp beforeCreatedAt,
+            int beforeId, int limit) {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection connection = pool.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        List<Map<String, Object>> messages = new ArrayList<>();
+        
+        try {
+            String query = "SELECT m.*, " +
+                           "u.username as sender_username, " +
+                           "u.full_name as sender_name, " +
+                           "u.profile_image_url as sender_image, " +
+                           "u.role as sender_role " +
+                           "FROM group_chat_messages m " +
+                           "JOIN users u ON m.sender_id = u.id " +
+                           "WHERE m.group_id = ? " +
+                           (beforeCreatedAt != null
+                                ? "AND (m.created_at < ? OR (m.created_at = ? AND m.id < ?)) "
+                                : "") +
+                           "ORDER BY m.created_at DESC, m.id DESC " +
+                           "LIMIT ?";
+            ps = connection.prepareStatement(query);
+            int i = 1;
+            ps.setInt(i++, groupId);
+            if (beforeCreatedAt != null) {
+                ps.setTimestamp(i++, beforeCreatedAt);
+                ps.setTimestamp(i++, beforeCreatedAt);
+                ps.setInt(i++, beforeId);
+            }
+            ps.setInt(i, limit);
+            rs = ps.executeQuery();
+            
+            while (rs.next()) {
+                Map<String, Object> message = new HashMap<>();
+                message.put("id", rs.getInt("id"));
+                message.put("groupId", rs.getInt("group_id"));
+                message.put("senderId", rs.getInt("sender_id"));
+                message.put("message", rs.getString("message"));
+                message.put("createdAt", rs.getTimestamp("created_at"));
+                message.put("senderUsername", rs.getString("sender_username"));
+                message.put("senderName", rs.getString("sender_name"));
+                message.put("senderImage", rs.getString("sender_image"));
+                message.put("senderRole", rs.getString("sender_role"));
+                messages.add(message);
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Error getting group message page: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DBUtils.closeResultSet(rs);
+            DBUtils.closePreparedStatement(ps);
+            pool.freeConnection(connection);
+        }
+        
+        // Reverse the list to get chronological order
+        Collections.reverse(messages);
+        
+        return messages;
+    }
+
+    /**
+     * Retrieves a single group message with sender details,
+     * in the same shape as {@link #getGroupMessages}
+     * 
+     * @param messageId The message ID
+     * @return The message, or null if not found
+     */
+    public Map<String, Object> getGroupMessageById(int messageId) {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection connection = pool.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        Map<String, Object> message = null;
+        
+        try {
+            String query = "SELECT m.*, " +
+                           "u.username as sender_username, " +
+                           "u.full_name as sender_name, " +
+                           "u.profile_image_url as sender_image, " +
+                           "u.role as sender_role " +
+                           "FROM group_chat_messages m " +
+                           "JOIN users u ON m.sender_id = u.id " +
+                           "WHERE m.id = ?";
+            ps = connection.prepareStatement(query);
+            ps.setInt(1, messageId);
+            rs = ps.executeQuery();
+            
+            if (rs.next()) {
+                message = new HashMap<>();
+                message.put("id", rs.getInt("id"));
+                message.put("groupId", rs.getInt("group_id"));
+                message.put("senderId", rs.getInt("sender_id"));
+                message.put("message", rs.getString("message"));
+                message.put("createdAt", rs.getTimestamp("created_at"));
+                message.put("senderUsername", rs.getString("sender_username"));
+                message.put("senderName", rs.getString("sender_name"));
+                message.put("senderImage", rs.getString("sender_image"));
+                message.put("senderRole", rs.getString("sender_role"));
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Error getting group message: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DBUtils.closeResultSet(rs);
+            DBUtils.closePreparedStatement(ps);
+            pool.freeConnection(connection);
+        }
+        
+        return message;
+    }
+
     /**
      * Gets groups with latest message for a user
      * For students: returns their class group and any custom groups they're a member of
@@ -756,6 +1186,8 @@ public List<Map<String, Object>> getUserGroups(int userId, String userRole) {
         List<Map<String, Object>> groups = new ArrayList<>();
         
         try {
+            // message_count, last_activity and member_count are stored on chat_groups
+            // and kept current by the group write paths
             String query;
             
             if ("student".equalsIgnoreCase(userRole) || "outsrc_student".equalsIgnoreCase(userRole)) {
@@ -763,10 +1195,7 @@ public List<Map<String, Object>> getUserGroups(int userId, String userRole) {
                 query = "SELECT g.*, " +
                        "c.class_name, " +
                        "am.name AS academic_major_name, " +
-                       "t.name AS term_name, " +
-                       "(SELECT COUNT(*) FROM group_chat_messages m WHERE m.group_id = g.id) AS message_count, " +
-                       "(SELECT MAX(created_at) FROM group_chat_messages m WHERE m.group_id = g.id) AS last_activity, " +
-                       "(SELECT COUNT(*) FROM group_members gm WHERE gm.group_id = g.id) AS member_count " +
+                       "t.name AS term_name " +
                        "FROM chat_groups g " +
                        "JOIN students s ON g.class_id = s.class_id " +
                        "JOIN classes c ON g.class_id = c.class_id " +
@@ -777,10 +1206,7 @@ public List<Map<String, Object>> getUserGroups(int userId, String userRole) {
                        "SELECT g.*, " +
                        "NULL AS class_name, " +
                        "NULL AS academic_major_name, " +
-                       "NULL AS term_name, " +
-                       "(SELECT COUNT(*) FROM group_chat_messages m WHERE m.group_id = g.id) AS message_count, " +
-                       "(SELECT MAX(created_at) FROM group_chat_messages m WHERE m.group_id = g.id) AS last_activity, " +
-                       "(SELECT COUNT(*) FROM group_members gm WHERE gm.group_id = g.id) AS member_count " +
+                       "NULL AS term_name " +
                        "FROM chat_groups g " +
                        "JOIN group_members gm ON g.id = gm.group_id " +
                        "WHERE gm.user_id = ? AND g.is_custom = true " +
@@ -791,17 +1217,11 @@ public List<Map<String, Object>> getUserGroups(int userId, String userRole) {
                 ps.setInt(2, userId);
             } else if ("admin".equalsIgnoreCase(userRole)) {
                 // For admins, get ALL class groups and custom groups they're members of
-                query = "SELECT g.*, " +
-                       "(SELECT COUNT(*) FROM group_chat_messages m WHERE m.group_id = g.id) AS message_count, " +
-                       "(SELECT MAX(created_at) FROM group_chat_messages m WHERE m.group_id = g.id) AS last_activity, " +
-                       "(SELECT COUNT(*) FROM group_members gm WHERE gm.group_id = g.id) AS member_count " +
+                query = "SELECT g.* " +
                        "FROM chat_groups g " +
                        "WHERE g.is_custom = false " + // All class groups
                        "UNION " +
-                       "SELECT g.*, " +
-                       "(SELECT COUNT(*) FROM group_chat_messages m WHERE m.group_id = g.id) AS message_count, " +
-                       "(SELECT MAX(created_at) FROM group_chat_messages m WHERE m.group_id = g.id) AS last_activity, " +
-                       "(SELECT COUNT(*) FROM group_members gm WHERE gm.group_id = g.id) AS member_count " +
+                       "SELECT g.* " +
                        "FROM chat_groups g " +
                        "JOIN group_members gm ON g.id = gm.group_id " +
                        "WHERE gm.user_id = ? AND g.is_custom = true " + // Custom groups they're members of
@@ -811,10 +1231,7 @@ public List<Map<String, Object>> getUserGroups(int userId, String userRole) {
                 ps.setInt(1, userId);
             } else {
                 // For non-students (lecturers), only get custom groups they're members of
-                query = "SELECT g.*, " +
-                       "(SELECT COUNT(*) FROM group_chat_messages m WHERE m.group_id = g.id) AS message_count, " +
-                       "(SELECT MAX(created_at) FROM group_chat_messages m WHERE m.group_id = g.id) AS last_activity, " +
-                       "(SELECT COUNT(*) FROM group_members gm WHERE gm.group_id = g.id) AS member_count " +
+                query = "SELECT g.* " +
                        "FROM chat_groups g " +
                        "JOIN group_members gm ON g.id = gm.group_id " +
                        "WHERE gm.user_id = ? " +
@@ -889,12 +1306,13 @@ public boolean unsendMessage(int messageId, int userId) {
         
         try {
             // First verify that this user is the sender
-            String verifyQuery = "SELECT sender_id FROM chat_messages WHERE id = ?";
+            String verifyQuery = "SELECT sender_id, receiver_id FROM chat_messages WHERE id = ?";
             ps = connection.prepareStatement(verifyQuery);
             ps.setInt(1, messageId);
             ResultSet rs = ps.executeQuery();
             
             if (rs.next() && rs.getInt("sender_id") == userId) {
+                int receiverId = rs.getInt("receiver_id");
                 DBUtils.closeResultSet(rs);
                 DBUtils.closePreparedStatement(ps);
                 
@@ -905,6 +1323,21 @@ public boolean unsendMessage(int messageId, int userId) {
                 
                 int rowsAffected = ps.executeUpdate();
                 success = rowsAffected > 0;
+                
+                if (success) {
+                    // Keep the inbox preview in step if this was the last message
+                    DBUtils.closePreparedStatement(ps);
+                    String summaryQuery = "UPDATE chat_conversations SET last_message = '[Message unsent]' " +
+                                          "WHERE ((user_id = ? AND partner_id = ?) OR (user_id = ? AND partner_id = ?)) " +
+                                          "AND last_message_id = ?";
+                    ps = connection.prepareStatement(summaryQuery);
+                    ps.setInt(1, userId);
+                    ps.setInt(2, receiverId);
+                    ps.setInt(3, receiverId);
+                    ps.setInt(4, userId);
+                    ps.setInt(5, messageId);
+                    ps.executeUpdate();
+                }
             }
             
         } catch (SQLException e) {
@@ -977,6 +1410,8 @@ public int createCustomChatGroup(String name, int creatorId) {
         int groupId = -1;
         
         try {
+            connection.setAutoCommit(false);
+            
             // Create the group
             String query = "INSERT INTO chat_groups (name, is_custom, creator_id) VALUES (?, 1, ?)";
             ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
@@ -999,13 +1434,27 @@ public int createCustomChatGroup(String name, int creatorId) {
                     ps.setInt(2, creatorId);
                     ps.setInt(3, creatorId);
                     ps.executeUpdate();
+                    
+                    adjustGroupMemberCount(connection, groupId, 1);
                 }
             }
+            connection.commit();
             
         } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error rolling back transaction: " + ex.getMessage());
+            }
+            groupId = -1;
             System.err.println("Error creating custom chat group: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error resetting auto-commit: " + e.getMessage());
+            }
             DBUtils.closeResultSet(generatedKeys);
             DBUtils.closePreparedStatement(ps);
             pool.freeConnection(connection);
@@ -1034,6 +1483,8 @@ public boolean addGroupMember(int groupId, int userId, int addedById) {
                 return false;
             }
             
+            connection.setAutoCommit(false);
+            
             String query = "INSERT IGNORE INTO group_members (group_id, user_id, added_by) VALUES (?, ?, ?)";
             ps = connection.prepareStatement(query);
             ps.setInt(1, groupId);
@@ -1043,10 +1494,26 @@ public boolean addGroupMember(int groupId, int userId, int addedById) {
             int rowsAffected = ps.executeUpdate();
             success = rowsAffected > 0;
             
+            if (success) {
+                adjustGroupMemberCount(connection, groupId, 1);
+            }
+            connection.commit();
+            
         } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error rolling back transaction: " + ex.getMessage());
+            }
+            success = false;
             System.err.println("Error adding group member: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error resetting auto-commit: " + e.getMessage());
+            }
             DBUtils.closePreparedStatement(ps);
             pool.freeConnection(connection);
         }
@@ -1074,6 +1541,8 @@ public boolean removeGroupMember(int groupId, int userId, int removedById) {
                 return false;
             }
             
+            connection.setAutoCommit(false);
+            
             String query = "DELETE FROM group_members WHERE group_id = ? AND user_id = ?";
             ps = connection.prepareStatement(query);
             ps.setInt(1, groupId);
@@ -1082,10 +1551,26 @@ public boolean removeGroupMember(int groupId, int userId, int removedById) {
             int rowsAffected = ps.executeUpdate();
             success = rowsAffected > 0;
             
+            if (success) {
+                adjustGroupMemberCount(connection, groupId, -1);
+            }
+            connection.commit();
+            
         } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error rolling back transaction: " + ex.getMessage());
+            }
+            success = false;
             System.err.println("Error removing group member: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error resetting auto-commit: " + e.getMessage());
+            }
             DBUtils.closePreparedStatement(ps);
             pool.freeConnection(connection);
         }
@@ -1093,6 +1578,24 @@ public boolean removeGroupMember(int groupId, int userId, int removedById) {
         return success;
     }
     
+    /**
+     * Adjusts the stored member_count of a group. Must run on the transaction
+     * that changed group_members.
+     */
+    private void adjustGroupMemberCount(Connection connection, int groupId, int delta) throws SQLException {
+        PreparedStatement ps = null;
+        
+        try {
+            String query = "UPDATE chat_groups SET member_count = GREATEST(member_count + ?, 0) WHERE id = ?";
+            ps = connection.prepareStatement(query);
+            ps.setInt(1, delta);
+            ps.setInt(2, groupId);
+            ps.executeUpdate();
+        } finally {
+            DBUtils.closePreparedStatement(ps);
+        }
+    }
+    
     /**
      * Checks if a user can manage group members (creator or admin)
      */
@@ -1314,10 +1817,7 @@ public List<Map<String, Object>> getUserCustomGroups(int userId) {
         List<Map<String, Object>> groups = new ArrayList<>();
         
         try {
-            String query = "SELECT g.*, " +
-                          "(SELECT COUNT(*) FROM group_chat_messages m WHERE m.group_id = g.id) AS message_count, " +
-                          "(SELECT MAX(created_at) FROM group_chat_messages m WHERE m.group_id = g.id) AS last_activity, " +
-                          "(SELECT COUNT(*) FROM group_members gm WHERE gm.group_id = g.id) AS member_count " +
+            String query = "SELECT g.* " +
                           "FROM chat_groups g " +
                           "JOIN group_members gm ON g.id = gm.group_id " +
                           "WHERE gm.user_id = ? AND g.is_custom = true " +
@@ -3,6 +3,7 @@
 import connection.ConnectionPool;
 import connection.DBUtils;
 import model.ChatFile;
+import util.ContentStore;
 import util.FileStorageService;
 
 import java.sql.*;
@@ -32,8 +33,8 @@ public int saveFile(ChatFile file) {
         int fileId = -1;
         
         try {
-            String query = "INSERT INTO chat_files (file_name, file_path, file_size, file_type, uploader_id) " +
-                           "VALUES (?, ?, ?, ?, ?)";
+            String query = "INSERT INTO chat_files (file_name, file_path, file_size, file_type, uploader_id, content_hash) " +
+                           "VALUES (?, ?, ?, ?, ?, ?)";
                            
             ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             ps.setString(1, file.getFileName());
@@ -41,6 +42,7 @@ public int saveFile(ChatFile file) {
             ps.setLong(3, file.getFileSize());
             ps.setString(4, file.getFileType());
             ps.setInt(5, file.getUploaderId());
+            ps.setString(6, file.getContentHash());
             
             int rowsAffected = ps.executeUpdate();
             if (rowsAffected > 0) {
@@ -193,6 +195,7 @@ public ChatFile getFileById(int fileId) {
                 file.setUploadDate(rs.getTimestamp("upload_date"));
                 file.setUploaderId(rs.getInt("uploader_id"));
                 file.setDeleted(rs.getBoolean("is_deleted"));
+                file.setContentHash(rs.getString("content_hash"));
             }
             
         } catch (SQLException e) {
@@ -258,7 +261,9 @@ public boolean softDeleteFile(int fileId, int userId) {
     }
     
     /**
-     * Physically deletes a file from the storage and database
+     * Physically deletes a file from the storage and database. Files in the
+     * content store only drop their reference; the blob is deleted with the
+     * last reference.
      * 
      * @param fileId The file ID
      * @param userId The user requesting deletion (for verification)
@@ -268,7 +273,9 @@ public boolean hardDeleteFile(int fileId, int userId) {
         ConnectionPool pool = ConnectionPool.getInstance();
         Connection connection = pool.getConnection();
         PreparedStatement ps = null;
+        ResultSet rs = null;
         boolean success = false;
+        String releaseHash = null;
         
         try {
             // First get the file info to delete from storage
@@ -276,13 +283,14 @@ public boolean hardDeleteFile(int fileId, int userId) {
             ps = connection.prepareStatement(getQuery);
             ps.setInt(1, fileId);
             ps.setInt(2, userId);
-            ResultSet rs = ps.executeQuery();
+            rs = ps.executeQuery();
             
             if (rs.next()) {
                 String filePath = rs.getString("file_path");
+                String contentHash = rs.getString("content_hash");
                 
-                // Delete from storage
-                boolean fileDeleted = FileStorageService.deleteFile(filePath);
+                // Shared blobs are released after the row is gone; own files are deleted first
+                boolean fileDeleted = contentHash != null || FileStorageService.deleteFile(filePath);
                 
                 if (fileDeleted) {
                     // Close the first statement
@@ -296,6 +304,9 @@ public boolean hardDeleteFile(int fileId, int userId) {
                     
                     int rowsAffected = ps.executeUpdate();
                     success = rowsAffected > 0;
+                    if (success) {
+                        releaseHash = contentHash;
+                    }
                 }
             }
             
@@ -303,10 +314,15 @@ public boolean hardDeleteFile(int fileId, int userId) {
             System.err.println("Error hard-deleting file: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            DBUtils.closeResultSet(rs);
             DBUtils.closePreparedStatement(ps);
             pool.freeConnection(connection);
         }
         
+        if (releaseHash != null) {
+            ContentStore.release(releaseHash);
+        }
+        
         return success;
     }
     
@@ -0,0 +1,193 @@
+package dao;
+
+import connection.ConnectionPool;
+import connection.DBUtils;
+import util.ContentStore;
+
+import java.io.IOException;
+import java.sql.*;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Data Access Object for the reference-counted content blobs behind chat files
+ * and learning materials.
+ *
+ * Rows are handed out locked (SELECT ... FOR UPDATE) on their own connection,
+ * so {@link ContentStore} can check, rename and delete the SMB object while no
+ * other upload or release of the same content can touch the row. Content is
+ * uploaded before the row is locked; hold a row only for metadata calls.
+ */
+@Repository
+public class ContentBlobDAO implements ContentStore.BlobIndex {
+
+    /**
+     * Locks the row of a hash, creating it with no references if there is none.
+     * The row of a new blob only becomes visible once committed.
+     *
+     * @param sha256 The content hash
+     * @param blobPath SMB path recorded for a new row
+     * @param fileSize Size of the content in bytes
+     * @return The locked row
+     * @throws IOException if the row cannot be locked
+     */
+    @Override
+    public ContentStore.LockedBlob lock(String sha256, String blobPath, long fileSize) throws IOException {
+        return lock(sha256, blobPath, fileSize, true);
+    }
+
+    /**
+     * Locks the row of a hash
+     *
+     * @param sha256 The content hash
+     * @return The locked row, or null if no blob with this hash exists
+     * @throws IOException if the row cannot be locked
+     */
+    @Override
+    public ContentStore.LockedBlob lockExisting(String sha256) throws IOException {
+        return lock(sha256, null, 0, false);
+    }
+
+    private ContentStore.LockedBlob lock(String sha256, String blobPath, long fileSize, boolean create) throws IOException {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection connection = pool.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            connection.setAutoCommit(false);
+
+            if (create) {
+                String query = "INSERT INTO content_blobs (sha256, blob_path, file_size, ref_count) VALUES (?, ?, ?, 0) " +
+                               "ON DUPLICATE KEY UPDATE sha256 = sha256";
+                ps = connection.prepareStatement(query);
+                ps.setString(1, sha256);
+                ps.setString(2, blobPath);
+                ps.setLong(3, fileSize);
+                ps.executeUpdate();
+                DBUtils.closePreparedStatement(ps);
+            }
+
+            String query = "SELECT blob_path, ref_count FROM content_blobs WHERE sha256 = ? FOR UPDATE";
+            ps = connection.prepareStatement(query);
+            ps.setString(1, sha256);
+            rs = ps.executeQuery();
+
+            if (rs.next()) {
+                LockedRow row = new LockedRow(pool, connection, sha256, rs.getString("blob_path"), rs.getInt("ref_count"));
+                connection = null;
+                return row;
+            }
+            return null;
+
+        } catch (SQLException e) {
+            System.err.println("Error locking blob " + sha256 + ": " + e.getMessage());
+            e.printStackTrace();
+            throw new IOException("Failed to lock stored content " + sha256, e);
+        } finally {
+            DBUtils.closeResultSet(rs);
+            DBUtils.closePreparedStatement(ps);
+            if (connection != null) {
+                // Nothing handed out: drop the transaction and give the connection back
+                endTransaction(pool, connection, false);
+            }
+        }
+    }
+
+    private static void endTransaction(ConnectionPool pool, Connection connection, boolean commit) {
+        try {
+            if (commit) {
+                connection.commit();
+            } else {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error ending blob transaction: " + e.getMessage());
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error resetting auto-commit: " + e.getMessage());
+            }
+            pool.freeConnection(connection);
+        }
+    }
+
+    /**
+     * A blob row locked by the transaction of its connection
+     */
+    private static class LockedRow implements ContentStore.LockedBlob {
+        private final ConnectionPool pool;
+        private final Connection connection;
+        private final String sha256;
+        private final String blobPath;
+        private int refCount;
+        private boolean closed;
+
+        LockedRow(ConnectionPool pool, Connection connection, String sha256, String blobPath, int refCount) {
+            this.pool = pool;
+            this.connection = connection;
+            this.sha256 = sha256;
+            this.blobPath = blobPath;
+            this.refCount = refCount;
+        }
+
+        @Override
+        public String getPath() {
+            return blobPath;
+        }
+
+        @Override
+        public int getRefCount() {
+            return refCount;
+        }
+
+        @Override
+        public void setRefCount(int refCount) throws IOException {
+            execute("UPDATE content_blobs SET ref_count = ? WHERE sha256 = ?", refCount);
+            this.refCount = refCount;
+        }
+
+        @Override
+        public void delete() throws IOException {
+            execute("DELETE FROM content_blobs WHERE sha256 = ?", null);
+        }
+
+        @Override
+        public void commit() throws IOException {
+            try {
+                connection.commit();
+            } catch (SQLException e) {
+                System.err.println("Error committing blob " + sha256 + ": " + e.getMessage());
+                throw new IOException("Failed to update stored content " + sha256, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                // Rolls back anything not committed, releasing the row lock either way
+                endTransaction(pool, connection, false);
+            }
+        }
+
+        private void execute(String query, Integer refCount) throws IOException {
+            PreparedStatement ps = null;
+            try {
+                ps = connection.prepareStatement(query);
+                int index = 1;
+                if (refCount != null) {
+                    ps.setInt(index++, refCount);
+                }
+                ps.setString(index, sha256);
+                ps.executeUpdate();
+            } catch (SQLException e) {
+                System.err.println("Error updating blob " + sha256 + ": " + e.getMessage());
+                e.printStackTrace();
+                throw new IOException("Failed to update stored content " + sha256, e);
+            } finally {
+                DBUtils.closePreparedStatement(ps);
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@
  */
 package dao;
 
+import connection.BatchExecutor;
 import connection.ConnectionPool;
 import connection.DBUtils;
 import java.sql.Connection;
@@ -421,10 +422,33 @@ public static int createQuestion(Question question, int quizId) {
         return questionId;
     }
     
-    // Create multiple questions at once for a quiz
+    // Create multiple questions at once for a quiz, sent as JDBC batches
     public static List<Integer> createQuestions(List<Question> questions, int quizId) {
-        List<Integer> questionIds = new ArrayList<>();
+        String sql = "INSERT INTO Questions (QuestionImg, QuestionText, SLDapAn, Correct, Explanation, quiz_id) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)";
+        
+        try {
+            List<Integer> questionIds = BatchExecutor.insertBatch(sql, questions, (ps, question) -> {
+                ps.setString(1, question.getQuestionImg());
+                ps.setString(2, question.getQuestionText());
+                ps.setInt(3, question.getSLDapAn());
+                ps.setString(4, question.getCorrect());
+                ps.setString(5, question.getExplanation());
+                ps.setInt(6, quizId);
+            });
+            
+            if (questionIds.size() == questions.size()) {
+                for (int i = 0; i < questions.size(); i++) {
+                    questions.get(i).setId(questionIds.get(i));
+                }
+            }
+            return questionIds;
+        } catch (SQLException e) {
+            System.out.println("Batch insert of questions failed, inserting one by one: " + e.getMessage());
+        }
         
+        // Fall back to row-by-row inserts so one bad question does not drop the rest
+        List<Integer> questionIds = new ArrayList<>();
         for (Question question : questions) {
             int questionId = createQuestion(question, quizId);
             if (questionId > 0) {
@@ -487,4 +511,34 @@ public static boolean updateQuestion(Question question) {
             pool.freeConnection(connection);
         }
     }
+    
+    // Update multiple questions at once, sent as JDBC batches
+    public static int updateQuestions(List<Question> questions) {
+        String sql = "UPDATE Questions SET QuestionImg = ?, QuestionText = ?, SLDapAn = ?, " +
+                    "Correct = ?, Explanation = ? WHERE ID = ?";
+        
+        try {
+            int[] counts = BatchExecutor.executeBatch(sql, questions, (ps, question) -> {
+                ps.setString(1, question.getQuestionImg());
+                ps.setString(2, question.getQuestionText());
+                ps.setInt(3, question.getSLDapAn());
+                ps.setString(4, question.getCorrect());
+                ps.setString(5, question.getExplanation());
+                ps.setInt(6, question.getId());
+            });
+            
+            int updated = 0;
+            for (int count : counts) {
+                // SUCCESS_NO_INFO (-2) is reported for rewritten batches
+                if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                    updated++;
+                }
+            }
+            return updated;
+        } catch (SQLException e) {
+            System.out.println("Error batch updating questions: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package dao;
 
+import connection.BatchExecutor;
 import connection.ConnectionPool;
 import connection.DBUtils;
 import java.sql.Connection;
@@ -290,6 +291,23 @@ public static boolean addQuizPermission(QuizPermission permission) {
         }
     }
     
+    // Add several class permissions to a quiz in one batch
+    public static boolean addQuizPermissions(List<QuizPermission> permissions) {
+        String sql = "INSERT INTO QuizPermissions (quiz_id, class_id) VALUES (?, ?)";
+        
+        try {
+            BatchExecutor.executeBatch(sql, permissions, (ps, permission) -> {
+                ps.setInt(1, permission.getQuizId());
+                ps.setString(2, permission.getClassId());
+            });
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Error adding quiz permissions: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+    
     // Remove class permission from quiz
     public static boolean removeQuizPermission(int permissionId) {
         ConnectionPool pool = ConnectionPool.getInstance();
@@ -0,0 +1,225 @@
+package dao;
+
+import connection.BatchExecutor;
+import connection.ConnectionPool;
+import connection.DBUtils;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Data Access Object for the per-directory fingerprints the Samba sync keeps
+ * for each subject directory tree.
+ *
+ * Directory paths are relative to the subject directory and end with a slash,
+ * like the parent_path of learning materials ("/", "/Week1/").
+ */
+@Repository
+public class SmbDirectoryIndexDAO {
+
+    /**
+     * Loads the recorded state of every directory of a subject
+     *
+     * @param subjectId The subject ID
+     * @return Directory states keyed by path; empty if none are recorded or on error
+     */
+    public Map<String, DirectoryState> getIndex(int subjectId) {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection connection = pool.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        Map<String, DirectoryState> index = new HashMap<>();
+
+        try {
+            String query = "SELECT dir_path, last_modified, fingerprint, entry_count, last_scanned_at " +
+                           "FROM smb_directory_index WHERE subject_id = ?";
+            ps = connection.prepareStatement(query);
+            ps.setInt(1, subjectId);
+            rs = ps.executeQuery();
+
+            while (rs.next()) {
+                DirectoryState state = new DirectoryState(
+                        rs.getString("dir_path"),
+                        rs.getLong("last_modified"),
+                        rs.getString("fingerprint"),
+                        rs.getInt("entry_count"));
+                state.setLastScannedAt(rs.getTimestamp("last_scanned_at"));
+                index.put(state.getDirPath(), state);
+            }
+
+        } catch (SQLException e) {
+            // An empty index only means the next sync rescans everything
+            System.err.println("Error loading directory index: " + e.getMessage());
+            e.printStackTrace();
+            index.clear();
+        } finally {
+            DBUtils.closeResultSet(rs);
+            DBUtils.closePreparedStatement(ps);
+            pool.freeConnection(connection);
+        }
+
+        return index;
+    }
+
+    /**
+     * Loads the recorded state of one directory
+     *
+     * @param subjectId The subject ID
+     * @param dirPath Path of the directory, ending with a slash
+     * @return The directory state, or null if it was never indexed or on error
+     */
+    public DirectoryState getDirectory(int subjectId, String dirPath) {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection connection = pool.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        DirectoryState state = null;
+
+        try {
+            String query = "SELECT dir_path, last_modified, fingerprint, entry_count, last_scanned_at " +
+                           "FROM smb_directory_index WHERE subject_id = ? AND path_hash = SHA1(?)";
+            ps = connection.prepareStatement(query);
+            ps.setInt(1, subjectId);
+            ps.setString(2, dirPath);
+            rs = ps.executeQuery();
+
+            if (rs.next()) {
+                state = new DirectoryState(
+                        rs.getString("dir_path"),
+                        rs.getLong("last_modified"),
+                        rs.getString("fingerprint"),
+                        rs.getInt("entry_count"));
+                state.setLastScannedAt(rs.getTimestamp("last_scanned_at"));
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error loading directory index entry: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DBUtils.closeResultSet(rs);
+            DBUtils.closePreparedStatement(ps);
+            pool.freeConnection(connection);
+        }
+
+        return state;
+    }
+
+    /**
+     * Inserts or updates the state of many directories in one batch
+     *
+     * @param subjectId The subject ID
+     * @param states Directory states to record
+     * @throws SQLException if the batch fails; nothing is recorded then
+     */
+    public void saveIndex(int subjectId, Collection<DirectoryState> states) throws SQLException {
+        String sql = "INSERT INTO smb_directory_index " +
+                     "(subject_id, path_hash, dir_path, last_modified, fingerprint, entry_count, last_scanned_at) " +
+                     "VALUES (?, SHA1(?), ?, ?, ?, ?, CURRENT_TIMESTAMP) " +
+                     "ON DUPLICATE KEY UPDATE last_modified = VALUES(last_modified), " +
+                     "fingerprint = VALUES(fingerprint), entry_count = VALUES(entry_count), " +
+                     "last_scanned_at = CURRENT_TIMESTAMP";
+        List<DirectoryState> rows = new ArrayList<>(states);
+        BatchExecutor.executeBatch(sql, rows, (ps, state) -> {
+            ps.setInt(1, subjectId);
+            ps.setString(2, state.getDirPath());
+            ps.setString(3, state.getDirPath());
+            ps.setLong(4, state.getLastModified());
+            ps.setString(5, state.getFingerprint());
+            ps.setInt(6, state.getEntryCount());
+        });
+    }
+
+    /**
+     * Removes a directory and everything below it from the index
+     *
+     * @param subjectId The subject ID
+     * @param dirPath Path of the directory, ending with a slash
+     * @return true if successful
+     */
+    public boolean deleteSubtree(int subjectId, String dirPath) {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        Connection connection = pool.getConnection();
+        PreparedStatement ps = null;
+        boolean success = false;
+
+        try {
+            String query = "DELETE FROM smb_directory_index WHERE subject_id = ? AND dir_path LIKE ? ESCAPE '!'";
+            ps = connection.prepareStatement(query);
+            ps.setInt(1, subjectId);
+            ps.setString(2, likePrefix(dirPath));
+
+            ps.executeUpdate();
+            success = true;
+
+        } catch (SQLException e) {
+            System.err.println("Error deleting directory index entries: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DBUtils.closePreparedStatement(ps);
+            pool.freeConnection(connection);
+        }
+
+        return success;
+    }
+
+    /**
+     * Builds a LIKE pattern matching every string starting with {@code prefix},
+     * for use with ESCAPE '!'
+     */
+    public static String likePrefix(String prefix) {
+        return prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+    }
+
+    /**
+     * Recorded state of one directory
+     */
+    public static class DirectoryState {
+        private final String dirPath;
+        private final long lastModified;
+        private final String fingerprint;
+        private final int entryCount;
+        private Timestamp lastScannedAt;
+
+        public DirectoryState(String dirPath, long lastModified, String fingerprint, int entryCount) {
+            this.dirPath = dirPath;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+            this.entryCount = entryCount;
+        }
+
+        public String getDirPath() {
+            return dirPath;
+        }
+
+        /**
+         * Modification time of the directory itself when it was last listed
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * SHA-1 over the sorted names, types, sizes and modification times of the entries
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        public Timestamp getLastScannedAt() {
+            return lastScannedAt;
+        }
+
+        public void setLastScannedAt(Timestamp lastScannedAt) {
+            this.lastScannedAt = lastScannedAt;
+        }
+    }
+}
@@ -16,6 +16,7 @@ public class ChatFile implements Serializable {
     private Date uploadDate;
     private int uploaderId;
     private boolean isDeleted;
+    private String contentHash;
     
     public ChatFile() {
     }
@@ -92,6 +93,17 @@ public boolean isDeleted() {
     public void setDeleted(boolean deleted) {
         isDeleted = deleted;
     }
+
+    /**
+     * SHA-256 of the content blob this file references, or null for files stored on their own
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
     
     /**
      * Determines if the file is viewable in the browser
@@ -0,0 +1,96 @@
+package test;
+
+import connection.BatchExecutor;
+import dao.ChatDAO;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares OFFSET paging with keyset paging of group chat history.
+ *
+ * Usage: ChatPaginationBenchmark groupId senderId [seedCount] [pageSize]
+ *
+ * When seedCount is given, that many synthetic messages are first inserted into
+ * the group (use a throwaway group: the rows are not removed afterwards).
+ * The benchmark then reads pages at increasing depths with both strategies.
+ */
+public class ChatPaginationBenchmark {
+
+    private static final int[] DEPTHS = {0, 1000, 10000, 100000, 500000, 990000};
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: ChatPaginationBenchmark groupId senderId [seedCount] [pageSize]");
+            return;
+        }
+        int groupId = Integer.parseInt(args[0]);
+        int senderId = Integer.parseInt(args[1]);
+        int seedCount = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        int pageSize = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+
+        if (seedCount > 0) {
+            seed(groupId, senderId, seedCount);
+        }
+
+        ChatDAO chatDAO = new ChatDAO();
+        System.out.printf("%-10s %15s %15s%n", "depth", "offset (ms)", "keyset (ms)");
+
+        for (int depth : DEPTHS) {
+            // Locate the cursor for this depth once; clients carry it between pages
+            List<Map<String, Object>> anchor = chatDAO.getGroupMessages(groupId, 1, depth);
+            if (anchor.isEmpty()) {
+                break;
+            }
+            Timestamp cursorTime = (Timestamp) anchor.get(0).get("createdAt");
+            int cursorId = (int) anchor.get(0).get("id");
+
+            double offsetMs = time(() -> chatDAO.getGroupMessages(groupId, pageSize, depth + 1));
+            double keysetMs = time(() -> chatDAO.getGroupMessagesBefore(groupId, cursorTime, cursorId, pageSize));
+            System.out.printf("%-10d %15.2f %15.2f%n", depth, offsetMs, keysetMs);
+        }
+    }
+
+    private static void seed(int groupId, int senderId, int count) throws Exception {
+        System.out.println("Seeding " + count + " messages into group " + groupId + "...");
+        String sql = "INSERT INTO group_chat_messages (group_id, sender_id, message, created_at) VALUES (?, ?, ?, ?)";
+        long base = System.currentTimeMillis() - count * 1000L;
+        int chunk = 10000;
+        long start = System.nanoTime();
+
+        for (int from = 0; from < count; from += chunk) {
+            List<Integer> rows = new ArrayList<>();
+            for (int i = from; i < Math.min(count, from + chunk); i++) {
+                rows.add(i);
+            }
+            BatchExecutor.executeBatch(sql, rows, (ps, i) -> {
+                ps.setInt(1, groupId);
+                ps.setInt(2, senderId);
+                ps.setString(3, "Synthetic message " + i);
+                // Several messages share a second so the id tie-breaker is exercised
+                ps.setTimestamp(4, new Timestamp(base + (i / 3) * 3000L));
+            });
+        }
+        // Seeding bypasses ChatDAO, so bring the stored group counters back in line
+        BatchExecutor.executeBatch("UPDATE chat_groups SET " +
+                "message_count = (SELECT COUNT(*) FROM group_chat_messages WHERE group_id = ?), " +
+                "last_activity = (SELECT MAX(created_at) FROM group_chat_messages WHERE group_id = ?) " +
+                "WHERE id = ?", List.of(groupId), (ps, id) -> {
+            ps.setInt(1, id);
+            ps.setInt(2, id);
+            ps.setInt(3, id);
+        });
+        System.out.printf("Seeded in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private static double time(Runnable query) {
+        query.run(); // warm up
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            query.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / RUNS;
+    }
+}
@@ -1,6 +1,17 @@
 package util;
 
+import java.io.EOFException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,73 +22,296 @@
 import jcifs.context.BaseContext;
 import jcifs.context.SingletonContext;
 import jcifs.smb.NtlmPasswordAuthenticator;
+import jcifs.smb.SmbFile;
+import jcifs.util.transport.TransportException;
 
 /**
- * Utility class for creating CIFS contexts for Samba operations
+ * Utility class for creating CIFS contexts for Samba operations.
+ *
+ * Contexts come from a small pool of authenticated sessions to the server.
+ * Each slot owns its own transport, so callers are spread round-robin over
+ * up to smb.pool.maxSessions connections and only pay negotiate/auth when a
+ * slot is first used or reconnected. A background task releases slots that
+ * have been idle for smb.pool.idleTimeoutMs and probes the others every
+ * smb.pool.healthCheckMs. A slot that fails its probe, or whose caller
+ * reports a transport failure, is closed, skipped by callers and reconnected
+ * by the next health check.
  */
 public class CIFSContextUtil {
-    
+
     private static final Logger logger = Logger.getLogger(CIFSContextUtil.class.getName());
     private static final int BUFFER_SIZE = 4 * 1024 * 1024; // 4MB buffer for better network performance
-    private static volatile CIFSContext sharedContext = null;
-    private static final Object contextLock = new Object();
-    
+
+    // Session pool configuration
+    private static final int MAX_SESSIONS = Math.max(1, Integer.getInteger("smb.pool.maxSessions", 4));
+    private static final long IDLE_TIMEOUT_MS = Long.getLong("smb.pool.idleTimeoutMs", 5 * 60 * 1000L);
+    private static final long HEALTH_CHECK_MS = Long.getLong("smb.pool.healthCheckMs", 60 * 1000L);
+
+    private static final SessionSlot[] slots = new SessionSlot[MAX_SESSIONS];
+    private static final AtomicInteger nextSlot = new AtomicInteger();
+    private static volatile Configuration sharedConfig = null;
+    private static volatile NtlmPasswordAuthenticator credentials = null;
+    private static final Object configLock = new Object();
+
+    private static final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "smb-session-pool");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        for (int i = 0; i < MAX_SESSIONS; i++) {
+            slots[i] = new SessionSlot(i);
+        }
+        maintenance.scheduleWithFixedDelay(CIFSContextUtil::maintainSessions,
+                HEALTH_CHECK_MS, HEALTH_CHECK_MS, TimeUnit.MILLISECONDS);
+    }
+
     /**
-     * Creates and returns a shared CIFSContext with optimized settings
-     * 
+     * Returns an authenticated context from the session pool
+     *
      * @return authenticated context
      * @throws CIFSException if authentication fails
      */
     public static CIFSContext createContext() throws CIFSException {
-        if (sharedContext == null) {
-            synchronized (contextLock) {
-                if (sharedContext == null) {
+        SessionSlot slot = pickSlot();
+        return slot.acquire();
+    }
+
+    /**
+     * Reports that an operation on a pooled context failed. Transport-level
+     * failures (dropped connection, timeouts) close the owning session so the
+     * next caller reconnects; other errors such as "file not found" are ignored.
+     *
+     * @param context context the operation ran on
+     * @param error the failure
+     */
+    public static void reportFailure(CIFSContext context, Throwable error) {
+        if (context == null || !isTransportFailure(error)) {
+            return;
+        }
+        for (SessionSlot slot : slots) {
+            if (slot.owns(context)) {
+                logger.warning("SMB session " + slot.index + " failed (" + error.getMessage() + "), reconnecting");
+                slot.failures.increment();
+                slot.healthy = false;
+                slot.close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the session pool, for monitoring.
+     */
+    public static Map<String, Object> getPoolStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxSessions", MAX_SESSIONS);
+        stats.put("idleTimeoutMs", IDLE_TIMEOUT_MS);
+        stats.put("healthCheckMs", HEALTH_CHECK_MS);
+        List<Map<String, Object>> sessions = new ArrayList<>();
+        for (SessionSlot slot : slots) {
+            sessions.add(slot.toMap());
+        }
+        stats.put("sessions", sessions);
+        return stats;
+    }
+
+    private static SessionSlot pickSlot() {
+        int start = Math.floorMod(nextSlot.getAndIncrement(), MAX_SESSIONS);
+        // Prefer a slot whose last probe succeeded; fall back to round-robin
+        for (int i = 0; i < MAX_SESSIONS; i++) {
+            SessionSlot slot = slots[(start + i) % MAX_SESSIONS];
+            if (slot.healthy) {
+                return slot;
+            }
+        }
+        return slots[start];
+    }
+
+    private static Configuration config() throws CIFSException {
+        if (sharedConfig == null) {
+            synchronized (configLock) {
+                if (sharedConfig == null) {
                     String username = System.getenv("SMB_USERNAME");
                     String password = System.getenv("SMB_PASSWORD");
-                    
+
                     if (username == null || password == null) {
                         logger.severe("SMB credentials not found in environment variables");
                         throw new CIFSException("SMB credentials not set in environment. Please run load-env.bat first.");
                     }
-                    
-                    try {
-                        // Optimize JCIFS configuration for better performance
-                        Properties props = new Properties();
-                        props.setProperty("jcifs.smb.client.responseTimeout", "30000");
-                        props.setProperty("jcifs.smb.client.soTimeout", "35000");
-                        props.setProperty("jcifs.smb.client.connTimeout", "60000");
-                        props.setProperty("jcifs.smb.client.sessionTimeout", "60000");
-                        props.setProperty("jcifs.netbios.cachePolicy", "-1");
-                        props.setProperty("jcifs.smb.client.dfs.disabled", "true");
-                        props.setProperty("jcifs.smb.client.useExtendedSecurity", "false");
-                        props.setProperty("jcifs.smb.client.bufferSize", String.valueOf(BUFFER_SIZE));
-                        
-                        // Additional performance optimizations
-                        props.setProperty("jcifs.smb.client.maxMpxCount", "50"); // Allow more multiplexed requests
-                        props.setProperty("jcifs.smb.client.tcpNoDelay", "true"); // Disable Nagle's algorithm
-                        props.setProperty("jcifs.smb.client.useNTStatus", "true"); // More efficient status codes
-                        props.setProperty("jcifs.smb.client.flags2", "0x0007"); // Set optimal SMB flags
-                        
-                        Configuration config = new PropertyConfiguration(props);
-                        CIFSContext baseContext = new BaseContext(config);
-                        
-                        // Create NTLM authenticator
-                        NtlmPasswordAuthenticator auth = new NtlmPasswordAuthenticator("", username, password);
-                        
-                        // Create and store context with credentials
-                        sharedContext = baseContext.withCredentials(auth);
-                        logger.info("Created highly optimized SMB context with " + BUFFER_SIZE/1024/1024 + "MB buffer size and connection pooling");
-                    } catch (Exception e) {
-                        logger.log(Level.SEVERE, "Error creating optimized CIFS context: " + e.getMessage(), e);
-                        
-                        // Fall back to default context if optimization fails
-                        NtlmPasswordAuthenticator auth = new NtlmPasswordAuthenticator("", username, password);
-                        sharedContext = SingletonContext.getInstance().withCredentials(auth);
+
+                    // Optimize JCIFS configuration for better performance
+                    Properties props = new Properties();
+                    props.setProperty("jcifs.smb.client.responseTimeout", "30000");
+                    props.setProperty("jcifs.smb.client.soTimeout", "35000");
+                    props.setProperty("jcifs.smb.client.connTimeout", "60000");
+                    props.setProperty("jcifs.smb.client.sessionTimeout", "60000");
+                    props.setProperty("jcifs.netbios.cachePolicy", "-1");
+                    props.setProperty("jcifs.smb.client.dfs.disabled", "true");
+                    props.setProperty("jcifs.smb.client.useExtendedSecurity", "false");
+                    props.setProperty("jcifs.smb.client.bufferSize", String.valueOf(BUFFER_SIZE));
+
+                    // Additional performance optimizations
+                    props.setProperty("jcifs.smb.client.maxMpxCount", "50"); // Allow more multiplexed requests
+                    props.setProperty("jcifs.smb.client.tcpNoDelay", "true"); // Disable Nagle's algorithm
+                    props.setProperty("jcifs.smb.client.useNTStatus", "true"); // More efficient status codes
+                    props.setProperty("jcifs.smb.client.flags2", "0x0007"); // Set optimal SMB flags
+
+                    credentials = new NtlmPasswordAuthenticator("", username, password);
+                    sharedConfig = new PropertyConfiguration(props);
+                }
+            }
+        }
+        return sharedConfig;
+    }
+
+    private static CIFSContext newContext() throws CIFSException {
+        Configuration config = config();
+        try {
+            // Each context gets its own transport pool, i.e. its own connection and session
+            CIFSContext context = new BaseContext(config).withCredentials(credentials);
+            logger.info("Created SMB session context with " + BUFFER_SIZE/1024/1024 + "MB buffer size");
+            return context;
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error creating optimized CIFS context: " + e.getMessage(), e);
+
+            // Fall back to default context if optimization fails
+            return SingletonContext.getInstance().withCredentials(credentials);
+        }
+    }
+
+    private static void maintainSessions() {
+        long now = System.currentTimeMillis();
+        for (SessionSlot slot : slots) {
+            try {
+                CIFSContext context = slot.context;
+                if (context == null) {
+                    if (slot.healthy) {
+                        continue; // Not connected yet, or released while idle; connects on next use
+                    }
+                    // Reconnect a failed slot so it can rejoin the rotation once its probe passes;
+                    // not counted as a use, so acquisitions and idle times reflect callers only
+                    context = slot.connect();
+                } else if (now - slot.lastUsed > IDLE_TIMEOUT_MS) {
+                    logger.fine("Releasing idle SMB session " + slot.index);
+                    slot.idleEvictions.increment();
+                    slot.release();
+                    continue;
+                }
+
+                // Cheap round trip on the session's own transport
+                new SmbFile(FileStorageService.SMB_BASE_PATH, context).exists();
+                slot.healthy = true;
+            } catch (Exception e) {
+                logger.warning("SMB session " + slot.index + " failed health check: " + e.getMessage());
+                slot.failures.increment();
+                slot.healthy = false;
+                slot.close();
+            }
+        }
+    }
+
+    private static boolean isTransportFailure(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TransportException || t instanceof SocketException || t instanceof EOFException) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One pooled session. The context is created lazily and recreated after close().
+     */
+    private static class SessionSlot {
+        final int index;
+        volatile CIFSContext context;
+        volatile long lastUsed;
+        // Unknown until the first probe; new slots are only skipped after a failed one
+        volatile boolean healthy = true;
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder connects = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder idleEvictions = new LongAdder();
+
+        SessionSlot(int index) {
+            this.index = index;
+        }
+
+        CIFSContext acquire() throws CIFSException {
+            CIFSContext current = connect();
+            lastUsed = System.currentTimeMillis();
+            acquisitions.increment();
+            return current;
+        }
+
+        /**
+         * The slot's context, connecting it if needed. Not counted as a use;
+         * a new connection starts its idle time.
+         */
+        CIFSContext connect() throws CIFSException {
+            CIFSContext current = context;
+            if (current == null) {
+                synchronized (this) {
+                    current = context;
+                    if (current == null) {
+                        current = newContext();
+                        lastUsed = System.currentTimeMillis();
+                        context = current;
+                        connects.increment();
                     }
                 }
             }
+            return current;
+        }
+
+        boolean owns(CIFSContext candidate) {
+            return candidate != null && candidate == context;
+        }
+
+        /**
+         * Drops an idle context without closing it, so a long transfer that is
+         * still using it can finish; its sockets close on jcifs' soTimeout.
+         */
+        void release() {
+            synchronized (this) {
+                context = null;
+            }
+        }
+
+        void close() {
+            CIFSContext old;
+            synchronized (this) {
+                old = context;
+                context = null;
+            }
+            if (old != null) {
+                try {
+                    // Operations still running on the old context fail with a transport error,
+                    // which reaches their callers as is; nothing retries them
+                    old.close();
+                } catch (Exception e) {
+                    logger.fine("Error closing SMB session " + index + ": " + e.getMessage());
+                }
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            CIFSContext current = context;
+            map.put("slot", index);
+            map.put("connected", current != null);
+            map.put("healthy", healthy);
+            map.put("idleMs", current != null ? System.currentTimeMillis() - lastUsed : null);
+            map.put("acquisitions", acquisitions.sum());
+            map.put("connects", connects.sum());
+            map.put("failures", failures.sum());
+            map.put("idleEvictions", idleEvictions.sum());
+            return map;
         }
-        
-        return sharedContext;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,316 @@
+package util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import dao.ContentBlobDAO;
+
+/**
+ * Content-addressed, deduplicating store for uploads on the SMB share.
+ *
+ * Content is hashed with SHA-256 while it is spooled to local disk. If a blob
+ * with that hash already exists, the upload only adds a reference and nothing
+ * is sent to the share. Otherwise the blob is written once to
+ * Blobs/&lt;first two hex digits&gt;/&lt;sha256&gt;. It goes to a .part file
+ * first and is renamed into place, so a blob at its final path is always
+ * complete.
+ *
+ * Every row that points at a blob (chat_files, learning_materials) holds one
+ * reference and must {@link #release(String)} it when the row is removed.
+ *
+ * The transfer to the share happens before the blob's row is locked: new
+ * content is uploaded to a unique .part file first. Under the row lock,
+ * store only checks whether the blob exists, renames its .part into place
+ * (or discards it if another upload got there first) and counts its
+ * reference; release deletes the file with the last reference before the
+ * row goes. An upload therefore never adopts a blob that is being removed,
+ * and a row is never locked for longer than a few SMB metadata calls.
+ */
+public class ContentStore {
+
+    private static final Logger logger = Logger.getLogger(ContentStore.class.getName());
+
+    private static final String BLOB_DIR = "Blobs";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final ContentStore shared = new ContentStore(new ContentBlobDAO(), new SmbBlobFiles());
+
+    private final BlobIndex index;
+    private final BlobFiles files;
+
+    ContentStore(BlobIndex index, BlobFiles files) {
+        this.index = index;
+        this.files = files;
+    }
+
+    /**
+     * Stores content, reusing an existing blob with the same hash
+     *
+     * @param inputStream the content; read fully and closed
+     * @return where the content is stored and its hash
+     * @throws IOException if the content cannot be stored
+     */
+    public static StoredContent store(InputStream inputStream) throws IOException {
+        return shared.storeContent(inputStream);
+    }
+
+    /**
+     * Drops one reference to stored content, deleting the blob with the last one
+     *
+     * @param sha256 hash returned by {@link #store(InputStream)}
+     * @return true if the blob itself was deleted
+     */
+    public static boolean release(String sha256) {
+        return shared.releaseContent(sha256);
+    }
+
+    /**
+     * SMB path of the blob holding content with the given hash
+     */
+    public static String blobPath(String sha256) {
+        return BLOB_DIR + "/" + sha256.substring(0, 2) + "/" + sha256;
+    }
+
+    StoredContent storeContent(InputStream inputStream) throws IOException {
+        File spool = File.createTempFile("blob-", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            long size = 0;
+            try (InputStream in = inputStream;
+                 OutputStream out = new DigestOutputStream(new FileOutputStream(spool), digest)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                    size += bytesRead;
+                }
+            }
+            String hash = toHex(digest.digest());
+
+            String path = blobPath(hash);
+            String partPath = null;
+            try {
+                while (true) {
+                    if (partPath == null && !files.exists(path)) {
+                        partPath = files.upload(path, spool);
+                    }
+                    try (LockedBlob blob = index.lock(hash, path, size)) {
+                        boolean deduplicated = files.exists(blob.getPath());
+                        if (!deduplicated) {
+                            if (partPath == null) {
+                                // Released and deleted since the check; upload it after all
+                                continue;
+                            }
+                            files.rename(partPath, blob.getPath());
+                            partPath = null;
+                        }
+                        blob.setRefCount(blob.getRefCount() + 1);
+                        try {
+                            blob.commit();
+                        } catch (IOException | RuntimeException e) {
+                            if (!deduplicated) {
+                                // Still locked, so no other upload can have adopted the file yet
+                                files.delete(blob.getPath());
+                            }
+                            throw e;
+                        }
+
+                        if (deduplicated) {
+                            logger.info("Deduplicated upload of " + size + " bytes onto blob " + blob.getPath());
+                        } else {
+                            logger.info("Stored new blob " + blob.getPath() + " (" + size + " bytes)");
+                        }
+                        return new StoredContent(hash, blob.getPath(), size, deduplicated);
+                    }
+                }
+            } finally {
+                if (partPath != null) {
+                    // Not needed, or the reference was not committed
+                    files.delete(partPath);
+                }
+            }
+        } finally {
+            spool.delete();
+        }
+    }
+
+    boolean releaseContent(String sha256) {
+        try (LockedBlob blob = index.lockExisting(sha256)) {
+            if (blob == null) {
+                return false;
+            }
+            boolean blobDeleted = false;
+            if (blob.getRefCount() > 1) {
+                blob.setRefCount(blob.getRefCount() - 1);
+            } else if (files.delete(blob.getPath()) || !files.exists(blob.getPath())) {
+                blob.delete();
+                blobDeleted = true;
+            } else {
+                // Kept at zero references, so a later upload of the same content can still reuse it
+                blob.setRefCount(0);
+            }
+            blob.commit();
+            return blobDeleted;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error releasing blob " + sha256 + ": " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Row-locked access to the content_blobs table, implemented by {@link ContentBlobDAO}
+     */
+    public interface BlobIndex {
+
+        /**
+         * Locks the row of a hash, creating it with no references if there is none
+         *
+         * @param blobPath path recorded for a new row
+         */
+        LockedBlob lock(String sha256, String blobPath, long fileSize) throws IOException;
+
+        /**
+         * Locks the row of a hash
+         *
+         * @return the locked row, or null if there is none
+         */
+        LockedBlob lockExisting(String sha256) throws IOException;
+    }
+
+    /**
+     * A blob row held locked until {@link #close()}. Changes are only kept if
+     * {@link #commit()} is called before closing.
+     */
+    public interface LockedBlob extends AutoCloseable {
+
+        String getPath();
+
+        int getRefCount();
+
+        void setRefCount(int refCount) throws IOException;
+
+        void delete() throws IOException;
+
+        void commit() throws IOException;
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Blob files on the share
+     */
+    interface BlobFiles {
+
+        boolean exists(String path);
+
+        /**
+         * Uploads a file next to a blob's path under a unique name
+         *
+         * @return the path of the uploaded .part file
+         */
+        String upload(String blobPath, File source) throws IOException;
+
+        /**
+         * Moves an uploaded .part file to its blob path, which must not exist
+         */
+        void rename(String partPath, String blobPath) throws IOException;
+
+        boolean delete(String path);
+    }
+
+    private static class SmbBlobFiles implements BlobFiles {
+
+        @Override
+        public boolean exists(String path) {
+            return FileStorageService.fileExists(path);
+        }
+
+        @Override
+        public String upload(String blobPath, File source) throws IOException {
+            String partPath = blobPath + "." + UUID.randomUUID() + ".part";
+            try {
+                FileStorageService.uploadFileParallel(partPath, source);
+            } catch (IOException e) {
+                FileStorageService.deleteFile(partPath);
+                logger.log(Level.SEVERE, "Error uploading blob " + blobPath + ": " + e.getMessage(), e);
+                throw e;
+            }
+            return partPath;
+        }
+
+        @Override
+        public void rename(String partPath, String blobPath) throws IOException {
+            FileStorageService.moveFile(partPath, blobPath);
+        }
+
+        @Override
+        public boolean delete(String path) {
+            return FileStorageService.deleteFile(path);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Result of {@link ContentStore#store(InputStream)}
+     */
+    public static class StoredContent {
+        private final String sha256;
+        private final String path;
+        private final long size;
+        private final boolean deduplicated;
+
+        StoredContent(String sha256, String path, long size, boolean deduplicated) {
+            this.sha256 = sha256;
+            this.path = path;
+            this.size = size;
+            this.deduplicated = deduplicated;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        /**
+         * Path of the blob relative to the SMB share
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Whether an existing blob was reused instead of uploading the content
+         */
+        public boolean isDeduplicated() {
+            return deduplicated;
+        }
+    }
+}
@@ -1,16 +1,21 @@
 package util;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,20 +35,15 @@
 import jcifs.smb.SmbFile;
 import jcifs.smb.SmbFileInputStream;
 import jcifs.smb.SmbFileOutputStream;
+import jcifs.smb.SmbRandomAccessFile;
 import jcifs.smb.SmbFileFilter;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.RandomAccessFile;
-import java.util.concurrent.ExecutionException;
 
 /**
  * Service for handling file storage operations with SMB server
@@ -65,6 +65,7 @@ public class FileStorageService {
     private static final String BACKUP_DIR = "Backups";
     private static final String QUIZ_IMAGES_DIR = "QuizImages";
     private static final String STUDENT_IMAGES_DIR = "StudentImages";
+    private static final String UPLOAD_STAGING_DIR = "Uploads";
     
     // Performance optimizations
     private static final int BUFFER_SIZE = 4 * 1024 * 1024; // 4MB buffer for better network performance
@@ -74,8 +75,16 @@ public class FileStorageService {
     private static final long CHUNK_SIZE = 32 * 1024 * 1024; // 32MB chunks for parallel transfers
     private static final boolean USE_DIRECT_BUFFERS = true; // Use NIO direct buffers for better performance
     
+    // Buffers reused by streamed downloads; at most STREAM_BUFFER_POOL_SIZE are kept between requests
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+    private static final int STREAM_BUFFER_POOL_SIZE = 32;
+    private static final BlockingQueue<byte[]> streamBuffers = new ArrayBlockingQueue<>(STREAM_BUFFER_POOL_SIZE);
+    
+    // Resolved SMB path of each requested quiz image (subject/exam/name -> path)
+    private static final Map<String, String> quizImagePaths = new ConcurrentHashMap<>();
+    
     /**
-     * Creates and returns a shared CIFSContext with optimized settings
+     * Returns a context from the shared SMB session pool
      * 
      * @return authenticated context
      * @throws CIFSException if authentication fails
@@ -85,72 +94,34 @@ public static CIFSContext createContext() throws CIFSException {
     }
     
     /**
-     * Uploads a file to the chat files directory
+     * Uploads a chat attachment into the deduplicating {@link ContentStore}.
+     * The same file sent to several chats is stored on the share only once.
      * 
      * @param inputStream the file content
      * @param originalFileName original file name
      * @param contentType content type of the file
      * @param userId user ID
      * @param isGroupChat whether this is for a group chat
-     * @return the path to the uploaded file
+     * @return the stored blob; its hash must be saved with the chat file record
      * @throws IOException if upload fails
      */
-    public static String uploadChatFile(InputStream inputStream, String originalFileName, String contentType, 
+    public static ContentStore.StoredContent uploadChatFile(InputStream inputStream, String originalFileName, String contentType, 
                                        int userId, boolean isGroupChat) throws IOException {
         try {
             logger.info("Uploading chat file: " + originalFileName + " for user " + userId + 
                        (isGroupChat ? " (group chat)" : ""));
             
-            // Determine the target directory
-            String baseDir = isGroupChat ? GROUP_CHAT_FILES_DIR : CHAT_FILES_DIR;
-            
-            // Create path with user ID
-            String relativePath = baseDir + "/" + userId + "/";
-            
-            // Generate a unique filename to avoid collisions
-            String extension = FilenameUtils.getExtension(originalFileName);
-            String newFileName = UUID.randomUUID().toString() + "." + extension;
-            
-            String fullPath = relativePath + newFileName;
-            
-            // Store the file on SMB server
-            CIFSContext context = createContext();
-            
-            // Ensure all directories in path exist
-            createDirectoryStructure(context, relativePath);
-            
-            // Write the file to SMB server
-            SmbFile smbFile = new SmbFile(SMB_BASE_PATH + fullPath, context);
+            long startTime = System.currentTimeMillis();
+            ContentStore.StoredContent stored = ContentStore.store(inputStream);
             
-            // Direct streaming approach for better performance
-            try (InputStream in = inputStream;
-                 SmbFileOutputStream smbOut = new SmbFileOutputStream(smbFile)) {
-                
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                long totalWritten = 0;
-                long startTime = System.currentTimeMillis();
-                
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    smbOut.write(buffer, 0, bytesRead);
-                    totalWritten += bytesRead;
-                }
-                
-                long endTime = System.currentTimeMillis();
-                double transferRateMBps = (totalWritten / 1024.0 / 1024.0) / ((endTime - startTime) / 1000.0);
-                
-                logger.info(String.format("File uploaded successfully: %s, size: %d bytes, rate: %.2f MB/s", 
-                                         fullPath, totalWritten, transferRateMBps));
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error writing to SMB file: " + e.getMessage(), e);
-                throw new IOException("Failed to write to SMB file: " + e.getMessage());
-            }
+            long endTime = System.currentTimeMillis();
+            double transferRateMBps = (stored.getSize() / 1024.0 / 1024.0) / (Math.max(1, endTime - startTime) / 1000.0);
             
-            return fullPath;
+            logger.info(String.format("File uploaded successfully: %s, size: %d bytes, rate: %.2f MB/s%s", 
+                                     stored.getPath(), stored.getSize(), transferRateMBps,
+                                     stored.isDeduplicated() ? " (deduplicated)" : ""));
+            return stored;
             
-        } catch (CIFSException e) {
-            logger.log(Level.SEVERE, "SMB connection error: " + e.getMessage(), e);
-            throw new IOException("Failed to connect to file server: " + e.getMessage());
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error uploading file: " + e.getMessage(), e);
             throw new IOException("Failed to upload file: " + e.getMessage());
@@ -222,6 +193,7 @@ public static String uploadChatFileParallel(InputStream inputStream, String orig
                     
                     logger.info(String.format("File uploaded successfully: %s, size: %d bytes, rate: %.2f MB/s", 
                                              fullPath, totalWritten, transferRateMBps));
+                    StorageUsageIndex.recordAdded(fullPath, totalWritten);
                 }
                 
                 return fullPath;
@@ -233,59 +205,20 @@ public static String uploadChatFileParallel(InputStream inputStream, String orig
             // Ensure all directories in path exist
             createDirectoryStructure(context, relativePath);
             
-            // Create the target file
+            // Create the target file at its final size
             SmbFile smbFile = new SmbFile(SMB_BASE_PATH + fullPath, context);
-            smbFile.createNewFile();
+            preallocate(smbFile, fileSize);
             
             // Calculate chunks
-            int numChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
-            numChunks = Math.min(numChunks, PARALLEL_THREADS * 2); // Limit number of chunks
-            final int finalNumChunks = numChunks;
+            // Every chunk is needed; concurrency is limited by the transfer executor
+            final int finalNumChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
             
             long startTime = System.currentTimeMillis();
             AtomicLong totalBytesWritten = new AtomicLong(0);
             
-            // Create thread pool
-            ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_THREADS);
-            List<Future<?>> futures = new ArrayList<>();
-            
-            // Submit upload tasks
-            for (int i = 0; i < finalNumChunks; i++) {
-                final long startOffset = i * CHUNK_SIZE;
-                final long endOffset = Math.min(startOffset + CHUNK_SIZE, fileSize);
-                final int chunkNumber = i + 1;
-                
-                futures.add(CompletableFuture.runAsync(() -> {
-                    try {
-                        uploadChunk(fullPath, tempFile, startOffset, endOffset, chunkNumber, finalNumChunks, totalBytesWritten);
-                    } catch (Exception e) {
-                        logger.log(Level.SEVERE, "Error uploading chunk " + chunkNumber + ": " + e.getMessage(), e);
-                        throw new RuntimeException("Failed to upload chunk " + chunkNumber, e);
-                    }
-                }, executor));
-            }
-            
-            // Wait for all uploads to complete
-            for (Future<?> future : futures) {
-                try {
-                    future.get(); // This will throw an exception if the task failed
-                } catch (Exception e) {
-                    logger.log(Level.SEVERE, "Chunk upload failed: " + e.getMessage(), e);
-                    executor.shutdownNow();
-                    throw new IOException("Parallel upload failed: " + e.getMessage(), e);
-                }
-            }
-            
-            // Shutdown the executor
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
+            // Upload chunks on the shared transfer executor, counted against this user
+            runChunks("user:" + userId, fileSize, finalNumChunks, (startOffset, endOffset, chunkNumber, totalChunks) ->
+                uploadChunk(fullPath, tempFile, startOffset, endOffset, chunkNumber, totalChunks, totalBytesWritten));
             
             long endTime = System.currentTimeMillis();
             double transferTimeSec = (endTime - startTime) / 1000.0;
@@ -294,6 +227,7 @@ public static String uploadChatFileParallel(InputStream inputStream, String orig
             logger.info(String.format(
                 "Parallel upload completed: %s, size: %d bytes, time: %.2f sec, rate: %.2f MB/s",
                 fullPath, fileSize, transferTimeSec, transferRateMBps));
+            StorageUsageIndex.recordAdded(fullPath, fileSize);
             
             return fullPath;
             
@@ -306,6 +240,41 @@ public static String uploadChatFileParallel(InputStream inputStream, String orig
         }
     }
     
+    /**
+     * One chunk of a parallel transfer
+     */
+    @FunctionalInterface
+    private interface ChunkTask {
+        void transfer(long startOffset, long endOffset, int chunkNumber, int totalChunks) throws IOException;
+    }
+    
+    /**
+     * Runs the chunks of a parallel transfer on the shared {@link TransferExecutor},
+     * at most PARALLEL_THREADS at a time, and waits for all of them
+     * 
+     * @param owner fairness key for the transfer, or null for no per-owner limit
+     * @param fileSize total size of the file
+     * @param chunkCount number of CHUNK_SIZE chunks to run
+     * @param task transfers one chunk
+     * @throws IOException if any chunk fails or the file server stays saturated
+     */
+    private static void runChunks(String owner, long fileSize, int chunkCount, ChunkTask task) throws IOException {
+        try (TransferExecutor.Transfer transfer = TransferExecutor.begin(owner, PARALLEL_THREADS)) {
+            for (int i = 0; i < chunkCount; i++) {
+                final long startOffset = i * CHUNK_SIZE;
+                final long endOffset = Math.min(startOffset + CHUNK_SIZE, fileSize);
+                final int chunkNumber = i + 1;
+                
+                transfer.submit(() -> {
+                    task.transfer(startOffset, endOffset, chunkNumber, chunkCount);
+                    transfer.addBytes(endOffset - startOffset);
+                    return null;
+                });
+            }
+            transfer.awaitAll();
+        }
+    }
+    
     /**
      * Uploads a specific chunk of a file
      * 
@@ -325,8 +294,9 @@ private static void uploadChunk(String filePath, File sourceFile, long startOffs
         logger.fine(String.format("Starting chunk upload %d/%d: bytes %d-%d", 
                                  chunkNumber, totalChunks, startOffset, endOffset));
         
+        CIFSContext context = null;
         try {
-            CIFSContext context = createContext();
+            context = createContext();
             SmbFile smbFile = new SmbFile(SMB_BASE_PATH + filePath, context);
             
             // Try to optimize the socket connection
@@ -335,75 +305,66 @@ private static void uploadChunk(String filePath, File sourceFile, long startOffs
             long chunkSize = endOffset - startOffset;
             long chunkBytesWritten = 0;
             
-            // Use direct ByteBuffer for better performance if enabled
-            java.nio.ByteBuffer buffer;
-            if (USE_DIRECT_BUFFERS) {
-                buffer = java.nio.ByteBuffer.allocateDirect(BUFFER_SIZE);
-            } else {
-                buffer = java.nio.ByteBuffer.allocate(BUFFER_SIZE);
-            }
-            
-            try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(sourceFile, "r")) {
-                // Position the file pointer in the source file
-                raf.seek(startOffset);
+            try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(sourceFile, "r");
+                 SmbRandomAccessFile smbRaf = new SmbRandomAccessFile(smbFile, "rw")) {
                 
                 // Use NIO channels for better performance
                 java.nio.channels.FileChannel fileChannel = raf.getChannel();
                 
                 // Read the chunk into memory using memory-mapped files for maximum performance
-                // This is significantly faster than standard I/O for large files
                 java.nio.MappedByteBuffer mappedBuffer = fileChannel.map(
                     java.nio.channels.FileChannel.MapMode.READ_ONLY, 
                     startOffset, 
-                    Math.min(chunkSize, Integer.MAX_VALUE)
+                    chunkSize
                 );
                 
-                // Write the chunk to the SMB file using a temporary file
-                String tempChunkPath = filePath + ".chunk" + chunkNumber;
-                SmbFile tempChunkFile = new SmbFile(SMB_BASE_PATH + tempChunkPath, context);
+                // Write the chunk straight to its final offset in the pre-sized target,
+                // so each byte crosses the network once and chunks can land in any order
+                smbRaf.seek(startOffset);
+                byte[] transferBuffer = new byte[BUFFER_SIZE];
                 
-                try (SmbFileOutputStream smbOut = new SmbFileOutputStream(tempChunkFile)) {
-                    byte[] transferBuffer = new byte[BUFFER_SIZE];
-                    
-                    // Transfer data from mapped buffer to SMB file
-                    mappedBuffer.clear();
-                    while (mappedBuffer.hasRemaining()) {
-                        int bytesToTransfer = Math.min(mappedBuffer.remaining(), BUFFER_SIZE);
-                        mappedBuffer.get(transferBuffer, 0, bytesToTransfer);
-                        smbOut.write(transferBuffer, 0, bytesToTransfer);
-                        chunkBytesWritten += bytesToTransfer;
-                        totalBytesWritten.addAndGet(bytesToTransfer);
-                    }
-                    
-                    // Ensure all data is written
-                    smbOut.flush();
-                }
-                
-                // Now copy this chunk to the right position in the main file
-                try (SmbFileInputStream smbIn = new SmbFileInputStream(tempChunkFile);
-                     SmbFileOutputStream smbOut = new SmbFileOutputStream(smbFile, true)) { // Append mode
-                    
-                    // Copy the chunk data with zero-copy where possible
-                    byte[] transferBuffer = new byte[BUFFER_SIZE];
-                    int bytesRead;
-                    
-                    while ((bytesRead = smbIn.read(transferBuffer)) != -1) {
-                        smbOut.write(transferBuffer, 0, bytesRead);
-                    }
-                    
-                    // Delete the temporary chunk file
-                    tempChunkFile.delete();
-                    
-                    logger.fine(String.format("Completed chunk upload %d/%d: wrote %d bytes", 
-                                             chunkNumber, totalChunks, chunkBytesWritten));
+                while (mappedBuffer.hasRemaining()) {
+                    int bytesToTransfer = Math.min(mappedBuffer.remaining(), BUFFER_SIZE);
+                    mappedBuffer.get(transferBuffer, 0, bytesToTransfer);
+                    smbRaf.write(transferBuffer, 0, bytesToTransfer);
+                    chunkBytesWritten += bytesToTransfer;
+                    totalBytesWritten.addAndGet(bytesToTransfer);
                 }
             }
+            
+            logger.fine(String.format("Completed chunk upload %d/%d: wrote %d bytes", 
+                                     chunkNumber, totalChunks, chunkBytesWritten));
         } catch (Exception e) {
+            CIFSContextUtil.reportFailure(context, e);
             logger.log(Level.SEVERE, "Error uploading chunk " + chunkNumber + ": " + e.getMessage(), e);
             throw new IOException("Failed to upload chunk " + chunkNumber + ": " + e.getMessage(), e);
         }
     }
     
+    /**
+     * Size of the file about to be overwritten at a counted path, so the
+     * usage index applies the difference
+     *
+     * @return the size, or -1 if the file is new or the path is not counted
+     */
+    private static long replacedLength(SmbFile smbFile, String path) throws SmbException {
+        return StorageUsageIndex.tracks(path) && smbFile.exists() ? smbFile.length() : -1;
+    }
+    
+    /**
+     * Creates or truncates an SMB file and sets its final length, so parallel
+     * chunks can be written at their offsets
+     * 
+     * @param smbFile target file
+     * @param size final size in bytes
+     * @throws IOException if the file cannot be created
+     */
+    private static void preallocate(SmbFile smbFile, long size) throws IOException {
+        try (SmbRandomAccessFile raf = new SmbRandomAccessFile(smbFile, "rw")) {
+            raf.setLength(size);
+        }
+    }
+    
     /**
      * Ensures all directories in the path exist
      * 
@@ -490,6 +451,170 @@ public static File downloadFile(String filePath) throws IOException {
         }
     }
     
+    /**
+     * Opens a file on the SMB server for streaming, without copying it locally
+     * 
+     * @param filePath path to the file on SMB server
+     * @return the SMB file handle
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if the server cannot be reached
+     */
+    public static SmbFile openFile(String filePath) throws IOException {
+        CIFSContext context = null;
+        try {
+            context = createContext();
+            SmbFile smbFile = new SmbFile(SMB_BASE_PATH + filePath, context);
+            
+            if (!smbFile.exists() || smbFile.isDirectory()) {
+                logger.warning("File does not exist: " + filePath);
+                throw new FileNotFoundException("File does not exist: " + filePath);
+            }
+            return smbFile;
+            
+        } catch (CIFSException e) {
+            logger.log(Level.SEVERE, "SMB connection error: " + e.getMessage(), e);
+            CIFSContextUtil.reportFailure(context, e);
+            throw new IOException("Failed to connect to file server: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Copies an SMB file to the given stream (normally the HTTP response) using a
+     * pooled buffer, so the first bytes go out as soon as they are read.
+     * Files small enough for {@link SmbFileCache} are served from the local cache.
+     * 
+     * @param smbFile file opened with {@link #openFile(String)}
+     * @param out destination stream; it is flushed but not closed
+     * @return number of bytes written
+     * @throws IOException if reading or writing fails
+     */
+    public static long streamFile(SmbFile smbFile, OutputStream out) throws IOException {
+        File cached = cachedCopy(smbFile);
+        if (cached != null) {
+            try {
+                return copyLocal(cached, out, 0, cached.length());
+            } catch (FileNotFoundException e) {
+                // Evicted between lookup and open; read from the share instead
+            }
+        }
+        return copyFromSmb(smbFile, out);
+    }
+    
+    /**
+     * Copies one byte range of an SMB file to the given stream using a pooled buffer.
+     * Files small enough for {@link SmbFileCache} are served from the local cache.
+     * 
+     * @param smbFile file opened with {@link #openFile(String)}
+     * @param out destination stream; it is flushed but not closed
+     * @param offset first byte to send
+     * @param length number of bytes to send
+     * @return number of bytes written
+     * @throws IOException if reading or writing fails
+     */
+    public static long streamFile(SmbFile smbFile, OutputStream out, long offset, long length) throws IOException {
+        File cached = cachedCopy(smbFile);
+        if (cached != null) {
+            try {
+                return copyLocal(cached, out, offset, length);
+            } catch (FileNotFoundException e) {
+                // Evicted between lookup and open; read from the share instead
+            }
+        }
+        
+        byte[] buffer = borrowStreamBuffer();
+        long totalWritten = 0;
+        
+        try (SmbRandomAccessFile in = new SmbRandomAccessFile(smbFile, "r")) {
+            in.seek(offset);
+            while (totalWritten < length) {
+                int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, length - totalWritten));
+                if (bytesRead == -1) {
+                    break;
+                }
+                out.write(buffer, 0, bytesRead);
+                totalWritten += bytesRead;
+            }
+            out.flush();
+            
+            logger.fine(String.format("Streamed %s bytes %d-%d", smbFile.getPath(), offset, offset + totalWritten - 1));
+            return totalWritten;
+        } finally {
+            releaseStreamBuffer(buffer);
+        }
+    }
+    
+    /**
+     * Copies a whole SMB file to the given stream, bypassing the local cache
+     * 
+     * @param smbFile source file on the share
+     * @param out destination stream; it is flushed but not closed
+     * @return number of bytes written
+     * @throws IOException if reading or writing fails
+     */
+    static long copyFromSmb(SmbFile smbFile, OutputStream out) throws IOException {
+        byte[] buffer = borrowStreamBuffer();
+        long startTime = System.currentTimeMillis();
+        long totalWritten = 0;
+        
+        try (SmbFileInputStream in = new SmbFileInputStream(smbFile)) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+                totalWritten += bytesRead;
+            }
+            out.flush();
+            
+            long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+            logger.fine(String.format("Streamed %s, size: %d bytes, rate: %.2f MB/s",
+                                     smbFile.getPath(), totalWritten, (totalWritten / 1024.0 / 1024.0) / (elapsed / 1000.0)));
+            return totalWritten;
+        } finally {
+            releaseStreamBuffer(buffer);
+        }
+    }
+    
+    private static File cachedCopy(SmbFile smbFile) {
+        try {
+            if (SmbFileCache.isCacheable(smbFile.length())) {
+                return SmbFileCache.getFile(smbFile);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "SMB cache unavailable for " + smbFile.getPath() + ": " + e.getMessage());
+        }
+        return null;
+    }
+    
+    private static long copyLocal(File file, OutputStream out, long offset, long length) throws IOException {
+        byte[] buffer = borrowStreamBuffer();
+        long totalWritten = 0;
+        
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(offset);
+            while (totalWritten < length) {
+                int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, length - totalWritten));
+                if (bytesRead == -1) {
+                    break;
+                }
+                out.write(buffer, 0, bytesRead);
+                totalWritten += bytesRead;
+            }
+            out.flush();
+            return totalWritten;
+        } finally {
+            releaseStreamBuffer(buffer);
+        }
+    }
+    
+    private static byte[] borrowStreamBuffer() {
+        byte[] buffer = streamBuffers.poll();
+        return buffer != null ? buffer : new byte[STREAM_BUFFER_SIZE];
+    }
+    
+    private static void releaseStreamBuffer(byte[] buffer) {
+        // Dropped if the pool is already full
+        streamBuffers.offer(buffer);
+    }
+    
     /**
      * Checks if file exists on the SMB server
      * 
@@ -523,7 +648,16 @@ public static boolean deleteFile(String filePath) {
             SmbFile smbFile = new SmbFile(SMB_BASE_PATH + filePath, context);
             
             if (smbFile.exists()) {
+                // Attributes are cached by exists(), so this costs no extra round trip
+                boolean isDirectory = smbFile.isDirectory();
+                long size = isDirectory ? 0 : smbFile.length();
                 smbFile.delete();
+                SmbFileCache.invalidate(filePath);
+                if (isDirectory) {
+                    StorageUsageIndex.markStale(filePath);
+                } else {
+                    StorageUsageIndex.recordRemoved(filePath, size);
+                }
                 logger.info("File deleted: " + filePath);
                 return true;
             } else {
@@ -623,6 +757,7 @@ public static String storeQuizImage(InputStream inputStream, String maMon, Strin
                     }
                     
                     logger.info("Quiz image uploaded successfully: " + fullPath + ", size: " + totalWritten + " bytes");
+                    StorageUsageIndex.recordAdded(fullPath, totalWritten);
                 }
             } catch (Exception e) {
                 logger.log(Level.SEVERE, "Error writing quiz image to SMB file: " + e.getMessage(), e);
@@ -658,6 +793,17 @@ public static File getQuizImage(String maMon, String maDe, String fileName) thro
             final String finalMaDe = sanitizeFileName(maDe);
             fileName = sanitizeFileName(fileName);
             
+            // A previously resolved image skips the directory listing and extension probing
+            String lookupKey = maMon + "/" + finalMaDe + "/" + fileName;
+            String knownPath = quizImagePaths.get(lookupKey);
+            if (knownPath != null) {
+                try {
+                    return SmbFileCache.getFile(knownPath);
+                } catch (FileNotFoundException e) {
+                    quizImagePaths.remove(lookupKey, knownPath);
+                }
+            }
+            
             // Connect to SMB
             CIFSContext context = createContext();
             
@@ -717,8 +863,11 @@ public boolean accept(SmbFile file) throws SmbException {
                 throw new IOException("Quiz image not found in exam directory");
             }
             
-            // Download the file
-            return downloadFile(QUIZ_IMAGES_DIR + "/" + maMon + "/" + examDir.getName() + "/" + fileName);
+            // Serve from the local cache and remember where the image was found
+            String imagePath = QUIZ_IMAGES_DIR + "/" + maMon + "/" + examDir.getName() + "/" + fileName;
+            File cachedFile = SmbFileCache.getFile(imagePath);
+            quizImagePaths.put(lookupKey, imagePath);
+            return cachedFile;
         } catch (Exception e) {
             logger.warning("Error retrieving quiz image from SMB: " + e.getMessage());
             
@@ -900,6 +1049,7 @@ public static String uploadGroupImage(InputStream inputStream, String originalFi
                     }
                     
                     logger.info("Group image uploaded successfully: " + fullPath + ", size: " + totalWritten + " bytes");
+                    StorageUsageIndex.recordAdded(fullPath, totalWritten);
                 }
             } catch (Exception e) {
                 logger.log(Level.SEVERE, "Error writing group image to SMB file: " + e.getMessage(), e);
@@ -917,6 +1067,16 @@ public static String uploadGroupImage(InputStream inputStream, String originalFi
         }
     }
     
+    /**
+     * Looks up the file stored for a student, without reading it
+     * 
+     * @param studentId student ID (e.g., DE180045)
+     * @return the indexed file, or null if the student has none
+     */
+    public static StudentImageIndex.Entry findStudentImage(String studentId) {
+        return StudentImageIndex.find(sanitizeFileName(studentId));
+    }
+    
     /**
      * Retrieves a student image from the Samba server
      * 
@@ -925,151 +1085,32 @@ public static String uploadGroupImage(InputStream inputStream, String originalFi
      * @throws IOException if retrieval fails
      */
     public static File getStudentImage(String studentId) throws IOException {
-        logger.info("Retrieving student file for ID: " + studentId);
-        
-        try {
-            // Sanitize the student ID
-            studentId = sanitizeFileName(studentId);
-            
-            // First try to find the file in local filesystem (fallback for Docker environments)
-            File localFile = findLocalStudentImage(studentId);
-            if (localFile != null) {
-                logger.info("Found student file in local filesystem: " + localFile.getAbsolutePath());
-                return localFile;
-            }
-            
-            // If not found locally, try Samba
-            logger.info("Trying to find student file on Samba server");
-            
-            // Connect to SMB
-            CIFSContext context = createContext();
-            
-            // Define extensions to try
-            final String[] extensions = {".png", ".jpg", ".jpeg", ".gif", ".webp", ".bmp", ".svg", 
-                                        ".glb", ".gltf", ".obj", ".pdf", ".doc", ".docx", ".xls", ".xlsx"};
-            SmbFile fileFound = null;
-            String foundFileName = null;
-            
-            // First try with .png extension (the expected format)
-            SmbFile pngFile = new SmbFile(SMB_BASE_PATH + STUDENT_IMAGES_DIR + "/" + studentId + ".png", context);
-            if (pngFile.exists()) {
-                fileFound = pngFile;
-                foundFileName = studentId + ".png";
-                logger.info("Found student file with .png extension");
-            } else {
-                // Try with other extensions
-                for (String ext : extensions) {
-                    if (ext.equals(".png")) continue; // Already tried
-                    
-                    SmbFile file = new SmbFile(SMB_BASE_PATH + STUDENT_IMAGES_DIR + "/" + studentId + ext, context);
-                    if (file.exists()) {
-                        fileFound = file;
-                        foundFileName = studentId + ext;
-                        logger.info("Found student file with extension: " + ext);
-                        break;
-                    }
-                }
-            }
-            
-            if (fileFound == null || !fileFound.exists()) {
-                logger.warning("Student file not found for ID: " + studentId);
-                throw new IOException("Student file not found");
-            }
-            
-            // Create a temporary file
-            String extension = foundFileName.substring(foundFileName.lastIndexOf('.'));
-            File tempFile = File.createTempFile("student_file_", extension);
-            tempFile.deleteOnExit();
-            
-            // Copy content to temporary file
-            try (SmbFileInputStream in = new SmbFileInputStream(fileFound);
-                 FileOutputStream out = new FileOutputStream(tempFile)) {
-                
-                byte[] buffer = new byte[1048576];
-                int bytesRead;
-                long totalBytes = 0;
-                
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
-                    totalBytes += bytesRead;
-                }
-                
-                logger.info("Downloaded student file: " + foundFileName + ", size: " + totalBytes + " bytes");
-            }
-            
-            return tempFile;
-        } catch (Exception e) {
-            logger.warning("Error retrieving student file from SMB: " + e.getMessage());
-            
-            // Final fallback - try local filesystem again with more relaxed error handling
-            try {
-                File localFile = findLocalStudentImage(studentId);
-                if (localFile != null) {
-                    logger.info("Found student file in local filesystem as fallback: " + localFile.getAbsolutePath());
-                    return localFile;
-                }
-            } catch (Exception ex) {
-                logger.warning("Final fallback also failed: " + ex.getMessage());
-            }
-            
-            throw new IOException("Student file not found: " + e.getMessage());
+        StudentImageIndex.Entry entry = findStudentImage(studentId);
+        if (entry == null) {
+            logger.warning("Student file not found for ID: " + studentId);
+            throw new IOException("Student file not found");
         }
+        return getStudentImage(entry);
     }
     
     /**
-     * Tries to find a student image in the local filesystem
+     * Retrieves the content of an indexed student file
      * 
-     * @param studentId student ID (e.g., DE180045)
-     * @return File if found, null otherwise
+     * @param entry result of {@link #findStudentImage(String)}
+     * @return the local copy, or the cached copy of the file on the share
+     * @throws IOException if retrieval fails
      */
-    private static File findLocalStudentImage(String studentId) {
-        logger.info("Looking for student file in local filesystem for ID: " + studentId);
-        
+    public static File getStudentImage(StudentImageIndex.Entry entry) throws IOException {
+        if (entry.isLocal()) {
+            return entry.getLocalFile();
+        }
         try {
-            // Check common locations for student files
-            String[] possiblePaths = {
-                "/app/student-images",           // Docker container path
-                "/var/lib/student-images",       // Linux server path
-                System.getProperty("user.home") + "/student-images", // User home directory
-                "src/main/resources/static/StudentImages", // Resources folder
-                "src/main/webapp/StudentImages", // Webapp folder
-                "public/StudentImages",           // Public folder
-                
-                // Additional paths for other file types
-                "/app/student-files",           // Docker container path
-                "/var/lib/student-files",       // Linux server path
-                System.getProperty("user.home") + "/student-files", // User home directory
-                "src/main/resources/static/StudentFiles", // Resources folder
-                "src/main/webapp/StudentFiles", // Webapp folder
-                "public/StudentFiles"           // Public folder
-            };
-            
-            // Define extensions to try
-            final String[] extensions = {".png", ".jpg", ".jpeg", ".gif", ".webp", ".bmp", ".svg", 
-                                        ".glb", ".gltf", ".obj", ".pdf", ".doc", ".docx", ".xls", ".xlsx"};
-            
-            // Try each possible location
-            for (String basePath : possiblePaths) {
-                File baseDir = new File(basePath);
-                if (!baseDir.exists() || !baseDir.isDirectory()) {
-                    continue;
-                }
-                
-                // Try each extension
-                for (String ext : extensions) {
-                    File file = new File(baseDir, studentId + ext);
-                    if (file.exists() && file.isFile() && file.canRead()) {
-                        logger.info("Found student file at: " + file.getAbsolutePath());
-                        return file;
-                    }
-                }
-            }
-            
-            logger.info("No student file found in local filesystem");
-            return null;
-        } catch (Exception e) {
-            logger.warning("Error searching for local student file: " + e.getMessage());
-            return null;
+            // Serve from the local cache; concurrent misses share one SMB read
+            return SmbFileCache.getFile(entry.getSmbPath());
+        } catch (IOException e) {
+            // Deleted since the index was built
+            StudentImageIndex.invalidate();
+            throw new IOException("Student file not found: " + e.getMessage(), e);
         }
     }
     
@@ -1135,54 +1176,15 @@ public static File downloadFileParallel(String filePath) throws IOException {
             }
             
             // Calculate chunks
-            int numChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
-            numChunks = Math.min(numChunks, PARALLEL_THREADS * 2); // Limit number of chunks
-            final int finalNumChunks = numChunks;
+            // Every chunk is needed; concurrency is limited by the transfer executor
+            final int finalNumChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
             
             long startTime = System.currentTimeMillis();
             AtomicLong totalBytesRead = new AtomicLong(0);
             
-            // Create thread pool
-            ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_THREADS);
-            List<Future<?>> futures = new ArrayList<>();
-            
-            // Submit download tasks
-            for (int i = 0; i < finalNumChunks; i++) {
-                final long startOffset = i * CHUNK_SIZE;
-                final long endOffset = Math.min(startOffset + CHUNK_SIZE, fileSize);
-                final int chunkNumber = i + 1;
-                
-                futures.add(CompletableFuture.runAsync(() -> {
-                    try {
-                        downloadChunk(filePath, tempFile, startOffset, endOffset, chunkNumber, finalNumChunks, totalBytesRead);
-                    } catch (Exception e) {
-                        logger.log(Level.SEVERE, "Error downloading chunk " + chunkNumber + ": " + e.getMessage(), e);
-                        throw new RuntimeException("Failed to download chunk " + chunkNumber, e);
-                    }
-                }, executor));
-            }
-            
-            // Wait for all downloads to complete
-            for (Future<?> future : futures) {
-                try {
-                    future.get(); // This will throw an exception if the task failed
-                } catch (Exception e) {
-                    logger.log(Level.SEVERE, "Chunk download failed: " + e.getMessage(), e);
-                    executor.shutdownNow();
-                    throw new IOException("Parallel download failed: " + e.getMessage(), e);
-                }
-            }
-            
-            // Shutdown the executor
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
+            // Download chunks on the shared transfer executor
+            runChunks(null, fileSize, finalNumChunks, (startOffset, endOffset, chunkNumber, totalChunks) ->
+                downloadChunk(filePath, tempFile, startOffset, endOffset, chunkNumber, totalChunks, totalBytesRead));
             
             long endTime = System.currentTimeMillis();
             double transferTimeSec = (endTime - startTime) / 1000.0;
@@ -1345,6 +1347,7 @@ public static void uploadFile(String filePath, File sourceFile) throws IOExcepti
             // Upload the file
             long startTime = System.currentTimeMillis();
             long fileSize = sourceFile.length();
+            long replacedSize = replacedLength(smbFile, filePath);
             
             try (FileInputStream in = new FileInputStream(sourceFile);
                  SmbFileOutputStream out = new SmbFileOutputStream(smbFile)) {
@@ -1363,6 +1366,7 @@ public static void uploadFile(String filePath, File sourceFile) throws IOExcepti
                 
                 logger.info(String.format("File uploaded successfully: %s, size: %d bytes, rate: %.2f MB/s", 
                                          filePath, totalWritten, transferRateMBps));
+                StorageUsageIndex.recordWritten(filePath, replacedSize, totalWritten);
             }
         } catch (CIFSException e) {
             logger.log(Level.SEVERE, "SMB connection error: " + e.getMessage(), e);
@@ -1373,6 +1377,94 @@ public static void uploadFile(String filePath, File sourceFile) throws IOExcepti
         }
     }
 
+    /**
+     * Creates an empty file of the given size in the upload staging directory,
+     * to be filled with {@link #writeAt(String, long, byte[], int)}
+     * 
+     * @param uploadId upload session ID
+     * @param size final size of the file
+     * @return path of the staging file on the SMB server
+     * @throws IOException if the file cannot be created
+     */
+    public static String createStagingFile(String uploadId, long size) throws IOException {
+        String filePath = UPLOAD_STAGING_DIR + "/" + uploadId + ".part";
+        try {
+            CIFSContext context = createContext();
+            createDirectoryStructure(context, UPLOAD_STAGING_DIR + "/");
+            
+            SmbFile smbFile = new SmbFile(SMB_BASE_PATH + filePath, context);
+            try (SmbRandomAccessFile raf = new SmbRandomAccessFile(smbFile, "rw")) {
+                raf.setLength(size);
+            }
+            StorageUsageIndex.recordAdded(filePath, size);
+            logger.info("Created staging file " + filePath + " (" + size + " bytes)");
+            return filePath;
+        } catch (CIFSException e) {
+            logger.log(Level.SEVERE, "SMB connection error: " + e.getMessage(), e);
+            throw new IOException("Failed to connect to file server: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Writes bytes into an existing SMB file at the given offset, leaving the rest untouched
+     * 
+     * @param filePath path on the SMB server
+     * @param offset position of the first byte
+     * @param data source bytes
+     * @param length number of bytes from {@code data} to write
+     * @throws IOException if the write fails
+     */
+    public static void writeAt(String filePath, long offset, byte[] data, int length) throws IOException {
+        CIFSContext context = null;
+        try {
+            context = createContext();
+            SmbFile smbFile = new SmbFile(SMB_BASE_PATH + filePath, context);
+            try (SmbRandomAccessFile raf = new SmbRandomAccessFile(smbFile, "rw")) {
+                raf.seek(offset);
+                raf.write(data, 0, length);
+            }
+        } catch (CIFSException e) {
+            logger.log(Level.SEVERE, "SMB write error at " + filePath + "@" + offset + ": " + e.getMessage(), e);
+            CIFSContextUtil.reportFailure(context, e);
+            throw new IOException("Failed to write to file server: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Moves a file to a new path on the same share; the move happens on the server
+     * 
+     * @param fromPath current path on the SMB server
+     * @param toPath new path on the SMB server; must not exist yet
+     * @throws IOException if the move fails
+     */
+    public static void moveFile(String fromPath, String toPath) throws IOException {
+        try {
+            CIFSContext context = createContext();
+            String directory = FilenameUtils.getPath(toPath);
+            if (!directory.isEmpty()) {
+                createDirectoryStructure(context, directory);
+            }
+            
+            SmbFile source = new SmbFile(SMB_BASE_PATH + fromPath, context);
+            SmbFile target = new SmbFile(SMB_BASE_PATH + toPath, context);
+            if (target.exists()) {
+                throw new IOException("File already exists: " + toPath);
+            }
+            boolean counted = StorageUsageIndex.tracks(fromPath) || StorageUsageIndex.tracks(toPath);
+            long size = counted ? source.length() : 0;
+            source.renameTo(target);
+            SmbFileCache.invalidate(toPath);
+            if (counted) {
+                StorageUsageIndex.recordRemoved(fromPath, size);
+                StorageUsageIndex.recordAdded(toPath, size);
+            }
+            logger.info("Moved " + fromPath + " to " + toPath);
+        } catch (CIFSException e) {
+            logger.log(Level.SEVERE, "SMB connection error: " + e.getMessage(), e);
+            throw new IOException("Failed to move file on file server: " + e.getMessage());
+        }
+    }
+    
     /**
      * Downloads a file from the SMB server to a local file
      * 
@@ -1449,56 +1541,31 @@ public static void uploadFileParallel(String filePath, File sourceFile) throws I
                 return;
             }
             
+            // Create or truncate the target at its final size
+            long replacedSize = replacedLength(smbFile, filePath);
+            preallocate(smbFile, fileSize);
+            
             // Calculate chunk count
             int chunkCount = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
             
-            // Create thread pool
-            ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_THREADS);
+            // Track total bytes written
+            AtomicLong totalBytesWritten = new AtomicLong(0);
             
-            try {
-                // Track total bytes written
-                AtomicLong totalBytesWritten = new AtomicLong(0);
-                
-                // Start timing
-                long startTime = System.currentTimeMillis();
-                
-                // Submit chunk upload tasks
-                List<Future<?>> futures = new ArrayList<>();
-                
-                for (int i = 0; i < chunkCount; i++) {
-                    final long startOffset = i * CHUNK_SIZE;
-                    final long endOffset = Math.min(startOffset + CHUNK_SIZE, fileSize);
-                    final int chunkNumber = i + 1;
-                    
-                    futures.add(executor.submit(() -> {
-                        try {
-                            uploadChunk(filePath, sourceFile, startOffset, endOffset, chunkNumber, chunkCount, totalBytesWritten);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }));
-                }
-                
-                // Wait for all uploads to complete
-                for (Future<?> future : futures) {
-                    try {
-                        future.get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        throw new IOException("Parallel upload failed: " + e.getMessage(), e);
-                    }
-                }
-                
-                // Calculate transfer rate
-                long endTime = System.currentTimeMillis();
-                double transferTimeSec = (endTime - startTime) / 1000.0;
-                double transferRateMBps = (fileSize / 1024.0 / 1024.0) / transferTimeSec;
-                
-                logger.info(String.format("Parallel file upload completed: %s, size: %d bytes, time: %.2f sec, rate: %.2f MB/s", 
-                                         filePath, fileSize, transferTimeSec, transferRateMBps));
-                
-            } finally {
-                executor.shutdown();
-            }
+            // Start timing
+            long startTime = System.currentTimeMillis();
+            
+            // Upload chunks on the shared transfer executor
+            runChunks(null, fileSize, chunkCount, (startOffset, endOffset, chunkNumber, totalChunks) ->
+                uploadChunk(filePath, sourceFile, startOffset, endOffset, chunkNumber, totalChunks, totalBytesWritten));
+            
+            // Calculate transfer rate
+            long endTime = System.currentTimeMillis();
+            double transferTimeSec = (endTime - startTime) / 1000.0;
+            double transferRateMBps = (fileSize / 1024.0 / 1024.0) / transferTimeSec;
+            
+            logger.info(String.format("Parallel file upload completed: %s, size: %d bytes, time: %.2f sec, rate: %.2f MB/s", 
+                                     filePath, fileSize, transferTimeSec, transferRateMBps));
+            StorageUsageIndex.recordWritten(filePath, replacedSize, fileSize);
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error in parallel upload: " + e.getMessage(), e);
             throw new IOException("Failed to upload file in parallel: " + e.getMessage(), e);
@@ -1540,53 +1607,23 @@ public static void downloadFileParallel(String filePath, File destFile) throws I
             // Calculate chunk count
             int chunkCount = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
             
-            // Create thread pool
-            ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_THREADS);
+            // Track total bytes read
+            AtomicLong totalBytesRead = new AtomicLong(0);
+            
+            // Start timing
+            long startTime = System.currentTimeMillis();
             
-            try {
-                // Track total bytes read
-                AtomicLong totalBytesRead = new AtomicLong(0);
-                
-                // Start timing
-                long startTime = System.currentTimeMillis();
-                
-                // Submit chunk download tasks
-                List<Future<?>> futures = new ArrayList<>();
-                
-                for (int i = 0; i < chunkCount; i++) {
-                    final long startOffset = i * CHUNK_SIZE;
-                    final long endOffset = Math.min(startOffset + CHUNK_SIZE, fileSize);
-                    final int chunkNumber = i + 1;
-                    
-                    futures.add(executor.submit(() -> {
-                        try {
-                            downloadChunk(filePath, destFile, startOffset, endOffset, chunkNumber, chunkCount, totalBytesRead);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }));
-                }
-                
-                // Wait for all downloads to complete
-                for (Future<?> future : futures) {
-                    try {
-                        future.get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        throw new IOException("Parallel download failed: " + e.getMessage(), e);
-                    }
-                }
-                
-                // Calculate transfer rate
-                long endTime = System.currentTimeMillis();
-                double transferTimeSec = (endTime - startTime) / 1000.0;
-                double transferRateMBps = (fileSize / 1024.0 / 1024.0) / transferTimeSec;
-                
-                logger.info(String.format("Parallel file download completed: %s, size: %d bytes, time: %.2f sec, rate: %.2f MB/s", 
-                                         filePath, fileSize, transferTimeSec, transferRateMBps));
-                
-            } finally {
-                executor.shutdown();
-            }
+            // Download chunks on the shared transfer executor
+            runChunks(null, fileSize, chunkCount, (startOffset, endOffset, chunkNumber, totalChunks) ->
+                downloadChunk(filePath, destFile, startOffset, endOffset, chunkNumber, totalChunks, totalBytesRead));
+            
+            // Calculate transfer rate
+            long endTime = System.currentTimeMillis();
+            double transferTimeSec = (endTime - startTime) / 1000.0;
+            double transferRateMBps = (fileSize / 1024.0 / 1024.0) / transferTimeSec;
+            
+            logger.info(String.format("Parallel file download completed: %s, size: %d bytes, time: %.2f sec, rate: %.2f MB/s", 
+                                     filePath, fileSize, transferTimeSec, transferRateMBps));
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error in parallel download: " + e.getMessage(), e);
             throw new IOException("Failed to download file in parallel: " + e.getMessage(), e);
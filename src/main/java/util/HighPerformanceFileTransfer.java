@@ -4,7 +4,7 @@
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.concurrent.*;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -12,6 +12,11 @@
 /**
  * High-performance file transfer utility that uses native OS capabilities
  * when available for maximum throughput.
+ *
+ * Each call to {@link #transfer} keeps its timing and byte count in its own
+ * TransferContext, so concurrent transfers report their own statistics.
+ * Parallel copies run their chunks on the shared {@link TransferExecutor},
+ * counted against the current user's share of it.
  */
 public class HighPerformanceFileTransfer {
     
@@ -22,10 +27,6 @@ public class HighPerformanceFileTransfer {
     private static final int DEFAULT_THREAD_COUNT = 8;
     private static final long DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024; // 64MB
     
-    // Performance tracking
-    private static final AtomicLong totalBytesTransferred = new AtomicLong(0);
-    private static long startTime = 0;
-    
     /**
      * Transfers a file using the most efficient method available for the platform
      * 
@@ -36,21 +37,36 @@ public class HighPerformanceFileTransfer {
      * @throws IOException If transfer fails
      */
     public static TransferStats transfer(Object source, Object target, TransferOptions options) throws IOException {
-        startTime = System.currentTimeMillis();
-        totalBytesTransferred.set(0);
-        
-        // Determine the best transfer method based on source and target types
-        if (source instanceof File && target instanceof File) {
-            return transferFileToFile((File)source, (File)target, options);
-        } else if (source instanceof InputStream && target instanceof OutputStream) {
-            return transferStreamToStream((InputStream)source, (OutputStream)target, options);
-        } else if (source instanceof File && target instanceof OutputStream) {
-            return transferFileToStream((File)source, (OutputStream)target, options);
-        } else if (source instanceof InputStream && target instanceof File) {
-            return transferStreamToFile((InputStream)source, (File)target, options);
-        } else {
+        if (!(source instanceof File || source instanceof InputStream)
+                || !(target instanceof File || target instanceof OutputStream)) {
             throw new IllegalArgumentException("Unsupported source or target types");
         }
+
+        TransferOptions opts = options != null ? options : TransferOptions.createDefault();
+        try (TransferExecutor.Transfer transfer = TransferExecutor.begin(opts.getThreadCount())) {
+            TransferContext ctx = new TransferContext(opts, transfer);
+            
+            // Determine the best transfer method based on source and target types
+            TransferStats stats;
+            if (source instanceof File && target instanceof File) {
+                stats = transferFileToFile((File)source, (File)target, ctx);
+            } else if (source instanceof InputStream && target instanceof OutputStream) {
+                stats = transferStreamToStream((InputStream)source, (OutputStream)target, ctx);
+            } else if (source instanceof File) {
+                stats = transferFileToStream((File)source, (OutputStream)target, ctx);
+            } else {
+                stats = transferStreamToFile((InputStream)source, (File)target, ctx);
+            }
+            transfer.awaitAll();
+            return stats;
+        }
+    }
+
+    /**
+     * Aggregate throughput and executor load across all transfers.
+     */
+    public static Map<String, Object> getMetrics() {
+        return TransferExecutor.getStats();
     }
     
     /**
@@ -58,20 +74,21 @@ public static TransferStats transfer(Object source, Object target, TransferOptio
      * 
      * @param source Source file
      * @param target Target file
-     * @param options Transfer options
+     * @param ctx Transfer context
      * @return Transfer statistics
      * @throws IOException If transfer fails
      */
-    private static TransferStats transferFileToFile(File source, File target, TransferOptions options) throws IOException {
+    private static TransferStats transferFileToFile(File source, File target, TransferContext ctx) throws IOException {
         long fileSize = source.length();
+        TransferOptions options = ctx.options;
         
         // For small files, use a simple copy
         if (fileSize < options.getChunkSize() * 2) {
-            return simpleFileCopy(source, target, options);
+            return simpleFileCopy(source, target, ctx);
         }
         
         // For larger files, use parallel transfer
-        return parallelFileCopy(source, target, options);
+        return parallelFileCopy(source, target, ctx);
     }
     
     /**
@@ -79,22 +96,19 @@ private static TransferStats transferFileToFile(File source, File target, Transf
      * 
      * @param source Source file
      * @param target Target file
-     * @param options Transfer options
+     * @param ctx Transfer context
      * @return Transfer statistics
      * @throws IOException If copy fails
      */
-    private static TransferStats simpleFileCopy(File source, File target, TransferOptions options) throws IOException {
+    private static TransferStats simpleFileCopy(File source, File target, TransferContext ctx) throws IOException {
         long fileSize = source.length();
         
         // Try to use zero-copy transfer if possible
         try {
             // Check if we can use native file copy on this platform
             if (tryNativeFileCopy(source, target)) {
-                long endTime = System.currentTimeMillis();
-                double transferTimeSec = (endTime - startTime) / 1000.0;
-                double transferRateMBps = (fileSize / 1024.0 / 1024.0) / transferTimeSec;
-                
-                return new TransferStats(fileSize, transferTimeSec, transferRateMBps);
+                ctx.addBytes(fileSize);
+                return ctx.stats(fileSize);
             }
         } catch (Exception e) {
             logger.log(Level.FINE, "Native file copy not available: " + e.getMessage());
@@ -123,14 +137,10 @@ private static TransferStats simpleFileCopy(File source, File target, TransferOp
                 
                 transferred += count;
                 remaining -= count;
-                totalBytesTransferred.addAndGet(count);
+                ctx.addBytes(count);
             }
             
-            long endTime = System.currentTimeMillis();
-            double transferTimeSec = (endTime - startTime) / 1000.0;
-            double transferRateMBps = (fileSize / 1024.0 / 1024.0) / transferTimeSec;
-            
-            return new TransferStats(fileSize, transferTimeSec, transferRateMBps);
+            return ctx.stats(fileSize);
         }
     }
     
@@ -173,11 +183,11 @@ private static boolean tryNativeFileCopy(File source, File target) {
      * 
      * @param source Source file
      * @param target Target file
-     * @param options Transfer options
+     * @param ctx Transfer context
      * @return Transfer statistics
      * @throws IOException If copy fails
      */
-    private static TransferStats parallelFileCopy(File source, File target, TransferOptions options) throws IOException {
+    private static TransferStats parallelFileCopy(File source, File target, TransferContext ctx) throws IOException {
         long fileSize = source.length();
         
         // Pre-allocate the target file
@@ -186,45 +196,22 @@ private static TransferStats parallelFileCopy(File source, File target, Transfer
         }
         
         // Calculate chunk count
-        int threadCount = options.getThreadCount();
-        long chunkSize = options.getChunkSize();
+        long chunkSize = ctx.options.getChunkSize();
         int chunkCount = (int) Math.ceil((double) fileSize / chunkSize);
         
-        // Create thread pool
-        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
-        
-        try {
-            // Submit chunk transfer tasks
-            CompletionService<Long> completionService = new ExecutorCompletionService<>(executor);
-            
-            for (int i = 0; i < chunkCount; i++) {
-                final long startOffset = i * chunkSize;
-                final long endOffset = Math.min(startOffset + chunkSize, fileSize);
-                final int chunkNumber = i + 1;
-                
-                completionService.submit(() -> {
-                    return transferFileChunk(source, target, startOffset, endOffset, chunkNumber, chunkCount);
-                });
-            }
-            
-            // Wait for all chunks to complete
-            long totalTransferred = 0;
-            for (int i = 0; i < chunkCount; i++) {
-                try {
-                    totalTransferred += completionService.take().get();
-                } catch (InterruptedException | ExecutionException e) {
-                    throw new IOException("Chunk transfer failed: " + e.getMessage(), e);
-                }
-            }
-            
-            long endTime = System.currentTimeMillis();
-            double transferTimeSec = (endTime - startTime) / 1000.0;
-            double transferRateMBps = (fileSize / 1024.0 / 1024.0) / transferTimeSec;
+        // Chunks run on the shared executor, at most threadCount at a time for this transfer
+        for (int i = 0; i < chunkCount; i++) {
+            final long startOffset = i * chunkSize;
+            final long endOffset = Math.min(startOffset + chunkSize, fileSize);
+            final int chunkNumber = i + 1;
             
-            return new TransferStats(fileSize, transferTimeSec, transferRateMBps);
-        } finally {
-            executor.shutdown();
+            ctx.transfer.submit(() -> transferFileChunk(source, target, startOffset, endOffset, chunkNumber, chunkCount, ctx));
         }
+        
+        // Wait for all chunks to complete
+        ctx.transfer.awaitAll();
+        
+        return ctx.stats(fileSize);
     }
     
     /**
@@ -236,11 +223,12 @@ private static TransferStats parallelFileCopy(File source, File target, Transfer
      * @param endOffset End offset
      * @param chunkNumber Chunk number
      * @param totalChunks Total number of chunks
+     * @param ctx Transfer context
      * @return Number of bytes transferred
      * @throws IOException If transfer fails
      */
     private static long transferFileChunk(File source, File target, long startOffset, long endOffset, 
-                                         int chunkNumber, int totalChunks) throws IOException {
+                                         int chunkNumber, int totalChunks, TransferContext ctx) throws IOException {
         long chunkSize = endOffset - startOffset;
         
         try (RandomAccessFile sourceRaf = new RandomAccessFile(source, "r");
@@ -261,7 +249,7 @@ private static long transferFileChunk(File source, File target, long startOffset
                 bytesWritten += targetChannel.write(sourceBuffer);
             }
             
-            totalBytesTransferred.addAndGet(bytesWritten);
+            ctx.addBytes(bytesWritten);
             
             return bytesWritten;
         }
@@ -272,14 +260,13 @@ private static long transferFileChunk(File source, File target, long startOffset
      * 
      * @param source Source input stream
      * @param target Target output stream
-     * @param options Transfer options
+     * @param ctx Transfer context
      * @return Transfer statistics
      * @throws IOException If transfer fails
      */
     private static TransferStats transferStreamToStream(InputStream source, OutputStream target, 
-                                                      TransferOptions options) throws IOException {
-        int bufferSize = options.getBufferSize();
-        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+                                                      TransferContext ctx) throws IOException {
+        int bufferSize = ctx.options.getBufferSize();
         byte[] tempBuffer = new byte[bufferSize];
         
         long totalBytes = 0;
@@ -288,16 +275,12 @@ private static TransferStats transferStreamToStream(InputStream source, OutputSt
         while ((bytesRead = source.read(tempBuffer)) != -1) {
             target.write(tempBuffer, 0, bytesRead);
             totalBytes += bytesRead;
-            totalBytesTransferred.addAndGet(bytesRead);
+            ctx.addBytes(bytesRead);
         }
         
         target.flush();
         
-        long endTime = System.currentTimeMillis();
-        double transferTimeSec = (endTime - startTime) / 1000.0;
-        double transferRateMBps = (totalBytes / 1024.0 / 1024.0) / transferTimeSec;
-        
-        return new TransferStats(totalBytes, transferTimeSec, transferRateMBps);
+        return ctx.stats(totalBytes);
     }
     
     /**
@@ -305,14 +288,14 @@ private static TransferStats transferStreamToStream(InputStream source, OutputSt
      * 
      * @param source Source file
      * @param target Target output stream
-     * @param options Transfer options
+     * @param ctx Transfer context
      * @return Transfer statistics
      * @throws IOException If transfer fails
      */
     private static TransferStats transferFileToStream(File source, OutputStream target, 
-                                                    TransferOptions options) throws IOException {
+                                                    TransferContext ctx) throws IOException {
         long fileSize = source.length();
-        int bufferSize = options.getBufferSize();
+        int bufferSize = ctx.options.getBufferSize();
         
         try (FileInputStream fis = new FileInputStream(source);
              FileChannel sourceChannel = fis.getChannel()) {
@@ -325,17 +308,13 @@ private static TransferStats transferFileToStream(File source, OutputStream targ
                 int limit = buffer.limit();
                 buffer.get(tempBuffer, 0, limit);
                 target.write(tempBuffer, 0, limit);
-                totalBytesTransferred.addAndGet(limit);
+                ctx.addBytes(limit);
                 buffer.clear();
             }
             
             target.flush();
             
-            long endTime = System.currentTimeMillis();
-            double transferTimeSec = (endTime - startTime) / 1000.0;
-            double transferRateMBps = (fileSize / 1024.0 / 1024.0) / transferTimeSec;
-            
-            return new TransferStats(fileSize, transferTimeSec, transferRateMBps);
+            return ctx.stats(fileSize);
         }
     }
     
@@ -344,13 +323,13 @@ private static TransferStats transferFileToStream(File source, OutputStream targ
      * 
      * @param source Source input stream
      * @param target Target file
-     * @param options Transfer options
+     * @param ctx Transfer context
      * @return Transfer statistics
      * @throws IOException If transfer fails
      */
     private static TransferStats transferStreamToFile(InputStream source, File target, 
-                                                    TransferOptions options) throws IOException {
-        int bufferSize = options.getBufferSize();
+                                                    TransferContext ctx) throws IOException {
+        int bufferSize = ctx.options.getBufferSize();
         
         try (FileOutputStream fos = new FileOutputStream(target);
              FileChannel targetChannel = fos.getChannel()) {
@@ -370,14 +349,38 @@ private static TransferStats transferStreamToFile(InputStream source, File targe
                     totalBytes += targetChannel.write(buffer);
                 }
                 
-                totalBytesTransferred.addAndGet(bytesRead);
+                ctx.addBytes(bytesRead);
             }
             
-            long endTime = System.currentTimeMillis();
-            double transferTimeSec = (endTime - startTime) / 1000.0;
-            double transferRateMBps = (totalBytes / 1024.0 / 1024.0) / transferTimeSec;
-            
-            return new TransferStats(totalBytes, transferTimeSec, transferRateMBps);
+            return ctx.stats(totalBytes);
+        }
+    }
+    
+    /**
+     * Per-transfer state: start time and bytes moved so far. Chunk tasks of a
+     * parallel copy share their transfer's context.
+     */
+    private static class TransferContext {
+        private final TransferOptions options;
+        private final TransferExecutor.Transfer transfer;
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicLong bytesTransferred = new AtomicLong();
+        
+        TransferContext(TransferOptions options, TransferExecutor.Transfer transfer) {
+            this.options = options;
+            this.transfer = transfer;
+        }
+        
+        void addBytes(long bytes) {
+            bytesTransferred.addAndGet(bytes);
+            transfer.addBytes(bytes);
+        }
+        
+        TransferStats stats(long bytes) {
+            // At least 1ms, so an instant copy does not report an infinite rate
+            double transferTimeSec = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+            double transferRateMBps = (bytes / 1024.0 / 1024.0) / transferTimeSec;
+            return new TransferStats(bytes, transferTimeSec, transferRateMBps);
         }
     }
     
@@ -0,0 +1,477 @@
+package util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Downscaled variants of images, generated on first request and kept in a
+ * local disk cache.
+ *
+ * A requested width is rounded up to the nearest configured variant
+ * (thumbnails.widths, 64/256/1024 by default), so a 40px avatar and a 48px
+ * avatar share the 64px file. Variants are keyed by the source's identity and
+ * version, so an updated image gets new variants and stale ones age out of
+ * the cache. Images already narrower than the variant, and formats ImageIO
+ * cannot decode (svg, glb, pdf...), are served as they are.
+ *
+ * Generation runs on a bounded pool of thumbnails.threads workers with a
+ * queue of thumbnails.queueSize. Concurrent requests for the same variant
+ * share one generation. A request waits up to thumbnails.waitMs for its
+ * variant; when the pool is full or the wait runs out, the original is served
+ * and the variant is used once ready.
+ *
+ * Images can be user uploads, so the dimensions are read from the header
+ * before anything is decoded. Images over thumbnails.maxSourcePixels are
+ * never decoded and are served as they are; larger than
+ * thumbnails.maxDecodePixels ones are decoded subsampled, so a small
+ * decompression bomb cannot exhaust the heap.
+ *
+ * Other tunables (system properties): thumbnails.cache.dir and
+ * thumbnails.cache.maxBytes.
+ */
+public class ImageThumbnails {
+
+    private static final Logger logger = Logger.getLogger(ImageThumbnails.class.getName());
+
+    private static final int[] WIDTHS = parseWidths(System.getProperty("thumbnails.widths", "64,256,1024"));
+    private static final int THREADS = Math.max(1, Integer.getInteger("thumbnails.threads", 2));
+    private static final int QUEUE_SIZE = Math.max(1, Integer.getInteger("thumbnails.queueSize", 64));
+    private static final long WAIT_MS = Long.getLong("thumbnails.waitMs", 5000);
+    private static final Path CACHE_DIR = Paths.get(System.getProperty("thumbnails.cache.dir",
+            System.getProperty("java.io.tmpdir") + File.separator + "fstudymate-thumbnails"));
+    private static final long MAX_CACHE_BYTES = Long.getLong("thumbnails.cache.maxBytes", 256L * 1024 * 1024);
+    // 10000 x 10000; more than that is not a photo anyone uploads on purpose
+    private static final long MAX_SOURCE_PIXELS = Long.getLong("thumbnails.maxSourcePixels", 100_000_000L);
+    // About 64MB as ARGB
+    private static final long MAX_DECODE_PIXELS = Long.getLong("thumbnails.maxDecodePixels", 16_000_000L);
+
+    // Sources that need no variant at a width; cleared when it grows past this
+    private static final int MAX_PASS_THROUGH_KEYS = 10000;
+
+    private static final ThreadPoolExecutor executor;
+
+    // Generations in progress, keyed by variant file name; later callers wait on the first one's future
+    private static final ConcurrentHashMap<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> passThrough = new ConcurrentHashMap<>();
+    private static final AtomicLong cacheBytes = new AtomicLong();
+    private static final Object pruneLock = new Object();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder generated = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+    private static final LongAdder servedOriginal = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+    private static final LongAdder timeouts = new LongAdder();
+    private static final LongAdder failures = new LongAdder();
+    private static final LongAdder oversized = new LongAdder();
+
+    static {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "thumbnail-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            // Keep decoding from competing with request threads
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        };
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), factory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+
+        try {
+            Files.createDirectories(CACHE_DIR);
+            // Variants are versioned by name, so files from a previous run are still valid
+            File[] existing = CACHE_DIR.toFile().listFiles(File::isFile);
+            if (existing != null) {
+                for (File file : existing) {
+                    if (file.getName().endsWith(".part")) {
+                        file.delete();
+                    } else {
+                        cacheBytes.addAndGet(file.length());
+                    }
+                }
+            }
+            logger.info("Thumbnail cache at " + CACHE_DIR + " (" + cacheBytes.get() + " bytes), widths "
+                    + Arrays.toString(WIDTHS) + ", " + THREADS + " threads");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not prepare thumbnail cache directory " + CACHE_DIR + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The variant width used for a requested display width
+     *
+     * @param requestedWidth width the client asked for, or null
+     * @return the smallest variant at least that wide, or 0 to use the original
+     */
+    public static int variantWidth(Integer requestedWidth) {
+        if (requestedWidth == null || requestedWidth <= 0) {
+            return 0;
+        }
+        for (int width : WIDTHS) {
+            if (width >= requestedWidth) {
+                return width;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Whether variants can be made from a file with this name
+     */
+    public static boolean isScalable(String fileName) {
+        switch (FilenameUtils.getExtension(fileName).toLowerCase(Locale.ROOT)) {
+            case "png": case "jpg": case "jpeg": case "gif": case "bmp":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The variant of an image for a requested width if it is already cached;
+     * never generates one
+     *
+     * @param sourceName file name of the image, for its format
+     * @return the variant, or null if there is none yet
+     */
+    public static File findVariant(String sourceKey, String version, String sourceName, Integer requestedWidth) {
+        int width = variantWidth(requestedWidth);
+        if (width == 0 || !isScalable(sourceName)) {
+            return null;
+        }
+        File variant = CACHE_DIR.resolve(variantName(sourceKey, version, width, sourceName)).toFile();
+        return variant.isFile() ? variant : null;
+    }
+
+    /**
+     * Whether the original is the final answer for a requested width: no
+     * variant applies, or the image turned out not to need or allow one.
+     * Unlike a fallback after a timeout or a full pool, this does not change
+     * on a later request.
+     *
+     * @param sourceName file name of the image, for its format
+     */
+    public static boolean isPassThrough(String sourceKey, String version, String sourceName, Integer requestedWidth) {
+        int width = variantWidth(requestedWidth);
+        return width == 0 || !isScalable(sourceName)
+                || passThrough.containsKey(variantName(sourceKey, version, width, sourceName));
+    }
+
+    /**
+     * Returns the variant of an image for a requested width, generating it if
+     * needed.
+     *
+     * @param sourceKey stable identity of the image, e.g. its path on the share
+     * @param version changes whenever the image does, e.g. its ETag
+     * @param source local copy of the image
+     * @param requestedWidth width the client asked for, or null
+     * @return the variant, or {@code source} if the original should be served
+     */
+    public static File getVariant(String sourceKey, String version, File source, Integer requestedWidth) {
+        int width = variantWidth(requestedWidth);
+        if (width == 0 || !isScalable(source.getName())) {
+            return source;
+        }
+
+        String name = variantName(sourceKey, version, width, source.getName());
+        if (passThrough.containsKey(name)) {
+            return source;
+        }
+        File variant = CACHE_DIR.resolve(name).toFile();
+        if (variant.isFile()) {
+            hits.increment();
+            return variant;
+        }
+
+        CompletableFuture<File> flight = new CompletableFuture<>();
+        CompletableFuture<File> existing = inFlight.putIfAbsent(name, flight);
+        if (existing != null) {
+            coalesced.increment();
+            flight = existing;
+        } else {
+            CompletableFuture<File> started = flight;
+            try {
+                executor.execute(() -> generate(name, source, width, started));
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(name, started);
+                rejected.increment();
+                servedOriginal.increment();
+                return source;
+            }
+        }
+
+        try {
+            File result = flight.get(WAIT_MS, TimeUnit.MILLISECONDS);
+            if (result == source) {
+                servedOriginal.increment();
+            }
+            return result;
+        } catch (TimeoutException e) {
+            // The variant is still written and used by later requests
+            timeouts.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warning("Could not create " + width + "px variant of " + sourceKey + ": " + e.getCause().getMessage());
+        }
+        servedOriginal.increment();
+        return source;
+    }
+
+    /**
+     * Snapshot of the thumbnail counters, for monitoring.
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("widths", Arrays.stream(WIDTHS).boxed().toList());
+        stats.put("cacheBytes", cacheBytes.get());
+        stats.put("maxCacheBytes", MAX_CACHE_BYTES);
+        stats.put("hits", hits.sum());
+        stats.put("generated", generated.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("servedOriginal", servedOriginal.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("failures", failures.sum());
+        stats.put("oversized", oversized.sum());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("active", executor.getActiveCount());
+        return stats;
+    }
+
+    private static void generate(String name, File source, int width, CompletableFuture<File> flight) {
+        Path temp = null;
+        try {
+            BufferedImage image = read(source, width);
+            if (image == null) {
+                // Not decodable, too large to decode, or already small enough: the original is the variant
+                if (passThrough.size() >= MAX_PASS_THROUGH_KEYS) {
+                    passThrough.clear();
+                }
+                passThrough.put(name, Boolean.TRUE);
+                flight.complete(source);
+                return;
+            }
+
+            String format = FilenameUtils.getExtension(name);
+            BufferedImage scaled = scale(image, width, "jpg".equals(format));
+            temp = Files.createTempFile(CACHE_DIR, "variant-", ".part");
+            if (!ImageIO.write(scaled, format, temp.toFile())) {
+                throw new IOException("No ImageIO writer for " + format);
+            }
+            Path target = CACHE_DIR.resolve(name);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            generated.increment();
+            if (cacheBytes.addAndGet(Files.size(target)) > MAX_CACHE_BYTES) {
+                prune();
+            }
+            flight.complete(target.toFile());
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // Removed on the next start
+                }
+            }
+            flight.completeExceptionally(e);
+        } finally {
+            if (!flight.isDone()) {
+                // An Error (e.g. OutOfMemoryError) escaped; waiting requests fall back to the original
+                failures.increment();
+                flight.completeExceptionally(new IOException("Thumbnail generation aborted"));
+            }
+            inFlight.remove(name, flight);
+        }
+    }
+
+    /**
+     * Decodes an image for a variant of the given width, checking its size
+     * from the header first
+     *
+     * @return the image, possibly subsampled, or null if it is not decodable,
+     *         too large, or already no wider than the variant
+     */
+    private static BufferedImage read(File source, int width) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source)) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+                long pixels = (long) sourceWidth * sourceHeight;
+                if (sourceWidth <= width) {
+                    return null;
+                }
+                if (pixels > MAX_SOURCE_PIXELS) {
+                    oversized.increment();
+                    logger.warning("Not scaling " + source.getName() + ": " + sourceWidth + "x" + sourceHeight
+                            + " is over " + MAX_SOURCE_PIXELS + " pixels");
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = subsampling(pixels);
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Smallest subsampling step that keeps the decoded image within MAX_DECODE_PIXELS
+    static int subsampling(long pixels) {
+        int step = 1;
+        while (pixels / ((long) step * step) > MAX_DECODE_PIXELS) {
+            step++;
+        }
+        return step;
+    }
+
+    // Halves the image until it is close to the target, then does the last step,
+    // which looks much better than one bilinear step from a large original
+    private static BufferedImage scale(BufferedImage image, int width, boolean opaque) {
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        int height = Math.max(1, (int) Math.round(image.getHeight() * (double) width / image.getWidth()));
+        BufferedImage current = image;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        do {
+            w = Math.max(width, w / 2);
+            h = Math.max(height, h / 2);
+            BufferedImage step = new BufferedImage(w, h, type);
+            Graphics2D g = step.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                if (opaque) {
+                    // JPEG has no alpha; flatten transparent areas onto white
+                    g.setColor(Color.WHITE);
+                    g.fillRect(0, 0, w, h);
+                }
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = step;
+        } while (w != width || h != height);
+        return current;
+    }
+
+    // Drops the oldest variants until the cache is back under 90% of its limit
+    private static void prune() {
+        synchronized (pruneLock) {
+            if (cacheBytes.get() <= MAX_CACHE_BYTES) {
+                return;
+            }
+            File[] files = CACHE_DIR.toFile().listFiles(f -> f.isFile() && !f.getName().endsWith(".part"));
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            long target = MAX_CACHE_BYTES * 9 / 10;
+            long total = 0;
+            for (File file : files) {
+                total += file.length();
+            }
+            int removed = 0;
+            for (File file : files) {
+                if (total <= target) {
+                    break;
+                }
+                long size = file.length();
+                if (file.delete()) {
+                    total -= size;
+                    removed++;
+                }
+            }
+            cacheBytes.set(total);
+            logger.info("Pruned " + removed + " thumbnails, cache now " + total + " bytes");
+        }
+    }
+
+    private static String variantName(String sourceKey, String version, int width, String sourceName) {
+        // JPEG stays JPEG; everything else becomes PNG to keep transparency
+        String extension = FilenameUtils.getExtension(sourceName).toLowerCase(Locale.ROOT);
+        String format = extension.equals("jpg") || extension.equals("jpeg") ? "jpg" : "png";
+        return sha1(sourceKey + "|" + version) + "-w" + width + "." + format;
+    }
+
+    private static int[] parseWidths(String value) {
+        try {
+            int[] widths = Arrays.stream(value.split(","))
+                    .map(String::trim)
+                    .filter(s -> !s.isEmpty())
+                    .mapToInt(Integer::parseInt)
+                    .filter(w -> w > 0)
+                    .sorted()
+                    .distinct()
+                    .toArray();
+            if (widths.length > 0) {
+                return widths;
+            }
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid thumbnails.widths '" + value + "', using defaults");
+        }
+        return new int[] {64, 256, 1024};
+    }
+
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+
+import jcifs.smb.SmbFile;
+
+/**
+ * Size-bounded local disk cache for files read from the SMB share.
+ *
+ * Entries are keyed by SMB path and hold the last-modified time they were
+ * loaded at; a changed file on the share is loaded again. Eviction is LRU by
+ * total bytes. Concurrent misses on the same path share one SMB read, so a
+ * burst of requests for the same quiz image reaches the NAS once.
+ *
+ * Tunables (system properties): smb.cache.dir, smb.cache.maxBytes,
+ * smb.cache.maxEntryBytes and smb.cache.validateMs.
+ */
+public class SmbFileCache {
+
+    private static final Logger logger = Logger.getLogger(SmbFileCache.class.getName());
+
+    private static final Path CACHE_DIR = Paths.get(System.getProperty("smb.cache.dir",
+            System.getProperty("java.io.tmpdir") + File.separator + "fstudymate-smb-cache"));
+    private static final long MAX_CACHE_BYTES = Long.getLong("smb.cache.maxBytes", 1024L * 1024 * 1024);
+    private static final long MAX_ENTRY_BYTES = Long.getLong("smb.cache.maxEntryBytes", 64L * 1024 * 1024);
+
+    // How long a cached entry is trusted before its last-modified time is checked on the share again
+    private static final long VALIDATE_INTERVAL_MS = Long.getLong("smb.cache.validateMs", 5000);
+
+    // Access-ordered, so iteration starts at the least recently used entry; guarded by itself
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private static long totalBytes = 0;
+
+    // Loads in progress, keyed like entries; later callers wait on the first one's future
+    private static final ConcurrentHashMap<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static final LongAdder invalidations = new LongAdder();
+    private static final LongAdder loadFailures = new LongAdder();
+    private static final LongAdder bypassed = new LongAdder();
+    private static final LongAdder bytesLoaded = new LongAdder();
+
+    static {
+        try {
+            Files.createDirectories(CACHE_DIR);
+            // Files left by a previous run are not in the index; start empty
+            File[] leftovers = CACHE_DIR.toFile().listFiles();
+            if (leftovers != null) {
+                for (File leftover : leftovers) {
+                    leftover.delete();
+                }
+            }
+            logger.info("SMB file cache at " + CACHE_DIR + ", limit " + MAX_CACHE_BYTES + " bytes");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not prepare SMB cache directory " + CACHE_DIR + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Whether a file of this size is kept in the cache. Larger files should be
+     * streamed from the share directly.
+     */
+    public static boolean isCacheable(long length) {
+        return length <= MAX_ENTRY_BYTES;
+    }
+
+    /**
+     * Returns a local copy of a file on the share, loading it on a miss.
+     * A recently validated entry is returned without contacting the share.
+     * Files over the per-entry limit are copied to an uncached temp file instead.
+     *
+     * @param filePath path relative to the SMB share
+     * @return local cached file; treat as read-only
+     * @throws FileNotFoundException if the file does not exist on the share
+     * @throws IOException if the file cannot be loaded
+     */
+    public static File getFile(String filePath) throws IOException {
+        String key = FileStorageService.SMB_BASE_PATH + filePath;
+        Entry entry = lookup(key);
+        if (entry != null && System.currentTimeMillis() - entry.validatedAt < VALIDATE_INTERVAL_MS
+                && entry.file.exists()) {
+            hits.increment();
+            return entry.file;
+        }
+        File file = load(key, () -> FileStorageService.openFile(filePath));
+        if (file == null) {
+            bypassed.increment();
+            return FileStorageService.downloadFile(filePath);
+        }
+        return file;
+    }
+
+    /**
+     * Returns a local copy of an already opened SMB file, loading it on a miss.
+     *
+     * @param smbFile file opened with {@link FileStorageService#openFile(String)}
+     * @return local cached file; treat as read-only
+     * @throws IOException if the file is too large to cache or cannot be loaded
+     */
+    public static File getFile(SmbFile smbFile) throws IOException {
+        String key = smbFile.getPath();
+        Entry entry = lookup(key);
+        if (entry != null && entry.lastModified == smbFile.lastModified() && entry.file.exists()) {
+            entry.validatedAt = System.currentTimeMillis();
+            hits.increment();
+            return entry.file;
+        }
+        File file = load(key, () -> smbFile);
+        if (file == null) {
+            throw new IOException("File too large for cache: " + smbFile.length() + " bytes");
+        }
+        return file;
+    }
+
+    /**
+     * Drops the cached copy of a file, e.g. after it was deleted or overwritten.
+     *
+     * @param filePath path relative to the SMB share
+     */
+    public static void invalidate(String filePath) {
+        Entry removed;
+        synchronized (entries) {
+            removed = entries.remove(FileStorageService.SMB_BASE_PATH + filePath);
+            if (removed != null) {
+                totalBytes -= removed.size;
+            }
+        }
+        if (removed != null) {
+            invalidations.increment();
+            removed.file.delete();
+        }
+    }
+
+    /**
+     * Snapshot of the cache counters, for monitoring.
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum() + coalesced.sum();
+        long missCount = misses.sum();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", totalBytes);
+        }
+        stats.put("maxBytes", MAX_CACHE_BYTES);
+        stats.put("maxEntryBytes", MAX_ENTRY_BYTES);
+        stats.put("hits", hits.sum());
+        stats.put("coalescedLoads", coalesced.sum());
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : hitCount / (double) (hitCount + missCount));
+        stats.put("evictions", evictions.sum());
+        stats.put("invalidations", invalidations.sum());
+        stats.put("loadFailures", loadFailures.sum());
+        stats.put("bypassed", bypassed.sum());
+        stats.put("bytesLoaded", bytesLoaded.sum());
+        stats.put("inFlight", inFlight.size());
+        return stats;
+    }
+
+    @FunctionalInterface
+    private interface SmbOpener {
+        SmbFile open() throws IOException;
+    }
+
+    // Returns null when the file is over the per-entry limit
+    private static File load(String key, SmbOpener opener) throws IOException {
+        CompletableFuture<File> flight = new CompletableFuture<>();
+        CompletableFuture<File> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+
+        try {
+            File file = validateOrLoad(key, opener.open());
+            flight.complete(file);
+            return file;
+        } catch (IOException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static File validateOrLoad(String key, SmbFile smbFile) throws IOException {
+        long lastModified = smbFile.lastModified();
+        Entry entry = lookup(key);
+        if (entry != null && entry.lastModified == lastModified && entry.file.exists()) {
+            entry.validatedAt = System.currentTimeMillis();
+            hits.increment();
+            return entry.file;
+        }
+
+        if (!isCacheable(smbFile.length())) {
+            return null;
+        }
+
+        misses.increment();
+        Path temp = Files.createTempFile(CACHE_DIR, "load-", ".part");
+        try {
+            long copied;
+            try (OutputStream out = new FileOutputStream(temp.toFile())) {
+                copied = FileStorageService.copyFromSmb(smbFile, out);
+            }
+            Path target = CACHE_DIR.resolve(fileName(key, lastModified));
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            bytesLoaded.add(copied);
+
+            Entry loaded = new Entry(target.toFile(), lastModified, copied);
+            insert(key, loaded);
+            return loaded.file;
+        } catch (IOException | RuntimeException e) {
+            loadFailures.increment();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static Entry lookup(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private static void insert(String key, Entry entry) {
+        List<Entry> dropped = new ArrayList<>();
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                totalBytes -= previous.size;
+                if (!previous.file.equals(entry.file)) {
+                    dropped.add(previous);
+                }
+                invalidations.increment();
+            }
+            totalBytes += entry.size;
+
+            Iterator<Entry> it = entries.values().iterator();
+            while (totalBytes > MAX_CACHE_BYTES && it.hasNext()) {
+                Entry eldest = it.next();
+                if (eldest == entry) {
+                    continue;
+                }
+                it.remove();
+                totalBytes -= eldest.size;
+                dropped.add(eldest);
+                evictions.increment();
+            }
+        }
+        // Readers that already opened an evicted file keep their handle on POSIX filesystems
+        for (Entry e : dropped) {
+            e.file.delete();
+        }
+    }
+
+    private static File await(CompletableFuture<File> flight) throws IOException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for cached file", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to load cached file: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static String fileName(String key, long lastModified) {
+        String extension = FilenameUtils.getExtension(key);
+        return sha1(key) + "-" + Long.toHexString(lastModified) + (extension.isEmpty() ? "" : "." + extension);
+    }
+
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    private static class Entry {
+        final File file;
+        final long lastModified;
+        final long size;
+        volatile long validatedAt;
+
+        Entry(File file, long lastModified, long size) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.validatedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package util;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+
+import jcifs.CIFSContext;
+import jcifs.smb.SmbFile;
+
+/**
+ * In-memory usage totals (bytes and file counts per file type) for the
+ * top-level directories of the SMB share.
+ *
+ * A directory is indexed once {@link #track(String)} has been called for it.
+ * {@link #rebuild(String)} walks it and replaces its totals. Between walks,
+ * FileStorageService reports every upload, move and delete, so the totals
+ * stay current without touching the share. Changes made outside the
+ * application, or racing with a walk, are picked up by the next rebuild.
+ */
+public class StorageUsageIndex {
+
+    private static final Logger logger = Logger.getLogger(StorageUsageIndex.class.getName());
+
+    private static final int MAX_SCAN_DEPTH = Integer.getInteger("storage.index.maxDepth", 10);
+
+    /**
+     * File types reported on the storage dashboard
+     */
+    public enum FileCategory {
+        IMAGES("images"), VIDEOS("videos"), DOCUMENTS("documents"), OTHER("other");
+
+        private final String key;
+
+        FileCategory(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Name of the category in dashboard responses
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public static FileCategory of(String fileName) {
+            String extension = FilenameUtils.getExtension(fileName).toLowerCase(Locale.ROOT);
+            switch (extension) {
+                case "jpg": case "jpeg": case "png": case "gif": case "bmp": case "webp": case "svg": case "heic":
+                    return IMAGES;
+                case "mp4": case "mov": case "avi": case "mkv": case "webm": case "wmv": case "m4v":
+                    return VIDEOS;
+                case "pdf": case "doc": case "docx": case "xls": case "xlsx": case "ppt": case "pptx":
+                case "txt": case "md": case "rtf": case "csv": case "odt": case "ods": case "odp":
+                    return DOCUMENTS;
+                default:
+                    return OTHER;
+            }
+        }
+    }
+
+    private static final Map<String, ShareState> shares = new ConcurrentHashMap<>();
+
+    // Free space on the share from the last walk, or -1 if unknown
+    private static volatile long diskFreeSpace = -1;
+
+    /**
+     * Starts indexing a top-level directory; it is empty until its first rebuild
+     */
+    public static void track(String share) {
+        shares.computeIfAbsent(share, s -> new ShareState());
+    }
+
+    /**
+     * Whether uploads and deletes at this path are counted
+     */
+    public static boolean tracks(String path) {
+        return stateOf(path) != null;
+    }
+
+    /**
+     * Counts a file written at {@code path}
+     */
+    public static void recordAdded(String path, long size) {
+        ShareState state = stateOf(path);
+        if (state != null) {
+            state.counters.add(FileCategory.of(path), size, 1);
+        }
+    }
+
+    /**
+     * Counts a file written at {@code path} over an existing file of
+     * {@code replacedSize} bytes, or as a new file if that is negative
+     */
+    public static void recordWritten(String path, long replacedSize, long size) {
+        if (replacedSize < 0) {
+            recordAdded(path, size);
+            return;
+        }
+        ShareState state = stateOf(path);
+        if (state != null) {
+            state.counters.add(FileCategory.of(path), size - replacedSize, 0);
+        }
+    }
+
+    /**
+     * Uncounts a file deleted from {@code path}
+     */
+    public static void recordRemoved(String path, long size) {
+        ShareState state = stateOf(path);
+        if (state != null) {
+            state.counters.add(FileCategory.of(path), -size, -1);
+        }
+    }
+
+    /**
+     * Marks the directory holding {@code path} as inaccurate until its next
+     * rebuild, for changes whose size is unknown (such as a directory delete)
+     */
+    public static void markStale(String path) {
+        ShareState state = stateOf(path);
+        if (state != null) {
+            state.dirty = true;
+        }
+    }
+
+    /**
+     * Walks a tracked directory and replaces its totals
+     *
+     * @return the new usage of the directory
+     * @throws IOException if the directory cannot be listed
+     */
+    public static Usage rebuild(String share) throws IOException {
+        ShareState state = shares.computeIfAbsent(share, s -> new ShareState());
+        long startTime = System.currentTimeMillis();
+        Counters counters = new Counters();
+        long directories = 0;
+
+        CIFSContext context = CIFSContextUtil.createContext();
+        SmbFile root = new SmbFile(FileStorageService.SMB_BASE_PATH + share + "/", context);
+        if (root.exists()) {
+            Deque<SmbFile> pending = new ArrayDeque<>();
+            Deque<Integer> depths = new ArrayDeque<>();
+            pending.push(root);
+            depths.push(0);
+            while (!pending.isEmpty()) {
+                SmbFile dir = pending.pop();
+                int depth = depths.pop();
+                SmbFile[] files;
+                try {
+                    files = dir.listFiles();
+                } catch (IOException e) {
+                    logger.warning("Error listing " + dir.getPath() + ": " + e.getMessage());
+                    continue;
+                }
+                for (SmbFile file : files) {
+                    String name = file.getName();
+                    if (name.startsWith(".") || name.equals("System Volume Information/")) {
+                        continue;
+                    }
+                    if (file.isDirectory()) {
+                        directories++;
+                        if (depth + 1 < MAX_SCAN_DEPTH) {
+                            pending.push(file);
+                            depths.push(depth + 1);
+                        }
+                    } else {
+                        counters.add(FileCategory.of(name), file.length(), 1);
+                    }
+                }
+            }
+            try {
+                diskFreeSpace = root.getDiskFreeSpace();
+            } catch (IOException e) {
+                logger.fine("Free space not available: " + e.getMessage());
+            }
+        }
+
+        long endTime = System.currentTimeMillis();
+        state.counters = counters;
+        state.directories = directories;
+        state.lastRefreshed = endTime;
+        state.scanDurationMs = endTime - startTime;
+        state.dirty = false;
+        logger.info("Indexed storage usage of " + share + " in " + (endTime - startTime) + " ms");
+        return state.snapshot(share);
+    }
+
+    /**
+     * Current usage of a tracked directory
+     *
+     * @return the usage, or null if the directory is not tracked
+     */
+    public static Usage getUsage(String share) {
+        ShareState state = shares.get(share);
+        return state != null ? state.snapshot(share) : null;
+    }
+
+    /**
+     * Free space on the share as of the last walk, or -1 if unknown
+     */
+    public static long getDiskFreeSpace() {
+        return diskFreeSpace;
+    }
+
+    private static ShareState stateOf(String path) {
+        if (path == null) {
+            return null;
+        }
+        int slash = path.indexOf('/');
+        return shares.get(slash >= 0 ? path.substring(0, slash) : path);
+    }
+
+    private static class Counters {
+        private final Map<FileCategory, LongAdder> bytes = new EnumMap<>(FileCategory.class);
+        private final Map<FileCategory, LongAdder> files = new EnumMap<>(FileCategory.class);
+
+        Counters() {
+            for (FileCategory category : FileCategory.values()) {
+                bytes.put(category, new LongAdder());
+                files.put(category, new LongAdder());
+            }
+        }
+
+        void add(FileCategory category, long size, int count) {
+            bytes.get(category).add(size);
+            files.get(category).add(count);
+        }
+    }
+
+    private static class ShareState {
+        // Replaced wholesale by a rebuild; updates racing with the swap are lost until the next one
+        private volatile Counters counters = new Counters();
+        private volatile long directories;
+        private volatile long lastRefreshed;
+        private volatile long scanDurationMs;
+        private volatile boolean dirty;
+
+        Usage snapshot(String share) {
+            Counters current = counters;
+            Map<FileCategory, Long> bytes = new EnumMap<>(FileCategory.class);
+            Map<FileCategory, Long> files = new EnumMap<>(FileCategory.class);
+            for (FileCategory category : FileCategory.values()) {
+                bytes.put(category, Math.max(0, current.bytes.get(category).sum()));
+                files.put(category, Math.max(0, current.files.get(category).sum()));
+            }
+            return new Usage(share, bytes, files, directories, lastRefreshed, scanDurationMs, dirty);
+        }
+    }
+
+    /**
+     * Point-in-time usage of one top-level directory
+     */
+    public static class Usage {
+        private final String share;
+        private final Map<FileCategory, Long> bytes;
+        private final Map<FileCategory, Long> files;
+        private final long directories;
+        private final long lastRefreshed;
+        private final long scanDurationMs;
+        private final boolean dirty;
+
+        Usage(String share, Map<FileCategory, Long> bytes, Map<FileCategory, Long> files,
+              long directories, long lastRefreshed, long scanDurationMs, boolean dirty) {
+            this.share = share;
+            this.bytes = Collections.unmodifiableMap(bytes);
+            this.files = Collections.unmodifiableMap(files);
+            this.directories = directories;
+            this.lastRefreshed = lastRefreshed;
+            this.scanDurationMs = scanDurationMs;
+            this.dirty = dirty;
+        }
+
+        public String getShare() {
+            return share;
+        }
+
+        public long getTotalBytes() {
+            return bytes.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public long getTotalFiles() {
+            return files.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public Map<FileCategory, Long> getBytesByCategory() {
+            return bytes;
+        }
+
+        public Map<FileCategory, Long> getFilesByCategory() {
+            return files;
+        }
+
+        public long getDirectories() {
+            return directories;
+        }
+
+        /**
+         * When the last walk finished, in epoch millis; 0 if the directory was never walked
+         */
+        public long getLastRefreshed() {
+            return lastRefreshed;
+        }
+
+        public long getScanDurationMs() {
+            return scanDurationMs;
+        }
+
+        /**
+         * Whether a change of unknown size happened since the last walk
+         */
+        public boolean isDirty() {
+            return dirty;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package util;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import jcifs.CIFSContext;
+import jcifs.smb.SmbFile;
+
+/**
+ * In-memory index of which file exists for each student ID.
+ *
+ * Looking up a student image used to probe a dozen local directories and up
+ * to fifteen extensions on the share for every request. The index lists
+ * those directories once and maps each student ID to the file that lookup
+ * would have found: local copies first, then the share, preferring .png.
+ * It also keeps each file's size and modification time, so ETags are ready
+ * before anything is read. Student IDs are matched case-insensitively, like
+ * the share itself.
+ *
+ * The index is rebuilt every {@code studentImages.indexRefreshMs}. A miss
+ * triggers a rebuild at most every {@code studentImages.missRefreshMs}, so
+ * new images show up without probing the share on every unknown ID.
+ * Rebuilds run in the background while lookups keep using the previous
+ * index; only the very first build, with nothing to serve yet, is waited for.
+ */
+public class StudentImageIndex {
+
+    private static final Logger logger = Logger.getLogger(StudentImageIndex.class.getName());
+
+    private static final long REFRESH_MS = Long.getLong("studentImages.indexRefreshMs", 10 * 60 * 1000L);
+    private static final long MISS_REFRESH_MS = Long.getLong("studentImages.missRefreshMs", 60 * 1000L);
+
+    private static final String STUDENT_IMAGES_DIR = "StudentImages";
+
+    // In order of preference
+    private static final String[] EXTENSIONS = {".png", ".jpg", ".jpeg", ".gif", ".webp", ".bmp", ".svg",
+                                                ".glb", ".gltf", ".obj", ".pdf", ".doc", ".docx", ".xls", ".xlsx"};
+
+    // Local copies take precedence over the share (for Docker environments), in this order
+    private static final String[] LOCAL_DIRS = {
+        "/app/student-images",
+        "/var/lib/student-images",
+        System.getProperty("user.home") + "/student-images",
+        "src/main/resources/static/StudentImages",
+        "src/main/webapp/StudentImages",
+        "public/StudentImages",
+        "/app/student-files",
+        "/var/lib/student-files",
+        System.getProperty("user.home") + "/student-files",
+        "src/main/resources/static/StudentFiles",
+        "src/main/webapp/StudentFiles",
+        "public/StudentFiles"
+    };
+
+    private static volatile Map<String, Entry> entries = Collections.emptyMap();
+    private static volatile long builtAt;
+    private static final Object buildLock = new Object();
+    private static final AtomicBoolean rebuilding = new AtomicBoolean(false);
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "student-image-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Finds the file for a student ID
+     *
+     * @param studentId sanitized student ID (e.g., DE180045), in any case
+     * @return the indexed file, or null if there is none (yet)
+     */
+    public static Entry find(String studentId) {
+        String key = key(studentId);
+        Entry entry = ensureFresh(REFRESH_MS).get(key);
+        if (entry == null) {
+            entry = ensureFresh(MISS_REFRESH_MS).get(key);
+        }
+        if (entry != null && entry.isLocal() && !entry.getLocalFile().isFile()) {
+            invalidate();
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Forces a rebuild on the next lookup
+     */
+    public static void invalidate() {
+        builtAt = 0;
+    }
+
+    private static Map<String, Entry> ensureFresh(long maxAgeMs) {
+        if (System.currentTimeMillis() - builtAt <= maxAgeMs) {
+            return entries;
+        }
+        if (builtAt == 0 && entries.isEmpty()) {
+            // Nothing to serve yet; wait for the first build
+            synchronized (buildLock) {
+                if (builtAt == 0) {
+                    rebuild();
+                }
+            }
+        } else if (rebuilding.compareAndSet(false, true)) {
+            // Requests keep using the previous index meanwhile
+            try {
+                refresher.execute(() -> {
+                    try {
+                        rebuild();
+                    } catch (RuntimeException e) {
+                        logger.warning("Error rebuilding student image index: " + e.getMessage());
+                    } finally {
+                        rebuilding.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rebuilding.set(false);
+            }
+        }
+        return entries;
+    }
+
+    private static void rebuild() {
+        long startTime = System.currentTimeMillis();
+        Map<String, Entry> index = new HashMap<>();
+
+        for (String dir : LOCAL_DIRS) {
+            File[] files = new File(dir).listFiles(File::isFile);
+            if (files == null) {
+                continue;
+            }
+            Map<String, Entry> found = new HashMap<>();
+            for (File file : files) {
+                int rank = extensionRank(file.getName());
+                if (rank >= 0 && file.canRead()) {
+                    Entry entry = new Entry(baseName(file.getName()), file.getName(), file, null,
+                            file.length(), file.lastModified(), rank);
+                    found.merge(key(entry.getStudentId()), entry, StudentImageIndex::preferred);
+                }
+            }
+            found.forEach(index::putIfAbsent);
+        }
+
+        boolean listed = false;
+        try {
+            CIFSContext context = CIFSContextUtil.createContext();
+            SmbFile dir = new SmbFile(FileStorageService.SMB_BASE_PATH + STUDENT_IMAGES_DIR + "/", context);
+            Map<String, Entry> found = new HashMap<>();
+            for (SmbFile file : dir.listFiles()) {
+                int rank = extensionRank(file.getName());
+                if (rank >= 0 && !file.isDirectory()) {
+                    Entry entry = new Entry(baseName(file.getName()), file.getName(), null,
+                            STUDENT_IMAGES_DIR + "/" + file.getName(), file.length(), file.lastModified(), rank);
+                    found.merge(key(entry.getStudentId()), entry, StudentImageIndex::preferred);
+                }
+            }
+            found.forEach(index::putIfAbsent);
+            listed = true;
+        } catch (Exception e) {
+            logger.warning("Error listing student images on SMB, keeping previous entries: " + e.getMessage());
+            for (Entry entry : entries.values()) {
+                if (!entry.isLocal()) {
+                    index.putIfAbsent(key(entry.getStudentId()), entry);
+                }
+            }
+        }
+
+        entries = index;
+        // Retry a failed listing on the next miss rather than waiting a full refresh
+        builtAt = listed ? System.currentTimeMillis() : System.currentTimeMillis() - REFRESH_MS + MISS_REFRESH_MS;
+        logger.info("Indexed " + index.size() + " student files in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private static String key(String studentId) {
+        return studentId.toLowerCase(Locale.ROOT);
+    }
+
+    private static Entry preferred(Entry a, Entry b) {
+        return a.rank <= b.rank ? a : b;
+    }
+
+    private static int extensionRank(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < EXTENSIONS.length; i++) {
+            if (lower.endsWith(EXTENSIONS[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String baseName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    /**
+     * The file indexed for one student ID
+     */
+    public static class Entry {
+        private final String studentId;
+        private final String fileName;
+        private final File localFile;
+        private final String smbPath;
+        private final long length;
+        private final long lastModified;
+        private final String etag;
+        private final int rank;
+
+        Entry(String studentId, String fileName, File localFile, String smbPath,
+              long length, long lastModified, int rank) {
+            this.studentId = studentId;
+            this.fileName = fileName;
+            this.localFile = localFile;
+            this.smbPath = smbPath;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+            this.rank = rank;
+        }
+
+        public String getStudentId() {
+            return studentId;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public boolean isLocal() {
+            return localFile != null;
+        }
+
+        /**
+         * The local copy, or null if the file is on the share
+         */
+        public File getLocalFile() {
+            return localFile;
+        }
+
+        /**
+         * Path relative to the SMB share, or null for a local copy
+         */
+        public String getSmbPath() {
+            return smbPath;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Strong ETag derived from the modification time and size
+         */
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
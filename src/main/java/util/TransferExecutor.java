@@ -0,0 +1,391 @@
+package util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Application-wide scheduler for chunked file transfers, plus aggregate
+ * throughput metrics.
+ *
+ * Every parallel transfer runs its chunks on one shared pool of
+ * transfer.threads workers instead of creating its own, so the thread count
+ * stays fixed however many transfers are running. Chunks are admitted through
+ * three limits, taken in this order:
+ * <ul>
+ *   <li>the transfer's own parallelism;</li>
+ *   <li>for transfers started with an owner, a per-owner limit
+ *       (transfer.perOwnerChunks), so one user with several large files
+ *       cannot take every worker;</li>
+ *   <li>a global limit of workers plus transfer.queueSize queued chunks.</li>
+ * </ul>
+ * When the file server is saturated and the global limit is reached,
+ * submitters block for up to transfer.submitTimeoutMs and then fail with an
+ * IOException. Nothing is run on the caller's thread. A chunk gives its
+ * permits back when it finishes, or when it is cancelled before it started.
+ *
+ * On JVM shutdown, new transfers are refused and running chunks get
+ * transfer.shutdownTimeoutMs to finish.
+ */
+public class TransferExecutor {
+
+    private static final Logger logger = Logger.getLogger(TransferExecutor.class.getName());
+
+    private static final int THREADS = Math.max(1, Integer.getInteger("transfer.threads", 8));
+    private static final int QUEUE_SIZE = Math.max(0, Integer.getInteger("transfer.queueSize", 64));
+    private static final int PER_OWNER_CHUNKS = Math.max(1, Integer.getInteger("transfer.perOwnerChunks",
+            Math.max(1, THREADS / 2)));
+    private static final long SUBMIT_TIMEOUT_MS = Long.getLong("transfer.submitTimeoutMs", 120 * 1000L);
+    private static final long SHUTDOWN_TIMEOUT_MS = Long.getLong("transfer.shutdownTimeoutMs", 30 * 1000L);
+
+    // Sliding window for the recent throughput figure, one bucket per second
+    private static final int RATE_WINDOW_SEC = 60;
+
+    private static final ThreadPoolExecutor executor;
+
+    // Running plus queued chunks; fair so blocked submitters are admitted in arrival order
+    private static final Semaphore capacity = new Semaphore(THREADS + QUEUE_SIZE, true);
+    private static final ConcurrentHashMap<String, OwnerState> owners = new ConcurrentHashMap<>();
+    private static volatile boolean shuttingDown = false;
+
+    private static final AtomicInteger inFlightTransfers = new AtomicInteger();
+    private static final LongAdder completedTransfers = new LongAdder();
+    private static final LongAdder failedTransfers = new LongAdder();
+    private static final LongAdder submitTimeouts = new LongAdder();
+    private static final LongAdder totalBytes = new LongAdder();
+    private static final AtomicLongArray bucketBytes = new AtomicLongArray(RATE_WINDOW_SEC);
+    private static final AtomicLongArray bucketSecond = new AtomicLongArray(RATE_WINDOW_SEC);
+    private static final long startedAt = System.currentTimeMillis();
+
+    static {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "file-transfer-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        // Admission is bounded by the capacity semaphore, so the queue itself never fills
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        Runtime.getRuntime().addShutdownHook(new Thread(TransferExecutor::shutdown, "file-transfer-shutdown"));
+        logger.info("File transfer executor started with " + THREADS + " threads, queue " + QUEUE_SIZE
+                + ", " + PER_OWNER_CHUNKS + " chunks per owner");
+    }
+
+    /**
+     * Starts a transfer that is not attributed to any user; only its own
+     * parallelism and the global limit apply.
+     *
+     * @param maxParallel most chunks of this transfer running or queued at once
+     * @return the transfer; close it when done
+     * @throws IOException if the executor is shutting down
+     */
+    public static Transfer begin(int maxParallel) throws IOException {
+        return begin(null, maxParallel);
+    }
+
+    /**
+     * Starts a transfer whose chunks count against {@code owner}'s share of the pool.
+     *
+     * @param owner fairness key, usually the user the transfer runs for (e.g. "user:42"),
+     *        or null for no per-owner limit
+     * @param maxParallel most chunks of this transfer running or queued at once
+     * @return the transfer; close it when done
+     * @throws IOException if the executor is shutting down
+     */
+    public static Transfer begin(String owner, int maxParallel) throws IOException {
+        if (shuttingDown) {
+            throw new IOException("File transfers are shutting down");
+        }
+        OwnerState state = null;
+        if (owner != null) {
+            state = owners.compute(owner, (k, v) -> {
+                OwnerState s = v != null ? v : new OwnerState();
+                s.transfers++;
+                return s;
+            });
+        }
+        inFlightTransfers.incrementAndGet();
+        return new Transfer(owner, state, Math.max(1, maxParallel));
+    }
+
+    /**
+     * Free slots of the global limit; equals {@link #capacity()} when no chunk is running or queued.
+     */
+    static int availableCapacity() {
+        return capacity.availablePermits();
+    }
+
+    /**
+     * Size of the global limit: workers plus queued chunks
+     */
+    static int capacity() {
+        return THREADS + QUEUE_SIZE;
+    }
+
+    /**
+     * Number of pool workers
+     */
+    static int threads() {
+        return THREADS;
+    }
+
+    /**
+     * Adds transferred bytes to the aggregate counters.
+     */
+    public static void recordBytes(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        totalBytes.add(bytes);
+
+        long second = System.currentTimeMillis() / 1000;
+        int idx = (int) (second % RATE_WINDOW_SEC);
+        long bucketSec = bucketSecond.get(idx);
+        if (bucketSec != second && bucketSecond.compareAndSet(idx, bucketSec, second)) {
+            // First write in a new second reuses the bucket; a racing add may be lost, which is fine for metrics
+            bucketBytes.set(idx, 0);
+        }
+        bucketBytes.addAndGet(idx, bytes);
+    }
+
+    /**
+     * Snapshot of transfer throughput and pool load, for monitoring.
+     */
+    public static Map<String, Object> getStats() {
+        long nowSec = System.currentTimeMillis() / 1000;
+        long recentBytes = 0;
+        for (int i = 0; i < RATE_WINDOW_SEC; i++) {
+            if (nowSec - bucketSecond.get(i) < RATE_WINDOW_SEC) {
+                recentBytes += bucketBytes.get(i);
+            }
+        }
+        double uptimeSec = Math.max(1, System.currentTimeMillis() - startedAt) / 1000.0;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlightTransfers", inFlightTransfers.get());
+        stats.put("completedTransfers", completedTransfers.sum());
+        stats.put("failedTransfers", failedTransfers.sum());
+        stats.put("totalBytes", totalBytes.sum());
+        stats.put("bytesPerSecLastMinute", recentBytes / (double) RATE_WINDOW_SEC);
+        stats.put("bytesPerSecSinceStart", totalBytes.sum() / uptimeSec);
+        stats.put("poolThreads", THREADS);
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("queueCapacity", QUEUE_SIZE);
+        stats.put("waitingSubmitters", capacity.getQueueLength());
+        stats.put("submitTimeouts", submitTimeouts.sum());
+        stats.put("activeOwners", owners.size());
+        stats.put("perOwnerChunks", PER_OWNER_CHUNKS);
+        stats.put("completedChunks", executor.getCompletedTaskCount());
+        stats.put("shuttingDown", shuttingDown);
+        return stats;
+    }
+
+    /**
+     * Refuses new transfers and waits up to transfer.shutdownTimeoutMs for
+     * running chunks before interrupting them. Runs from a JVM shutdown hook.
+     */
+    public static void shutdown() {
+        if (shuttingDown) {
+            return;
+        }
+        shuttingDown = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                logger.warning("Interrupting " + executor.getActiveCount() + " file transfer chunks still running");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void acquire(Semaphore semaphore, String what) throws IOException {
+        try {
+            if (!semaphore.tryAcquire(SUBMIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                submitTimeouts.increment();
+                throw new IOException("File server busy: timed out waiting for " + what);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + what, e);
+        }
+    }
+
+    private static class OwnerState {
+        final Semaphore permits = new Semaphore(PER_OWNER_CHUNKS, true);
+        int transfers; // guarded by owners.compute
+    }
+
+    /**
+     * One transfer's chunks. Not thread-safe: submit and await from the thread
+     * that began the transfer.
+     */
+    public static final class Transfer implements AutoCloseable {
+        private final String owner;
+        private final OwnerState ownerState; // null without an owner
+        private final Semaphore local;
+        private final List<Future<?>> futures = new ArrayList<>();
+        private boolean success;
+        private boolean closed;
+
+        private Transfer(String owner, OwnerState ownerState, int maxParallel) {
+            this.owner = owner;
+            this.ownerState = ownerState;
+            this.local = new Semaphore(maxParallel);
+        }
+
+        /**
+         * Queues one chunk, blocking while this transfer, its owner or the
+         * whole pool is at its limit.
+         *
+         * @throws IOException if no slot frees up within transfer.submitTimeoutMs,
+         *         or the executor is shutting down
+         */
+        public <T> Future<T> submit(Callable<T> chunk) throws IOException {
+            acquire(local, "a transfer slot");
+            if (ownerState != null) {
+                try {
+                    acquire(ownerState.permits, "a slot for " + owner);
+                } catch (IOException e) {
+                    local.release();
+                    throw e;
+                }
+            }
+            try {
+                acquire(capacity, "a transfer worker");
+            } catch (IOException e) {
+                if (ownerState != null) {
+                    ownerState.permits.release();
+                }
+                local.release();
+                throw e;
+            }
+
+            Chunk<T> task = new Chunk<>(chunk);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.release();
+                throw new IOException("File transfers are shutting down", e);
+            }
+            futures.add(task);
+            return task;
+        }
+
+        /**
+         * Waits for every submitted chunk, rethrowing the first failure.
+         */
+        public void awaitAll() throws IOException {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for transfer chunks", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("Chunk transfer failed: " + cause.getMessage(), cause);
+                }
+            }
+            success = true;
+        }
+
+        /**
+         * Adds bytes moved by this transfer to the aggregate counters.
+         */
+        public void addBytes(long bytes) {
+            recordBytes(bytes);
+        }
+
+        /**
+         * Cancels chunks that have not finished (after a failure) and releases the owner slot.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            if (owner != null) {
+                owners.computeIfPresent(owner, (k, v) -> --v.transfers == 0 ? null : v);
+            }
+            inFlightTransfers.decrementAndGet();
+            if (success) {
+                completedTransfers.increment();
+            } else {
+                failedTransfers.increment();
+            }
+        }
+
+        /**
+         * A submitted chunk. Its permits are given back exactly once: when it
+         * finishes running, or when it is cancelled before it started and so
+         * never runs.
+         */
+        private final class Chunk<T> extends FutureTask<T> {
+            private final AtomicBoolean released = new AtomicBoolean();
+            private volatile boolean started;
+
+            Chunk(Callable<T> callable) {
+                super(callable);
+            }
+
+            @Override
+            public void run() {
+                started = true;
+                try {
+                    super.run();
+                } finally {
+                    release();
+                }
+            }
+
+            @Override
+            protected void done() {
+                // A chunk cancelled while running releases when it exits
+                if (!started) {
+                    release();
+                }
+            }
+
+            void release() {
+                if (released.compareAndSet(false, true)) {
+                    capacity.release();
+                    if (ownerState != null) {
+                        ownerState.permits.release();
+                    }
+                    local.release();
+                }
+            }
+        }
+    }
+}
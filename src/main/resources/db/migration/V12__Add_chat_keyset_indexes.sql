@@ -0,0 +1,11 @@
+-- Composite indexes backing keyset (cursor) pagination of chat history.
+-- Each page seeks to (created_at, id) < cursor inside one conversation or
+-- group, so the cost no longer grows with how far back the user scrolls.
+
+-- Direct messages: one index range per direction of the conversation
+ALTER TABLE `chat_messages`
+  ADD KEY `idx_chat_messages_pair_created` (`sender_id`, `receiver_id`, `created_at`, `id`);
+
+-- Group messages
+ALTER TABLE `group_chat_messages`
+  ADD KEY `idx_group_chat_messages_group_created` (`group_id`, `created_at`, `id`);
@@ -0,0 +1,38 @@
+-- Per-(user, partner) inbox summary maintained by ChatDAO on send, delete,
+-- unsend and mark-as-read. Loading the inbox becomes one indexed range scan
+-- instead of a GROUP BY over all of the user's chat_messages.
+CREATE TABLE IF NOT EXISTS `chat_conversations` (
+  `user_id` int(11) NOT NULL,
+  `partner_id` int(11) NOT NULL,
+  `last_message_id` int(11) NOT NULL,
+  `last_message` text NOT NULL,
+  `last_message_sender` int(11) NOT NULL,
+  `last_message_time` timestamp NOT NULL DEFAULT current_timestamp(),
+  `unread_count` int(11) NOT NULL DEFAULT 0,
+  PRIMARY KEY (`user_id`, `partner_id`),
+  KEY `idx_chat_conversations_user_time` (`user_id`, `last_message_time`),
+  CONSTRAINT `chat_conversations_user_fk` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE,
+  CONSTRAINT `chat_conversations_partner_fk` FOREIGN KEY (`partner_id`) REFERENCES `users` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Backfill from existing messages
+INSERT INTO `chat_conversations`
+  (`user_id`, `partner_id`, `last_message_id`, `last_message`, `last_message_sender`, `last_message_time`, `unread_count`)
+SELECT p.user_id, p.partner_id, m.id, m.message, m.sender_id, m.created_at, COALESCE(ur.cnt, 0)
+FROM (
+  SELECT user_id, partner_id, MAX(id) AS last_id
+  FROM (
+    SELECT sender_id AS user_id, receiver_id AS partner_id, id FROM chat_messages
+    UNION ALL
+    SELECT receiver_id AS user_id, sender_id AS partner_id, id FROM chat_messages
+  ) pairs
+  GROUP BY user_id, partner_id
+) p
+JOIN chat_messages m ON m.id = p.last_id
+LEFT JOIN (
+  SELECT receiver_id AS user_id, sender_id AS partner_id, COUNT(*) AS cnt
+  FROM chat_messages
+  WHERE is_read = 0
+  GROUP BY receiver_id, sender_id
+) ur ON ur.user_id = p.user_id AND ur.partner_id = p.partner_id
+ON DUPLICATE KEY UPDATE `last_message_id` = `last_message_id`;
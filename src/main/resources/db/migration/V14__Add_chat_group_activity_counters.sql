@@ -0,0 +1,24 @@
+-- Denormalized activity counters on chat_groups, kept current by ChatDAO
+-- (sendGroupMessage, createCustomChatGroup, addGroupMember, removeGroupMember)
+-- so group lists no longer run correlated COUNT/MAX subqueries per group.
+ALTER TABLE `chat_groups`
+  ADD COLUMN `message_count` int(11) NOT NULL DEFAULT 0,
+  ADD COLUMN `last_activity` timestamp NULL DEFAULT NULL,
+  ADD COLUMN `member_count` int(11) NOT NULL DEFAULT 0,
+  ADD KEY `idx_chat_groups_custom_activity` (`is_custom`, `last_activity`);
+
+-- Backfill from existing rows
+UPDATE `chat_groups` g
+LEFT JOIN (
+  SELECT group_id, COUNT(*) AS cnt, MAX(created_at) AS last_at
+  FROM group_chat_messages
+  GROUP BY group_id
+) m ON m.group_id = g.id
+LEFT JOIN (
+  SELECT group_id, COUNT(*) AS cnt
+  FROM group_members
+  GROUP BY group_id
+) gm ON gm.group_id = g.id
+SET g.message_count = COALESCE(m.cnt, 0),
+    g.last_activity = m.last_at,
+    g.member_count = COALESCE(gm.cnt, 0);
@@ -0,0 +1,21 @@
+-- Content-addressed blob store for uploads. Each distinct file content is
+-- stored once on the share under Blobs/<xx>/<sha256>; chat_files and
+-- learning_materials rows point at it via content_hash, and ref_count tracks
+-- how many rows do. ContentBlobDAO deletes the blob with its last reference.
+-- Rows with a NULL content_hash keep their own file, as before.
+CREATE TABLE IF NOT EXISTS `content_blobs` (
+  `sha256` char(64) NOT NULL,
+  `blob_path` varchar(500) NOT NULL,
+  `file_size` bigint(20) NOT NULL,
+  `ref_count` int(11) NOT NULL DEFAULT 0,
+  `created_at` timestamp NOT NULL DEFAULT current_timestamp(),
+  PRIMARY KEY (`sha256`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+ALTER TABLE `chat_files`
+  ADD COLUMN `content_hash` char(64) DEFAULT NULL,
+  ADD KEY `idx_chat_files_content_hash` (`content_hash`);
+
+ALTER TABLE `learning_materials`
+  ADD COLUMN `content_hash` char(64) DEFAULT NULL,
+  ADD KEY `idx_learning_materials_content_hash` (`content_hash`);
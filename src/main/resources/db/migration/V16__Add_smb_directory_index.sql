@@ -0,0 +1,16 @@
+-- Per-directory fingerprints recorded by SambaSyncService. A directory whose
+-- listing (names, sizes, modification times) hashes to the stored fingerprint
+-- needs no database work, and on incremental runs a subdirectory whose
+-- modification time is unchanged is not walked at all.
+-- path_hash is SHA1(dir_path), since dir_path is too long to be a key.
+CREATE TABLE IF NOT EXISTS `smb_directory_index` (
+  `subject_id` int(11) NOT NULL,
+  `path_hash` char(40) NOT NULL,
+  `dir_path` varchar(1024) NOT NULL,
+  `last_modified` bigint(20) NOT NULL,
+  `fingerprint` char(40) NOT NULL,
+  `entry_count` int(11) NOT NULL DEFAULT 0,
+  `last_scanned_at` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),
+  PRIMARY KEY (`subject_id`, `path_hash`),
+  CONSTRAINT `fk_smb_directory_index_subject` FOREIGN KEY (`subject_id`) REFERENCES `Subjects` (`ID`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
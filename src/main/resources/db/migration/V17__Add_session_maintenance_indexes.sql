@@ -0,0 +1,8 @@
+-- Indexes for the set-based session maintenance in UserActivityService.
+-- Device details are looked up and de-duplicated per session, newest first.
+ALTER TABLE `user_activity_details`
+  ADD KEY `idx_user_activity_details_session_created` (`session_id`, `created_at`, `id`);
+
+-- Expiry marking and cleanup select sessions by expiry time.
+ALTER TABLE `user_sessions`
+  ADD KEY `idx_user_sessions_expiry` (`expiry_time`, `is_expired`);
@@ -0,0 +1,30 @@
+-- Hourly and daily session rollups maintained by SessionRollupService.
+-- One row per bucket, user role and device class ('mobile', 'desktop',
+-- 'unknown'), plus a row with role = device = 'all' for the bucket total
+-- (active users are distinct users, so they cannot be summed across rows).
+--   logins         sessions created in the bucket
+--   active_users   distinct users with a session open during the bucket
+--   total_duration summed duration of the sessions created in the bucket
+-- Buckets are recomputed while their sessions can still change and are
+-- final afterwards, so the admin dashboards no longer read user_sessions.
+CREATE TABLE IF NOT EXISTS `session_rollups_daily` (
+  `bucket_start` datetime NOT NULL,
+  `role` varchar(32) NOT NULL,
+  `device` varchar(16) NOT NULL,
+  `logins` int(11) NOT NULL DEFAULT 0,
+  `active_users` int(11) NOT NULL DEFAULT 0,
+  `total_duration` bigint(20) NOT NULL DEFAULT 0,
+  `updated_at` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),
+  PRIMARY KEY (`bucket_start`, `role`, `device`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS `session_rollups_hourly` (
+  `bucket_start` datetime NOT NULL,
+  `role` varchar(32) NOT NULL,
+  `device` varchar(16) NOT NULL,
+  `logins` int(11) NOT NULL DEFAULT 0,
+  `active_users` int(11) NOT NULL DEFAULT 0,
+  `total_duration` bigint(20) NOT NULL DEFAULT 0,
+  `updated_at` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),
+  PRIMARY KEY (`bucket_start`, `role`, `device`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -0,0 +1,10 @@
+-- Progress of SessionRollupService, kept across restarts.
+--   backfilled        when the first full backfill completed
+--   finalized_before  sessions last active before this are final in the rollups
+--                     and may be deleted without changing them
+CREATE TABLE IF NOT EXISTS `session_rollup_state` (
+  `name` varchar(32) NOT NULL,
+  `value_time` datetime DEFAULT NULL,
+  `updated_at` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
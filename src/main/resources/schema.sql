@@ -287,8 +287,10 @@ CREATE TABLE `chat_files` (
   `upload_date` timestamp NOT NULL DEFAULT current_timestamp(),
   `uploader_id` int(11) NOT NULL,
   `is_deleted` tinyint(1) DEFAULT 0,
+  `content_hash` char(64) DEFAULT NULL,
   PRIMARY KEY (`id`),
   KEY `idx_chat_files_uploader` (`uploader_id`),
+  KEY `idx_chat_files_content_hash` (`content_hash`),
   CONSTRAINT `chat_files_ibfk_1` FOREIGN KEY (`uploader_id`) REFERENCES `users` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB AUTO_INCREMENT=90 DEFAULT CHARSET=utf8mb4;
 /*!40101 SET character_set_client = @saved_cs_client */;
@@ -308,14 +310,40 @@ CREATE TABLE `chat_groups` (
   `is_custom` tinyint(1) DEFAULT 0,
   `creator_id` int(11) DEFAULT NULL,
   `image_path` varchar(255) DEFAULT NULL,
+  `message_count` int(11) NOT NULL DEFAULT 0,
+  `last_activity` timestamp NULL DEFAULT NULL,
+  `member_count` int(11) NOT NULL DEFAULT 0,
   PRIMARY KEY (`id`),
   UNIQUE KEY `class_id` (`class_id`),
+  KEY `idx_chat_groups_custom_activity` (`is_custom`,`last_activity`),
   KEY `idx_chat_groups_class_id` (`class_id`),
   KEY `idx_chat_groups_creator_id` (`creator_id`),
   CONSTRAINT `chat_groups_creator_fk` FOREIGN KEY (`creator_id`) REFERENCES `users` (`id`) ON DELETE SET NULL
 ) ENGINE=InnoDB AUTO_INCREMENT=30 DEFAULT CHARSET=utf8mb4;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
+--
+-- Table structure for table `chat_conversations`
+--
+
+DROP TABLE IF EXISTS `chat_conversations`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `chat_conversations` (
+  `user_id` int(11) NOT NULL,
+  `partner_id` int(11) NOT NULL,
+  `last_message_id` int(11) NOT NULL,
+  `last_message` text NOT NULL,
+  `last_message_sender` int(11) NOT NULL,
+  `last_message_time` timestamp NOT NULL DEFAULT current_timestamp(),
+  `unread_count` int(11) NOT NULL DEFAULT 0,
+  PRIMARY KEY (`user_id`,`partner_id`),
+  KEY `idx_chat_conversations_user_time` (`user_id`,`last_message_time`),
+  CONSTRAINT `chat_conversations_user_fk` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE,
+  CONSTRAINT `chat_conversations_partner_fk` FOREIGN KEY (`partner_id`) REFERENCES `users` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `chat_message_files`
 --
@@ -354,6 +382,7 @@ CREATE TABLE `chat_messages` (
   KEY `idx_chat_messages_sender` (`sender_id`),
   KEY `idx_chat_messages_receiver` (`receiver_id`),
   KEY `idx_chat_messages_created_at` (`created_at`),
+  KEY `idx_chat_messages_pair_created` (`sender_id`,`receiver_id`,`created_at`,`id`),
   CONSTRAINT `chat_messages_ibfk_1` FOREIGN KEY (`sender_id`) REFERENCES `users` (`id`) ON DELETE CASCADE,
   CONSTRAINT `chat_messages_ibfk_2` FOREIGN KEY (`receiver_id`) REFERENCES `users` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB AUTO_INCREMENT=73 DEFAULT CHARSET=utf8mb4;
@@ -444,6 +473,23 @@ CREATE TABLE `classes` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
+--
+-- Table structure for table `content_blobs`
+--
+
+DROP TABLE IF EXISTS `content_blobs`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `content_blobs` (
+  `sha256` char(64) NOT NULL,
+  `blob_path` varchar(500) NOT NULL,
+  `file_size` bigint(20) NOT NULL,
+  `ref_count` int(11) NOT NULL DEFAULT 0,
+  `created_at` timestamp NOT NULL DEFAULT current_timestamp(),
+  PRIMARY KEY (`sha256`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `event_participants`
 --
@@ -564,6 +610,7 @@ CREATE TABLE `group_chat_messages` (
   PRIMARY KEY (`id`),
   KEY `idx_group_chat_messages_group_id` (`group_id`),
   KEY `idx_group_chat_messages_sender_id` (`sender_id`),
+  KEY `idx_group_chat_messages_group_created` (`group_id`,`created_at`,`id`),
   CONSTRAINT `group_chat_messages_ibfk_1` FOREIGN KEY (`group_id`) REFERENCES `chat_groups` (`id`) ON DELETE CASCADE,
   CONSTRAINT `group_chat_messages_ibfk_2` FOREIGN KEY (`sender_id`) REFERENCES `users` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB AUTO_INCREMENT=147 DEFAULT CHARSET=utf8mb4;
@@ -662,8 +709,10 @@ CREATE TABLE `learning_materials` (
   `is_directory` tinyint(1) NOT NULL DEFAULT 0,
   `parent_path` varchar(1024) DEFAULT NULL,
   `description` text DEFAULT NULL,
+  `content_hash` char(64) DEFAULT NULL,
   PRIMARY KEY (`id`),
   KEY `fk_learning_material_user` (`uploaded_by`),
+  KEY `idx_learning_materials_content_hash` (`content_hash`),
   KEY `idx_learning_material_subject` (`subject_id`),
   KEY `idx_learning_material_parent_path` (`parent_path`(255)),
   KEY `idx_learning_material_file_name` (`file_name`),
@@ -969,6 +1018,79 @@ CREATE TABLE `rooms` (
 ) ENGINE=InnoDB AUTO_INCREMENT=171 DEFAULT CHARSET=utf8mb4;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
+--
+-- Table structure for table `session_rollup_state`
+--
+
+DROP TABLE IF EXISTS `session_rollup_state`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `session_rollup_state` (
+  `name` varchar(32) NOT NULL,
+  `value_time` datetime DEFAULT NULL,
+  `updated_at` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `session_rollups_daily`
+--
+
+DROP TABLE IF EXISTS `session_rollups_daily`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `session_rollups_daily` (
+  `bucket_start` datetime NOT NULL,
+  `role` varchar(32) NOT NULL,
+  `device` varchar(16) NOT NULL,
+  `logins` int(11) NOT NULL DEFAULT 0,
+  `active_users` int(11) NOT NULL DEFAULT 0,
+  `total_duration` bigint(20) NOT NULL DEFAULT 0,
+  `updated_at` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),
+  PRIMARY KEY (`bucket_start`,`role`,`device`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `session_rollups_hourly`
+--
+
+DROP TABLE IF EXISTS `session_rollups_hourly`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `session_rollups_hourly` (
+  `bucket_start` datetime NOT NULL,
+  `role` varchar(32) NOT NULL,
+  `device` varchar(16) NOT NULL,
+  `logins` int(11) NOT NULL DEFAULT 0,
+  `active_users` int(11) NOT NULL DEFAULT 0,
+  `total_duration` bigint(20) NOT NULL DEFAULT 0,
+  `updated_at` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),
+  PRIMARY KEY (`bucket_start`,`role`,`device`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `smb_directory_index`
+--
+
+DROP TABLE IF EXISTS `smb_directory_index`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `smb_directory_index` (
+  `subject_id` int(11) NOT NULL,
+  `path_hash` char(40) NOT NULL,
+  `dir_path` varchar(1024) NOT NULL,
+  `last_modified` bigint(20) NOT NULL,
+  `fingerprint` char(40) NOT NULL,
+  `entry_count` int(11) NOT NULL DEFAULT 0,
+  `last_scanned_at` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),
+  PRIMARY KEY (`subject_id`,`path_hash`),
+  CONSTRAINT `fk_smb_directory_index_subject` FOREIGN KEY (`subject_id`) REFERENCES `Subjects` (`ID`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `students`
 --
@@ -1015,7 +1137,8 @@ CREATE TABLE `user_activity_details` (
   `os_version` varchar(255) DEFAULT NULL,
   `session_id` int(11) DEFAULT NULL,
   `updated_at` datetime(6) DEFAULT NULL,
-  PRIMARY KEY (`id`)
+  PRIMARY KEY (`id`),
+  KEY `idx_user_activity_details_session_created` (`session_id`,`created_at`,`id`)
 ) ENGINE=InnoDB AUTO_INCREMENT=210 DEFAULT CHARSET=utf8mb4;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -1046,6 +1169,7 @@ CREATE TABLE `user_sessions` (
   KEY `idx_user_session_token` (`session_token`),
   KEY `idx_user_session_last_activity` (`last_activity`),
   KEY `idx_user_session_user_id` (`user_id`),
+  KEY `idx_user_sessions_expiry` (`expiry_time`,`is_expired`),
   CONSTRAINT `user_sessions_ibfk_1` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB AUTO_INCREMENT=5929 DEFAULT CHARSET=utf8mb4;
 /*!40101 SET character_set_client = @saved_cs_client */;
@@ -0,0 +1,82 @@
+package com.mycompany.fstudymate.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.security.Principal;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.mycompany.fstudymate.service.UserActivityService;
+
+class StompAuthInterceptorTest {
+
+    private final StompAuthInterceptor interceptor = new StompAuthInterceptor();
+
+    @BeforeEach
+    void setUp() {
+        UserActivityService userActivityService = mock(UserActivityService.class);
+        when(userActivityService.getSessionUserId(any())).thenReturn(null);
+        when(userActivityService.getSessionUserId("token-7")).thenReturn(7);
+        ReflectionTestUtils.setField(interceptor, "userActivityService", userActivityService);
+    }
+
+    @Test
+    void connectWithValidSessionTokenIsAuthenticatedAsItsUser() {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setNativeHeader("Authorization", "Bearer token-7");
+
+        assertEquals("7", connect(accessor).getName());
+    }
+
+    @Test
+    void connectWithUnknownTokenStaysAnonymous() {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setNativeHeader("Authorization", "Bearer forged");
+
+        assertNull(connect(accessor));
+        assertNull(connect(StompHeaderAccessor.create(StompCommand.CONNECT)));
+    }
+
+    @Test
+    void onlyTheOwnerMaySubscribeToTheirDirectChatTopic() {
+        Principal user = () -> "7";
+
+        subscribe("/user/7/topic/chat", user);
+        assertThrows(MessageDeliveryException.class, () -> subscribe("/user/8/topic/chat", user));
+        assertThrows(MessageDeliveryException.class, () -> subscribe("/user/7/topic/chat", null));
+    }
+
+    @Test
+    void otherDestinationsAreNotChecked() {
+        subscribe("/topic/chat/group/3", null);
+        subscribe("/user/8/topic/call", null);
+        assertNull(StompAuthInterceptor.directChatOwner("/user/8/topic/chat/extra"));
+    }
+
+    private Principal connect(StompHeaderAccessor accessor) {
+        accessor.setLeaveMutable(true);
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        interceptor.preSend(message, null);
+        return accessor.getUser();
+    }
+
+    private void subscribe(String destination, Principal user) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setDestination(destination);
+        accessor.setUser(user);
+        accessor.setLeaveMutable(true);
+        interceptor.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+    }
+}
@@ -0,0 +1,131 @@
+package com.mycompany.fstudymate.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.mycompany.fstudymate.dto.UserActivityDTO;
+
+class PresenceRegistryTest {
+
+    private static final long TICK_MS = 20;
+
+    private final PresenceRegistry registry = new PresenceRegistry();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(registry, "sessionRetentionMinutes", 1);
+        ReflectionTestUtils.setField(registry, "callTimeoutSeconds", 1);
+        ReflectionTestUtils.setField(registry, "tickMs", TICK_MS);
+        registry.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    void callerExpiresAfterTimeout() throws Exception {
+        registry.touchUser("7");
+        assertTrue(registry.getOnlineUsers(60000).containsKey("7"));
+
+        await(() -> stat("callers") == 0, 3000);
+
+        assertFalse(registry.getOnlineUsers(60000).containsKey("7"));
+        assertEquals(1L, stat("expired"));
+    }
+
+    @Test
+    void refreshedCallerIsRescheduledInsteadOfExpired() throws Exception {
+        registry.touchUser("7");
+        long until = System.currentTimeMillis() + 2500;
+        while (System.currentTimeMillis() < until) {
+            registry.touchUser("7");
+            Thread.sleep(100);
+        }
+
+        // Past its first deadline more than twice, still online
+        assertTrue(registry.getOnlineUsers(60000).containsKey("7"));
+        assertEquals(0L, stat("expired"));
+        assertTrue(stat("rescheduled") > 0);
+
+        await(() -> stat("callers") == 0, 3000);
+        assertEquals(1L, stat("expired"));
+    }
+
+    @Test
+    void callerTouchedWhileTickerIsStalledStillExpires() throws Exception {
+        registry.shutdown();
+        // A wheel spanning just the call timeout, so the deadline lands a turn ahead
+        ReflectionTestUtils.setField(registry, "sessionRetentionMinutes", 0);
+        registry.init();
+        ScheduledExecutorService ticker = (ScheduledExecutorService) ReflectionTestUtils.getField(registry, "ticker");
+        ticker.execute(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread.sleep(150);
+        registry.touchUser("7");
+
+        await(() -> stat("callers") == 0, 3000);
+        assertEquals(1L, stat("expired"));
+    }
+
+    @Test
+    void sessionExpiresWithItsSessionExpiryTime() throws Exception {
+        registry.touchSession(activity("token-1", 7));
+        registry.sessionWritten("token-1", 42, null, LocalDateTime.now().plusNanos(300_000_000L));
+
+        assertEquals(42, registry.getOnlineSessions(60000).get(0).getSessionId());
+
+        // Well before the one minute retention
+        await(() -> stat("sessions") == 0, 3000);
+        assertEquals(0, registry.countOnlineSessions(60000));
+    }
+
+    @Test
+    void removedSessionIsGoneAtOnceAndNotCountedAsExpired() throws Exception {
+        registry.touchSession(activity("token-1", 7));
+        registry.touchSession(activity("token-2", 8));
+
+        registry.removeSession("token-1");
+
+        assertEquals(1, registry.countOnlineSessions(60000));
+        assertEquals("token-2", registry.getOnlineSessions(60000).get(0).getSessionToken());
+        Thread.sleep(10 * TICK_MS);
+        assertEquals(0L, stat("expired"));
+    }
+
+    private long stat(String name) {
+        return ((Number) registry.getStats().get(name)).longValue();
+    }
+
+    private static UserActivityDTO activity(String token, int userId) {
+        UserActivityDTO dto = new UserActivityDTO();
+        dto.setSessionToken(token);
+        dto.setUserId(userId);
+        dto.setCurrentPage("/home");
+        return dto;
+    }
+
+    private static void await(BooleanSupplier condition, long timeoutMs) throws InterruptedException {
+        long until = System.currentTimeMillis() + timeoutMs;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < until, "condition not met within " + timeoutMs + " ms");
+            Thread.sleep(TICK_MS);
+        }
+    }
+}
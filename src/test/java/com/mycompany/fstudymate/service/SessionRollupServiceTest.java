@@ -0,0 +1,69 @@
+package com.mycompany.fstudymate.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.mycompany.fstudymate.service.SessionRollupService.Granularity;
+
+class SessionRollupServiceTest {
+
+    @Test
+    void hourlyBucketsCoverPartialHoursAtBothEnds() {
+        List<LocalDateTime> starts = SessionRollupService.bucketStarts(Granularity.HOURLY,
+                LocalDateTime.of(2024, 3, 10, 22, 45, 10), LocalDateTime.of(2024, 3, 11, 1, 5));
+
+        assertEquals(List.of(LocalDateTime.of(2024, 3, 10, 22, 0), LocalDateTime.of(2024, 3, 10, 23, 0),
+                             LocalDateTime.of(2024, 3, 11, 0, 0), LocalDateTime.of(2024, 3, 11, 1, 0)), starts);
+    }
+
+    @Test
+    void dailyBucketsCrossMonthAndLeapDay() {
+        List<LocalDateTime> starts = SessionRollupService.bucketStarts(Granularity.DAILY,
+                LocalDateTime.of(2024, 2, 28, 13, 0), LocalDateTime.of(2024, 3, 1, 0, 0));
+
+        assertEquals(List.of(LocalDateTime.of(2024, 2, 28, 0, 0), LocalDateTime.of(2024, 2, 29, 0, 0),
+                             LocalDateTime.of(2024, 3, 1, 0, 0)), starts);
+    }
+
+    @Test
+    void bucketStartingExactlyAtEndIsIncluded() {
+        LocalDateTime hour = LocalDateTime.of(2024, 3, 10, 5, 0);
+
+        assertEquals(List.of(hour), SessionRollupService.bucketStarts(Granularity.HOURLY, hour, hour));
+        assertTrue(SessionRollupService.bucketStarts(Granularity.HOURLY, hour, hour.minusNanos(1)).isEmpty());
+    }
+
+    @Test
+    void hourlyRequestsReachBackNoFurtherThanHourlyRetention() {
+        SessionRollupService service = new SessionRollupService();
+        ReflectionTestUtils.setField(service, "hourlyRetentionDays", 14);
+
+        assertEquals(14 * 24, service.maxBuckets(Granularity.HOURLY));
+        assertEquals(366, service.maxBuckets(Granularity.DAILY));
+    }
+
+    @Test
+    void openBucketsReachBackOneHourPastSessionExpiry() {
+        LocalDateTime now = LocalDateTime.of(2024, 3, 10, 5, 30);
+
+        assertEquals(LocalDateTime.of(2024, 3, 9, 4, 30), SessionRollupService.openFrom(now, 24));
+    }
+
+    @Test
+    void sessionsAreFinalOnlyBeforeTheFirstOpenDailyBucket() {
+        LocalDateTime now = LocalDateTime.of(2024, 3, 10, 5, 30);
+        LocalDateTime openFrom = SessionRollupService.openFrom(now, 24);
+        LocalDateTime finalized = SessionRollupService.finalizedBefore(openFrom);
+
+        assertEquals(LocalDateTime.of(2024, 3, 9, 0, 0), finalized);
+        // Not after any recomputed bucket of either granularity
+        assertEquals(finalized, SessionRollupService.bucketStarts(Granularity.DAILY, openFrom, now).get(0));
+        assertTrue(!finalized.isAfter(SessionRollupService.bucketStarts(Granularity.HOURLY, openFrom, now).get(0)));
+    }
+}
@@ -0,0 +1,83 @@
+package com.mycompany.fstudymate.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class SessionValidityCacheTest {
+
+    private final SessionValidityCache cache = new SessionValidityCache();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(cache, "negativeTtlSeconds", 10L);
+        ReflectionTestUtils.setField(cache, "maxEntries", 3);
+    }
+
+    @Test
+    void cachedResultsAreServedUntilInvalidated() {
+        cache.putValid("a", Long.MAX_VALUE, cache.stamp());
+        cache.putInvalid("b", cache.stamp());
+
+        assertEquals(Boolean.TRUE, cache.get("a"));
+        assertEquals(Boolean.FALSE, cache.get("b"));
+
+        cache.invalidate("a");
+        cache.invalidateAll(List.of("b"));
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(2L, cache.getStats().get("invalidations"));
+    }
+
+    @Test
+    void readThatStartedBeforeInvalidationIsNotCached() {
+        long stamp = cache.stamp();
+        // Force logout lands while the validity read is in flight
+        cache.invalidate("a");
+        cache.putValid("a", Long.MAX_VALUE, stamp);
+
+        assertNull(cache.get("a"));
+
+        cache.putValid("a", Long.MAX_VALUE, cache.stamp());
+        assertEquals(Boolean.TRUE, cache.get("a"));
+    }
+
+    @Test
+    void invalidationOfAnotherTokenAlsoVoidsReadsInFlight() {
+        long stamp = cache.stamp();
+        cache.invalidate("other");
+        cache.putInvalid("a", stamp);
+
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void validEntryNeverOutlivesItsSession() {
+        cache.putValid("a", System.currentTimeMillis() - 1, cache.stamp());
+
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.purgeStale());
+    }
+
+    @Test
+    void fullCacheDropsNegativeEntriesBeforeRefusingNewOnes() {
+        cache.putValid("a", Long.MAX_VALUE, cache.stamp());
+        cache.putValid("b", Long.MAX_VALUE, cache.stamp());
+        cache.putInvalid("c", cache.stamp());
+
+        cache.putValid("d", Long.MAX_VALUE, cache.stamp());
+        assertNull(cache.get("c"));
+        assertEquals(Boolean.TRUE, cache.get("d"));
+
+        cache.putValid("e", Long.MAX_VALUE, cache.stamp());
+        assertNull(cache.get("e"));
+        assertEquals(3, cache.getStats().get("entries"));
+    }
+}
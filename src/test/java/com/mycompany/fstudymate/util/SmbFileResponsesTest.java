@@ -0,0 +1,68 @@
+package com.mycompany.fstudymate.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import jcifs.smb.SmbFile;
+
+class SmbFileResponsesTest {
+
+    private SmbFile file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = mock(SmbFile.class);
+        when(file.length()).thenReturn(1000L);
+        when(file.lastModified()).thenReturn(1700000000000L);
+    }
+
+    @Test
+    void servesSingleRange() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = serve("bytes=100-199");
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes 100-199/1000", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(100, response.getHeaders().getContentLength());
+    }
+
+    @Test
+    void clampsRangeEndToLength() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = serve("bytes=900-5000");
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes 900-999/1000", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void rejectsRangeStartingPastTheEnd() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = serve("bytes=5000-");
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode());
+        assertEquals("bytes */1000", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertNull(response.getBody());
+    }
+
+    @Test
+    void rejectsRangeStartingAtTheLength() throws Exception {
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, serve("bytes=1000-1001").getStatusCode());
+    }
+
+    @Test
+    void rejectsMalformedRange() throws Exception {
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, serve("bytes=20-10").getStatusCode());
+    }
+
+    private ResponseEntity<StreamingResponseBody> serve(String range) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/file");
+        request.addHeader(HttpHeaders.RANGE, range);
+        return SmbFileResponses.serve(file, request, MediaType.APPLICATION_OCTET_STREAM, null);
+    }
+}
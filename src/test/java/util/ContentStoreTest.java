@@ -0,0 +1,332 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.Test;
+
+class ContentStoreTest {
+
+    private final InMemoryIndex index = new InMemoryIndex();
+    private final InMemoryFiles files = new InMemoryFiles(index);
+    private final ContentStore store = new ContentStore(index, files);
+
+    @Test
+    void secondUploadOfSameContentIsDeduplicated() throws Exception {
+        ContentStore.StoredContent first = store.storeContent(content("hello"));
+        ContentStore.StoredContent second = store.storeContent(content("hello"));
+
+        assertFalse(first.isDeduplicated());
+        assertTrue(second.isDeduplicated());
+        assertEquals(first.getPath(), second.getPath());
+        assertEquals(1, files.uploads.size());
+        assertEquals(2, index.refCount(first.getSha256()));
+    }
+
+    @Test
+    void contentIsUploadedWithoutHoldingTheRowLock() throws Exception {
+        store.storeContent(content("hello"));
+
+        assertEquals(1, files.uploads.size());
+        assertEquals(0, files.uploadsUnderLock.get());
+        assertEquals(1, files.paths.size());
+    }
+
+    @Test
+    void partIsDiscardedWhenAnotherUploadStoredTheBlobFirst() throws Exception {
+        String path = ContentStore.blobPath(sha256Of("hello"));
+        // The other upload renames its blob into place while this one is uploading
+        files.onUpload = () -> files.paths.add(path);
+
+        ContentStore.StoredContent stored = store.storeContent(content("hello"));
+
+        assertTrue(stored.isDeduplicated());
+        assertEquals(Set.of(path), files.paths);
+        assertEquals(1, index.refCount(stored.getSha256()));
+    }
+
+    @Test
+    void failedCommitLeavesNoFile() throws Exception {
+        index.failCommits = true;
+        try {
+            store.storeContent(content("hello"));
+        } catch (IOException expected) {
+            // expected
+        }
+        assertTrue(files.paths.isEmpty());
+        assertTrue(index.rows.isEmpty());
+    }
+
+    @Test
+    void lastReleaseDeletesBlobAndRow() throws Exception {
+        ContentStore.StoredContent stored = store.storeContent(content("hello"));
+        store.storeContent(content("hello"));
+
+        assertFalse(store.releaseContent(stored.getSha256()));
+        assertTrue(files.exists(stored.getPath()));
+        assertTrue(store.releaseContent(stored.getSha256()));
+        assertFalse(files.exists(stored.getPath()));
+        assertNull(index.refCount(stored.getSha256()));
+        // Releasing unknown content is a no-op
+        assertFalse(store.releaseContent(stored.getSha256()));
+    }
+
+    @Test
+    void blobThatCannotBeDeletedIsKeptAtZeroAndReused() throws Exception {
+        ContentStore.StoredContent stored = store.storeContent(content("hello"));
+        files.failDeletes = true;
+
+        assertFalse(store.releaseContent(stored.getSha256()));
+        assertEquals(0, index.refCount(stored.getSha256()));
+
+        assertTrue(store.storeContent(content("hello")).isDeduplicated());
+        assertEquals(1, index.refCount(stored.getSha256()));
+    }
+
+    @Test
+    void missingFileOfExistingRowIsWrittenAgain() throws Exception {
+        ContentStore.StoredContent stored = store.storeContent(content("hello"));
+        files.paths.remove(stored.getPath());
+
+        assertFalse(store.storeContent(content("hello")).isDeduplicated());
+        assertTrue(files.exists(stored.getPath()));
+        assertEquals(2, index.refCount(stored.getSha256()));
+    }
+
+    @Test
+    void failedWriteLeavesNoRow() throws Exception {
+        files.failWrites = true;
+        try {
+            store.storeContent(content("hello"));
+        } catch (IOException expected) {
+            // expected
+        }
+        assertTrue(index.rows.isEmpty());
+    }
+
+    @Test
+    void storeRacingWithFinalReleaseNeverAdoptsDeletedBlob() throws Exception {
+        int threads = 8;
+        int rounds = 200;
+        files.uploadDelayMs = 1;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    int violations = 0;
+                    for (int i = 0; i < rounds; i++) {
+                        if (i % 20 == 0) {
+                            barrier.await(10, TimeUnit.SECONDS);
+                        }
+                        ContentStore.StoredContent stored = store.storeContent(content("shared"));
+                        // While this reference is held the blob must be on the share
+                        if (!files.exists(stored.getPath())) {
+                            violations++;
+                        }
+                        store.releaseContent(stored.getSha256());
+                    }
+                    return violations;
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(0, result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        // Every reference was released, so nothing is left behind, not even a .part
+        assertTrue(index.rows.isEmpty());
+        assertTrue(files.paths.isEmpty());
+        assertEquals(0, files.uploadsUnderLock.get());
+    }
+
+    private static ByteArrayInputStream content(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256Of(String text) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8))) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * content_blobs with one lock per row, as SELECT ... FOR UPDATE gives
+     */
+    private static class InMemoryIndex implements ContentStore.BlobIndex {
+        final Map<String, Row> rows = new ConcurrentHashMap<>();
+        final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+        volatile boolean failCommits;
+
+        boolean heldByCurrentThread() {
+            return locks.values().stream().anyMatch(ReentrantLock::isHeldByCurrentThread);
+        }
+
+        Integer refCount(String sha256) {
+            Row row = rows.get(sha256);
+            return row != null ? row.refCount : null;
+        }
+
+        @Override
+        public ContentStore.LockedBlob lock(String sha256, String blobPath, long fileSize) {
+            ReentrantLock lock = locks.computeIfAbsent(sha256, k -> new ReentrantLock());
+            lock.lock();
+            Row row = rows.get(sha256);
+            return new Locked(sha256, lock, row != null ? row : new Row(blobPath, 0));
+        }
+
+        @Override
+        public ContentStore.LockedBlob lockExisting(String sha256) {
+            ReentrantLock lock = locks.computeIfAbsent(sha256, k -> new ReentrantLock());
+            lock.lock();
+            Row row = rows.get(sha256);
+            if (row == null) {
+                lock.unlock();
+                return null;
+            }
+            return new Locked(sha256, lock, row);
+        }
+
+        private class Locked implements ContentStore.LockedBlob {
+            final String sha256;
+            final ReentrantLock lock;
+            final String path;
+            int refCount;
+            boolean deleted;
+
+            Locked(String sha256, ReentrantLock lock, Row row) {
+                this.sha256 = sha256;
+                this.lock = lock;
+                this.path = row.path;
+                this.refCount = row.refCount;
+            }
+
+            @Override
+            public String getPath() {
+                return path;
+            }
+
+            @Override
+            public int getRefCount() {
+                return refCount;
+            }
+
+            @Override
+            public void setRefCount(int refCount) {
+                this.refCount = refCount;
+            }
+
+            @Override
+            public void delete() {
+                deleted = true;
+            }
+
+            @Override
+            public void commit() throws IOException {
+                if (failCommits) {
+                    throw new IOException("database unavailable");
+                }
+                if (deleted) {
+                    rows.remove(sha256);
+                } else {
+                    rows.put(sha256, new Row(path, refCount));
+                }
+            }
+
+            @Override
+            public void close() {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Row {
+        final String path;
+        final int refCount;
+
+        Row(String path, int refCount) {
+            this.path = path;
+            this.refCount = refCount;
+        }
+    }
+
+    private static class InMemoryFiles implements ContentStore.BlobFiles {
+        final InMemoryIndex index;
+        final Set<String> paths = ConcurrentHashMap.newKeySet();
+        final List<String> uploads = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger uploadsUnderLock = new AtomicInteger();
+        volatile boolean failWrites;
+        volatile boolean failDeletes;
+        volatile long uploadDelayMs;
+        volatile Runnable onUpload;
+
+        InMemoryFiles(InMemoryIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean exists(String path) {
+            return paths.contains(path);
+        }
+
+        @Override
+        public String upload(String blobPath, File source) throws IOException {
+            if (index.heldByCurrentThread()) {
+                uploadsUnderLock.incrementAndGet();
+            }
+            if (failWrites) {
+                throw new IOException("share unavailable");
+            }
+            try {
+                Thread.sleep(uploadDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String partPath = blobPath + "." + UUID.randomUUID() + ".part";
+            uploads.add(partPath);
+            paths.add(partPath);
+            if (onUpload != null) {
+                onUpload.run();
+            }
+            return partPath;
+        }
+
+        @Override
+        public void rename(String partPath, String blobPath) throws IOException {
+            if (!paths.remove(partPath) || !paths.add(blobPath)) {
+                throw new IOException("cannot move " + partPath + " to " + blobPath);
+            }
+        }
+
+        @Override
+        public boolean delete(String path) {
+            return !failDeletes && paths.remove(path);
+        }
+    }
+}
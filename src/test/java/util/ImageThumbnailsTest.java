@@ -0,0 +1,110 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ImageThumbnailsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundsRequestedWidthUpToAVariant() {
+        assertEquals(64, ImageThumbnails.variantWidth(40));
+        assertEquals(256, ImageThumbnails.variantWidth(65));
+        assertEquals(0, ImageThumbnails.variantWidth(5000));
+        assertEquals(0, ImageThumbnails.variantWidth(null));
+    }
+
+    @Test
+    void subsamplesOnlyPastTheDecodeBudget() {
+        assertEquals(1, ImageThumbnails.subsampling(4000L * 4000));
+        assertEquals(2, ImageThumbnails.subsampling(8000L * 8000));
+        assertEquals(3, ImageThumbnails.subsampling(10000L * 10000));
+    }
+
+    @Test
+    void scalesWideImageDown() throws Exception {
+        File source = image("wide.png", 600, 300);
+        File variant = ImageThumbnails.getVariant(source.getAbsolutePath(), "v1", source, 200);
+
+        assertNotEquals(source, variant);
+        BufferedImage scaled = ImageIO.read(variant);
+        assertEquals(256, scaled.getWidth());
+        assertEquals(128, scaled.getHeight());
+
+        // Found without generating, at any width that rounds to it
+        assertEquals(variant, ImageThumbnails.findVariant(source.getAbsolutePath(), "v1", source.getName(), 256));
+        assertFalse(ImageThumbnails.isPassThrough(source.getAbsolutePath(), "v1", source.getName(), 200));
+        assertNull(ImageThumbnails.findVariant(source.getAbsolutePath(), "v2", source.getName(), 200));
+    }
+
+    @Test
+    void servesNarrowImageAsItIs() throws Exception {
+        File source = image("narrow.png", 50, 50);
+        assertFalse(ImageThumbnails.isPassThrough(source.getAbsolutePath(), "v1", source.getName(), 64));
+        assertEquals(source, ImageThumbnails.getVariant(source.getAbsolutePath(), "v1", source, 64));
+        // Known from now on, so responses can use the original's ETag before fetching it
+        assertTrue(ImageThumbnails.isPassThrough(source.getAbsolutePath(), "v1", source.getName(), 64));
+        assertNull(ImageThumbnails.findVariant(source.getAbsolutePath(), "v1", source.getName(), 64));
+        assertTrue(ImageThumbnails.isPassThrough(source.getAbsolutePath(), "v1", source.getName(), null));
+    }
+
+    @Test
+    void neverDecodesOversizedImage() throws Exception {
+        // Header of a 50000 x 50000 PNG with no pixel data: decoding it would need 10GB
+        File source = dir.resolve("bomb.png").toFile();
+        Files.write(source.toPath(), pngHeader(50000, 50000));
+        assertEquals(source, ImageThumbnails.getVariant(source.getAbsolutePath(), "v1", source, 64));
+    }
+
+    @Test
+    void servesUndecodableFileAsItIs() throws Exception {
+        File source = dir.resolve("broken.png").toFile();
+        Files.writeString(source.toPath(), "not an image");
+        assertEquals(source, ImageThumbnails.getVariant(source.getAbsolutePath(), "v1", source, 64));
+    }
+
+    private static byte[] pngHeader(int width, int height) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+        ByteBuffer ihdr = ByteBuffer.allocate(13).putInt(width).putInt(height)
+                .put((byte) 8).put((byte) 6).put((byte) 0).put((byte) 0).put((byte) 0);
+        chunk(out, "IHDR", ihdr.array());
+        chunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String type, byte[] data) throws Exception {
+        CRC32 crc = new CRC32();
+        crc.update(type.getBytes(StandardCharsets.US_ASCII));
+        crc.update(data);
+        out.write(ByteBuffer.allocate(4).putInt(data.length).array());
+        out.write(type.getBytes(StandardCharsets.US_ASCII));
+        out.write(data);
+        out.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+
+    private File image(String name, int width, int height) throws Exception {
+        File file = dir.resolve(name).toFile();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", file);
+        return file;
+    }
+}
@@ -0,0 +1,45 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import util.StorageUsageIndex.FileCategory;
+
+class StorageUsageIndexTest {
+
+    @Test
+    void overwriteAppliesTheSizeDifference() {
+        StorageUsageIndex.track("OverwriteTest");
+        StorageUsageIndex.recordWritten("OverwriteTest/a/report.pdf", -1, 1000);
+        StorageUsageIndex.recordWritten("OverwriteTest/a/report.pdf", 1000, 400);
+
+        StorageUsageIndex.Usage usage = StorageUsageIndex.getUsage("OverwriteTest");
+        assertEquals(400, usage.getTotalBytes());
+        assertEquals(1, usage.getTotalFiles());
+        assertEquals(400L, usage.getBytesByCategory().get(FileCategory.DOCUMENTS));
+    }
+
+    @Test
+    void moveBetweenTrackedDirectoriesKeepsTotals() {
+        StorageUsageIndex.track("MoveTestParts");
+        StorageUsageIndex.track("MoveTestBlobs");
+        StorageUsageIndex.recordAdded("MoveTestParts/ab/abcd.part", 250);
+        StorageUsageIndex.recordRemoved("MoveTestParts/ab/abcd.part", 250);
+        StorageUsageIndex.recordAdded("MoveTestBlobs/ab/abcd", 250);
+
+        assertEquals(0, StorageUsageIndex.getUsage("MoveTestParts").getTotalBytes());
+        assertEquals(250, StorageUsageIndex.getUsage("MoveTestBlobs").getTotalBytes());
+        assertEquals(1, StorageUsageIndex.getUsage("MoveTestBlobs").getTotalFiles());
+    }
+
+    @Test
+    void untrackedPathsAreIgnored() {
+        StorageUsageIndex.recordWritten("NotTracked/file.txt", -1, 100);
+
+        assertFalse(StorageUsageIndex.tracks("NotTracked/file.txt"));
+        assertNull(StorageUsageIndex.getUsage("NotTracked"));
+    }
+}
@@ -0,0 +1,106 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class TransferExecutorTest {
+
+    @Test
+    void completedTransferReturnsAllPermits() throws Exception {
+        AtomicInteger ran = new AtomicInteger();
+        try (TransferExecutor.Transfer transfer = TransferExecutor.begin("user:1", 4)) {
+            for (int i = 0; i < 20; i++) {
+                transfer.submit(() -> ran.incrementAndGet());
+            }
+            transfer.awaitAll();
+        }
+        assertEquals(20, ran.get());
+        awaitFullCapacity();
+    }
+
+    @Test
+    void failedChunkWithQueuedChunksReturnsAllPermits() throws Exception {
+        int workers = TransferExecutor.threads();
+        CountDownLatch fail = new CountDownLatch(1);
+        CountDownLatch hold = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(workers);
+
+        TransferExecutor.Transfer transfer = TransferExecutor.begin(workers + 8);
+        try {
+            transfer.submit(() -> {
+                started.countDown();
+                fail.await();
+                throw new IOException("chunk failed");
+            });
+            // Occupy every other worker, then queue chunks behind them
+            for (int i = 0; i < workers + 7; i++) {
+                transfer.submit(() -> {
+                    started.countDown();
+                    hold.await();
+                    return null;
+                });
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            fail.countDown();
+            assertThrows(IOException.class, transfer::awaitAll);
+        } finally {
+            transfer.close();
+        }
+        awaitFullCapacity();
+    }
+
+    @Test
+    void closingTransferWithQueuedChunksReturnsAllPermits() throws Exception {
+        int workers = TransferExecutor.threads();
+        CountDownLatch hold = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(workers);
+
+        try (TransferExecutor.Transfer busy = TransferExecutor.begin(workers)) {
+            for (int i = 0; i < workers; i++) {
+                busy.submit(() -> {
+                    started.countDown();
+                    hold.await();
+                    return null;
+                });
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // Queued behind the busy transfer, then abandoned before it ever runs
+            Future<?> queued;
+            try (TransferExecutor.Transfer owned = TransferExecutor.begin("user:2", 1)) {
+                queued = owned.submit(() -> null);
+            }
+            assertTrue(queued.isCancelled());
+            assertEquals(TransferExecutor.capacity() - workers, TransferExecutor.availableCapacity());
+
+            hold.countDown();
+            busy.awaitAll();
+        }
+        awaitFullCapacity();
+
+        try (TransferExecutor.Transfer owned = TransferExecutor.begin("user:2", 1)) {
+            owned.submit(() -> null);
+            owned.awaitAll();
+        }
+        awaitFullCapacity();
+    }
+
+    private static void awaitFullCapacity() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (TransferExecutor.availableCapacity() != TransferExecutor.capacity()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(TransferExecutor.capacity(), TransferExecutor.availableCapacity());
+    }
+}